@@ -37,6 +37,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.TreeSet;
@@ -45,12 +46,14 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import org.apache.joshua.corpus.Vocabulary;
-import org.apache.joshua.decoder.Decoder;
 import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.TuningDecoder;
 import org.apache.joshua.metrics.EvaluationMetric;
+import org.apache.joshua.util.FeatureIndex;
 import org.apache.joshua.util.StreamGobbler;
 import org.apache.joshua.util.io.ExistingUTF8EncodedTextFile;
+import org.apache.joshua.util.io.NBestEntry;
+import org.apache.joshua.util.io.NBestReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -151,7 +154,7 @@ public class AdaGradCore {
   /* *********************************************************** */
   /* *********************************************************** */
 
-  private Decoder myDecoder;
+  private TuningDecoder myDecoder;
   // COMMENT OUT if decoder is not Joshua
 
   private String decoderCommand;
@@ -313,7 +316,8 @@ public class AdaGradCore {
 
     // read parameter config file
     try {
-      // read dense parameter names
+      // read dense parameter names, which are numbered from 1
+      FeatureIndex.clear();
       BufferedReader inFile_names = new BufferedReader(new FileReader(paramsFileName));
 
       for (int c = 1; c <= numParams; ++c) {
@@ -324,7 +328,7 @@ public class AdaGradCore {
 
         // save feature names
         String paramName = (line.substring(0, line.indexOf("|||"))).trim();
-        Vocabulary.id(paramName);
+        FeatureIndex.id(paramName);
         // System.err.println(String.format("VOCAB(%s) = %d", paramName, id));
       }
 
@@ -429,7 +433,7 @@ public class AdaGradCore {
       print("Initial feature names: {", 1);
 
       for (int c = 1; c <= numParams; ++c)
-        print("\"" + Vocabulary.word(c) + "\"", 1);
+        print("\"" + FeatureIndex.name(c) + "\"", 1);
       println("}", 1);
       println("", 1);
 
@@ -455,7 +459,7 @@ public class AdaGradCore {
       } else if (normalizationOptions[0] == 1) {
         println(
             "weights will be scaled so that the \""
-                + Vocabulary.word((int) normalizationOptions[2])
+                + FeatureIndex.name((int) normalizationOptions[2])
                 + "\" weight has an absolute value of " + normalizationOptions[1] + ".", 1);
       } else if (normalizationOptions[0] == 2) {
         println("weights will be scaled so that the maximum absolute value is "
@@ -481,7 +485,8 @@ public class AdaGradCore {
     // by default, load joshua decoder
     if (decoderCommand == null && fakeFileNameTemplate == null) {
       println("Loading Joshua decoder...", 1);
-      myDecoder = new Decoder(joshuaConfiguration, decoderConfigFileName + ".AdaGrad.orig");
+      myDecoder = new TuningDecoder(joshuaConfiguration, decoderConfigFileName + ".AdaGrad.orig",
+          sourceFileName, sizeOfNBest);
       println("...finished loading @ " + (new Date()), 1);
       println("");
     } else {
@@ -660,17 +665,24 @@ public class AdaGradCore {
       // 2: fake decoder
       // 3: internal decoder
 
-      if (!decRunResult[1].equals("2")) {
+      if (decRunResult[1].equals("3")) {
+        // the internal decoder decodes as its n-best lists are read
+        println("Producing temp files for iteration " + iteration, 3);
+        produceTempFiles(myDecoder.decode(), iteration);
         println("...finished decoding @ " + (new Date()), 1);
-      }
+      } else {
+        if (!decRunResult[1].equals("2")) {
+          println("...finished decoding @ " + (new Date()), 1);
+        }
 
-      checkFile(decRunResult[0]);
+        checkFile(decRunResult[0]);
 
-      /************* END OF DECODING **************/
+        /************* END OF DECODING **************/
 
-      println("Producing temp files for iteration " + iteration, 3);
+        println("Producing temp files for iteration " + iteration, 3);
 
-      produceTempFiles(decRunResult[0], iteration);
+        produceTempFiles(decRunResult[0], iteration);
+      }
 
       // save intermedidate output files
       // save joshua.config.adagrad.it*
@@ -685,7 +697,7 @@ public class AdaGradCore {
       if (saveInterFiles == 2 || saveInterFiles == 3) { // make copy of intermediate decoder output
                                                         // file...
 
-        if (!decRunResult[1].equals("2")) { // ...but only if no fake decoder
+        if (decRunResult[1].equals("1")) { // ...but only if an external decoder wrote it
           if (!decRunResult[0].endsWith(".gz")) {
             if (!copyFile(decRunResult[0], decRunResult[0] + ".AdaGrad.it" + iteration)) {
               println("Warning: attempt to make copy of decoder output file (to create"
@@ -1101,7 +1113,7 @@ public class AdaGradCore {
                 for (String featurePair : featVal_str) {
                   String[] pair = featurePair.split("=");
                   String name = pair[0];
-                  int featId = Vocabulary.id(name);
+                  int featId = FeatureIndex.id(name);
 
                   // need to identify newly fired feats here
                   // in this case currFeatVal is not given the value
@@ -1459,6 +1471,13 @@ public class AdaGradCore {
       retSA[0] = fakeFileName;
       retSA[1] = "2";
 
+    } else if (myDecoder != null) {
+      // the n-best lists are read from myDecoder in produceTempFiles()
+      println("Running internal decoder...", 1);
+      myDecoder.setWeights(currentWeights());
+      retSA[0] = null;
+      retSA[1] = "3";
+
     } else {
       println("Running external decoder...", 1);
 
@@ -1494,7 +1513,27 @@ public class AdaGradCore {
     return retSA;
   }
 
+  /**
+   * @return the current weights, by feature name, for the internal decoder
+   */
+  private Map<String, Float> currentWeights() {
+    Map<String, Float> weights = new HashMap<>();
+    for (int c = 1; c <= numParams; ++c)
+      weights.put(FeatureIndex.name(c), lambda.get(c).floatValue());
+    return weights;
+  }
+
   private void produceTempFiles(String nbestFileName, int iteration) {
+    try {
+      NBestReader inFile_nbest = new NBestReader(nbestFileName);
+      produceTempFiles(inFile_nbest, iteration);
+      inFile_nbest.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void produceTempFiles(Iterable<NBestEntry> nbest, int iteration) {
     try {
       String sentsFileName = tmpDirPrefix + "temp.sents.it" + iteration;
       String featsFileName = tmpDirPrefix + "temp.feats.it" + iteration;
@@ -1505,56 +1544,32 @@ public class AdaGradCore {
 
       PrintWriter outFile_feats = new PrintWriter(featsFileName);
 
-      InputStream inStream_nbest = null;
-      if (nbestFileName.endsWith(".gz")) {
-        inStream_nbest = new GZIPInputStream(new FileInputStream(nbestFileName));
-      } else {
-        inStream_nbest = new FileInputStream(nbestFileName);
-      }
-      BufferedReader inFile_nbest = new BufferedReader(
-          new InputStreamReader(inStream_nbest, "utf8"));
-
-      String line; // , prevLine;
-      String candidate_str = "";
-      String feats_str = "";
-
       int i = 0;
       int n = 0;
-      line = inFile_nbest.readLine();
 
-      while (line != null) {
+      for (NBestEntry entry : nbest) {
 
         /*
-         * line format:
+         * entry format (the reader takes plain, GZIP'd, or binary n-best lists):
          *
          * i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numParams_val
          * .*
+         *
+         * Features can be named (for sparse feature compatibility). You must name all features or
+         * none of them.
          */
 
         // in a well formed file, we'd find the nth candidate for the ith sentence
 
-        int read_i = Integer.parseInt((line.substring(0, line.indexOf("|||"))).trim());
-
-        if (read_i != i) {
+        if (entry.getSentenceId() != i) {
           writeLine("||||||", outFile_sents);
           outFile_feats.println("||||||");
           n = 0;
           ++i;
         }
 
-        line = (line.substring(line.indexOf("|||") + 3)).trim(); // get rid of initial text
-
-        candidate_str = (line.substring(0, line.indexOf("|||"))).trim();
-        feats_str = (line.substring(line.indexOf("|||") + 3)).trim();
-        // get rid of candidate string
-
-        int junk_i = feats_str.indexOf("|||");
-        if (junk_i >= 0) {
-          feats_str = (feats_str.substring(0, junk_i)).trim();
-        }
-
-        writeLine(normalize(candidate_str, textNormMethod), outFile_sents);
-        outFile_feats.println(feats_str);
+        writeLine(normalize(entry.getHypothesis(), textNormMethod), outFile_sents);
+        outFile_feats.println(entry.getFeatures());
 
         ++n;
         if (n == sizeOfNBest) {
@@ -1563,8 +1578,6 @@ public class AdaGradCore {
           n = 0;
           ++i;
         }
-
-        line = inFile_nbest.readLine();
       }
 
       if (i != numSentences) { // last sentence had too few candidates
@@ -1572,7 +1585,6 @@ public class AdaGradCore {
         outFile_feats.println("||||||");
       }
 
-      inFile_nbest.close();
       outFile_sents.close();
       outFile_feats.close();
 
@@ -1602,7 +1614,7 @@ public class AdaGradCore {
       while (line != null) {
         int c_match = -1;
         for (int c = 1; c <= numParams; ++c) {
-          if (line.startsWith(Vocabulary.word(c) + " ")) {
+          if (line.startsWith(FeatureIndex.name(c) + " ")) {
             c_match = c;
             ++origFeatNum;
             break;
@@ -1613,7 +1625,7 @@ public class AdaGradCore {
           outFile.println(line);
         } else {
           if (Math.abs(params.get(c_match)) > 1e-20)
-            outFile.println(Vocabulary.word(c_match) + " " + params.get(c_match));
+            outFile.println(FeatureIndex.name(c_match) + " " + params.get(c_match));
         }
 
         line = inFile.readLine();
@@ -1622,7 +1634,7 @@ public class AdaGradCore {
       // now append weights of new features
       for (int c = origFeatNum + 1; c <= numParams; ++c) {
         if (Math.abs(params.get(c)) > 1e-20)
-          outFile.println(Vocabulary.word(c) + " " + params.get(c));
+          outFile.println(FeatureIndex.name(c) + " " + params.get(c));
       }
 
       inFile.close();
@@ -1739,7 +1751,7 @@ public class AdaGradCore {
       for (int i = 3; i < dummyA.length; ++i) { // in case parameter name has multiple words
         pName = pName + " " + dummyA[i];
       }
-      normalizationOptions[2] = Vocabulary.id(pName);
+      normalizationOptions[2] = FeatureIndex.id(pName);
 
       if (normalizationOptions[1] <= 0) {
         throw new RuntimeException("Value for the absval normalization method must be positive.");
@@ -1974,7 +1986,7 @@ public class AdaGradCore {
       try {
         PrintWriter outFile_lambdas = new PrintWriter(finalLambdaFileName);
         for (int c = 1; c <= numParams; ++c) {
-          outFile_lambdas.println(Vocabulary.word(c) + " ||| " + lambda.get(c));
+          outFile_lambdas.println(FeatureIndex.name(c) + " ||| " + lambda.get(c));
         }
         outFile_lambdas.close();
 
@@ -26,8 +26,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 
-import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.metrics.EvaluationMetric;
+import org.apache.joshua.util.FeatureIndex;
 
 // this class implements the AdaGrad algorithm
 public class Optimizer {
@@ -390,7 +390,7 @@ public class Optimizer {
 
 		    for (String aFeat_str : feat_str) {
 			    feat_info = aFeat_str.split("=");
-			    modelScore += Double.parseDouble(feat_info[1]) * finalLambda[Vocabulary.id(feat_info[0])];
+			    modelScore += Double.parseDouble(feat_info[1]) * finalLambda[FeatureIndex.id(feat_info[0])];
 		    }
 
 		    if (maxModelScore < modelScore) {
@@ -454,7 +454,7 @@ public class Optimizer {
 
 		  for (String aFeatStr : featStr) {
 			  featInfo = aFeatStr.split("=");
-			  actualFeatId = Vocabulary.id(featInfo[0]);
+			  actualFeatId = FeatureIndex.id(featInfo[0]);
 			  candScore += Double.parseDouble(featInfo[1]) * lambda[actualFeatId];
 			  if ((actualFeatId < isOptimizable.length && isOptimizable[actualFeatId])
 					  || actualFeatId >= isOptimizable.length)
@@ -55,6 +55,8 @@ public class Vocabulary implements Externalizable {
   private static List<String> idToString;
   private static Map<String, Integer> stringToId;
   private static final StampedLock lock = new StampedLock();
+  // counts the calls to clear(), after which all ids handed out before are invalid
+  private static volatile int generation = 0;
 
   static final int UNKNOWN_ID = 0;
   static final String UNKNOWN_WORD = "<unk>";
@@ -138,13 +140,12 @@ public class Vocabulary implements Externalizable {
    * @return the token id
    */
   public static int id(String token) {
-    // First attempt an optimistic read
+    // First attempt an optimistic read. A concurrent write may make the map return anything
+    // (including null), which validate() then rejects.
     long attempt_read_lock = lock.tryOptimisticRead();
-    if (stringToId.containsKey(token)) {
-      int resultId = stringToId.get(token);
-      if (lock.validate(attempt_read_lock)) {
-        return resultId;
-      }
+    Integer resultId = stringToId.get(token);
+    if (resultId != null && lock.validate(attempt_read_lock)) {
+      return resultId;
     }
 
     // The optimistic read failed, try a read with a stamped read lock
@@ -267,11 +268,22 @@ public class Vocabulary implements Externalizable {
 
       idToString.add(UNKNOWN_ID, UNKNOWN_WORD);
       stringToId.put(UNKNOWN_WORD, UNKNOWN_ID);
+      generation++;
     } finally {
       lock.unlockWrite(lock_stamp);
     }
   }
 
+  /**
+   * Returns a number that changes every time the vocabulary is cleared (which reading a vocabulary
+   * file also does), so that ids looked up once and kept can be checked for staleness.
+   * 
+   * @return the number of times the vocabulary has been cleared
+   */
+  public static int generation() {
+    return generation;
+  }
+
   public static void unregisterLanguageModels() {
     LMs.clear();
   }
@@ -43,6 +43,7 @@ import org.apache.joshua.decoder.ff.PhraseModel;
 import org.apache.joshua.decoder.ff.StatefulFF;
 import org.apache.joshua.decoder.ff.lm.LanguageModelFF;
 import org.apache.joshua.decoder.ff.tm.Grammar;
+import org.apache.joshua.decoder.ff.tm.GrammarUpdateLog;
 import org.apache.joshua.decoder.ff.tm.OwnerId;
 import org.apache.joshua.decoder.ff.tm.OwnerMap;
 import org.apache.joshua.decoder.ff.tm.Rule;
@@ -51,7 +52,9 @@ import org.apache.joshua.decoder.ff.tm.hash_based.MemoryBasedBatchGrammar;
 import org.apache.joshua.decoder.ff.tm.packed.PackedGrammar;
 import org.apache.joshua.decoder.io.TranslationRequestStream;
 import org.apache.joshua.decoder.phrase.PhraseTable;
+import org.apache.joshua.decoder.phrase.TranslationOptionCache;
 import org.apache.joshua.decoder.segment_file.Sentence;
+import org.apache.joshua.tools.TestSetFilter;
 import org.apache.joshua.util.FileUtility;
 import org.apache.joshua.util.FormatUtils;
 import org.apache.joshua.util.Regex;
@@ -60,6 +63,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
@@ -107,6 +111,9 @@ public class Decoder {
   private final List<Grammar> grammars;
   private ArrayList<FeatureFunction> featureFunctions;
   private Grammar customPhraseTable;
+  private GrammarUpdateLog customGrammarLog;
+  private TranslationOptionCache translationOptionCache;
+  private ExecutorService kbestPool;
 
   /* The feature weights. */
   public static FeatureVector weights;
@@ -150,6 +157,9 @@ public class Decoder {
     this.joshuaConfiguration = joshuaConfiguration;
     this.grammars = new ArrayList<>();
     this.customPhraseTable = null;
+    this.customGrammarLog = null;
+    this.translationOptionCache = null;
+    this.kbestPool = null;
 
     resetGlobalState();
   }
@@ -224,7 +234,7 @@ public class Decoder {
    */
   public Translation decode(Sentence sentence) {
     try {
-      DecoderTask decoderTask = new DecoderTask(this.grammars, Decoder.weights, this.featureFunctions, joshuaConfiguration);
+      DecoderTask decoderTask = new DecoderTask(this.grammars, Decoder.weights, this.featureFunctions, joshuaConfiguration, translationOptionCache, kbestPool);
       return decoderTask.translate(sentence);
     } catch (IOException e) {
       throw new RuntimeException(String.format(
@@ -238,6 +248,22 @@ public class Decoder {
    * afterwards gets a fresh start.
    */
   public void cleanUp() {
+    if (kbestPool != null) {
+      kbestPool.shutdownNow();
+    }
+    if (translationOptionCache != null) {
+      CacheStats stats = translationOptionCache.stats();
+      LOG.info("Translation option cache: {} entries, {} hits, {} misses, {} evictions, hit rate {}",
+          translationOptionCache.size(), stats.hitCount(), stats.missCount(),
+          stats.evictionCount(), String.format("%.3f", stats.hitRate()));
+    }
+    if (customGrammarLog != null) {
+      try {
+        customGrammarLog.close();
+      } catch (IOException e) {
+        LOG.warn("Couldn't close the custom grammar log", e);
+      }
+    }
     resetGlobalState();
   }
 
@@ -393,6 +419,14 @@ public class Decoder {
       // Initialize the features: requires that LM model has been initialized.
       this.initializeFeatureFunctions();
 
+      if (joshuaConfiguration.translation_option_cache_size > 0)
+        this.translationOptionCache = new TranslationOptionCache(
+            joshuaConfiguration.translation_option_cache_size);
+
+      if (joshuaConfiguration.kbest_threads > 1)
+        this.kbestPool = Executors.newFixedThreadPool(joshuaConfiguration.kbest_threads,
+            new ThreadFactoryBuilder().setNameFormat("KBest-%d").setDaemon(true).build());
+
       // This is mostly for compatibility with the Moses tuning script
       if (joshuaConfiguration.show_weights_and_quit) {
         for (int i = 0; i < DENSE_FEATURE_NAMES.size(); i++) {
@@ -441,6 +475,9 @@ public class Decoder {
     // record the glue grammar so we can make sure there is one
     Grammar glueGrammar = null;
 
+    // restricts text grammars to the test set, if it is known in advance
+    final TestSetFilter filter = createTestSetFilter();
+
     // tm = {thrax/hiero,packed,samt,moses} OWNER LIMIT FILE
     for (String tmLine : joshuaConfiguration.tms) {
 
@@ -451,11 +488,14 @@ public class Decoder {
       String owner = parsedArgs.get("owner");
       int span_limit = Integer.parseInt(parsedArgs.get("maxspan"));
       String path = joshuaConfiguration.getFilePath(parsedArgs.get("path"));
-      
+
+      // the custom grammar is written back to disk, so it must never be filtered
+      final TestSetFilter grammarFilter = owner.equals("custom") ? null : filter;
+
       Grammar grammar;
       if (type.equals("moses") || type.equals("phrase")) {
         joshuaConfiguration.search_algorithm = "stack";
-        grammar = new PhraseTable(path, owner, type, joshuaConfiguration);
+        grammar = new PhraseTable(path, owner, type, joshuaConfiguration, grammarFilter);
 
       } else {
         if (new File(path).isDirectory()) {
@@ -481,7 +521,8 @@ public class Decoder {
         } else {
           // thrax, hiero, samt
           grammar = new MemoryBasedBatchGrammar(type, path, owner,
-              joshuaConfiguration.default_non_terminal, span_limit, joshuaConfiguration);
+              joshuaConfiguration.default_non_terminal, span_limit, joshuaConfiguration,
+              grammarFilter);
         }
       }
 
@@ -490,6 +531,11 @@ public class Decoder {
       /* Record whether we saw a custom grammar for adding phrase entries */
       if (getOwner(grammar.getOwner()).equals("custom")) {
         this.customPhraseTable = grammar;
+        this.customGrammarLog = new GrammarUpdateLog(grammar, path,
+            joshuaConfiguration.custom_grammar_compaction_interval);
+        int numUpdates = customGrammarLog.replay();
+        if (numUpdates > 0)
+          LOG.info("Replayed {} logged updates to the custom grammar", numUpdates);
       } else if (getOwner(grammar.getOwner()).equals("glue")) {
         glueGrammar = grammar;
       }
@@ -542,6 +588,47 @@ public class Decoder {
         ((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1000000.0));
   }
 
+  /**
+   * If grammar filtering was requested (-filter-grammar) and the input is known in advance
+   * (-input-file), this builds a {@link TestSetFilter} over the n-grams of the input sentences.
+   * Text grammars then skip every rule whose terminals cannot match the input while loading.
+   * Sentence markers are added to each sentence so that glue rules are retained.
+   *
+   * @return the filter, or null if the grammars should not be filtered
+   * @throws IOException if the input file cannot be read
+   */
+  private TestSetFilter createTestSetFilter() throws IOException {
+    if (!joshuaConfiguration.filter_grammar)
+      return null;
+
+    if (joshuaConfiguration.input_file == null) {
+      LOG.warn("filter-grammar requires the input to be known in advance (-input-file); not filtering");
+      return null;
+    }
+
+    if (joshuaConfiguration.lattice_decoding) {
+      LOG.warn("filter-grammar is not supported with lattice decoding; not filtering");
+      return null;
+    }
+
+    TestSetFilter filter = new TestSetFilter();
+    int numSentences = 0;
+    try (LineReader reader = new LineReader(joshuaConfiguration.input_file)) {
+      for (String line : reader) {
+        // strip target sides and references (see Sentence)
+        String source = line.split("\\s?\\|{3}\\s?")[0].trim();
+        if (joshuaConfiguration.lowercase)
+          source = source.toLowerCase();
+        filter.addSentence(String.format("%s %s %s", Vocabulary.START_SYM, source, Vocabulary.STOP_SYM));
+        numSentences++;
+      }
+    }
+    LOG.info("Filtering text grammars to {} sentences from '{}'", numSentences,
+        joshuaConfiguration.input_file);
+
+    return filter;
+  }
+
   /**
    * Checks if multiple packedGrammars have the same vocabulary by comparing their vocabulary file checksums.
    */
@@ -679,18 +766,67 @@ public class Decoder {
   }
 
   /**
-   * Adds a rule to the custom grammar.
+   * Adds a rule to the custom grammar. The rule is visible to decoding threads as soon as this
+   * returns, and is appended to the custom grammar's log rather than rewriting the grammar file.
    *
    * @param rule the rule to add
    */
   public void addCustomRule(Rule rule) {
     if (getCustomPhraseTable() != null) {
-      getCustomPhraseTable().addRule(rule);
+      try {
+        customGrammarLog.addRule(rule);
+      } catch (IOException e) {
+        throw new RuntimeException("Couldn't log the rule added to the custom grammar", e);
+      }
       rule.estimateRuleCost(featureFunctions);
-      getCustomPhraseTable().save();
+      invalidateTranslationOptions();
     }
   }
 
+  /**
+   * Removes a rule from the custom grammar, recording the removal in the custom grammar's log.
+   *
+   * @param rule the rule to remove, identified by its source and target sides
+   */
+  public void removeCustomRule(Rule rule) {
+    if (getCustomPhraseTable() != null) {
+      try {
+        customGrammarLog.removeRule(rule);
+      } catch (IOException e) {
+        throw new RuntimeException("Couldn't log the rule removed from the custom grammar", e);
+      }
+      invalidateTranslationOptions();
+    }
+  }
+
+  /**
+   * Makes decoding use the weights as they have been changed in {@link #weights}. Besides the
+   * scores, the weights decide which rules survive the translation-option pruning, the future
+   * costs, and the order of cube pruning, through the rule cost estimates that the grammars cache
+   * when they sort their rules. So the feature functions read their cached weights again, and the
+   * grammars forget their estimates and sort their rules again, as a freshly loaded decoder with
+   * these weights would. This must not be called while sentences are being decoded.
+   */
+  public void updateWeights() {
+    for (FeatureFunction feature : featureFunctions)
+      feature.updateWeights();
+    for (Grammar grammar : grammars) {
+      grammar.invalidateSortedRules();
+      if (!joshuaConfiguration.amortized_sorting)
+        grammar.sortGrammar(featureFunctions);
+    }
+    invalidateTranslationOptions();
+  }
+
+  /**
+   * Drops the translation options cached across sentences. This must be called whenever the
+   * weights or the grammars change.
+   */
+  public void invalidateTranslationOptions() {
+    if (translationOptionCache != null)
+      translationOptionCache.invalidateAll();
+  }
+
   public Grammar getCustomPhraseTable() {
     if (customPhraseTable == null) {
       LOG.warn("No custom grammar was found in the config file, so none was instantiated");
@@ -702,8 +838,16 @@ public class Decoder {
     return customPhraseTable;
   }
   
+  /**
+   * Writes the custom grammar to its file, merging in (and discarding) its log of updates.
+   */
   public void saveCustomPhraseTable() {
-    if (getCustomPhraseTable() != null)
-      getCustomPhraseTable().save();
+    if (getCustomPhraseTable() != null) {
+      try {
+        customGrammarLog.compact();
+      } catch (IOException e) {
+        throw new RuntimeException("Couldn't save the custom grammar", e);
+      }
+    }
   }
 }
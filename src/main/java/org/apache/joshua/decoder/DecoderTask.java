@@ -21,6 +21,7 @@ package org.apache.joshua.decoder;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.joshua.decoder.chart_parser.Chart;
 import org.apache.joshua.decoder.ff.FeatureFunction;
@@ -31,6 +32,7 @@ import org.apache.joshua.decoder.hypergraph.ForestWalker;
 import org.apache.joshua.decoder.hypergraph.GrammarBuilderWalkerFunction;
 import org.apache.joshua.decoder.hypergraph.HyperGraph;
 import org.apache.joshua.decoder.phrase.Stacks;
+import org.apache.joshua.decoder.phrase.TranslationOptionCache;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.apache.joshua.corpus.Vocabulary;
 import org.slf4j.Logger;
@@ -59,6 +61,8 @@ public class DecoderTask {
    */
   private final List<Grammar> allGrammars;
   private final List<FeatureFunction> featureFunctions;
+  private final TranslationOptionCache optionCache;
+  private final ExecutorService kbestPool;
 
 
   // ===============================================================
@@ -67,9 +71,18 @@ public class DecoderTask {
   //TODO: (kellens) why is weights unused?
   public DecoderTask(List<Grammar> grammars, FeatureVector weights,
                      List<FeatureFunction> featureFunctions, JoshuaConfiguration joshuaConfiguration) throws IOException {
+    this(grammars, weights, featureFunctions, joshuaConfiguration, null, null);
+  }
+
+  public DecoderTask(List<Grammar> grammars, FeatureVector weights,
+                     List<FeatureFunction> featureFunctions, JoshuaConfiguration joshuaConfiguration,
+                     TranslationOptionCache optionCache, ExecutorService kbestPool)
+                     throws IOException {
 
     this.joshuaConfiguration = joshuaConfiguration;
     this.allGrammars = grammars;
+    this.optionCache = optionCache;
+    this.kbestPool = kbestPool;
 
     this.featureFunctions = new ArrayList<>();
     for (FeatureFunction ff : featureFunctions) {
@@ -125,7 +138,8 @@ public class DecoderTask {
     try {
 
       if (joshuaConfiguration.search_algorithm.equals("stack")) {
-        Stacks stacks = new Stacks(sentence, this.featureFunctions, grammars, joshuaConfiguration);
+        Stacks stacks = new Stacks(sentence, this.featureFunctions, grammars, joshuaConfiguration,
+            optionCache);
 
         hypergraph = stacks.search();
       } else {
@@ -150,7 +164,7 @@ public class DecoderTask {
 
     /* Return the translation unless we're doing synchronous parsing. */
     if (!joshuaConfiguration.parse || hypergraph == null) {
-      return new Translation(sentence, hypergraph, featureFunctions, joshuaConfiguration);
+      return new Translation(sentence, hypergraph, featureFunctions, joshuaConfiguration, kbestPool);
     }
 
     /*****************************************************************************************/
@@ -33,6 +33,7 @@ import java.util.Collections;
 
 import org.apache.joshua.decoder.ff.StatefulFF;
 import org.apache.joshua.decoder.ff.fragmentlm.Tree;
+import org.apache.joshua.decoder.io.OutputFormat;
 import org.apache.joshua.util.FormatUtils;
 import org.apache.joshua.util.Regex;
 import org.apache.joshua.util.io.LineReader;
@@ -143,12 +144,27 @@ public class JoshuaConfiguration {
   // oov-specific
   public boolean true_oovs_only = false;
 
-  /* Dynamic sentence-level filtering. */
+  /*
+   * Filter text grammars to the input at load time. This requires the input to be known in
+   * advance (-input-file); rules whose terminals don't match any input n-gram are skipped.
+   */
   public boolean filter_grammar = false;
 
   /* The cube pruning pop limit. Set to 0 for exhaustive pruning. */
   public int pop_limit = 100;
 
+  /*
+   * Cube pruning also stops once the best remaining candidate scores more than this much (in log
+   * space) below the best candidate popped so far. Infinity disables it.
+   */
+  public float beam_threshold = Float.POSITIVE_INFINITY;
+
+  /*
+   * In phrase-based decoding, the maximum number of hypotheses with the same coverage vector in a
+   * stack. Set to 0 for no limit.
+   */
+  public int coverage_histogram_limit = 0;
+
   /* Maximum sentence length. Sentences longer than this are truncated. */
   public int maxlen = 200;
 
@@ -183,9 +199,37 @@ public class JoshuaConfiguration {
    */
   public String outputFormat = "%i ||| %s ||| %f ||| %c";
 
+  /* outputFormat, parsed; recompiled if outputFormat is reassigned (see getOutputFormat()) */
+  private volatile OutputFormat compiledOutputFormat = null;
+
   /* The number of decoding threads to use (-threads). */
   public int num_parallel_decoders = 1;
 
+  /* The number of threads used to parse text grammars while loading them. */
+  public int grammar_loading_threads = 1;
+
+  /*
+   * If positive, k-best extraction extracts all k derivations of a sentence before producing their
+   * output, which is then done on this many threads, and tells unique n-best strings apart by
+   * fingerprints. 0 keeps the original one-at-a-time extraction.
+   */
+  public int kbest_threads = 0;
+
+  /*
+   * When true, the charts, cells, queues and sets of the search are kept in per-search arenas and
+   * reused by later sentences instead of being reallocated (see SearchArena). This is meant for
+   * high-QPS traffic of short sentences, and is off by default.
+   */
+  public boolean reuse_search_arenas = false;
+
+  /*
+   * When true, every hyperedge keeps the unweighted feature values it incurred during search, so
+   * that k-best feature vectors (%f, %d, structured output) are assembled without running the
+   * feature functions again. This costs memory and search time, and pays off for large n-best
+   * lists such as in tuning.
+   */
+  public boolean record_edge_features = false;
+
   /*
    * When true, _OOV is appended to all words that are passed through (useful for something like
    * transliteration on the target side
@@ -215,6 +259,12 @@ public class JoshuaConfiguration {
   /* If set, Joshua will start a (multi-threaded, per "threads") TCP/IP server on this port. */
   public int server_port = 0;
 
+  /*
+   * Rules added to or removed from the custom grammar at runtime are appended to a log next to the
+   * grammar file. After this many updates, the log is merged into the grammar file in the background.
+   */
+  public int custom_grammar_compaction_interval = 100;
+
   /*
    * Whether to do forest rescoring. If set to true, the references are expected on STDIN along with
    * the input sentences in the following format:
@@ -227,6 +277,14 @@ public class JoshuaConfiguration {
   public boolean rescoreForest = false;
   public float rescoreForestWeight = 10.0f;
 
+  /*
+   * Whether to replace the Viterbi 1-best output (top-n = 0) with the minimum Bayes risk translation
+   * under linear BLEU, found on the whole forest (see ForestMinRiskDecoder). mbr-scale scales the
+   * model scores before they are turned into posteriors.
+   */
+  public boolean mbr = false;
+  public float mbr_scale = 1.0f;
+
   /*
    * Location of fragment mapping file, which maps flattened SCFG rules to their internal
    * representation.
@@ -254,6 +312,12 @@ public class JoshuaConfiguration {
   /* The number of target sides considered for each source side (after sorting by model weight) */
   public int num_translation_options = 20;
 
+  /*
+   * The number of source phrases whose (pruned and scored) translation options are cached across
+   * sentences in phrase-based decoding. 0 (the default) disables the cache.
+   */
+  public int translation_option_cache_size = 0;
+
   /* If true, decode using a dot chart (standard CKY+); if false, use the much more efficient
    * version of Sennrich (SSST 2014)
    */
@@ -271,6 +335,19 @@ public class JoshuaConfiguration {
   /* Write n-best output to this file */
   public String n_best_file = null;
 
+  /*
+   * Write the n-best output in the binary format of org.apache.joshua.util.io.NBestWriter (to the
+   * n-best file if there is one, otherwise to STDOUT) instead of as text. This is for storage;
+   * the tuners read it, but slower than text, so they do not ask for it
+   */
+  public boolean binary_n_best = false;
+
+  /*
+   * Write the hypergraph of each sentence, with the feature values of its edges, to this file in
+   * the binary format of org.apache.joshua.decoder.hypergraph.HyperGraphWriter
+   */
+  public String hypergraph_file = null;
+
   /* Whether to look at source side for special annotations */
   public boolean source_annotations = false;
 
@@ -308,21 +385,33 @@ public class JoshuaConfiguration {
     true_oovs_only = false;
     filter_grammar = false;
     pop_limit = 100;
+    beam_threshold = Float.POSITIVE_INFINITY;
+    coverage_histogram_limit = 0;
     maxlen = 200;
     use_unique_nbest = false;
     include_align_index = false;
     topN = 1;
     outputFormat = "%i ||| %s ||| %f ||| %c";
     num_parallel_decoders = 1;
+    grammar_loading_threads = 1;
+    kbest_threads = 0;
+    mbr = false;
+    mbr_scale = 1.0f;
+    reuse_search_arenas = false;
+    record_edge_features = false;
+    binary_n_best = false;
+    hypergraph_file = null;
     mark_oovs = false;
     // oracleFile = null;
     parse = false; // perform synchronous parsing
     features = new ArrayList<>();
     weights = new ArrayList<>();
     server_port = 0;
+    custom_grammar_compaction_interval = 100;
 
     reordering_limit = 8;
     num_translation_options = 20;
+    translation_option_cache_size = 0;
     LOG.info("...done");
   }
 
@@ -569,6 +658,28 @@ public class JoshuaConfiguration {
             }
             LOG.debug("num_parallel_decoders: {}", num_parallel_decoders);
 
+          } else if (parameter.equals(normalize_key("grammar-loading-threads"))) {
+            grammar_loading_threads = Integer.parseInt(fds[1]);
+            if (grammar_loading_threads <= 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a positive number for grammar-loading-threads");
+            }
+
+          } else if (parameter.equals(normalize_key("kbest-threads"))) {
+            kbest_threads = Integer.parseInt(fds[1]);
+            if (kbest_threads < 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a non-negative number for kbest-threads");
+            }
+
+          } else if (parameter.equals(normalize_key("reuse-search-arenas"))) {
+            reuse_search_arenas = Boolean.parseBoolean(fds[1]);
+            LOG.debug("reuse-search-arenas: {}", reuse_search_arenas);
+
+          } else if (parameter.equals(normalize_key("record-edge-features"))) {
+            record_edge_features = Boolean.parseBoolean(fds[1]);
+            LOG.debug("record-edge-features: {}", record_edge_features);
+
           } else if (parameter.equals(normalize_key("mark_oovs"))) {
             mark_oovs = Boolean.valueOf(fds[1]);
             LOG.debug("mark_oovs: {}", mark_oovs);
@@ -577,6 +688,20 @@ public class JoshuaConfiguration {
             pop_limit = Integer.parseInt(fds[1]);
             LOG.info("pop-limit: {}", pop_limit);
 
+          } else if (parameter.equals(normalize_key("beam-threshold"))) {
+            beam_threshold = Float.parseFloat(fds[1]);
+            if (beam_threshold < 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a non-negative number for beam-threshold");
+            }
+
+          } else if (parameter.equals(normalize_key("coverage-histogram-limit"))) {
+            coverage_histogram_limit = Integer.parseInt(fds[1]);
+            if (coverage_histogram_limit < 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a non-negative number for coverage-histogram-limit");
+            }
+
           } else if (parameter.equals(normalize_key("input-type"))) {
             switch (fds[1]) {
             case "json":
@@ -603,6 +728,13 @@ public class JoshuaConfiguration {
             server_port = Integer.parseInt(fds[1]);
             LOG.info("    server-port: {}", server_port);
 
+          } else if (parameter.equals(normalize_key("custom-grammar-compaction-interval"))) {
+            custom_grammar_compaction_interval = Integer.parseInt(fds[1]);
+            if (custom_grammar_compaction_interval <= 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a positive number for custom-grammar-compaction-interval");
+            }
+
           } else if (parameter.equals(normalize_key("rescore-forest"))) {
             rescoreForest = true;
             LOG.info("    rescore-forest: {}", rescoreForest);
@@ -611,6 +743,17 @@ public class JoshuaConfiguration {
             rescoreForestWeight = Float.parseFloat(fds[1]);
             LOG.info("    rescore-forest-weight: {}", rescoreForestWeight);
 
+          } else if (parameter.equals(normalize_key("mbr"))) {
+            mbr = Boolean.parseBoolean(fds[1]);
+            LOG.debug("mbr: {}", mbr);
+
+          } else if (parameter.equals(normalize_key("mbr-scale"))) {
+            mbr_scale = Float.parseFloat(fds[1]);
+            if (mbr_scale <= 0) {
+              throw new IllegalArgumentException("Must specify a positive number for mbr-scale");
+            }
+            LOG.debug("mbr-scale: {}", mbr_scale);
+
           } else if (parameter.equals(normalize_key("maxlen"))) {
             // reset the maximum length
             maxlen = Integer.parseInt(fds[1]);
@@ -656,6 +799,13 @@ public class JoshuaConfiguration {
           } else if (parameter.equals(normalize_key("num-translation-options"))) {
             num_translation_options = Integer.parseInt(fds[1]);
 
+          } else if (parameter.equals(normalize_key("translation-option-cache-size"))) {
+            translation_option_cache_size = Integer.parseInt(fds[1]);
+            if (translation_option_cache_size < 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a non-negative number for translation-option-cache-size");
+            }
+
           } else if (parameter.equals(normalize_key("no-dot-chart"))) {
             use_dot_chart = false;
 
@@ -672,6 +822,14 @@ public class JoshuaConfiguration {
             if (tokens.length > 1)
               topN = Integer.parseInt(tokens[1]);
 
+          } else if (parameter.equals(normalize_key("binary-n-best"))) {
+            binary_n_best = Boolean.parseBoolean(fds[1]);
+            LOG.debug("binary-n-best: {}", binary_n_best);
+
+          } else if (parameter.equals(normalize_key("hypergraph-file"))) {
+            hypergraph_file = fds[1];
+            LOG.debug("hypergraph-file: {}", hypergraph_file);
+
           } else if (parameter.equals(normalize_key("input-file"))) {
             // for Moses compatibility
             input_file = fds[1];
@@ -733,6 +891,21 @@ public class JoshuaConfiguration {
   public void sanityCheck() {
   }
   
+  /**
+   * Returns the compiled version of the output-format template. This is parsed only once, and
+   * again only if {@link #outputFormat} has been changed since.
+   * 
+   * @return the compiled template
+   */
+  public OutputFormat getOutputFormat() {
+    OutputFormat compiled = compiledOutputFormat;
+    if (compiled == null || !compiled.getTemplate().equals(outputFormat)) {
+      compiled = OutputFormat.compile(outputFormat);
+      compiledOutputFormat = compiled;
+    }
+    return compiled;
+  }
+
   /**
    * Sets the verbosity level to v (0: OFF; 1: INFO; 2: DEBUG).
    * 
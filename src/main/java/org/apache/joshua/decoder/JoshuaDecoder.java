@@ -27,9 +27,12 @@ import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
 
 import org.apache.joshua.decoder.JoshuaConfiguration.SERVER_TYPE;
+import org.apache.joshua.decoder.hypergraph.HyperGraphWriter;
 import org.apache.joshua.decoder.io.TranslationRequestStream;
 import org.apache.joshua.server.ServerThread;
 import org.apache.joshua.server.TcpServer;
+import org.apache.joshua.util.io.NBestEntry;
+import org.apache.joshua.util.io.NBestWriter;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.slf4j.Logger;
@@ -103,12 +106,32 @@ public class JoshuaDecoder {
     TranslationRequestStream fileRequest = new TranslationRequestStream(reader, joshuaConfiguration);
     TranslationResponseStream translationResponseStream = decoder.decodeAll(fileRequest);
 
-    // Create the n-best output stream
+    // Create the n-best output stream. The binary n-best list goes to the n-best file if there is
+    // one, and otherwise to STDOUT.
     FileWriter nbest_out = null;
-    if (joshuaConfiguration.n_best_file != null)
+    NBestWriter binary_out = null;
+    if (joshuaConfiguration.binary_n_best)
+      binary_out = (joshuaConfiguration.n_best_file != null)
+          ? new NBestWriter(joshuaConfiguration.n_best_file)
+          : new NBestWriter(System.out);
+    else if (joshuaConfiguration.n_best_file != null)
       nbest_out = new FileWriter(joshuaConfiguration.n_best_file);
 
+    HyperGraphWriter hypergraph_out = (joshuaConfiguration.hypergraph_file != null)
+        ? new HyperGraphWriter(joshuaConfiguration.hypergraph_file)
+        : null;
+
     for (Translation translation: translationResponseStream) {
+      if (hypergraph_out != null)
+        hypergraph_out.write(translation.getHyperGraph());
+
+      if (binary_out != null) {
+        for (NBestEntry entry: translation.getNBest())
+          binary_out.write(entry);
+        binary_out.flush();
+        continue;
+      }
+
       /**
        * We need to munge the feature value outputs in order to be compatible with Moses tuners.
        * Whereas Joshua writes to STDOUT whatever is specified in the `output-format` parameter,
@@ -133,8 +156,12 @@ public class JoshuaDecoder {
       }
     }
 
-    if (joshuaConfiguration.n_best_file != null)
+    if (nbest_out != null)
       nbest_out.close();
+    if (binary_out != null)
+      binary_out.close();
+    if (hypergraph_out != null)
+      hypergraph_out.close();
 
     LOG.info("Decoding completed.");
     LOG.info("Memory used {} MB", ((Runtime.getRuntime().totalMemory()
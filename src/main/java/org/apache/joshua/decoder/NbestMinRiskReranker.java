@@ -42,6 +42,9 @@ import org.slf4j.LoggerFactory;
  * should be the sum of all the derivataions leading to that string. But, in practice, one normally
  * uses a Viterbi approximation: the probability of a string is its best derivation probability So,
  * if one want to deal with spurious ambiguity, he/she should do that before calling this class
+ * <p>
+ * To do MBR decoding in the decoder, on the whole forest rather than an n-best list, see
+ * {@link org.apache.joshua.decoder.hypergraph.ForestMinRiskDecoder} (the "mbr" option).
  * 
  * @author Zhifei Li, zhifei.work@gmail.com
  */
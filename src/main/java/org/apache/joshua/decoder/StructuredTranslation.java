@@ -18,9 +18,17 @@
  */
 package org.apache.joshua.decoder;
 
+import static com.google.common.base.Suppliers.memoize;
+import static com.google.common.base.Suppliers.ofInstance;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+
 import java.util.List;
 import java.util.Map;
 
+import com.google.common.base.Supplier;
+
 import org.apache.joshua.decoder.io.DeNormalize;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.apache.joshua.decoder.segment_file.Token;
@@ -33,6 +41,11 @@ import org.apache.joshua.util.FormatUtils;
  * of simply writing to a file or stdout.
  * StructuredTranslation encodes all relevant information about a derivation,
  * namely output string, tokens, score, features, and word alignment.
+ * <p>
+ * The tokens, word alignment and features are computed when they are first asked for, and then
+ * kept, so that callers who only want the string don't pay for them. Until then, the object holds
+ * on to the derivation it came from; {@link Translation} lets go of it with {@link #release()}
+ * once it is built.
  * 
  * @author fhieber
  */
@@ -40,10 +53,10 @@ public class StructuredTranslation {
   
   private final Sentence sourceSentence;
   private final String translationString;
-  private final List<String> translationTokens;
+  private final Supplier<List<String>> translationTokens;
   private final float translationScore;
-  private final List<List<Integer>> translationWordAlignments;
-  private final Map<String,Float> translationFeatures;
+  private volatile Supplier<List<List<Integer>>> translationWordAlignments;
+  private volatile Supplier<Map<String,Float>> translationFeatures;
   private final float extractionTime;
   
   public StructuredTranslation(
@@ -56,13 +69,54 @@ public class StructuredTranslation {
       final float extractionTime) {
     this.sourceSentence = sourceSentence;
     this.translationString = translationString;
-    this.translationTokens = translationTokens;
+    this.translationTokens = ofInstance(translationTokens);
+    this.translationScore = translationScore;
+    this.translationWordAlignments = ofInstance(translationWordAlignments);
+    this.translationFeatures = ofInstance(translationFeatures);
+    this.extractionTime = extractionTime;
+  }
+
+  /**
+   * Creates a StructuredTranslation whose word alignment and features are computed on first use.
+   * The tokens are split from the translation string on first use.
+   * 
+   * @param sourceSentence the source sentence
+   * @param translationString the translation, without sentence markers
+   * @param translationScore the model score
+   * @param translationWordAlignments computes the target to source alignments
+   * @param translationFeatures computes the feature values
+   * @param extractionTime the time taken to build the eagerly computed fields, in seconds
+   */
+  public StructuredTranslation(
+      final Sentence sourceSentence,
+      final String translationString,
+      final float translationScore,
+      final Supplier<List<List<Integer>>> translationWordAlignments,
+      final Supplier<Map<String,Float>> translationFeatures,
+      final float extractionTime) {
+    this.sourceSentence = sourceSentence;
+    this.translationString = translationString;
+    this.translationTokens = memoize(() -> translationString.isEmpty()
+        ? emptyList() : asList(translationString.split("\\s+")));
     this.translationScore = translationScore;
-    this.translationWordAlignments = translationWordAlignments;
-    this.translationFeatures = translationFeatures;
+    this.translationWordAlignments = memoize(translationWordAlignments);
+    this.translationFeatures = memoize(translationFeatures);
     this.extractionTime = extractionTime;
   }
   
+  /**
+   * Computes the word alignment and the features, unless the sentence's request turned them off
+   * (see {@link Sentence#withFeatures}), and drops the derivation they were computed from. The
+   * alignment is also kept for projecting the source case, which needs it.
+   */
+  void release() {
+    translationWordAlignments = ofInstance(
+        sourceSentence.withAlignments || sourceSentence.config.project_case
+            ? translationWordAlignments.get() : emptyList());
+    translationFeatures = ofInstance(
+        sourceSentence.withFeatures ? translationFeatures.get() : emptyMap());
+  }
+
   public Sentence getSourceSentence() {
     return sourceSentence;
   }
@@ -90,7 +144,7 @@ public class StructuredTranslation {
   }
 
   public List<String> getTranslationTokens() {
-    return translationTokens;
+    return translationTokens.get();
   }
 
   public float getTranslationScore() {
@@ -103,11 +157,11 @@ public class StructuredTranslation {
    * @return a list of target to source alignments
    */
   public List<List<Integer>> getTranslationWordAlignments() {
-    return translationWordAlignments;
+    return translationWordAlignments.get();
   }
   
   public Map<String,Float> getTranslationFeatures() {
-    return translationFeatures;
+    return translationFeatures.get();
   }
   
   /**
@@ -18,7 +18,6 @@
  */
 package org.apache.joshua.decoder;
 
-import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiFeatures;
@@ -26,6 +25,7 @@ import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiSt
 import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiWordAlignmentList;
 import static org.apache.joshua.util.FormatUtils.removeSentenceMarkers;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.joshua.decoder.ff.FeatureFunction;
@@ -35,7 +35,9 @@ import org.apache.joshua.decoder.segment_file.Sentence;
 
 /**
  * This factory provides methods to create StructuredTranslation objects
- * from either Viterbi derivations or KBest derivations.
+ * from either Viterbi derivations or KBest derivations. Their word alignments and features are
+ * computed on first use; the features not at all if the sentence's request turned them off (see
+ * {@link Sentence#withFeatures}).
  *
  * @author fhieber
  */
@@ -58,10 +60,11 @@ public class StructuredTranslationFactory {
     return new StructuredTranslation(
         sourceSentence,
         translationString,
-        extractTranslationTokens(translationString),
         extractTranslationScore(hypergraph),
-        getViterbiWordAlignmentList(hypergraph),
-        getViterbiFeatures(hypergraph, featureFunctions, sourceSentence).getMap(),
+        () -> getViterbiWordAlignmentList(hypergraph),
+        sourceSentence.withFeatures
+            ? () -> getViterbiFeatures(hypergraph, featureFunctions, sourceSentence).getMap()
+            : Collections::emptyMap,
         (System.currentTimeMillis() - startTime) / 1000.0f);
   }
 
@@ -89,10 +92,11 @@ public class StructuredTranslationFactory {
     return new StructuredTranslation(
         sourceSentence,
         translationString,
-        extractTranslationTokens(translationString),
         derivationState.getModelCost(),
-        derivationState.getWordAlignmentList(),
-        derivationState.getFeatures().getMap(),
+        derivationState::getWordAlignmentList,
+        sourceSentence.withFeatures
+            ? () -> derivationState.getFeatures().getMap()
+            : Collections::emptyMap,
         (System.currentTimeMillis() - startTime) / 1000.0f);
   }
 
@@ -103,12 +107,4 @@ public class StructuredTranslationFactory {
       return hypergraph.goalNode.getScore();
     }
   }
-
-  private static List<String> extractTranslationTokens(final String translationString) {
-    if (translationString.isEmpty()) {
-      return emptyList();
-    } else {
-      return asList(translationString.split("\\s+"));
-    }
-  }
 }
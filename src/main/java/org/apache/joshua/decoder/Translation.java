@@ -27,15 +27,21 @@ import static org.apache.joshua.util.FormatUtils.removeSentenceMarkers;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.joshua.decoder.ff.FeatureFunction;
 import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.hypergraph.ForestMinRiskDecoder;
 import org.apache.joshua.decoder.hypergraph.HyperGraph;
+import org.apache.joshua.decoder.hypergraph.HyperGraphWriter;
 import org.apache.joshua.decoder.hypergraph.KBestExtractor;
 import org.apache.joshua.decoder.io.DeNormalize;
+import org.apache.joshua.decoder.io.OutputFormat;
 import org.apache.joshua.decoder.segment_file.Sentence;
+import org.apache.joshua.util.io.NBestEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,10 +71,48 @@ public class Translation {
    */
   private List<StructuredTranslation> structuredTranslations = null;
 
+  /**
+   * Stores the n-best list if joshuaConfig.binary_n_best is set, for the caller to write with an
+   * {@link org.apache.joshua.util.io.NBestWriter}. In that case there is no text output.
+   */
+  private List<NBestEntry> nbest = null;
+
+  /**
+   * Stores the encoded hypergraph if joshuaConfig.hypergraph_file is set, for the caller to write
+   * with a {@link HyperGraphWriter}.
+   */
+  private byte[] encodedHyperGraph = null;
+
   public Translation(Sentence source, HyperGraph hypergraph,
       List<FeatureFunction> featureFunctions, JoshuaConfiguration joshuaConfiguration) {
+    this(source, hypergraph, featureFunctions, joshuaConfiguration, null);
+  }
+
+  /**
+   * @param source the input sentence
+   * @param hypergraph the hypergraph, or null if the sentence wasn't translated
+   * @param featureFunctions the feature functions
+   * @param joshuaConfiguration the configuration
+   * @param kbestPool the threads on which to produce the k-best output (see kbest-threads), or null
+   */
+  public Translation(Sentence source, HyperGraph hypergraph,
+      List<FeatureFunction> featureFunctions, JoshuaConfiguration joshuaConfiguration,
+      ExecutorService kbestPool) {
     this.source = source;
 
+    if (joshuaConfiguration.hypergraph_file != null) {
+      try {
+        this.encodedHyperGraph = HyperGraphWriter.encode(source, hypergraph, featureFunctions);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    // MBR decoding points the Viterbi derivation at the minimum risk one, so it comes out below
+    if (joshuaConfiguration.mbr && joshuaConfiguration.topN == 0 && hypergraph != null) {
+      new ForestMinRiskDecoder(joshuaConfiguration.mbr_scale).decode(hypergraph);
+    }
+
     /**
      * Structured output from Joshua provides a way to programmatically access translation results
      * from downstream applications, instead of writing results as strings to an output buffer.
@@ -87,7 +131,7 @@ public class Translation {
         /*
          * Get K-Best list of StructuredTranslations
          */
-        final KBestExtractor kBestExtractor = new KBestExtractor(source, featureFunctions, Decoder.weights, false, joshuaConfiguration);
+        final KBestExtractor kBestExtractor = new KBestExtractor(source, featureFunctions, Decoder.weights, false, joshuaConfiguration, kbestPool);
         structuredTranslations = kBestExtractor.KbestExtractOnHG(hypergraph, joshuaConfiguration.topN);
         if (structuredTranslations.isEmpty()) {
             structuredTranslations = Collections
@@ -99,6 +143,32 @@ public class Translation {
         // TODO: We omit the BLEU rescoring for now since it is not clear whether it works at all and what the desired output is below.
       }
 
+    } else if (joshuaConfiguration.binary_n_best) {
+
+      this.output = "";
+      this.nbest = new ArrayList<>();
+
+      if (hypergraph == null) {
+        // Failed translations and blank lines get the source sentence, as in the text output
+        nbest.add(new NBestEntry(source.id(), source.source(), "", 0.0f));
+
+      } else if (joshuaConfiguration.topN == 0) {
+        nbest.add(KBestExtractor.toNBestEntry(source.id(),
+            removeSentenceMarkers(getViterbiString(hypergraph)),
+            getViterbiFeatures(hypergraph, featureFunctions, source),
+            hypergraph.goalNode.getScore()));
+
+      } else {
+        final KBestExtractor kBestExtractor = new KBestExtractor(
+            source, featureFunctions, Decoder.weights, false, joshuaConfiguration);
+        for (int k = 1; k <= joshuaConfiguration.topN; k++) {
+          NBestEntry entry = kBestExtractor.getKthEntry(hypergraph.goalNode, k);
+          if (entry == null)
+            break;
+          nbest.add(entry);
+        }
+      }
+
     } else {
 
       StringWriter sw = new StringWriter();
@@ -126,28 +196,26 @@ public class Translation {
              * the output-string, with the understanding that we can only substitute variables for the
              * output string, sentence number, and model score.
              */
-            String translation = joshuaConfiguration.outputFormat
-                .replace("%s", removeSentenceMarkers(best))
-                .replace("%S", DeNormalize.processSingleLine(best))
-                .replace("%c", String.format("%.3f", hypergraph.goalNode.getScore()))
-                .replace("%i", String.format("%d", source.id()));
-
-            if (joshuaConfiguration.outputFormat.contains("%a")) {
-              translation = translation.replace("%a", getViterbiWordAlignments(hypergraph));
-            }
-
-            if (joshuaConfiguration.outputFormat.contains("%f")) {
-              final FeatureVector features = getViterbiFeatures(hypergraph, featureFunctions, source);
-              translation = translation.replace("%f", joshuaConfiguration.moses ? features.mosesString() : features.toString());
-            }
-
-            out.write(translation);
+            final OutputFormat format = joshuaConfiguration.getOutputFormat();
+            format.format(out, key -> {
+              switch (key) {
+              case 's': return removeSentenceMarkers(best);
+              case 'S': return DeNormalize.processSingleLine(best);
+              case 'c': return OutputFormat.formatScore(hypergraph.goalNode.getScore());
+              case 'i': return Integer.toString(source.id());
+              case 'a': return getViterbiWordAlignments(hypergraph);
+              case 'f':
+                final FeatureVector features = getViterbiFeatures(hypergraph, featureFunctions, source);
+                return joshuaConfiguration.moses ? features.mosesString() : features.toString();
+              default: return null;
+              }
+            });
             out.newLine();
 
           } else {
 
             final KBestExtractor kBestExtractor = new KBestExtractor(
-                source, featureFunctions, Decoder.weights, false, joshuaConfiguration);
+                source, featureFunctions, Decoder.weights, false, joshuaConfiguration, kbestPool);
             kBestExtractor.lazyKBestExtractOnHG(hypergraph, joshuaConfiguration.topN, out);
 
             if (joshuaConfiguration.rescoreForest) {
@@ -181,6 +249,12 @@ public class Translation {
 
     }
 
+    // The features of a StructuredTranslation are replayed with the language model states of the
+    // search, which are released below, and its lazy fields hold on to the hypergraph, so the
+    // fields that may still be asked for are computed now and the derivations are let go
+    if (structuredTranslations != null)
+      structuredTranslations.forEach(StructuredTranslation::release);
+
     // Force any StateMinimizingLanguageModel pool mappings to be cleaned
     source.getStateManager().clearStatePool();
 
@@ -200,14 +274,35 @@ public class Translation {
   }
 
   private String getFailedTranslationOutput(final Sentence source, final JoshuaConfiguration joshuaConfiguration) {
-    return joshuaConfiguration.outputFormat
-        .replace("%s", source.source())
-        .replace("%e", "")
-        .replace("%S", "")
-        .replace("%t", "()")
-        .replace("%i", Integer.toString(source.id()))
-        .replace("%f", "")
-        .replace("%c", "0.000");
+    return joshuaConfiguration.getOutputFormat().format(key -> {
+      switch (key) {
+      case 's': return source.source();
+      case 'e': return "";
+      case 'S': return "";
+      case 't': return "()";
+      case 'i': return Integer.toString(source.id());
+      case 'f': return "";
+      case 'c': return "0.000";
+      default: return null;
+      }
+    });
+  }
+
+  /**
+   * Returns the n-best list if JoshuaConfiguration.binary_n_best == True, and null otherwise.
+   * @return list of n-best entries, best first.
+   */
+  public List<NBestEntry> getNBest() {
+    return nbest;
+  }
+
+  /**
+   * Returns the encoded hypergraph if JoshuaConfiguration.hypergraph_file is set, and null
+   * otherwise.
+   * @return the hypergraph, encoded by {@link HyperGraphWriter#encode}
+   */
+  public byte[] getHyperGraph() {
+    return encodedHyperGraph;
   }
 
   /**
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.joshua.decoder.io.TranslationRequestStream;
+import org.apache.joshua.util.io.NBestEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterators;
+
+/**
+ * Decodes the source side of a tuning set inside the tuner's JVM. The models are loaded once, when
+ * the tuner starts; each tuning iteration then only swaps in the new weights and redecodes the
+ * sentences, instead of writing a new decoder config file and loading the models again in an
+ * external decoder. The n-best lists are handed to the tuner as {@link NBestEntry} objects, in
+ * sentence order, without going through a decoder output file. They are parsed from the decoder's
+ * text n-best output, since the tuners write their temp files from the text fields; the binary
+ * n-best format would only make them render the candidates and features back into text.
+ * 
+ * Weights are only changed between calls to {@link #decode()}, once the n-best lists of the
+ * previous call have been read, so that every sentence of an iteration is decoded with the same
+ * weights. The rule cost estimates that the grammars cache when sorting their rules depend on the
+ * weights too: they decide which rules survive the translation-option pruning, the future costs,
+ * and the order of cube pruning. So they are estimated again with the new weights (see
+ * {@link Decoder#updateWeights()}), and each iteration searches the same space as a decoder freshly
+ * loaded with its weights.
+ */
+public class TuningDecoder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TuningDecoder.class);
+
+  private static final Splitter NEWLINE = Splitter.on('\n').omitEmptyStrings();
+
+  private final JoshuaConfiguration joshuaConfiguration;
+  private final Decoder decoder;
+
+  /* The source sentences, which are decoded again in every iteration */
+  private final String source;
+
+  /**
+   * Loads the models listed in a decoder config file.
+   * 
+   * @param joshuaConfiguration the configuration to read the config file into
+   * @param configFile the decoder config file
+   * @param sourceFile the source sentences of the tuning set, one per line
+   * @param sizeOfNBest the size of the n-best list of each sentence
+   */
+  public TuningDecoder(JoshuaConfiguration joshuaConfiguration, String configFile,
+      String sourceFile, int sizeOfNBest) {
+    this.joshuaConfiguration = joshuaConfiguration;
+    try {
+      joshuaConfiguration.readConfigFile(configFile);
+      joshuaConfiguration.setConfigFilePath(new File(configFile).getCanonicalFile().getParent());
+      this.source = new String(Files.readAllBytes(Paths.get(sourceFile)), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    // The input is known in advance, which lets the decoder filter the grammars to it
+    joshuaConfiguration.input_file = sourceFile;
+    joshuaConfiguration.topN = sizeOfNBest;
+    // The entries are parsed from this format, whatever the config file asks for
+    joshuaConfiguration.outputFormat = "%i ||| %s ||| %f ||| %c";
+    joshuaConfiguration.binary_n_best = false;
+    joshuaConfiguration.sanityCheck();
+
+    this.decoder = new Decoder(joshuaConfiguration, configFile);
+  }
+
+  /**
+   * Sets the weights used by the next call to {@link #decode()}. Features that are not listed keep
+   * their current weights. The weights are updated in place, since the feature functions hold on
+   * to the decoder's weight vector, and the cost estimates that depend on them are recomputed.
+   * 
+   * @param weights feature weights, by feature name
+   */
+  public synchronized void setWeights(Map<String, Float> weights) {
+    for (Map.Entry<String, Float> weight : weights.entrySet())
+      Decoder.weights.set(weight.getKey(), weight.getValue());
+    decoder.updateWeights();
+    LOG.debug("weights: {}", Decoder.weights);
+  }
+
+  /**
+   * Decodes the tuning set with the current weights. The sentences are decoded in parallel (as
+   * configured by num-parallel-decoders) while the n-best lists are read.
+   * 
+   * @return the n-best entries of all sentences, in sentence order; they can be iterated once
+   */
+  public synchronized Iterable<NBestEntry> decode() {
+    TranslationRequestStream request = new TranslationRequestStream(
+        new BufferedReader(new StringReader(source)), joshuaConfiguration);
+    final Iterator<Translation> translations = decoder.decodeAll(request).iterator();
+    return () -> Iterators.concat(Iterators.transform(translations,
+        translation -> Iterators.transform(
+            NEWLINE.split(translation.toString()).iterator(), NBestEntry::parse)));
+  }
+
+  public void cleanUp() {
+    decoder.cleanUp();
+  }
+}
@@ -57,7 +57,7 @@ class Cell {
   private Chart chart = null;
 
   // The top-level (goal) symbol
-  private final int goalSymbol;
+  private int goalSymbol;
 
   // to maintain uniqueness of nodes
   private final HashMap<HGNode.Signature, HGNode> nodesSigTbl = new LinkedHashMap<>();
@@ -84,6 +84,21 @@ class Cell {
     this(chart, goal_sym_id);
   }
 
+  /**
+   * Empties the cell and attaches it to a new chart, so that a {@link SearchArena} can hand it
+   * out again instead of allocating a new one.
+   * 
+   * @param chart the chart the cell now belongs to (null while the cell is pooled)
+   * @param goalSymID the goal symbol of that chart
+   */
+  void reset(Chart chart, int goalSymID) {
+    this.chart = chart;
+    this.goalSymbol = goalSymID;
+    this.nodesSigTbl.clear();
+    this.superNodesTbl.clear();
+    this.sortedNodes = null;
+  }
+
   // ===============================================================
   // Package-protected methods
   // ===============================================================
@@ -120,7 +135,8 @@ class Cell {
         previousItems.add(antNode);
 
         HyperEdge dt = new HyperEdge(null, logP + finalTransitionLogP, finalTransitionLogP,
-            previousItems, null);
+            previousItems, null, ComputeNodeResult.computeFinalFeatureDelta(featureFunctions,
+                antNode, 0, sentenceLength + 1, null, this.chart.getSentence()));
 
         if (null == goalItem) {
           goalItem = new HGNode(0, sentenceLength + 1, this.goalSymbol, null, dt, logP
@@ -184,7 +200,8 @@ class Cell {
      * possibly taking place as the best incoming hyperedge for that node.
      */
 
-    HyperEdge hyperEdge = new HyperEdge(rule, finalizedTotalLogP, transitionLogP, ants, srcPath);
+    HyperEdge hyperEdge = new HyperEdge(rule, finalizedTotalLogP, transitionLogP, ants, srcPath,
+        result.getFeatureDelta());
     HGNode newNode = new HGNode(i, j, rule.getLHS(), dpStates, hyperEdge, pruningEstimate);
 
     /**
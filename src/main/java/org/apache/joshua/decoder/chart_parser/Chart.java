@@ -77,6 +77,7 @@ public class Chart {
   int nMerged = 0;
   int nAdded = 0;
   int nDotitemAdded = 0; // note: there is no pruning in dot-item
+  int nPopped = 0;
 
   public Sentence getSentence() {
     return this.sentence;
@@ -94,6 +95,9 @@ public class Chart {
   private int goalSymbolID = -1;
   private final Lattice<Token> inputLattice;
 
+  // the reusable search structures, released when the chart is expanded
+  private final SearchArena arena;
+
   private Sentence sentence = null;
 //  private SyntaxTree parseTree;
   private StateConstraint stateConstraint;
@@ -129,10 +133,11 @@ public class Chart {
 //    if (sentence instanceof ParsedSentence)
 //      this.parseTree = ((ParsedSentence) sentence).syntaxTree();
 //
-    this.cells = new ChartSpan<>(sourceLength, null);
+    this.arena = SearchArena.acquire(config);
+    this.cells = arena.span(sourceLength);
 
     this.goalSymbolID = Vocabulary.id(goalSymbol);
-    this.goalBin = new Cell(this, this.goalSymbolID);
+    this.goalBin = arena.cell(this, this.goalSymbolID);
 
     /* Create the grammars, leaving space for the OOV grammar. */
     this.grammars = new Grammar[grammars.length + 1];
@@ -176,7 +181,12 @@ public class Chart {
    */
   public void setGoalSymbolID(int i) {
     this.goalSymbolID = i;
-    this.goalBin = new Cell(this, i);
+    this.goalBin = arena.cell(this, i);
+  }
+
+  /* The arena the dot charts take their spans from */
+  SearchArena getArena() {
+    return arena;
   }
 
   // ===============================================================
@@ -201,7 +211,7 @@ public class Chart {
   private void completeSpan(int i, int j) {
 
     /* STEP 1: create the heap, and seed it with all of the candidate states */
-    PriorityQueue<CubePruneState> candidates = new PriorityQueue<>();
+    PriorityQueue<CubePruneState> candidates = arena.queue();
 
     /*
      * Look at all the grammars, seeding the chart with completed rules from the
@@ -280,6 +290,7 @@ public class Chart {
     }
 
     applyCubePruning(i, j, candidates);
+    arena.recycle(candidates);
   }
 
   /**
@@ -302,12 +313,19 @@ public class Chart {
      * There are multiple ways to reach each point in the cube, so short-circuit
      * that.
      */
-    HashSet<CubePruneState> visitedStates = new HashSet<>();
+    HashSet<CubePruneState> visitedStates = arena.set();
 
     int popLimit = config.pop_limit;
     int popCount = 0;
-    while (candidates.size() > 0 && ((++popCount <= popLimit) || popLimit == 0)) {
+    float best = Float.NEGATIVE_INFINITY;
+    while (candidates.size() > 0 && ((popCount < popLimit) || popLimit == 0)) {
+      /* Stop when the remaining candidates fall out of the beam */
+      if (candidates.peek().computeNodeResult.getPruningEstimate() < best - config.beam_threshold)
+        break;
+
       CubePruneState state = candidates.poll();
+      popCount++;
+      best = Math.max(best, state.computeNodeResult.getPruningEstimate());
 
       DotNode dotNode = state.getDotNode();
       List<Rule> rules = state.rules;
@@ -366,6 +384,10 @@ public class Chart {
         candidates.add(nextState);
       }
     }
+
+    arena.recycle(visitedStates);
+    nPopped += popCount;
+    LOG.debug("Input {}: cube pruning [{}, {}] used {} pops", sentence.id(), i, j, popCount);
   }
 
   /* Create a priority queue of candidates for each span under consideration */
@@ -381,10 +403,18 @@ public class Chart {
   private int i = -1;
 
   public HyperGraph expandSansDotChart() {
+    try {
+      return expandSansDotChartInArena();
+    } finally {
+      arena.release();
+    }
+  }
+
+  private HyperGraph expandSansDotChartInArena() {
     for (i = sourceLength - 1; i >= 0; i--) {
       allCandidates = new PriorityQueue[sourceLength - i + 2];
       for (int id = 0; id < allCandidates.length; id++)
-        allCandidates[id] = new PriorityQueue<>();
+        allCandidates[id] = arena.queue();
 
       nodeStack = new ArrayList<>();
 
@@ -418,8 +448,13 @@ public class Chart {
         // Add unary nodes
         addUnaryNodes(this.grammars, i, j);
       }
+
+      for (PriorityQueue<CubePruneState> candidates : allCandidates)
+        arena.recycle(candidates);
     }
 
+    logStatistics();
+
     // transition_final: setup a goal item, which may have many deductions
     if (null == this.cells.get(0, sourceLength)
         || !this.goalBin.transitToGoal(this.cells.get(0, sourceLength), this.featureFunctions,
@@ -551,7 +586,14 @@ public class Chart {
    * @return the hypergraph containing the translated sentence.
    */
   public HyperGraph expand() {
+    try {
+      return expandInArena();
+    } finally {
+      arena.release();
+    }
+  }
 
+  private HyperGraph expandInArena() {
     for (int width = 1; width <= sourceLength; width++) {
       for (int i = 0; i <= sourceLength - width; i++) {
         int j = i + width;
@@ -643,7 +685,7 @@ public class Chart {
     assert i <= sentence.length();
     assert i <= j;
     if (cells.get(i, j) == null)
-      cells.set(i, j, new Cell(this, goalSymbolID));
+      cells.set(i, j, arena.cell(this, goalSymbolID));
 
     return cells.get(i, j);
   }
@@ -656,6 +698,7 @@ public class Chart {
     if (LOG.isDebugEnabled())
       LOG.debug("Input {}: Chart: added {} merged {} dot-items added: {}",
           this.sentence.id(), this.nAdded, this.nMerged, this.nDotitemAdded);
+    LOG.debug("Input {}: Cube pruning used {} pops", this.sentence.id(), this.nPopped);
   }
 
   /**
@@ -732,7 +775,7 @@ public class Chart {
    */
   public void addAxiom(int i, int j, Rule rule, SourcePath srcPath) {
     if (null == this.cells.get(i, j)) {
-      this.cells.set(i, j, new Cell(this, this.goalSymbolID));
+      this.cells.set(i, j, arena.cell(this, this.goalSymbolID));
     }
 
     this.cells.get(i, j).addHyperEdgeInCell(
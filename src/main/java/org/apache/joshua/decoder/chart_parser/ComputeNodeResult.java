@@ -24,6 +24,7 @@ import java.util.List;
 
 import org.apache.joshua.decoder.Decoder;
 import org.apache.joshua.decoder.ff.StatefulFF;
+import org.apache.joshua.decoder.ff.FeatureDelta;
 import org.apache.joshua.decoder.ff.FeatureFunction;
 import org.apache.joshua.decoder.ff.FeatureVector;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
@@ -57,6 +58,9 @@ public class ComputeNodeResult {
   // The StateComputer objects themselves serve as keys.
   private final List<DPState> dpStates;
 
+  // The unweighted feature values of the transition, if they are recorded
+  private final FeatureDelta featureDelta;
+
   /**
    * Computes the new state(s) that are produced when applying the given rule to the list of tail
    * nodes. Also computes a range of costs of doing so (the transition cost, the total (Viterbi)
@@ -73,6 +77,28 @@ public class ComputeNodeResult {
    */
   public ComputeNodeResult(List<FeatureFunction> featureFunctions, Rule rule, List<HGNode> tailNodes,
       int i, int j, SourcePath sourcePath, Sentence sentence) {
+    this(featureFunctions, rule, tailNodes, i, j, sourcePath, sentence, null);
+  }
+
+  /**
+   * As above, but with the (weighted) scores of some of the feature functions already known, e.g.,
+   * from the {@link org.apache.joshua.decoder.phrase.TranslationOptionCache}. Only the feature
+   * functions whose entry is NaN are computed. Stateful feature functions must always be computed,
+   * since their states are needed. When edge features are recorded
+   * ({@link org.apache.joshua.decoder.JoshuaConfiguration#record_edge_features}), the known scores
+   * are ignored, since the feature values are needed as well.
+   * 
+   * @param featureFunctions {@link java.util.List} of {@link org.apache.joshua.decoder.ff.FeatureFunction}'s
+   * @param rule {@link org.apache.joshua.decoder.ff.tm.Rule} to use when computing th node result
+   * @param tailNodes {@link java.util.List} of {@link org.apache.joshua.decoder.hypergraph.HGNode}'s
+   * @param i todo
+   * @param j todo
+   * @param sourcePath information about a path taken through the source lattice
+   * @param sentence the lattice input
+   * @param knownScores the score of each feature function, NaN if unknown, or null if none are known
+   */
+  public ComputeNodeResult(List<FeatureFunction> featureFunctions, Rule rule, List<HGNode> tailNodes,
+      int i, int j, SourcePath sourcePath, Sentence sentence, float[] knownScores) {
 
     // The total Viterbi cost of this edge. This is the Viterbi cost of the tail nodes, plus
     // whatever costs we incur applying this rule to create a new hyperedge.
@@ -101,6 +127,13 @@ public class ComputeNodeResult {
 
     List<DPState> allDPStates = new ArrayList<>();
 
+    // The unweighted feature values, if they are kept for k-best extraction
+    FeatureDelta.Builder features = null;
+    if (recordsFeatures(sentence)) {
+      features = new FeatureDelta.Builder();
+      knownScores = null;
+    }
+
     // The transition cost is the new cost incurred by applying this rule
     this.transitionCost = 0.0f;
 
@@ -111,8 +144,16 @@ public class ComputeNodeResult {
      * We now iterate over all the feature functions, computing their cost and their expected future
      * cost.
      */
-    for (FeatureFunction feature : featureFunctions) {
-      FeatureFunction.ScoreAccumulator acc = feature.new ScoreAccumulator(); 
+    for (int f = 0; f < featureFunctions.size(); f++) {
+      FeatureFunction feature = featureFunctions.get(f);
+      if (knownScores != null && !Float.isNaN(knownScores[f])) {
+        this.transitionCost += knownScores[f];
+        continue;
+      }
+
+      FeatureFunction.ScoreAccumulator acc = (features == null)
+          ? feature.new ScoreAccumulator()
+          : feature.new RecordingAccumulator(features);
 
       DPState newState = feature.compute(rule, tailNodes, i, j, sourcePath, sentence, acc);
       this.transitionCost += acc.getScore();
@@ -134,6 +175,11 @@ public class ComputeNodeResult {
       LOG.debug("-> COST = {}", transitionCost);
 
     this.dpStates = allDPStates;
+    this.featureDelta = (features == null) ? null : features.build();
+  }
+
+  private static boolean recordsFeatures(Sentence sentence) {
+    return sentence != null && sentence.config != null && sentence.config.record_edge_features;
   }
 
   /**
@@ -167,9 +213,46 @@ public class ComputeNodeResult {
     return cost;
   }
 
+  /**
+   * Returns the final-transition feature values of an edge into the goal node, to be kept with the
+   * edge, if edge features are recorded.
+   * 
+   * @param featureFunctions {@link java.util.List} of {@link org.apache.joshua.decoder.ff.FeatureFunction}'s
+   * @param tailNode the node the goal edge leaves from
+   * @param i todo
+   * @param j todo
+   * @param sourcePath information about a path taken through the source lattice
+   * @param sentence the lattice input
+   * @return the unweighted feature values of the edge, or null if they are not recorded
+   */
+  public static FeatureDelta computeFinalFeatureDelta(List<FeatureFunction> featureFunctions,
+      HGNode tailNode, int i, int j, SourcePath sourcePath, Sentence sentence) {
+    if (!recordsFeatures(sentence))
+      return null;
+
+    FeatureVector features = new FeatureVector();
+    for (FeatureFunction ff : featureFunctions)
+      features.add(ff.computeFinalFeatures(tailNode, i, j, sourcePath, sentence));
+    return FeatureDelta.of(features);
+  }
+
+  /**
+   * Returns the unweighted feature values of an edge. These are taken from the edge if they were
+   * recorded during search; otherwise, the feature functions are run on it again.
+   * 
+   * @param featureFunctions {@link java.util.List} of {@link org.apache.joshua.decoder.ff.FeatureFunction}'s
+   * @param edge the edge
+   * @param i todo
+   * @param j todo
+   * @param sentence the lattice input
+   * @return the feature values incurred by the edge alone
+   */
   public static FeatureVector computeTransitionFeatures(List<FeatureFunction> featureFunctions,
       HyperEdge edge, int i, int j, Sentence sentence) {
 
+    if (edge.getFeatureDelta() != null)
+      return edge.getFeatureDelta().toFeatureVector();
+
     // Initialize the set of features with those that were present with the rule in the grammar.
     FeatureVector featureDelta = new FeatureVector();
 
@@ -219,4 +302,13 @@ public class ComputeNodeResult {
   public List<DPState> getDPStates() {
     return this.dpStates;
   }
+
+  /**
+   * The unweighted feature values incurred by this edge alone, if they are recorded.
+   * 
+   * @return the feature values, or null
+   */
+  public FeatureDelta getFeatureDelta() {
+    return this.featureDelta;
+  }
 }
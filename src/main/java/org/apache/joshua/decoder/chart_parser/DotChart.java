@@ -116,7 +116,7 @@ class DotChart {
     this.pGrammar = grammar;
     this.input = input;
     this.sentLen = input.size();
-    this.dotcells = new ChartSpan<>(sentLen, null);
+    this.dotcells = chart.getArena().span(sentLen);
 
     seed();
   }
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.chart_parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.util.ChartSpan;
+
+/**
+ * Search structures that are reused from one sentence to the next. Decoding a sentence fills a
+ * chart span, many cells, and a priority queue and a visited set for every round of cube pruning,
+ * and all of them become garbage together when the sentence is done. An arena keeps them instead:
+ * a search acquires an arena, takes its structures from it, and releases it when done, which
+ * empties them and makes the arena available to the next search. The nodes and hyperedges of the
+ * hypergraph outlive the search, so they are not pooled.
+ * <p>
+ * Each concurrent search holds its own arena, so arenas need no locking. The pool of free arenas
+ * holds at most one arena per parallel decoder, and an arena only keeps structures up to a fixed
+ * size: the chart of a very long sentence, or the queue or set of a very large round of cube
+ * pruning, is left to the garbage collector rather than kept (and emptied, at a cost that grows
+ * with its capacity) for the life of the JVM. Arenas are only reused if
+ * {@link JoshuaConfiguration#reuse_search_arenas} is set.
+ */
+public class SearchArena {
+
+  // The widest chart span, and the most cells, an arena keeps
+  static final int MAX_POOLED_WIDTH = 256;
+  static final int MAX_POOLED_CELLS = 1 << 14;
+  // The most elements a queue or set may have held to be kept
+  static final int MAX_POOLED_ELEMENTS = 1 << 12;
+
+  private static final ConcurrentLinkedDeque<SearchArena> FREE = new ConcurrentLinkedDeque<>();
+  private static final AtomicInteger FREE_COUNT = new AtomicInteger();
+
+  private final boolean reusable;
+  private final int maxFree;
+
+  // Handed out until release(), in order
+  private final List<ChartSpan<?>> spans = new ArrayList<>();
+  private int spansUsed = 0;
+  private final List<Cell> cells = new ArrayList<>();
+  private int cellsUsed = 0;
+
+  // Handed out until recycled
+  private final ArrayDeque<PriorityQueue<?>> queues = new ArrayDeque<>();
+  private final ArrayDeque<HashSet<?>> sets = new ArrayDeque<>();
+
+  private SearchArena(boolean reusable, int maxFree) {
+    this.reusable = reusable;
+    this.maxFree = maxFree;
+  }
+
+  /**
+   * Returns an arena for a search to use, reusing a released one if possible.
+   * 
+   * @param config the decoder configuration
+   * @return an arena owned by the caller until {@link #release()}
+   */
+  public static SearchArena acquire(JoshuaConfiguration config) {
+    if (!config.reuse_search_arenas)
+      return new SearchArena(false, 0);
+    SearchArena arena = FREE.poll();
+    if (arena == null)
+      return new SearchArena(true, Math.max(1, config.num_parallel_decoders));
+    FREE_COUNT.decrementAndGet();
+    return arena;
+  }
+
+  /**
+   * Empties everything handed out since {@link #acquire(JoshuaConfiguration)} and makes the arena
+   * available to other searches, unless the pool already holds an arena for every parallel
+   * decoder. Nothing taken from the arena may be used afterwards.
+   */
+  public void release() {
+    if (!reusable)
+      return;
+    if (FREE_COUNT.incrementAndGet() > maxFree) {
+      FREE_COUNT.decrementAndGet();
+      return;
+    }
+
+    for (int i = 0; i < spansUsed; i++)
+      spans.get(i).fill(null);
+    spansUsed = 0;
+    for (int i = 0; i < cellsUsed; i++)
+      cells.get(i).reset(null, -1);
+    cellsUsed = 0;
+
+    FREE.push(this);
+  }
+
+  /**
+   * Returns an empty chart that can hold spans up to the given width. It may be wider.
+   * 
+   * @param width the largest span end
+   * @param <T> the type stored in the chart
+   * @return a chart with every span set to null
+   */
+  @SuppressWarnings("unchecked")
+  public <T> ChartSpan<T> span(int width) {
+    for (int i = spansUsed; i < spans.size(); i++) {
+      if (spans.get(i).getMax() >= width) {
+        ChartSpan<?> span = spans.get(i);
+        spans.set(i, spans.get(spansUsed));
+        spans.set(spansUsed++, span);
+        return (ChartSpan<T>) span;
+      }
+    }
+
+    ChartSpan<T> span = new ChartSpan<>(width, null);
+    if (reusable && width <= MAX_POOLED_WIDTH) {
+      spans.add(span);
+      spans.set(spans.size() - 1, spans.get(spansUsed));
+      spans.set(spansUsed++, span);
+    }
+    return span;
+  }
+
+  /**
+   * Returns an empty cell for the given chart.
+   */
+  Cell cell(Chart chart, int goalSymID) {
+    if (cellsUsed < cells.size()) {
+      Cell cell = cells.get(cellsUsed++);
+      cell.reset(chart, goalSymID);
+      return cell;
+    }
+
+    Cell cell = new Cell(chart, goalSymID);
+    if (reusable && cells.size() < MAX_POOLED_CELLS) {
+      cells.add(cell);
+      cellsUsed++;
+    }
+    return cell;
+  }
+
+  /**
+   * Returns an empty priority queue, ordered by its elements' natural ordering.
+   * 
+   * @param <T> the element type
+   * @return a queue to give back with {@link #recycle(PriorityQueue)} when done with it
+   */
+  @SuppressWarnings("unchecked")
+  public <T> PriorityQueue<T> queue() {
+    PriorityQueue<T> queue = (PriorityQueue<T>) queues.poll();
+    return queue != null ? queue : new PriorityQueue<>();
+  }
+
+  /**
+   * Returns an empty hash set.
+   * 
+   * @param <T> the element type
+   * @return a set to give back with {@link #recycle(HashSet)} when done with it
+   */
+  @SuppressWarnings("unchecked")
+  public <T> HashSet<T> set() {
+    HashSet<T> set = (HashSet<T>) sets.poll();
+    return set != null ? set : new HashSet<>();
+  }
+
+  /**
+   * Empties a queue taken from this arena and keeps it for reuse, unless it holds too many
+   * elements to be worth keeping.
+   * 
+   * @param queue the queue, which must not be used afterwards
+   */
+  public void recycle(PriorityQueue<?> queue) {
+    if (reusable && queue.size() <= MAX_POOLED_ELEMENTS) {
+      queue.clear();
+      queues.push(queue);
+    }
+  }
+
+  /**
+   * Empties a set taken from this arena and keeps it for reuse, unless it holds too many elements
+   * to be worth keeping: emptying a set takes time in proportion to its capacity.
+   * 
+   * @param set the set, which must not be used afterwards
+   */
+  public void recycle(HashSet<?> set) {
+    if (reusable && set.size() <= MAX_POOLED_ELEMENTS) {
+      set.clear();
+      sets.push(set);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The unweighted feature values incurred by a single hyperedge, recorded during search so that
+ * the feature vector of a derivation can be assembled by summing the records of its edges, instead
+ * of replaying the feature functions on every edge. Dense features are stored by id and sparse
+ * features by name, each next to its value.
+ * 
+ * Recording is enabled with {@link org.apache.joshua.decoder.JoshuaConfiguration#record_edge_features}.
+ */
+public final class FeatureDelta {
+
+  private static final int[] NO_IDS = new int[0];
+  private static final float[] NO_VALUES = new float[0];
+  private static final String[] NO_NAMES = new String[0];
+
+  private final int[] denseIds;
+  private final float[] denseValues;
+  private final String[] sparseNames;
+  private final float[] sparseValues;
+
+  private FeatureDelta(int[] denseIds, float[] denseValues, String[] sparseNames,
+      float[] sparseValues) {
+    this.denseIds = denseIds;
+    this.denseValues = denseValues;
+    this.sparseNames = sparseNames;
+    this.sparseValues = sparseValues;
+  }
+
+  /**
+   * Records the values of a feature vector.
+   * 
+   * @param features the unweighted feature values of an edge
+   * @return the record
+   */
+  public static FeatureDelta of(FeatureVector features) {
+    Builder builder = new Builder();
+    List<Float> dense = features.getDenseFeatures();
+    for (int id = 0; id < dense.size(); id++)
+      builder.add(id, dense.get(id));
+    for (Map.Entry<String, Float> entry : features.getSparseFeatures().entrySet())
+      builder.add(entry.getKey(), entry.getValue());
+    return builder.build();
+  }
+
+  /**
+   * Adds the recorded values to a feature vector, as
+   * {@link FeatureVector#add(FeatureVector)} would.
+   * 
+   * @param features the vector to add to
+   */
+  public void addTo(FeatureVector features) {
+    for (int k = 0; k < denseIds.length; k++)
+      features.increment(denseIds[k], denseValues[k]);
+    for (int k = 0; k < sparseNames.length; k++)
+      features.increment(sparseNames[k], sparseValues[k]);
+  }
+
+  /**
+   * Returns the recorded values as a new feature vector.
+   * 
+   * @return the unweighted feature values of the edge
+   */
+  public FeatureVector toFeatureVector() {
+    FeatureVector features = new FeatureVector();
+    addTo(features);
+    return features;
+  }
+
+  /**
+   * Collects the values of an edge as the feature functions report them, summing the values
+   * reported for the same feature in the order in which they arrive, like a
+   * {@link FeatureVector} does.
+   */
+  public static class Builder {
+    private int[] denseIds = NO_IDS;
+    private float[] denseValues = NO_VALUES;
+    private int denseSize = 0;
+    private String[] sparseNames = NO_NAMES;
+    private float[] sparseValues = NO_VALUES;
+    private int sparseSize = 0;
+
+    public void add(int id, float value) {
+      for (int k = 0; k < denseSize; k++) {
+        if (denseIds[k] == id) {
+          denseValues[k] += value;
+          return;
+        }
+      }
+      if (denseSize == denseIds.length) {
+        denseIds = Arrays.copyOf(denseIds, Math.max(4, 2 * denseSize));
+        denseValues = Arrays.copyOf(denseValues, denseIds.length);
+      }
+      denseIds[denseSize] = id;
+      denseValues[denseSize++] = value;
+    }
+
+    public void add(String name, float value) {
+      for (int k = 0; k < sparseSize; k++) {
+        if (sparseNames[k].equals(name)) {
+          sparseValues[k] += value;
+          return;
+        }
+      }
+      if (sparseSize == sparseNames.length) {
+        sparseNames = Arrays.copyOf(sparseNames, Math.max(4, 2 * sparseSize));
+        sparseValues = Arrays.copyOf(sparseValues, sparseNames.length);
+      }
+      sparseNames[sparseSize] = name;
+      sparseValues[sparseSize++] = value;
+    }
+
+    public FeatureDelta build() {
+      return new FeatureDelta(
+          denseSize == 0 ? NO_IDS : Arrays.copyOf(denseIds, denseSize),
+          denseSize == 0 ? NO_VALUES : Arrays.copyOf(denseValues, denseSize),
+          sparseSize == 0 ? NO_NAMES : Arrays.copyOf(sparseNames, sparseSize),
+          sparseSize == 0 ? NO_VALUES : Arrays.copyOf(sparseValues, sparseSize));
+    }
+  }
+}
@@ -125,6 +125,14 @@ public abstract class FeatureFunction {
     return new ArrayList<>();
   }
 
+  /**
+   * Called when the decoder's weights have been changed in place, so that a feature function that
+   * caches its weights can read them again. Features that look their weights up when they need them
+   * have nothing to do.
+   */
+  public void updateWeights() {
+  }
+
   public String logString() {
     try {
       return String.format("%s (weight %.3f)", name, weights.getSparse(name));
@@ -344,6 +352,30 @@ public abstract class FeatureFunction {
     }
   }
 
+  /**
+   * Computes the weighted score like {@link ScoreAccumulator}, and also records the unweighted
+   * feature values, for when search keeps each edge's {@link FeatureDelta}.
+   */
+  public class RecordingAccumulator extends ScoreAccumulator {
+    private final FeatureDelta.Builder features;
+
+    public RecordingAccumulator(FeatureDelta.Builder features) {
+      this.features = features;
+    }
+
+    @Override
+    public void add(String name, float value) {
+      super.add(name, value);
+      features.add(name, value);
+    }
+
+    @Override
+    public void add(int id, float value) {
+      super.add(id, value);
+      features.add(id, value);
+    }
+  }
+
   public class FeatureAccumulator implements Accumulator {
     private final FeatureVector features;
 
@@ -67,6 +67,17 @@ public class PhraseModel extends StatelessFF {
     
   }
 
+  /**
+   * Reads the cached weights of the grammar's features again. The precomputed costs of the rules
+   * use the old weights until the grammar forgets them (see
+   * {@link org.apache.joshua.decoder.ff.tm.Grammar#invalidateSortedRules()}).
+   */
+  @Override
+  public void updateWeights() {
+    for (int i = 0; i < phrase_weights.length; i++)
+      phrase_weights[i] = weights.getWeight(String.format("tm_%s_%d", owner, i));
+  }
+
   /**
    * Just register a single weight, tm_OWNER, and use that to set its precomputed cost
    */
@@ -75,6 +75,15 @@ public abstract class StatefulFF extends FeatureFunction {
   public abstract DPState compute(Rule rule, List<HGNode> tailNodes, int i, int j,
       SourcePath sourcePath, Sentence sentence, Accumulator acc);
 
+  /**
+   * Returns the state that {@link #compute} would return for this rule application, if it can be
+   * found without scoring it, and null otherwise (the default). The phrase-based decoder uses this
+   * to recognize candidates that would recombine with a hypothesis already in the stack.
+   */
+  public DPState computeState(Rule rule, List<HGNode> tailNodes, int i, int j, Sentence sentence) {
+    return null;
+  }
+
   @Override
   public abstract DPState computeFinal(HGNode tailNodes, int i, int j, SourcePath sourcePath,
       Sentence sentence, Accumulator acc);
@@ -94,8 +94,8 @@ public class LanguageModelFF extends StatefulFF {
   /**
    * We cache the weight of the feature since there is only one.
    */
-  protected final float weight;
-  protected final float oovWeight;
+  protected float weight;
+  protected float oovWeight;
   protected String type;
   protected final String path;
 
@@ -132,6 +132,12 @@ public class LanguageModelFF extends StatefulFF {
     initializeLM();
   }
 
+  @Override
+  public void updateWeights() {
+    this.weight = weights.getWeight(name);
+    this.oovWeight = weights.getWeight(oovFeatureName);
+  }
+
   @Override
   public ArrayList<String> reportDenseFeatures(int index) {
     denseFeatureIndex = index;
@@ -211,6 +217,19 @@ public class LanguageModelFF extends StatefulFF {
 
 	}
 
+  /**
+   * The state only depends on the words, so it is found without querying the language model.
+   */
+  @Override
+  public DPState computeState(Rule rule, List<HGNode> tailNodes, int i, int j, Sentence sentence) {
+    if (rule == null) {
+      return null;
+    }
+
+    int[] words = config.source_annotations ? getTags(rule, i, j, sentence) : getRuleIds(rule);
+    return computeTransition(words, tailNodes, null);
+  }
+
   /**
    * Retrieve ids from rule. These are either simply the rule ids on the target
    * side, their corresponding class map ids, or the configured source-side
@@ -390,6 +409,8 @@ public class LanguageModelFF extends StatefulFF {
    * than the complete n-gram state remain *unscored*. This fact adds a lot of complication to the
    * code, including the use of the computeFinal* family of functions, which correct this fact for
    * sentences that are too short on the final transition.
+   * 
+   * If the accumulator is null, only the state is computed.
    */
   private NgramDPState computeTransition(int[] enWords, List<HGNode> tailNodes, Accumulator acc) {
 
@@ -416,9 +437,11 @@ public class LanguageModelFF extends StatefulFF {
 
           if (ccount == this.ngramOrder) {
             // Compute the current word probability, and remove it.
-            float prob = this.languageModel.ngramLogProbability(current, this.ngramOrder);
-            //            System.err.println(String.format("-> prob(%s) = %f", Vocabulary.getWords(current), prob));
-            transitionLogP += prob;
+            if (acc != null) {
+              float prob = this.languageModel.ngramLogProbability(current, this.ngramOrder);
+              //            System.err.println(String.format("-> prob(%s) = %f", Vocabulary.getWords(current), prob));
+              transitionLogP += prob;
+            }
             System.arraycopy(current, 1, shadow, 0, this.ngramOrder - 1);
             int[] tmp = current;
             current = shadow;
@@ -435,9 +458,11 @@ public class LanguageModelFF extends StatefulFF {
 
         if (ccount == this.ngramOrder) {
           // Compute the current word probability, and remove it.s
-          float prob = this.languageModel.ngramLogProbability(current, this.ngramOrder);
-          //          System.err.println(String.format("-> prob(%s) = %f", Vocabulary.getWords(current), prob));
-          transitionLogP += prob;
+          if (acc != null) {
+            float prob = this.languageModel.ngramLogProbability(current, this.ngramOrder);
+            //          System.err.println(String.format("-> prob(%s) = %f", Vocabulary.getWords(current), prob));
+            transitionLogP += prob;
+          }
           System.arraycopy(current, 1, shadow, 0, this.ngramOrder - 1);
           int[] tmp = current;
           current = shadow;
@@ -447,7 +472,8 @@ public class LanguageModelFF extends StatefulFF {
       }
     }
     //    acc.add(name, transitionLogP);
-    acc.add(denseFeatureIndex, transitionLogP);
+    if (acc != null)
+      acc.add(denseFeatureIndex, transitionLogP);
 
     if (left_context != null) {
       return new NgramDPState(left_context, Arrays.copyOfRange(current, ccount - this.ngramOrder
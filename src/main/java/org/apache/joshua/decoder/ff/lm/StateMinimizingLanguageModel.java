@@ -87,6 +87,14 @@ public class StateMinimizingLanguageModel extends LanguageModelFF {
 
   private UUID languageModelPoolId = UUID.randomUUID();
 
+  /**
+   * KenLM only hands out the state along with the probability.
+   */
+  @Override
+  public DPState computeState(Rule rule, List<HGNode> tailNodes, int i, int j, Sentence sentence) {
+    return null;
+  }
+
   /**
    * Computes the features incurred along this edge. Note that these features are unweighted costs
    * of the feature; they are the feature cost, not the model cost, or the inner product of them.
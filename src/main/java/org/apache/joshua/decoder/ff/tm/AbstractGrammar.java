@@ -18,6 +18,7 @@
  */
 package org.apache.joshua.decoder.ff.tm;
 
+import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.List;
 
@@ -127,6 +128,22 @@ public abstract class AbstractGrammar implements Grammar {
     return sorted;
   }
 
+  /* See Javadoc comments for Grammar interface. */
+  public void invalidateSortedRules() {
+    ArrayDeque<Trie> nodes = new ArrayDeque<>();
+    if (getTrieRoot() != null)
+      nodes.push(getTrieRoot());
+    while (!nodes.isEmpty()) {
+      Trie node = nodes.pop();
+      if (node.hasRules())
+        node.getRuleCollection().invalidateSort();
+      if (node.hasExtensions())
+        for (Trie child : node.getExtensions())
+          nodes.push(child);
+    }
+    setSorted(false);
+  }
+
   /**
    * Sets the flag indicating whether this grammar is sorted.
    * <p>
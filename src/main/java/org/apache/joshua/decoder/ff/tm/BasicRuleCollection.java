@@ -95,6 +95,13 @@ public class BasicRuleCollection implements RuleCollection {
     return this.rules;
   }
 
+  @Override
+  public synchronized void invalidateSort() {
+    for (Rule rule : getRules())
+      rule.invalidateCosts();
+    this.sorted = false;
+  }
+
   public int[] getSourceSide() {
     return this.sourceTokens;
   }
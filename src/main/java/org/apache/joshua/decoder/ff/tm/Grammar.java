@@ -60,6 +60,16 @@ public interface Grammar {
    */
   boolean isSorted();
 
+  /**
+   * Forgets the cost estimates of the rules, which depend on the weights, along with the order
+   * they were sorted in. The rules are estimated and sorted again, with the current weights, the
+   * next time they are asked for (see {@link RuleCollection#getSortedRules(List)}), or by
+   * {@link #sortGrammar(List)}.
+   * <p>
+   * This must not be called while sentences are being decoded with the grammar.
+   */
+  void invalidateSortedRules();
+
   /**
    * Returns whether this grammar has any valid rules for covering a particular span of a sentence.
    * Hiero's "glue" grammar will only say True if the span is longer than our span limit, and is
@@ -117,6 +127,14 @@ public interface Grammar {
    * @param rule the {@link org.apache.joshua.decoder.ff.tm.Rule}
    */
   void addRule(Rule rule);
+
+  /**
+   * Remove a rule from the grammar. The rule to remove is identified by its source and target
+   * sides.
+   *
+   * @param rule the {@link org.apache.joshua.decoder.ff.tm.Rule}
+   */
+  void removeRule(Rule rule);
   
   /**
    * Write the grammar out to some permanent location (disk, database, etc).
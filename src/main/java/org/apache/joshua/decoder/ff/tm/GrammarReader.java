@@ -19,13 +19,25 @@
 package org.apache.joshua.decoder.ff.tm;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
 
 import org.apache.joshua.decoder.Decoder;
 import org.apache.joshua.util.io.LineReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * This is a base class for simple, ASCII line-based grammars that are stored on disk.
  * 
@@ -154,5 +166,70 @@ public abstract class GrammarReader<R extends Rule> implements Iterable<R>, Iter
     return parseLine(line);
   }
 
+  /**
+   * Parses the remaining lines on several threads, and hands the rules to <code>consumer</code> on
+   * this thread, in file order. The lines are read in chunks, with a bounded number of chunks in
+   * flight. Before a chunk is handed to a parsing thread, its symbols are added to the vocabulary
+   * on this thread, in file order (see {@link #internSymbols(String)}), so that the parsing
+   * threads only look up existing ids, and the word ids are the same as those of a sequential
+   * load.
+   * 
+   * @param numThreads the number of parsing threads
+   * @param chunkSize the number of lines parsed by a thread at a time
+   * @param consumer receives the rules (null for lines that don't yield one)
+   */
+  public void parseInParallel(int numThreads, int chunkSize, Consumer<R> consumer) {
+    final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+        .setNameFormat("GrammarLoader-%d")
+        .setDaemon(true)
+        .build();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads, threadFactory);
+    Deque<Future<List<R>>> chunks = new ArrayDeque<>();
+    try {
+      while (hasNext()) {
+        final List<String> lines = nextLines(chunkSize);
+        for (String line : lines)
+          internSymbols(line);
+        chunks.add(executor.submit(() -> parseLines(lines)));
+        if (chunks.size() >= 2 * numThreads)
+          chunks.remove().get().forEach(consumer);
+      }
+      while (!chunks.isEmpty())
+        chunks.remove().get().forEach(consumer);
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(String.format("Failed to load grammar '%s'", fileName), e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /* Reads up to maxLines raw lines without parsing them. */
+  private List<String> nextLines(int maxLines) {
+    List<String> lines = new ArrayList<>(maxLines);
+    while (lookAhead != null && lines.size() < maxLines) {
+      lines.add(lookAhead);
+      advanceReader();
+    }
+    return lines;
+  }
+
+  private List<R> parseLines(List<String> lines) {
+    List<R> rules = new ArrayList<>(lines.size());
+    for (String line : lines)
+      rules.add(parseLine(line));
+    return rules;
+  }
+
+  /**
+   * Adds the symbols of a line to the vocabulary, in the order in which {@link #parseLine(String)}
+   * adds them. This default parses the line; readers whose parsing may run on several threads
+   * should override it with something cheaper.
+   * 
+   * @param line a line of the grammar
+   */
+  protected void internSymbols(String line) {
+    parseLine(line);
+  }
+
   protected abstract R parseLine(String line);
 }
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
+import org.apache.joshua.util.io.LineReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A persistent, append-only log of the rules added to and removed from a grammar at runtime (e.g.,
+ * through the server's add_rule and remove_rule commands). Instead of rewriting the grammar file
+ * after every update, each update is appended to a log next to it (<code>GRAMMAR.log</code>), which
+ * is replayed on top of the grammar file when the grammar is next loaded.
+ * <p>
+ * After a number of updates, the log is compacted in the background: the log is set aside
+ * (appended to the set-aside log of an earlier compaction that failed, if there is one), the
+ * current grammar is written to a temporary file that then atomically replaces the grammar file,
+ * and the set-aside log is deleted. Updates are not blocked while the grammar is written, since
+ * the trie of a loaded {@link org.apache.joshua.decoder.ff.tm.hash_based.MemoryBasedBatchGrammar}
+ * is never modified in place. If the decoder stops during a compaction, the set-aside log is
+ * replayed as well; rules that are already in the grammar are not added twice.
+ */
+public class GrammarUpdateLog implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GrammarUpdateLog.class);
+
+  private static final char ADD = '+';
+  private static final char REMOVE = '-';
+
+  private final Grammar grammar;
+  private final File grammarFile;
+  private final File logFile;
+  private final File compactingLogFile;
+  private final int compactionInterval;
+
+  private final ExecutorService compactor;
+
+  /* Serializes compactions, which run without holding the lock on this object. */
+  private final Object compactionLock = new Object();
+
+  /* The open log (guarded by this), and the number of updates since the last compaction. */
+  private Writer log = null;
+  private int numUpdates = 0;
+  private Future<?> pendingCompaction = null;
+
+  /**
+   * @param grammar the grammar to update
+   * @param grammarFile the file the grammar was loaded from
+   * @param compactionInterval the number of updates after which the log is compacted
+   */
+  public GrammarUpdateLog(Grammar grammar, String grammarFile, int compactionInterval) {
+    this.grammar = grammar;
+    this.grammarFile = new File(grammarFile);
+    this.logFile = new File(grammarFile + ".log");
+    this.compactingLogFile = new File(grammarFile + ".log.compacting");
+    this.compactionInterval = compactionInterval;
+    this.compactor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("GrammarCompactor-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Applies the updates recorded in the log (and in a log left behind by an interrupted
+   * compaction) to the grammar. This should be called once, right after the grammar is loaded.
+   * 
+   * @return the number of updates applied
+   * @throws IOException if a log cannot be read
+   */
+  public synchronized int replay() throws IOException {
+    int count = replay(compactingLogFile) + replay(logFile);
+    numUpdates += count;
+    return count;
+  }
+
+  private int replay(File file) throws IOException {
+    if (!file.exists())
+      return 0;
+
+    HieroFormatReader reader = new HieroFormatReader();
+    int count = 0;
+    try (LineReader lines = new LineReader(file.getPath())) {
+      for (String line : lines) {
+        if (line.length() < 3)
+          continue;
+        Rule rule = reader.parseLine(line.substring(2));
+        if (line.charAt(0) == ADD) {
+          if (!contains(grammar.getTrieRoot(), rule))
+            grammar.addRule(rule);
+        } else if (line.charAt(0) == REMOVE) {
+          grammar.removeRule(rule);
+        } else {
+          LOG.warn("Skipping invalid line in grammar log '{}': {}", file, line);
+          continue;
+        }
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /* Whether the trie has a rule with the same source and target sides. */
+  private static boolean contains(Trie trie, Rule rule) {
+    for (int word : rule.getFrench()) {
+      if (trie == null)
+        return false;
+      trie = trie.match(word);
+    }
+    if (trie == null || !trie.hasRules())
+      return false;
+    for (Rule candidate : snapshot(trie.getRuleCollection()))
+      if (Arrays.equals(candidate.getEnglish(), rule.getEnglish()))
+        return true;
+    return false;
+  }
+
+  /**
+   * Adds a rule to the grammar and records it in the log.
+   * 
+   * @param rule the rule to add
+   * @throws IOException if the log cannot be written
+   */
+  public synchronized void addRule(Rule rule) throws IOException {
+    grammar.addRule(rule);
+    append(ADD, rule);
+  }
+
+  /**
+   * Removes a rule from the grammar and records the removal in the log.
+   * 
+   * @param rule the rule to remove, identified by its source and target sides
+   * @throws IOException if the log cannot be written
+   */
+  public synchronized void removeRule(Rule rule) throws IOException {
+    grammar.removeRule(rule);
+    append(REMOVE, rule);
+  }
+
+  private void append(char type, Rule rule) throws IOException {
+    if (log == null)
+      log = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), UTF_8));
+    log.write(type);
+    log.write(' ');
+    log.write(rule.textFormat());
+    log.write('\n');
+    log.flush();
+
+    if (++numUpdates >= compactionInterval
+        && (pendingCompaction == null || pendingCompaction.isDone())) {
+      pendingCompaction = compactor.submit(() -> {
+        try {
+          compact();
+        } catch (IOException e) {
+          LOG.error("Failed to compact the log of grammar '{}'", grammarFile, e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Writes the current grammar to the grammar file, and discards the log of the updates it now
+   * contains. Updates made while the grammar is being written are logged as usual.
+   * 
+   * @throws IOException if the grammar cannot be written
+   */
+  public void compact() throws IOException {
+    synchronized (compactionLock) {
+      Trie root;
+      synchronized (this) {
+        if (numUpdates == 0 && !compactingLogFile.exists())
+          return;
+        if (log != null) {
+          log.close();
+          log = null;
+        }
+        if (logFile.exists())
+          setAsideLog();
+        root = grammar.getTrieRoot();
+        numUpdates = 0;
+      }
+
+      LOG.info("Compacting the log of grammar '{}'", grammarFile);
+      File tmpFile = new File(grammarFile.getPath() + ".tmp");
+      write(root, tmpFile);
+      Files.move(tmpFile.toPath(), grammarFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+      Files.deleteIfExists(compactingLogFile.toPath());
+    }
+  }
+
+  /*
+   * Moves the log to the set-aside log. A set-aside log left behind by a failed compaction (or
+   * replayed after an interrupted one) holds updates that are not in the grammar file yet, so the
+   * log is appended to it rather than replacing it.
+   */
+  private void setAsideLog() throws IOException {
+    if (!compactingLogFile.exists()) {
+      Files.move(logFile.toPath(), compactingLogFile.toPath());
+      return;
+    }
+    try (OutputStream out = new FileOutputStream(compactingLogFile, true)) {
+      Files.copy(logFile.toPath(), out);
+    }
+    Files.delete(logFile.toPath());
+  }
+
+  /* Writes all rules in the trie in the text format, breadth first (as in Grammar.save()). */
+  private static void write(Trie root, File file) throws IOException {
+    try (Writer out = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), UTF_8))) {
+      Deque<Trie> nodes = new ArrayDeque<>();
+      nodes.add(root);
+      while (!nodes.isEmpty()) {
+        Trie trie = nodes.remove();
+        if (trie.hasRules())
+          for (Rule rule : snapshot(trie.getRuleCollection()))
+            out.write(rule.textFormat() + "\n");
+        if (trie.hasExtensions())
+          nodes.addAll(trie.getExtensions());
+      }
+    }
+  }
+
+  /* Copies the rules, which may be sorted concurrently (see BasicRuleCollection.getSortedRules()). */
+  private static List<Rule> snapshot(RuleCollection rules) {
+    synchronized (rules) {
+      return new ArrayList<>(rules.getRules());
+    }
+  }
+
+  /**
+   * Waits for a running compaction and closes the log. Any remaining updates stay in the log, to be
+   * replayed when the grammar is next loaded.
+   */
+  @Override
+  public void close() throws IOException {
+    compactor.shutdown();
+    try {
+      compactor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (log != null) {
+        log.close();
+        log = null;
+      }
+    }
+  }
+}
@@ -28,9 +28,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
-
 import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.ff.FeatureFunction;
 import org.apache.joshua.decoder.ff.FeatureVector;
@@ -59,10 +56,14 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
                          // Source side
   protected int arity;
 
-  // And a string containing the sparse ones
-  //protected final String sparseFeatureString;
-  protected final Supplier<String> sparseFeatureStringSupplier;
-  private final Supplier<FeatureVector> featuresSupplier;
+  /*
+   * The feature string and the feature vector are two views of the same features. A rule is
+   * constructed with one of them and the other is derived on first access. These are plain volatile
+   * fields rather than memoizing Suppliers so that rules, which are created in large numbers, hold
+   * no objects beyond the ones they actually use. Computing a value twice under a race is harmless.
+   */
+  private volatile String sparseFeatureString;
+  private volatile FeatureVector features;
 
   /*
    * a feature function will be fired for this rule only if the owner of the rule matches the owner
@@ -80,11 +81,11 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
 
   private float precomputableCost = Float.NEGATIVE_INFINITY;
 
-  private int[] target;
+  private volatile int[] target;
 
   // The alignment string, e.g., 0-0 0-1 1-1 2-1
   private String alignmentString;
-  private final Supplier<byte[]> alignmentSupplier;
+  private volatile byte[] alignment;
 
   /**
    * Constructs a new rule using the provided parameters. Rule id for this rule is
@@ -107,9 +108,7 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
     this.arity = arity;
     this.owner = owner;
     this.target = target;
-    this.sparseFeatureStringSupplier = Suppliers.memoize(() -> sparseFeatures);
-    this.featuresSupplier = initializeFeatureSupplierFromString();
-    this.alignmentSupplier = initializeAlignmentSupplier();
+    this.sparseFeatureString = sparseFeatures;
   }
   
   /**
@@ -127,9 +126,7 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
     this.arity = arity;
     this.owner = owner;
     this.target = targetRhs;
-    this.featuresSupplier = Suppliers.memoize(() -> features);
-    this.sparseFeatureStringSupplier = initializeSparseFeaturesStringSupplier();
-    this.alignmentSupplier = initializeAlignmentSupplier();
+    this.features = features;
   }
 
   /**
@@ -160,52 +157,57 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
   }
   
   /**
-   * Constructor (implicitly) used by PackedRule
+   * Constructor (implicitly) used by PackedRule, which stores nothing but an address into the
+   * packed grammar and overrides the compute*() methods below to decode from there.
    */
   public Rule() {
     this.lhs = -1;
-    this.sparseFeatureStringSupplier = initializeSparseFeaturesStringSupplier();
-    this.featuresSupplier = initializeFeatureSupplierFromString();
-    this.alignmentSupplier = initializeAlignmentSupplier();
   }
 
   // ==========================================================================
-  // Lazy loading Suppliers for alignments, feature vector, and feature strings
+  // Lazy computation of the target side, alignments and feature vector. These
+  // are called at most once per rule (barring races) by the getters below.
   // ==========================================================================
-  
-  private Supplier<byte[]> initializeAlignmentSupplier(){
-    return Suppliers.memoize(() ->{
-      byte[] alignment = null;
-      String alignmentString = getAlignmentString();
-      if (alignmentString != null) {
-        String[] tokens = alignmentString.split("[-\\s]+");
-        alignment = new byte[tokens.length];
-        for (int i = 0; i < tokens.length; i++)
-          alignment[i] = (byte) Short.parseShort(tokens[i]);
-      }
-      return alignment;
-    });
+
+  /**
+   * Computes the target side of a rule that was constructed without one.
+   * 
+   * @return the target side, or null if the rule has none
+   */
+  protected int[] computeEnglish() {
+    return null;
   }
-  
+
   /**
-   * If Rule was constructed with sparseFeatures String, we lazily populate the
-   * FeatureSupplier.
+   * Parses the alignment string into an array of alternating source and target positions.
+   * 
+   * @return the alignment points, or null if the rule has no alignment
    */
-  private Supplier<FeatureVector> initializeFeatureSupplierFromString(){
-    return Suppliers.memoize(() ->{
-      if (!owner.equals(UNKNOWN_OWNER_ID)) {
-        return new FeatureVector(getFeatureString(), "tm_" + OwnerMap.getOwner(owner) + "_");
-      } else {
-        return new FeatureVector();
-      }
-    });
+  protected byte[] computeAlignment() {
+    byte[] points = null;
+    String alignmentString = getAlignmentString();
+    if (alignmentString != null) {
+      String[] tokens = alignmentString.split("[-\\s]+");
+      points = new byte[tokens.length];
+      for (int i = 0; i < tokens.length; i++)
+        points[i] = (byte) Short.parseShort(tokens[i]);
+    }
+    return points;
   }
-  
+
   /**
-   * If Rule was constructed with a FeatureVector, we lazily populate the sparseFeaturesStringSupplier.
+   * Builds the feature vector from the sparse feature string the rule was constructed with. The
+   * unlabeled features can only be named once the owner is known.
+   * 
+   * @return the rule's features
    */
-  private Supplier<String> initializeSparseFeaturesStringSupplier() {
-    return Suppliers.memoize(() -> getFeatureVector().toString());
+  protected FeatureVector computeFeatureVector() {
+    String featureString = this.sparseFeatureString;
+    if (featureString != null && !owner.equals(UNKNOWN_OWNER_ID)) {
+      return new FeatureVector(featureString, "tm_" + OwnerMap.getOwner(owner) + "_");
+    } else {
+      return new FeatureVector();
+    }
   }
 
   // ===============================================================
@@ -217,7 +219,10 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
   }
 
   public int[] getEnglish() {
-    return this.target;
+    int[] english = this.target;
+    if (english == null)
+      this.target = english = computeEnglish();
+    return english;
   }
 
   /**
@@ -238,14 +243,14 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
     if (!Arrays.equals(getFrench(), other.getFrench())) {
       return false;
     }
-    return Arrays.equals(target, other.getEnglish());
+    return Arrays.equals(getEnglish(), other.getEnglish());
   }
 
   public int hashCode() {
     // I just made this up. If two rules are equal they'll have the
     // same hashcode. Maybe someone else can do a better job though?
     int frHash = Arrays.hashCode(getFrench());
-    int enHash = Arrays.hashCode(target);
+    int enHash = Arrays.hashCode(getEnglish());
     return frHash ^ enHash ^ getLHS();
   }
 
@@ -298,7 +303,10 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
    * @return the {@link org.apache.joshua.decoder.ff.FeatureVector} for this rule
    */
   public FeatureVector getFeatureVector() {
-    return featuresSupplier.get();
+    FeatureVector featureVector = this.features;
+    if (featureVector == null)
+      this.features = featureVector = computeFeatureVector();
+    return featureVector;
   }
 
   /**
@@ -351,6 +359,15 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
     return precomputableCost;
   }
   
+  /**
+   * Forgets the estimated and the precomputable costs, which depend on the weights, so that they
+   * are computed again, with the current weights, when next asked for.
+   */
+  public void invalidateCosts() {
+    this.estimatedCost = Float.NEGATIVE_INFINITY;
+    this.precomputableCost = Float.NEGATIVE_INFINITY;
+  }
+
   public float getDenseFeature(int k) {
     return getFeatureVector().getDense(k);
   }
@@ -438,17 +455,23 @@ public class Rule implements Comparator<Rule>, Comparable<Rule> {
   }
 
   public String getFeatureString() {
-    return sparseFeatureStringSupplier.get();
+    String featureString = this.sparseFeatureString;
+    if (featureString == null)
+      this.sparseFeatureString = featureString = getFeatureVector().toString();
+    return featureString;
   }
 
   /**
    * Returns an alignment as a sequence of integers. The integers at positions i and i+1 are paired,
    * with position i indexing the source and i+1 the target.
    * 
-   * @return a byte[] from the {@link com.google.common.base.Supplier}
+   * @return the alignment points, or null if the rule has no alignment
    */
   public byte[] getAlignment() {
-    return this.alignmentSupplier.get();
+    byte[] points = this.alignment;
+    if (points == null)
+      this.alignment = points = computeAlignment();
+    return points;
   }
   
   public String getAlignmentString() {
@@ -50,6 +50,14 @@ public interface RuleCollection {
    */
   List<Rule> getSortedRules(List<FeatureFunction> models);
 
+  /**
+   * Forgets the cost estimates of the rules and their order, so that the next call to
+   * {@link #getSortedRules(List)} estimates and sorts them again with the current weights.
+   * 
+   * Implementations of this function should be synchronized.
+   */
+  void invalidateSort();
+
   /**
    * Get the list of rules. There are no guarantees about whether they're sorted or not.
    * @return the {@link java.util.List} of rules, there is no gurantee they will be sorted
@@ -23,7 +23,6 @@ import java.io.IOException;
 import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.ff.tm.GrammarReader;
 import org.apache.joshua.decoder.ff.tm.Rule;
-import org.apache.joshua.util.Constants;
 import org.apache.joshua.util.FormatUtils;
 
 /**
@@ -48,7 +47,7 @@ public class HieroFormatReader extends GrammarReader<Rule> {
 
   @Override
   public Rule parseLine(String line) {
-    String[] fields = line.split(Constants.fieldDelimiter);
+    String[] fields = FormatUtils.splitFields(line);
     if (fields.length < 3) {
       throw new RuntimeException(String.format("Rule '%s' does not have four fields", line));
     }
@@ -59,7 +58,7 @@ public class HieroFormatReader extends GrammarReader<Rule> {
      * On the foreign side, we map nonterminals to negative IDs, and terminals to positive IDs.
      */
     int arity = 0;
-    String[] sourceWords = fields[1].split("\\s+");
+    String[] sourceWords = FormatUtils.splitSpaces(fields[1]);
     int[] sourceIDs = new int[sourceWords.length];
     for (int i = 0; i < sourceWords.length; i++) {
       /* NOTE: This redundantly creates vocab items for terms like [X,1]. This might actually
@@ -85,7 +84,7 @@ public class HieroFormatReader extends GrammarReader<Rule> {
      * the English side nonterminals will be -2, -1, -3. This assumes that the source side of
      * the rule is always listed monotonically.
      */
-    String[] targetWords = fields[2].split("\\s+");
+    String[] targetWords = FormatUtils.splitSpaces(fields[2]);
     int[] targetIDs = new int[targetWords.length];
     for (int i = 0; i < targetWords.length; i++) {
       targetIDs[i] = Vocabulary.id(targetWords[i]);
@@ -100,6 +99,29 @@ public class HieroFormatReader extends GrammarReader<Rule> {
     return new Rule(lhs, sourceIDs, targetIDs, sparse_features, arity, alignment);
   }
   
+  /**
+   * Adds the left-hand side, source and target symbols of a rule to the vocabulary, in the order
+   * in which {@link #parseLine(String)} adds them.
+   */
+  @Override
+  protected void internSymbols(String line) {
+    String[] fields = FormatUtils.splitFields(line);
+    if (fields.length < 3) {
+      return; // parseLine reports the malformed rule
+    }
+
+    Vocabulary.id(fields[0]);
+    for (String word : FormatUtils.splitSpaces(fields[1])) {
+      Vocabulary.id(word);
+      if (FormatUtils.isNonterminal(word)) {
+        Vocabulary.id(FormatUtils.stripNonTerminalIndex(word));
+      }
+    }
+    for (String word : FormatUtils.splitSpaces(fields[2])) {
+      Vocabulary.id(word);
+    }
+  }
+
   public static boolean isNonTerminal(final String word) {
     return FormatUtils.isNonterminal(word);
   }
@@ -69,12 +69,12 @@ public class MosesFormatReader extends HieroFormatReader {
    */
   @Override
   public Rule parseLine(String line) {
-    String[] fields = line.split(Constants.fieldDelimiter);
+    String[] fields = FormatUtils.splitFields(line);
     
     StringBuffer hieroLine = new StringBuffer(Constants.defaultNT + " ||| " + fields[0] + " ||| " + fields[1] + " |||");
 
     String mosesFeatureString = fields[2];
-    for (String value: mosesFeatureString.split(" ")) {
+    for (String value: FormatUtils.splitSpaces(mosesFeatureString)) {
       float f = Float.parseFloat(value);
       hieroLine.append(String.format(" %f", f <= 0.0 ? -100 : -Math.log(f)));
     }
@@ -86,6 +86,14 @@ public class MosesFormatReader extends HieroFormatReader {
     return super.parseLine(hieroLine.toString());
   }
   
+  @Override
+  protected void internSymbols(String line) {
+    String[] fields = FormatUtils.splitFields(line);
+    if (fields.length >= 2) {
+      super.internSymbols(Constants.defaultNT + " ||| " + fields[0] + " ||| " + fields[1]);
+    }
+  }
+
   /**
    * Converts a Moses phrase table to a Joshua grammar. 
    * 
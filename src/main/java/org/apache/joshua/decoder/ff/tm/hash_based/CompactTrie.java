@@ -0,0 +1,381 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm.hash_based;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.ff.tm.RuleCollection;
+import org.apache.joshua.decoder.ff.tm.Trie;
+
+/**
+ * A memory-compact trie node for {@link MemoryBasedBatchGrammar}. Unlike {@link MemoryBasedTrie},
+ * children are not kept in a <code>HashMap&lt;Integer, ...&gt;</code>, so matching a word does not
+ * box its ID.
+ * <p>
+ * While the grammar is being built, the children of a node form a primitive open-addressing hash
+ * table (<code>labels</code> / <code>children</code>, where a null child marks a free slot). After
+ * loading, {@link #freeze()} converts every node into a pair of exactly-sized arrays, with the
+ * labels sorted so that {@link #match(int)} is a binary search.
+ * <p>
+ * Frozen nodes are never modified, since they may be shared with decoding threads, which read them
+ * without locking: {@link #extend(int)} refuses to add children to them. A frozen trie is instead
+ * updated with {@link #withRule(int[], int, Rule)} and {@link #withoutRule(int[], int, Rule)},
+ * which copy the nodes on the path to the rule and leave the original trie untouched.
+ */
+public class CompactTrie implements Trie {
+
+  private static final int INITIAL_CAPACITY = 2;
+
+  /* The child labels (word IDs), parallel to children. */
+  private int[] labels = null;
+  private CompactTrie[] children = null;
+
+  /* The number of children. */
+  private int size = 0;
+
+  /* Whether the children are stored as sorted arrays (true) or as a hash table (false). */
+  private boolean frozen = false;
+
+  private MemoryBasedRuleBin ruleBin = null;
+
+  @Override
+  public CompactTrie match(int wordID) {
+    if (size == 0)
+      return null;
+
+    if (frozen) {
+      int index = Arrays.binarySearch(labels, 0, size, wordID);
+      return index >= 0 ? children[index] : null;
+    }
+
+    int mask = labels.length - 1;
+    for (int slot = hash(wordID) & mask; children[slot] != null; slot = (slot + 1) & mask) {
+      if (labels[slot] == wordID)
+        return children[slot];
+    }
+    return null;
+  }
+
+  /**
+   * Returns the child with the given label, creating it if necessary.
+   * 
+   * @param wordID the label of the child
+   * @return the (possibly new) child node
+   * @throws IllegalStateException if the child would have to be added to a frozen node
+   */
+  public CompactTrie extend(int wordID) {
+    CompactTrie child = match(wordID);
+    if (child == null) {
+      if (frozen)
+        throw new IllegalStateException("Frozen trie nodes can't be extended; use withRule()");
+      child = new CompactTrie();
+      insertHashed(wordID, child);
+      size++;
+    }
+    return child;
+  }
+
+  /* Inserts a child in sorted order; only used on private copies that aren't yet shared. */
+  private void insertSorted(int wordID, CompactTrie child) {
+    int index = (size == 0) ? 0 : -Arrays.binarySearch(labels, 0, size, wordID) - 1;
+    int[] newLabels = new int[size + 1];
+    CompactTrie[] newChildren = new CompactTrie[size + 1];
+    if (size > 0) {
+      System.arraycopy(labels, 0, newLabels, 0, index);
+      System.arraycopy(labels, index, newLabels, index + 1, size - index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      System.arraycopy(children, index, newChildren, index + 1, size - index);
+    }
+    newLabels[index] = wordID;
+    newChildren[index] = child;
+    labels = newLabels;
+    children = newChildren;
+  }
+
+  private void insertHashed(int wordID, CompactTrie child) {
+    if (labels == null) {
+      labels = new int[INITIAL_CAPACITY];
+      children = new CompactTrie[INITIAL_CAPACITY];
+    } else if ((size + 1) * 4 > labels.length * 3) {
+      rehash(labels.length * 2);
+    }
+    put(labels, children, wordID, child);
+  }
+
+  private void rehash(int capacity) {
+    int[] newLabels = new int[capacity];
+    CompactTrie[] newChildren = new CompactTrie[capacity];
+    for (int slot = 0; slot < labels.length; slot++)
+      if (children[slot] != null)
+        put(newLabels, newChildren, labels[slot], children[slot]);
+    labels = newLabels;
+    children = newChildren;
+  }
+
+  private static void put(int[] labels, CompactTrie[] children, int wordID, CompactTrie child) {
+    int mask = labels.length - 1;
+    int slot = hash(wordID) & mask;
+    while (children[slot] != null)
+      slot = (slot + 1) & mask;
+    labels[slot] = wordID;
+    children[slot] = child;
+  }
+
+  private static int hash(int wordID) {
+    int h = wordID * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Converts this node and all its descendants into the compact, sorted-array layout. This should
+   * be called once the bulk of the rules has been added.
+   */
+  public void freeze() {
+    if (!frozen) {
+      if (size > 0) {
+        long[] entries = new long[size];
+        int n = 0;
+        for (int slot = 0; slot < labels.length; slot++)
+          if (children[slot] != null)
+            entries[n++] = ((long) labels[slot] << 32) | slot;
+        Arrays.sort(entries);
+
+        int[] newLabels = new int[size];
+        CompactTrie[] newChildren = new CompactTrie[size];
+        for (int i = 0; i < size; i++) {
+          newLabels[i] = (int) (entries[i] >> 32);
+          newChildren[i] = children[(int) entries[i]];
+        }
+        labels = newLabels;
+        children = newChildren;
+      }
+      if (ruleBin != null)
+        ruleBin.trimToSize();
+      frozen = true;
+    }
+
+    for (int i = 0; i < size; i++)
+      children[i].freeze();
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Returns a copy of this frozen trie with the rule added at the end of the path
+   * <code>source[depth..]</code>. Only the nodes on that path are copied; the rest is shared with
+   * this trie, which is not modified.
+   * 
+   * @param source the source side of the rule
+   * @param depth the position in the source side that corresponds to this node
+   * @param rule the rule to add
+   * @return the root of the updated trie
+   */
+  public CompactTrie withRule(int[] source, int depth, Rule rule) {
+    CompactTrie copy = copy();
+    if (depth == source.length) {
+      copy.ruleBin = (ruleBin == null)
+          ? new MemoryBasedRuleBin(rule.getArity(), rule.getFrench())
+          : new MemoryBasedRuleBin(ruleBin);
+      copy.ruleBin.addRule(rule);
+      return copy;
+    }
+
+    CompactTrie child = match(source[depth]);
+    if (child == null)
+      child = new CompactTrie().frozenEmpty();
+    copy.replaceChild(source[depth], child.withRule(source, depth + 1, rule));
+    return copy;
+  }
+
+  /**
+   * Returns a copy of this frozen trie without the first rule at the end of the path
+   * <code>source[depth..]</code> that has the same target side as the given rule. This trie is not
+   * modified.
+   * 
+   * @param source the source side of the rule
+   * @param depth the position in the source side that corresponds to this node
+   * @param rule the rule to remove
+   * @return the root of the updated trie, or this trie if there is no such rule
+   */
+  public CompactTrie withoutRule(int[] source, int depth, Rule rule) {
+    if (depth == source.length) {
+      if (ruleBin == null)
+        return this;
+      MemoryBasedRuleBin bin = new MemoryBasedRuleBin(ruleBin);
+      for (Iterator<Rule> it = bin.getRules().iterator(); it.hasNext();) {
+        if (Arrays.equals(it.next().getEnglish(), rule.getEnglish())) {
+          it.remove();
+          CompactTrie copy = copy();
+          copy.ruleBin = bin.getRules().isEmpty() ? null : bin;
+          return copy;
+        }
+      }
+      return this;
+    }
+
+    CompactTrie child = match(source[depth]);
+    if (child == null)
+      return this;
+    CompactTrie newChild = child.withoutRule(source, depth + 1, rule);
+    if (newChild == child)
+      return this;
+    CompactTrie copy = copy();
+    copy.replaceChild(source[depth], newChild);
+    return copy;
+  }
+
+  private CompactTrie frozenEmpty() {
+    frozen = true;
+    return this;
+  }
+
+  /* A shallow copy of this frozen node, with its own child arrays. */
+  private CompactTrie copy() {
+    if (!frozen)
+      throw new IllegalStateException("Only frozen tries can be copied");
+    CompactTrie copy = new CompactTrie();
+    copy.frozen = true;
+    copy.size = size;
+    copy.ruleBin = ruleBin;
+    if (size > 0) {
+      copy.labels = Arrays.copyOf(labels, size);
+      copy.children = Arrays.copyOf(children, size);
+    }
+    return copy;
+  }
+
+  /* Sets the child with the given label on a (private) frozen copy, inserting it if necessary. */
+  private void replaceChild(int wordID, CompactTrie child) {
+    int index = (size == 0) ? -1 : Arrays.binarySearch(labels, 0, size, wordID);
+    if (index >= 0) {
+      children[index] = child;
+    } else {
+      insertSorted(wordID, child);
+      size++;
+    }
+  }
+
+  /* See Javadoc for Trie interface. */
+  @Override
+  public boolean hasExtensions() {
+    return size > 0;
+  }
+
+  /* See Javadoc for Trie interface. */
+  @Override
+  public Collection<CompactTrie> getExtensions() {
+    if (size == 0)
+      return null;
+    List<CompactTrie> extensions = new ArrayList<>(size);
+    for (CompactTrie child : children)
+      if (child != null)
+        extensions.add(child);
+    return extensions;
+  }
+
+  /**
+   * Returns the children as a map. This boxes every label, and is only provided to satisfy the
+   * {@link Trie} interface; use {@link #match(int)} for lookups.
+   */
+  @Override
+  public HashMap<Integer, CompactTrie> getChildren() {
+    if (size == 0)
+      return null;
+    HashMap<Integer, CompactTrie> map = new HashMap<>(size * 2);
+    for (int slot = 0; slot < children.length; slot++)
+      if (children[slot] != null)
+        map.put(labels[slot], children[slot]);
+    return map;
+  }
+
+  /* See Javadoc for Trie interface. */
+  @Override
+  public boolean hasRules() {
+    return (null != this.ruleBin);
+  }
+
+  public void setRuleBin(MemoryBasedRuleBin rb) {
+    ruleBin = rb;
+  }
+
+  /* See Javadoc for Trie interface. */
+  @Override
+  public RuleCollection getRuleCollection() {
+    return this.ruleBin;
+  }
+
+  MemoryBasedRuleBin getRuleBin() {
+    return this.ruleBin;
+  }
+
+  @Override
+  public Iterator<Integer> getTerminalExtensionIterator() {
+    return new LabelIterator(true);
+  }
+
+  @Override
+  public Iterator<Integer> getNonterminalExtensionIterator() {
+    return new LabelIterator(false);
+  }
+
+  /**
+   * Iterates over the terminal (positive) or nonterminal (negative) child labels.
+   */
+  private class LabelIterator implements Iterator<Integer> {
+    private final boolean terminal;
+    private int slot = -1;
+
+    LabelIterator(boolean terminal) {
+      this.terminal = terminal;
+      forward();
+    }
+
+    private void forward() {
+      int length = (children == null) ? 0 : children.length;
+      for (slot++; slot < length; slot++) {
+        if (children[slot] != null
+            && ((terminal && labels[slot] > 0) || (!terminal && labels[slot] < 0)))
+          return;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return children != null && slot < children.length;
+    }
+
+    @Override
+    public Integer next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      int label = labels[slot];
+      forward();
+      return label;
+    }
+  }
+}
@@ -29,7 +29,6 @@ import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 import org.apache.joshua.corpus.Vocabulary;
@@ -43,6 +42,7 @@ import org.apache.joshua.decoder.ff.tm.GrammarReader;
 import org.apache.joshua.decoder.ff.tm.Trie;
 import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
 import org.apache.joshua.decoder.ff.tm.format.MosesFormatReader;
+import org.apache.joshua.tools.TestSetFilter;
 import org.apache.joshua.util.FormatUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,8 +51,8 @@ import org.slf4j.LoggerFactory;
  * This class implements a memory-based bilingual BatchGrammar.
  * <p>
  * The rules are stored in a trie. Each trie node has: (1) RuleBin: a list of rules matching the
- * french sides so far (2) A HashMap of next-layer trie nodes, the next french word used as the key
- * in HashMap
+ * french sides so far (2) the next-layer trie nodes, keyed by the next french word (see
+ * {@link CompactTrie})
  * 
  * @author Zhifei Li zhifei.work@gmail.com
  * @author Matt Post post@cs.jhu.edu
@@ -61,16 +61,26 @@ public class MemoryBasedBatchGrammar extends AbstractGrammar {
 
   private static final Logger LOG = LoggerFactory.getLogger(MemoryBasedBatchGrammar.class);
 
-  /* The number of rules read. */
+  /* The number of lines handed to each grammar-loading thread at a time. */
+  private static final int LOADING_CHUNK_SIZE = 10000;
+
+  /* The number of rules (guarded by this, like all changes to the trie). */
   private int qtyRulesRead = 0;
 
-  /* The number of distinct source sides. */
+  /* The number of distinct source sides (guarded by this). */
   private int qtyRuleBins = 0;
 
+  /* The number of rules skipped by the test-set filter. */
+  private int qtyRulesFiltered = 0;
+
   private int numDenseFeatures = 0;
 
-  /* The trie root. */
-  private final MemoryBasedTrie root = new MemoryBasedTrie();
+  /*
+   * The trie root. It is only modified in place while a grammar file is loaded by the constructor;
+   * otherwise it is frozen, since it may be shared with decoding threads, and rules are added and
+   * removed by building a new root (see CompactTrie), which replaces this one.
+   */
+  private volatile CompactTrie root = new CompactTrie();
 
   /* The file containing the grammar. */
   private String grammarFile;
@@ -97,6 +107,7 @@ public class MemoryBasedBatchGrammar extends AbstractGrammar {
    */
   public MemoryBasedBatchGrammar(String file, String owner, JoshuaConfiguration config, int spanLimit) {
     super(owner, config, spanLimit);
+    root.freeze();
   }
   
   /**
@@ -109,11 +120,32 @@ public class MemoryBasedBatchGrammar extends AbstractGrammar {
       final GrammarReader<Rule> reader, final JoshuaConfiguration config, final int spanLimit) {
     super(OwnerMap.UNKNOWN_OWNER, config, spanLimit);
     modelReader = reader;
+    root.freeze();
   }
 
   public MemoryBasedBatchGrammar(String formatKeyword, String grammarFile, String owner,
       String defaultLHSSymbol, int spanLimit, JoshuaConfiguration joshuaConfiguration)
       throws IOException {
+    this(formatKeyword, grammarFile, owner, defaultLHSSymbol, spanLimit, joshuaConfiguration, null);
+  }
+
+  /**
+   * Loads a text grammar, keeping only the rules whose source side is permitted by the supplied
+   * filter. This is used to restrict the grammar to a test set that is known in advance, so that
+   * rules that can never apply are never added to the trie.
+   * 
+   * @param formatKeyword the grammar format ("thrax", "hiero", "phrase", or "moses")
+   * @param grammarFile the file to load the grammar from
+   * @param owner the associated decoder-wide {@link org.apache.joshua.decoder.ff.tm.OwnerMap}
+   * @param defaultLHSSymbol the default nonterminal
+   * @param spanLimit the maximum span of the input grammar rule(s) can be applied to.
+   * @param joshuaConfiguration a {@link org.apache.joshua.decoder.JoshuaConfiguration} object
+   * @param filter a {@link org.apache.joshua.tools.TestSetFilter} loaded with the test set, or null
+   * @throws IOException if there is an error reading the grammar file
+   */
+  public MemoryBasedBatchGrammar(String formatKeyword, String grammarFile, String owner,
+      String defaultLHSSymbol, int spanLimit, JoshuaConfiguration joshuaConfiguration,
+      TestSetFilter filter) throws IOException {
 
     super(owner, joshuaConfiguration, spanLimit);
     Vocabulary.id(defaultLHSSymbol);
@@ -126,17 +158,39 @@ public class MemoryBasedBatchGrammar extends AbstractGrammar {
       LOG.warn("Couldn't load a '{}' type grammar from file '{}'", formatKeyword, grammarFile);
     }
     if (modelReader != null) {
-      for (Rule rule : modelReader)
-        if (rule != null) {
-          addRule(rule);
-        }
+      if (joshuaConfiguration.grammar_loading_threads > 1) {
+        // parsing dominates the loading time, so it is done on several threads, while the rules
+        // are added to the unsynchronized trie on this thread, in file order
+        modelReader.parseInParallel(joshuaConfiguration.grammar_loading_threads,
+            LOADING_CHUNK_SIZE, rule -> addRule(rule, filter));
+      } else {
+        for (Rule rule : modelReader)
+          addRule(rule, filter);
+      }
     } else {
       LOG.info("Couldn't create a GrammarReader for file {} with format {}",
           grammarFile, formatKeyword);
     }
+
+    // switch the trie to its compact, sorted-array layout now that the file has been read
+    root.freeze();
     
     LOG.info("MemoryBasedBatchGrammar: Read {} rules with {} distinct source sides from '{}'",
         this.qtyRulesRead, this.qtyRuleBins, grammarFile);
+    if (filter != null)
+      LOG.info("MemoryBasedBatchGrammar: Filtered out {} rules not matching the test set",
+          this.qtyRulesFiltered);
+  }
+
+  /* Adds a rule read from the grammar file, unless it is null or rejected by the filter. */
+  private void addRule(Rule rule, TestSetFilter filter) {
+    if (rule == null)
+      return;
+    if (filter != null && !filter.inTestSet(rule.getFrenchWords())) {
+      qtyRulesFiltered++;
+      return;
+    }
+    addRule(rule);
   }
 
   protected GrammarReader<Rule> createReader(String format, String grammarFile) throws IOException {
@@ -158,7 +212,7 @@ public class MemoryBasedBatchGrammar extends AbstractGrammar {
   // ===============================================================
 
   @Override
-  public int getNumRules() {
+  public synchronized int getNumRules() {
     return this.qtyRulesRead;
   }
 
@@ -180,49 +234,74 @@ public class MemoryBasedBatchGrammar extends AbstractGrammar {
   }
 
   /**
-   * Adds a rule to the grammar.
+   * Adds a rule to the grammar. Unless the grammar file is being loaded, this replaces the trie
+   * root, so that decoding threads are unaffected.
    */
   public void addRule(Rule rule) {
 
-    this.qtyRulesRead++;
-
     rule.setOwner(owner);
 
-    if (numDenseFeatures == 0)
-      numDenseFeatures = rule.getFeatureVector().getDenseFeatures().size();
-
-    // === identify the position, and insert the trie nodes as necessary
-    MemoryBasedTrie pos = root;
     int[] french = rule.getFrench();
 
-    maxSourcePhraseLength = Math.max(maxSourcePhraseLength, french.length);
-
-    for (int curSymID : french) {
-      /*
-       * Note that the nonTerminal symbol in the french is not cleaned (i.e., will be sth like
-       * [X,1]), but the symbol in the Trie has to be cleaned, so that the match does not care about
-       * the markup (i.e., [X,1] or [X,2] means the same thing, that is X) if
-       * (Vocabulary.nt(french[k])) { curSymID = modelReader.cleanNonTerminal(french[k]); if
-       * (logger.isLoggable(Level.FINEST)) logger.finest("Amended to: " + curSymID); }
-       */
-
-      MemoryBasedTrie nextLayer = (MemoryBasedTrie) pos.match(curSymID);
-      if (null == nextLayer) {
-        nextLayer = new MemoryBasedTrie();
-        if (pos.hasExtensions() == false) {
-          pos.childrenTbl = new HashMap<>();
-        }
-        pos.childrenTbl.put(curSymID, nextLayer);
+    synchronized (this) {
+      this.qtyRulesRead++;
+
+      if (numDenseFeatures == 0)
+        numDenseFeatures = rule.getFeatureVector().getDenseFeatures().size();
+
+      maxSourcePhraseLength = Math.max(maxSourcePhraseLength, french.length);
+
+      if (root.isFrozen()) {
+        if (find(root, french) == null)
+          this.qtyRuleBins++;
+        root = root.withRule(french, 0, rule);
+        return;
+      }
+
+      // === identify the position, and insert the trie nodes as necessary
+      CompactTrie pos = root;
+      for (int curSymID : french) {
+        /*
+         * Note that the nonTerminal symbol in the french is not cleaned (i.e., will be sth like
+         * [X,1]), but the symbol in the Trie has to be cleaned, so that the match does not care
+         * about the markup (i.e., [X,1] or [X,2] means the same thing, that is X) if
+         * (Vocabulary.nt(french[k])) { curSymID = modelReader.cleanNonTerminal(french[k]); if
+         * (logger.isLoggable(Level.FINEST)) logger.finest("Amended to: " + curSymID); }
+         */
+        pos = pos.extend(curSymID);
       }
-      pos = nextLayer;
+
+      // === add the rule into the trie node
+      if (!pos.hasRules()) {
+        pos.setRuleBin(new MemoryBasedRuleBin(rule.getArity(), rule.getFrench()));
+        this.qtyRuleBins++;
+      }
+      pos.getRuleBin().addRule(rule);
     }
+  }
 
-    // === add the rule into the trie node
-    if (!pos.hasRules()) {
-      pos.ruleBin = new MemoryBasedRuleBin(rule.getArity(), rule.getFrench());
-      this.qtyRuleBins++;
+  /**
+   * Removes the rule with the same source and target sides from the grammar. Like rules added to a
+   * loaded grammar, this replaces the trie root, so that decoding threads are unaffected.
+   */
+  @Override
+  public synchronized void removeRule(Rule rule) {
+    int[] french = rule.getFrench();
+    CompactTrie newRoot = root.withoutRule(french, 0, rule);
+    if (newRoot != root) {
+      this.qtyRulesRead--;
+      if (find(newRoot, french) == null)
+        this.qtyRuleBins--;
+      root = newRoot;
     }
-    pos.ruleBin.addRule(rule);
+  }
+
+  /* The rules with the given source side, or null if there are none. */
+  private static MemoryBasedRuleBin find(CompactTrie root, int[] french) {
+    CompactTrie pos = root;
+    for (int i = 0; pos != null && i < french.length; i++)
+      pos = pos.match(french[i]);
+    return pos == null ? null : pos.getRuleBin();
   }
 
   /***
@@ -18,6 +18,8 @@
  */
 package org.apache.joshua.decoder.ff.tm.hash_based;
 
+import java.util.ArrayList;
+
 import org.apache.joshua.decoder.ff.tm.BasicRuleCollection;
 import org.apache.joshua.decoder.ff.tm.Rule;
 
@@ -38,6 +40,20 @@ public class MemoryBasedRuleBin extends BasicRuleCollection {
     super(arity, sourceTokens);
   }
 
+  /**
+   * Constructs a copy of another rule collection, which can be modified without affecting it.
+   * 
+   * @param other the collection to copy
+   */
+  public MemoryBasedRuleBin(MemoryBasedRuleBin other) {
+    super(other.arity, other.sourceTokens);
+    // the other collection may be sorted concurrently (see getSortedRules())
+    synchronized (other) {
+      rules.addAll(other.rules);
+      sorted = other.sorted;
+    }
+  }
+
   /**
    * Adds a rule to this collection.
    * 
@@ -56,4 +72,12 @@ public class MemoryBasedRuleBin extends BasicRuleCollection {
     sorted = false;
     rule.setFrench(this.sourceTokens);
   }
+
+  /**
+   * Releases the unused capacity of the underlying rule list, once no more rules are expected.
+   */
+  public void trimToSize() {
+    if (rules instanceof ArrayList)
+      ((ArrayList<Rule>) rules).trimToSize();
+  }
 }
@@ -95,8 +95,6 @@ import org.apache.joshua.util.io.LineReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
@@ -185,6 +183,17 @@ public class PackedGrammar extends AbstractGrammar {
     return encoding.getNumDenseFeatures();
   }
 
+  /**
+   * Only the trie nodes that have been looked up hold sorted rules, so only these are invalidated,
+   * rather than walking (and instantiating) the whole trie.
+   */
+  @Override
+  public void invalidateSortedRules() {
+    for (PackedSlice slice : slices)
+      slice.invalidateSortedRules();
+    setSorted(false);
+  }
+
   /**
    * Computes the MD5 checksum of the vocabulary file.
    * Can be used for comparing vocabularies across multiple packedGrammars.
@@ -443,6 +452,11 @@ public class PackedGrammar extends AbstractGrammar {
       return tgt;
     }
 
+    private synchronized void invalidateSortedRules() {
+      for (PackedTrie trie : tries.values())
+        trie.invalidateSort();
+    }
+
     private synchronized PackedTrie getTrie(final int node_address) {
       PackedTrie t = tries.get(node_address);
       if (t == null) {
@@ -710,6 +724,14 @@ public class PackedGrammar extends AbstractGrammar {
         this.sorted = true;
       }
 
+      /**
+       * The estimates are computed again, from fresh rules, when the rules are next sorted.
+       */
+      @Override
+      public synchronized void invalidateSort() {
+        this.sorted = false;
+      }
+
       @Override
       public List<Rule> getSortedRules(List<FeatureFunction> featureFunctions) {
         if (!isSorted())
@@ -796,13 +818,8 @@ public class PackedGrammar extends AbstractGrammar {
        */
       public final class PackedPhrasePair extends PackedRule {
 
-        private final Supplier<int[]> englishSupplier;
-        private final Supplier<byte[]> alignmentSupplier;
-
         public PackedPhrasePair(int address) {
           super(address);
-          englishSupplier = initializeEnglishSupplier();
-          alignmentSupplier = initializeAlignmentSupplier();
         }
 
         @Override
@@ -810,45 +827,19 @@ public class PackedGrammar extends AbstractGrammar {
           return PackedTrie.this.getArity() + 1;
         }
 
-        /**
-         * Initialize a number of suppliers which get evaluated when their respective getters
-         * are called.
-         * Inner lambda functions are guaranteed to only be called once, because of this underlying
-         * structures are accessed in a threadsafe way.
-         * Guava's implementation makes sure only one read of a volatile variable occurs per get.
-         * This means this implementation should be as thread-safe and performant as possible.
-         */
-
-        private Supplier<int[]> initializeEnglishSupplier(){
-          return Suppliers.memoize(() ->{
-            int[] phrase = getTarget(source[address + 1]);
-            int[] tgt = new int[phrase.length + 1];
-            tgt[0] = -1;
-            for (int i = 0; i < phrase.length; i++)
-              tgt[i+1] = phrase[i];
-            return tgt;
-          });
-        }
-
-        private Supplier<byte[]> initializeAlignmentSupplier(){
-          return Suppliers.memoize(() ->{
-            byte[] raw_alignment = getAlignmentArray(source[address + 2]);
-            byte[] points = new byte[raw_alignment.length + 2];
-            points[0] = points[1] = 0;
-            for (int i = 0; i < raw_alignment.length; i++)
-              points[i + 2] = (byte) (raw_alignment[i] + 1);
-            return points;
-          });
-        }
-
         /**
          * Take the English phrase of the underlying rule and prepend an [X].
          *
          * @return the augmented phrase
          */
         @Override
-        public int[] getEnglish() {
-          return this.englishSupplier.get();
+        protected int[] computeEnglish() {
+          int[] phrase = getTarget(source[address + 1]);
+          int[] tgt = new int[phrase.length + 1];
+          tgt[0] = -1;
+          for (int i = 0; i < phrase.length; i++)
+            tgt[i+1] = phrase[i];
+          return tgt;
         }
 
         /**
@@ -871,49 +862,50 @@ public class PackedGrammar extends AbstractGrammar {
          * @return the byte[] alignment
          */
         @Override
-        public byte[] getAlignment() {
+        protected byte[] computeAlignment() {
           // if no alignments in grammar do not fail
           if (alignments == null) {
             return null;
           }
 
-          return this.alignmentSupplier.get();
+          byte[] raw_alignment = getAlignmentArray(source[address + 2]);
+          byte[] points = new byte[raw_alignment.length + 2];
+          points[0] = points[1] = 0;
+          for (int i = 0; i < raw_alignment.length; i++)
+            points[i + 2] = (byte) (raw_alignment[i] + 1);
+          return points;
         }
       }
 
+      /**
+       * A flyweight view of a rule in the packed grammar. It holds only the rule's address in the
+       * slice; the target side, features and alignment are decoded from the slice when first
+       * requested and kept in the fields inherited from {@link Rule}.
+       */
       public class PackedRule extends Rule {
         protected final int address;
-        private final Supplier<int[]> englishSupplier;
-        private final Supplier<FeatureVector> featureVectorSupplier;
-        private final Supplier<byte[]> alignmentsSupplier;
 
         public PackedRule(int address) {
           this.address = address;
-          this.englishSupplier = intializeEnglishSupplier();
-          this.featureVectorSupplier = initializeFeatureVectorSupplier();
-          this.alignmentsSupplier = initializeAlignmentsSupplier();
         }
 
-        private Supplier<int[]> intializeEnglishSupplier(){
-          return Suppliers.memoize(() ->{
-            return getTarget(source[address + 1]);
-          });
+        @Override
+        protected int[] computeEnglish() {
+          return getTarget(source[address + 1]);
         }
 
-        private Supplier<FeatureVector> initializeFeatureVectorSupplier(){
-          return Suppliers.memoize(() ->{
-            return loadFeatureVector(source[address + 2]);
-         });
+        @Override
+        protected FeatureVector computeFeatureVector() {
+          return loadFeatureVector(source[address + 2]);
         }
 
-        private Supplier<byte[]> initializeAlignmentsSupplier(){
-          return Suppliers.memoize(()->{
-            // if no alignments in grammar do not fail
-            if (alignments == null){
-              return null;
-            }
-            return getAlignmentArray(source[address + 2]);
-          });
+        @Override
+        protected byte[] computeAlignment() {
+          // if no alignments in grammar do not fail
+          if (alignments == null) {
+            return null;
+          }
+          return getAlignmentArray(source[address + 2]);
         }
 
         @Override
@@ -947,11 +939,6 @@ public class PackedGrammar extends AbstractGrammar {
         public void setEnglish(int[] eng) {
         }
 
-        @Override
-        public int[] getEnglish() {
-          return this.englishSupplier.get();
-        }
-
         @Override
         public void setFrench(int[] french) {
         }
@@ -961,16 +948,6 @@ public class PackedGrammar extends AbstractGrammar {
           return src;
         }
 
-        @Override
-        public FeatureVector getFeatureVector() {
-          return this.featureVectorSupplier.get();
-        }
-
-        @Override
-        public byte[] getAlignment() {
-          return this.alignmentsSupplier.get();
-        }
-
         @Override
         public String getAlignmentString() {
             throw new RuntimeException("AlignmentString not implemented for PackedRule!");
@@ -1021,6 +998,11 @@ public class PackedGrammar extends AbstractGrammar {
   public void addRule(Rule rule) {
     throw new RuntimeException("PackedGrammar.addRule(): I can't add rules");
   }
+
+  @Override
+  public void removeRule(Rule rule) {
+    throw new RuntimeException("PackedGrammar.removeRule(): I can't remove rules");
+  }
   
   @Override
   public void save() {
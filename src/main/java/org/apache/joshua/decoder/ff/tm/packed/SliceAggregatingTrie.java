@@ -218,6 +218,12 @@ public class SliceAggregatingTrie implements Trie, RuleCollection {
     return hasRules() && trieWithRules.getRuleCollection().isSorted();
   }
 
+  @Override
+  public void invalidateSort() {
+    if (hasRules())
+      trieWithRules.getRuleCollection().invalidateSort();
+  }
+
   /*
    * The constructor checked that all sub tries have the same arity and sourceSide.
    * We can thus simply return the value from the first in list.
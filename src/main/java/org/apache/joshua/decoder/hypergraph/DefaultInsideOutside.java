@@ -18,8 +18,10 @@
  */
 package org.apache.joshua.decoder.hypergraph;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * to use the functions here, one need to extend the class to provide a way to calculate the
@@ -35,6 +37,9 @@ import java.util.HashMap;
 // require the correctness of bestDerivationLogP at each item
 
 public abstract class DefaultInsideOutside {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DefaultInsideOutside.class);
+
   /**
    * Two operations: add and multi add: different hyperedges lead to a specific item multi: prob of
    * a derivation is a multi of all constituents
@@ -46,24 +51,16 @@ public abstract class DefaultInsideOutside {
   double ONE_IN_SEMIRING = 0;// log-domain
   double scaling_factor; // try to scale the original distribution: smooth or winner-take-all
 
-  private final HashMap<HGNode, Double> tbl_inside_prob = new HashMap<>();// remember inside
-                                                                                  // prob of each
-                                                                                  // item:
-  private final HashMap<HGNode, Double> tbl_outside_prob = new HashMap<>();// remember
-                                                                                   // outside prob
-                                                                                   // of each item
-  double normalizationConstant = ONE_IN_SEMIRING;
-
-  /**
-   * for each item, remember how many deductions pointering to me, this is needed for outside
-   * estimation during outside estimation, an item will recursive call its deductions to do
-   * outside-estimation only after it itself is done with outside estimation, this is necessary
-   * because the outside estimation of the items under its deductions require the item's outside
-   * value
+  /*
+   * The inside and outside prob of each node, and the (scaled) log prob of each hyperedge, indexed
+   * by the ids of the hypergraph's array-based view
    */
-  private final HashMap<HGNode, Integer> tbl_num_parent_deductions = new HashMap<>();
+  private IndexedHyperGraph graph = null;
+  private double[] insideProb = null;
+  private double[] outsideProb = null;
+  private double[] edgeLogProb = null;
 
-  private HashMap<HGNode, Integer> tbl_for_sanity_check = null;
+  double normalizationConstant = ONE_IN_SEMIRING;
 
   // get feature-set specific **log probability** for each hyperedge
   protected abstract double getHyperedgeLogProb(HyperEdge dt, HGNode parent_it);
@@ -72,7 +69,7 @@ public abstract class DefaultInsideOutside {
     return getHyperedgeLogProb(dt, parent_it) * scaling_factor;
   }
 
-  // the results are stored in tbl_inside_prob and tbl_outside_prob
+  // the results are stored in insideProb and outsideProb
   public void runInsideOutside(HyperGraph hg, int add_mode, int semiring, double scaling_factor_) {// add_mode|||
                                                                                                    // 0:
                                                                                                    // sum;
@@ -84,21 +81,36 @@ public abstract class DefaultInsideOutside {
     setup_semiring(semiring, add_mode);
     scaling_factor = scaling_factor_;
 
-    // System.out.println("outside estimation");
-    inside_estimation_hg(hg);
-    // System.out.println("inside estimation");
-    outside_estimation_hg(hg);
-    normalizationConstant = tbl_inside_prob.get(hg.goalNode);
-    System.out.println("normalization constant is " + normalizationConstant);
-    tbl_num_parent_deductions.clear();
-    sanityCheckHG(hg);
+    graph = hg.index();
+
+    // the hyperedge probs are needed by both passes, so compute them once
+    edgeLogProb = new double[graph.numEdges()];
+    for (int e = 0; e < edgeLogProb.length; e++)
+      edgeLogProb[e] = getHyperedgeLogProb(graph.edge(e), graph.node(graph.head(e)),
+          this.scaling_factor);
+
+    inside_estimation_hg();
+    outside_estimation_hg();
+    normalizationConstant = insideProb[graph.goal()];
+    LOG.debug("normalization constant is {}", normalizationConstant);
+    // under viterbi-min/max a node's posterior is that of its best hyperedge, not their sum
+    if (ADD_MODE == 0)
+      sanityCheckHG(hg);
   }
 
   // to save memory, external class should call this method
   public void clearState() {
-    tbl_num_parent_deductions.clear();
-    tbl_inside_prob.clear();
-    tbl_outside_prob.clear();
+    graph = null;
+    insideProb = null;
+    outsideProb = null;
+    edgeLogProb = null;
+  }
+
+  /**
+   * @return the array-based view of the hypergraph that the node and edge ids refer to
+   */
+  public IndexedHyperGraph getIndex() {
+    return graph;
   }
 
   // ######### use of inside-outside probs ##########################
@@ -110,28 +122,35 @@ public abstract class DefaultInsideOutside {
   // this is the log of expected/posterior prob (i.e., LogP, where P is the posterior probability),
   // without normalization
   public double getEdgeUnormalizedPosteriorLogProb(HyperEdge dt, HGNode parent) {
+    return getEdgeUnnormalizedPosteriorLogProb(graph.id(dt, parent));
+  }
+
+  // the same, for the hyperedge with id e in getIndex()
+  public double getEdgeUnnormalizedPosteriorLogProb(int e) {
     // ### outside of parent
-    double outside = tbl_outside_prob.get(parent);
+    double outside = outsideProb[graph.head(e)];
 
     // ### get inside prob of all my ant-items
     double inside = ONE_IN_SEMIRING;
-    if (dt.getTailNodes() != null) {
-      for (HGNode ant_it : dt.getTailNodes())
-        inside = multi_in_semiring(inside, tbl_inside_prob.get(ant_it));
-    }
+    for (int k = 0; k < graph.arity(e); k++)
+      inside = multi_in_semiring(inside, insideProb[graph.tail(e, k)]);
 
     // ### add deduction/rule specific prob
     double merit = multi_in_semiring(inside, outside);
-    merit = multi_in_semiring(merit, getHyperedgeLogProb(dt, parent, this.scaling_factor));
+    merit = multi_in_semiring(merit, edgeLogProb[e]);
 
     return merit;
   }
 
   // normalized probabily in [0,1]
   public double getEdgePosteriorProb(HyperEdge dt, HGNode parent) {
+    return getEdgePosteriorProb(graph.id(dt, parent));
+  }
+
+  public double getEdgePosteriorProb(int e) {
     if (SEMIRING == LOG_SEMIRING) {
       double res =
-          Math.exp((getEdgeUnormalizedPosteriorLogProb(dt, parent) - getLogNormalizationConstant()));
+          Math.exp((getEdgeUnnormalizedPosteriorLogProb(e) - getLogNormalizationConstant()));
       if (res < 0.0 - 1e-2 || res > 1.0 + 1e-2) {
         throw new RuntimeException("res is not within [0,1], must be wrong value: " + res);
       }
@@ -144,18 +163,24 @@ public abstract class DefaultInsideOutside {
   // this is the log of expected/posterior prob (i.e., LogP, where P is the posterior probability),
   // without normalization
   public double getNodeUnnormalizedPosteriorLogProb(HGNode node) {
-    // ### outside of parent
-    double inside = tbl_inside_prob.get(node);
-    double outside = tbl_outside_prob.get(node);
-    return multi_in_semiring(inside, outside);
+    return getNodeUnnormalizedPosteriorLogProb(graph.id(node));
+  }
+
+  // the same, for the node with id n in getIndex()
+  public double getNodeUnnormalizedPosteriorLogProb(int n) {
+    return multi_in_semiring(insideProb[n], outsideProb[n]);
   }
 
 
   // normalized probabily in [0,1]
   public double getNodePosteriorProb(HGNode node) {
+    return getNodePosteriorProb(graph.id(node));
+  }
+
+  public double getNodePosteriorProb(int n) {
     if (SEMIRING == LOG_SEMIRING) {
       double res =
-          Math.exp((getNodeUnnormalizedPosteriorLogProb(node) - getLogNormalizationConstant()));
+          Math.exp((getNodeUnnormalizedPosteriorLogProb(n) - getLogNormalizationConstant()));
       if (res < 0.0 - 1e-2 || res > 1.0 + 1e-2) {
         throw new RuntimeException("res is not within [0,1], must be wrong value: " + res);
       }
@@ -168,39 +193,21 @@ public abstract class DefaultInsideOutside {
   /*
    * Originally, to see if the sum of the posterior probabilities of all the hyperedges sum to one
    * However, this won't work! The sum should be greater than 1.
+   * 
+   * Instead, this checks that the posterior of each node is the sum of those of its hyperedges.
    */
   public void sanityCheckHG(HyperGraph hg) {
-    tbl_for_sanity_check = new HashMap<>();
-    // System.out.println("num_dts: " + hg.goal_item.l_deductions.size());
-    sanity_check_item(hg.goalNode);
-    System.out.println("survied sanity check!!!!");
-  }
-
-  private void sanity_check_item(HGNode it) {
-    if (tbl_for_sanity_check.containsKey(it)) return;
-    tbl_for_sanity_check.put(it, 1);
-    double prob_sum = 0;
-    // ### recursive call on each deduction
-    for (HyperEdge dt : it.hyperedges) {
-      prob_sum += getEdgePosteriorProb(dt, it);
-      sanity_check_deduction(dt);// deduction-specifc operation
-    }
-    double supposed_sum = getNodePosteriorProb(it);
-    if (Math.abs(prob_sum - supposed_sum) > 1e-3) {
-      throw new RuntimeException("prob_sum=" + prob_sum + "; supposed_sum=" + supposed_sum
-          + "; sanity check fail!!!!");
-    }
-    // ### item-specific operation
-  }
-
-  private void sanity_check_deduction(HyperEdge dt) {
-    // ### recursive call on each ant item
-    if (null != dt.getTailNodes()) {
-      dt.getTailNodes().forEach(this::sanity_check_item);
+    for (int n = graph.goal(); n >= 0; n--) {
+      double prob_sum = 0;
+      for (int e = graph.firstEdge(n); e < graph.endEdge(n); e++)
+        prob_sum += getEdgePosteriorProb(e);
+      double supposed_sum = getNodePosteriorProb(n);
+      if (Math.abs(prob_sum - supposed_sum) > 1e-3) {
+        throw new RuntimeException("prob_sum=" + prob_sum + "; supposed_sum=" + supposed_sum
+            + "; sanity check fail!!!!");
+      }
     }
-
-    // ### deduction-specific operation
-
+    LOG.debug("survived sanity check");
   }
 
   // ################## end use of inside-outside probs
@@ -208,121 +215,59 @@ public abstract class DefaultInsideOutside {
 
 
   // ############ bottomn-up insdide estimation ##########################
-  private void inside_estimation_hg(HyperGraph hg) {
-    tbl_inside_prob.clear();
-    tbl_num_parent_deductions.clear();
-    inside_estimation_item(hg.goalNode);
-  }
-
-  private double inside_estimation_item(HGNode it) {
-    // ### get number of deductions that point to me
-    Integer num_called = tbl_num_parent_deductions.get(it);
-    if (null == num_called) {
-      tbl_num_parent_deductions.put(it, 1);
-    } else {
-      tbl_num_parent_deductions.put(it, num_called + 1);
-    }
-
-    if (tbl_inside_prob.containsKey(it)) {
-      return tbl_inside_prob.get(it);
-    }
-    double inside_prob = ZERO_IN_SEMIRING;
-
-    // ### recursive call on each deduction
-    for (HyperEdge dt : it.hyperedges) {
-      double v_dt = inside_estimation_deduction(dt, it);// deduction-specifc operation
-      inside_prob = add_in_semiring(inside_prob, v_dt);
-    }
-    // ### item-specific operation, but all the prob should be factored into each deduction
-
-    tbl_inside_prob.put(it, inside_prob);
-    return inside_prob;
-  }
-
-  private double inside_estimation_deduction(HyperEdge dt, HGNode parent_item) {
-    double inside_prob = ONE_IN_SEMIRING;
-    // ### recursive call on each ant item
-    if (dt.getTailNodes() != null) for (HGNode ant_it : dt.getTailNodes()) {
-      double v_item = inside_estimation_item(ant_it);
-      inside_prob = multi_in_semiring(inside_prob, v_item);
+  // the nodes are in topological order, so each node's tail nodes are done before it
+  private void inside_estimation_hg() {
+    insideProb = new double[graph.numNodes()];
+    for (int n = 0; n < insideProb.length; n++) {
+      double inside_prob = ZERO_IN_SEMIRING;
+      for (int e = graph.firstEdge(n); e < graph.endEdge(n); e++) {
+        double v_dt = ONE_IN_SEMIRING;
+        for (int k = 0; k < graph.arity(e); k++)
+          v_dt = multi_in_semiring(v_dt, insideProb[graph.tail(e, k)]);
+        v_dt = multi_in_semiring(v_dt, edgeLogProb[e]);
+        inside_prob = add_in_semiring(inside_prob, v_dt);
+      }
+      insideProb[n] = inside_prob;
     }
-
-    // ### deduction operation
-    double deduct_prob = getHyperedgeLogProb(dt, parent_item, this.scaling_factor);// feature-set
-                                                                                   // specific
-    inside_prob = multi_in_semiring(inside_prob, deduct_prob);
-    return inside_prob;
   }
 
   // ########### end inside estimation
 
   // ############ top-downn outside estimation ##########################
-
-  private void outside_estimation_hg(HyperGraph hg) {
-    tbl_outside_prob.clear();
-    tbl_outside_prob.put(hg.goalNode, ONE_IN_SEMIRING);// initialize
-    for (HyperEdge dt : hg.goalNode.hyperedges)
-      outside_estimation_deduction(dt, hg.goalNode);
-  }
-
-  private void outside_estimation_item(HGNode cur_it, HGNode upper_item, HyperEdge parent_dt,
-      double parent_deduct_prob) {
-    Integer num_called = tbl_num_parent_deductions.get(cur_it);
-    if (null == num_called || 0 == num_called) {
-      throw new RuntimeException("un-expected call, must be wrong");
-    }
-    tbl_num_parent_deductions.put(cur_it, num_called - 1);
-
-    double old_outside_prob = ZERO_IN_SEMIRING;
-    if (tbl_outside_prob.containsKey(cur_it)) {
-      old_outside_prob = tbl_outside_prob.get(cur_it);
-    }
-
-    double additional_outside_prob = ONE_IN_SEMIRING;
-
-    // ### add parent deduction prob
-    additional_outside_prob = multi_in_semiring(additional_outside_prob, parent_deduct_prob);
-
-    // ### sibing specifc
-    if (parent_dt.getTailNodes() != null && parent_dt.getTailNodes().size() > 1)
-      for (HGNode ant_it : parent_dt.getTailNodes()) {
-        if (ant_it != cur_it) {
-          double inside_prob_item = tbl_inside_prob.get(ant_it);// inside prob
-          additional_outside_prob = multi_in_semiring(additional_outside_prob, inside_prob_item);
+  // in reverse topological order, each node's outside prob is complete before it is passed down
+  private void outside_estimation_hg() {
+    outsideProb = new double[graph.numNodes()];
+    Arrays.fill(outsideProb, ZERO_IN_SEMIRING);
+    if (graph.goal() < 0)
+      return;
+    outsideProb[graph.goal()] = ONE_IN_SEMIRING;// initialize
+
+    for (int n = graph.goal(); n >= 0; n--) {
+      for (int e = graph.firstEdge(n); e < graph.endEdge(n); e++) {
+        int arity = graph.arity(e);
+        for (int k = 0; k < arity; k++) {
+          int cur_it = graph.tail(e, k);
+
+          double additional_outside_prob = ONE_IN_SEMIRING;
+
+          // ### add parent deduction prob
+          additional_outside_prob = multi_in_semiring(additional_outside_prob, edgeLogProb[e]);
+
+          // ### sibing specifc
+          if (arity > 1)
+            for (int l = 0; l < arity; l++) {
+              int ant_it = graph.tail(e, l);
+              if (ant_it != cur_it)
+                additional_outside_prob = multi_in_semiring(additional_outside_prob, insideProb[ant_it]);
+            }
+
+          // ### upper item
+          additional_outside_prob = multi_in_semiring(additional_outside_prob, outsideProb[n]);
+
+          // #### add to old prob
+          outsideProb[cur_it] = add_in_semiring(additional_outside_prob, outsideProb[cur_it]);
         }
       }
-
-    // ### upper item
-    double outside_prob_item = tbl_outside_prob.get(upper_item);// outside prob
-    additional_outside_prob = multi_in_semiring(additional_outside_prob, outside_prob_item);
-
-    // #### add to old prob
-    additional_outside_prob = add_in_semiring(additional_outside_prob, old_outside_prob);
-
-    tbl_outside_prob.put(cur_it, additional_outside_prob);
-
-    // ### recursive call on each deduction
-    if (num_called - 1 <= 0) {// i am done
-      for (HyperEdge dt : cur_it.hyperedges) {
-        // TODO: potentially, we can collect the feature expection in each hyperedge here, to avoid
-        // another pass of the hypergraph to get the counts
-        outside_estimation_deduction(dt, cur_it);
-      }
-    }
-  }
-
-
-  private void outside_estimation_deduction(HyperEdge dt, HGNode parent_item) {
-    // we do not need to outside prob if no ant items
-    if (dt.getTailNodes() != null) {
-      // ### deduction specific prob
-      double deduction_prob = getHyperedgeLogProb(dt, parent_item, this.scaling_factor);// feature-set
-                                                                                        // specific
-
-      // ### recursive call on each ant item
-      for (HGNode ant_it : dt.getTailNodes()) {
-        outside_estimation_item(ant_it, parent_item, dt, deduction_prob);
-      }
     }
   }
 
@@ -32,7 +32,9 @@ import org.apache.joshua.decoder.segment_file.Sentence;
  * During decoding, individual features values are not stored, only the model score on each edge.
  * This saves space. If you want to print the actual feature values, they have to be assembled
  * from the edges of the derivation, which means replaying the feature functions. This visitor
- * does just that, using the generic derivation visitor.
+ * does just that, using the generic derivation visitor. If the feature values of the edges were
+ * recorded during search (see {@link org.apache.joshua.decoder.ff.FeatureDelta}), they are summed
+ * instead.
  */
 public class FeatureVectorExtractor implements WalkerFunction, DerivationVisitor {
   
@@ -51,25 +53,27 @@ public class FeatureVectorExtractor implements WalkerFunction, DerivationVisitor
   /** Accumulate edge features from Viterbi path */
   @Override
   public void apply(HGNode node, int nodeIndex) {
-    features.add(
-        computeTransitionFeatures(
-          featureFunctions,
-          node.bestHyperedge,
-          node.i, node.j,
-          sourceSentence));
+    add(node.bestHyperedge, node);
   }
 
   /** Accumulate edge features for that DerivationState */
   @Override
   public void before(DerivationState state, int level, int tailNodeIndex) {
-    features.add(
-        computeTransitionFeatures(
-          featureFunctions,
-          state.edge,
-          state.parentNode.i, state.parentNode.j,
-          sourceSentence));
+    add(state.edge, state.parentNode);
   }
   
+  private void add(HyperEdge edge, HGNode head) {
+    if (edge.getFeatureDelta() != null)
+      edge.getFeatureDelta().addTo(features);
+    else
+      features.add(
+          computeTransitionFeatures(
+            featureFunctions,
+            edge,
+            head.i, head.j,
+            sourceSentence));
+  }
+
   /** Nothing to do */
   @Override
   public void after(DerivationState state, int level, int tailNodeIndex) {}
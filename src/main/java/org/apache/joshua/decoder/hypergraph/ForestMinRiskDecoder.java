@@ -0,0 +1,342 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import java.util.Arrays;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.util.FormatUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimum Bayes risk (MBR) decoding on the whole hypergraph, with the linear approximation to BLEU
+ * of Tromble et al. (2008), "Lattice Minimum Bayes-Risk Decoding for Statistical Machine
+ * Translation". The gain of a translation e is
+ * 
+ * <pre>
+ *   theta_0 * |e| + sum over n-grams w of theta_|w| * count_w(e) * p(w)
+ * </pre>
+ * 
+ * where p(w) is the posterior probability of the n-gram w under the model. Unlike
+ * {@link org.apache.joshua.decoder.NbestMinRiskReranker}, which compares every pair of entries of
+ * an n-best list, this takes two linear passes over the forest: inside-outside (see
+ * {@link TrivialInsideOutside}) to collect the n-gram posteriors, and a Viterbi pass that finds
+ * the derivation with the highest gain.
+ * 
+ * Both passes need the n-grams that each hyperedge adds to the translations of its tail nodes.
+ * These are found from the first and last (order - 1) words of each tail node's Viterbi
+ * translation. This is exact when the nodes are split by a language model state at least as long,
+ * which is the case with a 4-gram or higher-order language model; otherwise it is an approximation.
+ * The sentence markers are not counted.
+ * 
+ * {@link #decode(HyperGraph)} points the best hyperedge of each node at the MBR derivation, so the
+ * {@link ViterbiExtractor} functions then return the MBR translation, with its features and
+ * alignments.
+ */
+public class ForestMinRiskDecoder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ForestMinRiskDecoder.class);
+
+  /* The BLEU order */
+  public static final int ORDER = 4;
+
+  /*
+   * The unigram precision and the ratio between the precisions of successive orders that set the
+   * linear BLEU weights; these are the typical values from Tromble et al. (2008).
+   */
+  private static final double UNIGRAM_PRECISION = 0.85;
+  private static final double PRECISION_RATIO = 0.72;
+
+  /* Marks where the words between a node's first and last (ORDER - 1) words were left out */
+  private static final int GAP = Integer.MIN_VALUE;
+
+  /* The source tag of the words of a hyperedge that come from its rule */
+  private static final int RULE = -1;
+
+  private final double scalingFactor;
+
+  /* theta[0] is the weight of the length, and theta[n] that of an n-gram of order n */
+  private final double[] theta = new double[ORDER + 1];
+
+  private final int startSymbol = Vocabulary.id(Vocabulary.START_SYM);
+  private final int stopSymbol = Vocabulary.id(Vocabulary.STOP_SYM);
+
+  /**
+   * @param scalingFactor scales the model scores before they are turned into posteriors (lower
+   *          values flatten the distribution)
+   */
+  public ForestMinRiskDecoder(double scalingFactor) {
+    this.scalingFactor = scalingFactor;
+    theta[0] = -1.0;
+    for (int n = 1; n <= ORDER; n++)
+      theta[n] = 1.0 / (ORDER * UNIGRAM_PRECISION * Math.pow(PRECISION_RATIO, n - 1));
+  }
+
+  /**
+   * Finds the derivation with the highest expected linear BLEU gain, and makes it the best
+   * derivation of the hypergraph: each node's best hyperedge is replaced, and the score of the goal
+   * node becomes the model score of the new derivation.
+   * 
+   * @param hg the hypergraph
+   * @return the expected gain of the derivation
+   */
+  public double decode(HyperGraph hg) {
+    if (hg == null || hg.goalNode == null)
+      return 0.0;
+
+    final IndexedHyperGraph graph = hg.index();
+    final int numNodes = graph.numNodes();
+    final int numEdges = graph.numEdges();
+
+    // The first and last words of the Viterbi translation of each node
+    final int[][] context = new int[numNodes][];
+    final EdgeWords words = new EdgeWords();
+    for (int n = 0; n < numNodes; n++) {
+      int e = graph.bestEdge(n);
+      context[n] = e < 0 ? new int[0] : words.of(graph, e, context).context();
+    }
+
+    // The n-grams that each hyperedge adds, and the number of words from its rule
+    final NgramTable ngrams = new NgramTable();
+    final int[] edgeNgramStart = new int[numEdges + 1];
+    int[] edgeNgrams = new int[4 * numEdges];
+    final int[] edgeLength = new int[numEdges];
+    int numEdgeNgrams = 0;
+    for (int e = 0; e < numEdges; e++) {
+      words.of(graph, e, context);
+      for (int i = 0; i < words.size; i++) {
+        if (words.tags[i] == RULE)
+          edgeLength[e]++;
+        boolean added = false;
+        for (int n = 1; n <= ORDER && i + n <= words.size; n++) {
+          int last = i + n - 1;
+          if (words.words[last] == GAP)
+            break;
+          added |= words.tags[last] == RULE || words.tags[last] != words.tags[i];
+          if (added) {
+            if (numEdgeNgrams == edgeNgrams.length)
+              edgeNgrams = Arrays.copyOf(edgeNgrams, 2 * edgeNgrams.length);
+            edgeNgrams[numEdgeNgrams++] = ngrams.id(words.words, i, n);
+          }
+        }
+      }
+      edgeNgramStart[e + 1] = numEdgeNgrams;
+    }
+
+    // The posterior probabilities of the n-grams, from those of the hyperedges that add them
+    TrivialInsideOutside insideOutside = new TrivialInsideOutside();
+    insideOutside.runInsideOutside(hg, 0, 1, scalingFactor);
+    final double[] posterior = new double[ngrams.size()];
+    for (int e = 0; e < numEdges; e++) {
+      if (edgeNgramStart[e] == edgeNgramStart[e + 1])
+        continue;
+      double edgePosterior = insideOutside.getEdgePosteriorProb(e);
+      for (int k = edgeNgramStart[e]; k < edgeNgramStart[e + 1]; k++)
+        posterior[edgeNgrams[k]] += edgePosterior;
+    }
+    insideOutside.clearState();
+
+    // The expected gain of each hyperedge
+    final double[] edgeGain = new double[numEdges];
+    for (int e = 0; e < numEdges; e++) {
+      double gain = theta[0] * edgeLength[e];
+      for (int k = edgeNgramStart[e]; k < edgeNgramStart[e + 1]; k++) {
+        int id = edgeNgrams[k];
+        gain += theta[ngrams.order(id)] * Math.min(1.0, posterior[id]);
+      }
+      edgeGain[e] = gain;
+    }
+
+    // The derivation of each node with the highest gain, breaking ties by model score
+    final double[] gain = new double[numNodes];
+    final double[] modelScore = new double[numNodes];
+    final int[] choice = new int[numNodes];
+    for (int n = 0; n < numNodes; n++) {
+      choice[n] = -1;
+      for (int e = graph.firstEdge(n); e < graph.endEdge(n); e++) {
+        HyperEdge edge = graph.edge(e);
+        double edgeScore = edgeGain[e];
+        // the score of the edge alone, which is exact when the tails' best edges are kept
+        double score = edge.getBestDerivationScore();
+        for (int k = 0; k < graph.arity(e); k++) {
+          int tail = graph.tail(e, k);
+          edgeScore += gain[tail];
+          score += modelScore[tail] - graph.node(tail).bestHyperedge.getBestDerivationScore();
+        }
+        if (choice[n] < 0 || edgeScore > gain[n] || (edgeScore == gain[n] && score > modelScore[n])) {
+          choice[n] = e;
+          gain[n] = edgeScore;
+          modelScore[n] = score;
+        }
+      }
+    }
+
+    // The model scores above are relative to the tails' Viterbi derivations, so the best hyperedges
+    // can only be replaced once they're all done
+    int goal = graph.goal();
+    HGNode goalNode = graph.node(goal);
+    if (choice[goal] >= 0)
+      goalNode.score = (float) modelScore[goal];
+    for (int n = 0; n < numNodes; n++)
+      if (choice[n] >= 0)
+        graph.node(n).bestHyperedge = graph.edge(choice[n]);
+    hg.invalidateIndex();
+
+    LOG.debug("MBR: {} n-grams, expected gain {}", ngrams.size(), gain[goal]);
+    return gain[goal];
+  }
+
+  /**
+   * The words of a hyperedge: those of its rule, and the first and last words of its tail nodes
+   * (separated by a {@link #GAP} if any were left out), each tagged with where it comes from (the
+   * index of a tail node, or {@link #RULE}).
+   */
+  private class EdgeWords {
+    int[] words = new int[16];
+    int[] tags = new int[16];
+    int size = 0;
+
+    EdgeWords of(IndexedHyperGraph graph, int e, int[][] context) {
+      size = 0;
+      HyperEdge edge = graph.edge(e);
+      if (edge.getRule() == null) {
+        // the goal node's edges have no rule, and translate their tail node as it is
+        for (int k = 0; k < graph.arity(e); k++)
+          addAll(context[graph.tail(e, k)], k);
+        return this;
+      }
+      for (int word : edge.getRule().getEnglish()) {
+        if (FormatUtils.isNonterminal(word)) {
+          int k = -(word + 1);
+          addAll(context[graph.tail(e, k)], k);
+        } else if (word != startSymbol && word != stopSymbol) {
+          add(word, RULE);
+        }
+      }
+      return this;
+    }
+
+    private void add(int word, int tag) {
+      if (size == words.length) {
+        words = Arrays.copyOf(words, 2 * size);
+        tags = Arrays.copyOf(tags, 2 * size);
+      }
+      words[size] = word;
+      tags[size++] = tag;
+    }
+
+    private void addAll(int[] context, int tag) {
+      for (int word : context)
+        add(word, tag);
+    }
+
+    /**
+     * @return the words themselves if there are at most 2 * (ORDER - 1) of them and none were left
+     *         out, or else the first and last (ORDER - 1), separated by a {@link #GAP}
+     */
+    int[] context() {
+      int edge = ORDER - 1;
+      boolean gap = size > 2 * edge;
+      for (int i = 0; i < size && !gap; i++)
+        gap = words[i] == GAP;
+      if (!gap)
+        return Arrays.copyOf(words, size);
+      // a tail node's context has at least ORDER - 1 words on each side of a gap
+      int[] context = new int[2 * edge + 1];
+      System.arraycopy(words, 0, context, 0, edge);
+      context[edge] = GAP;
+      System.arraycopy(words, size - edge, context, edge + 1, edge);
+      return context;
+    }
+  }
+
+  /**
+   * Gives dense ids to n-grams of word ids, with open addressing.
+   */
+  private static class NgramTable {
+    /* The words of n-gram i are words[ORDER * i] .. words[ORDER * i + orders[i] - 1] */
+    private int[] words = new int[ORDER * 64];
+    private byte[] orders = new byte[64];
+    private int size = 0;
+    /* The id + 1 of the n-gram in each slot, or 0 if the slot is empty */
+    private int[] slots = new int[128];
+
+    int size() {
+      return size;
+    }
+
+    int order(int id) {
+      return orders[id];
+    }
+
+    private static int hash(int[] sequence, int start, int order) {
+      int hash = order;
+      for (int i = start; i < start + order; i++)
+        hash = 31 * hash + sequence[i];
+      return hash ^ (hash >>> 16);
+    }
+
+    int id(int[] sequence, int start, int order) {
+      int mask = slots.length - 1;
+      for (int slot = hash(sequence, start, order) & mask;; slot = (slot + 1) & mask) {
+        int id = slots[slot] - 1;
+        if (id < 0) {
+          id = add(sequence, start, order);
+          slots[slot] = id + 1;
+          if (2 * size > slots.length)
+            rehash();
+          return id;
+        }
+        if (equals(id, sequence, start, order))
+          return id;
+      }
+    }
+
+    private boolean equals(int id, int[] sequence, int start, int order) {
+      if (orders[id] != order)
+        return false;
+      for (int i = 0; i < order; i++)
+        if (words[ORDER * id + i] != sequence[start + i])
+          return false;
+      return true;
+    }
+
+    private int add(int[] sequence, int start, int order) {
+      if (size == orders.length) {
+        orders = Arrays.copyOf(orders, 2 * size);
+        words = Arrays.copyOf(words, 2 * ORDER * size);
+      }
+      System.arraycopy(sequence, start, words, ORDER * size, order);
+      orders[size] = (byte) order;
+      return size++;
+    }
+
+    private void rehash() {
+      slots = new int[2 * slots.length];
+      int mask = slots.length - 1;
+      for (int id = 0; id < size; id++) {
+        int slot = hash(words, ORDER * id, orders[id]) & mask;
+        while (slots[slot] != 0)
+          slot = (slot + 1) & mask;
+        slots[slot] = id + 1;
+      }
+    }
+  }
+}
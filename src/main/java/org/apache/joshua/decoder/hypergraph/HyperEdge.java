@@ -21,6 +21,7 @@ package org.apache.joshua.decoder.hypergraph;
 import java.util.List;
 
 import org.apache.joshua.decoder.chart_parser.SourcePath;
+import org.apache.joshua.decoder.ff.FeatureDelta;
 import org.apache.joshua.decoder.ff.tm.Rule;
 
 /**
@@ -53,13 +54,24 @@ public class HyperEdge {
    * */
   private List<HGNode> tailNodes = null;
 
+  /**
+   * The unweighted feature values of this edge alone, if they were recorded during search
+   */
+  private final FeatureDelta featureDelta;
+
   public HyperEdge(Rule rule, float bestDerivationScore, float transitionScore,
       List<HGNode> tailNodes, SourcePath srcPath) {
+    this(rule, bestDerivationScore, transitionScore, tailNodes, srcPath, null);
+  }
+
+  public HyperEdge(Rule rule, float bestDerivationScore, float transitionScore,
+      List<HGNode> tailNodes, SourcePath srcPath, FeatureDelta featureDelta) {
     this.bestDerivationScore = bestDerivationScore;
     this.transitionScore = transitionScore;
     this.rule = rule;
     this.tailNodes = tailNodes;
     this.srcPath = srcPath;
+    this.featureDelta = featureDelta;
   }
 
   public Rule getRule() {
@@ -78,6 +90,15 @@ public class HyperEdge {
     return tailNodes;
   }
 
+  /**
+   * Returns the feature values recorded for this edge during search.
+   * 
+   * @return the unweighted feature values of the edge, or null if they were not recorded
+   */
+  public FeatureDelta getFeatureDelta() {
+    return featureDelta;
+  }
+
   public float getTransitionLogP(boolean forceCompute) {
     if (forceCompute) {
       float res = bestDerivationScore;
@@ -53,6 +53,9 @@ public class HyperGraph {
   public int numEdges = -1;
   public Sentence sentence = null;
 
+  // array-based view of the hypergraph, built on first use
+  private IndexedHyperGraph index = null;
+
   public HyperGraph(HGNode goalNode, int numNodes, int numEdges, Sentence sentence) {
     this.goalNode = goalNode;
     this.numNodes = numNodes;
@@ -64,6 +67,26 @@ public class HyperGraph {
     new ForestWalker().walk(this.goalNode, new HyperGraphCounter(this));
   }
   
+  /**
+   * Returns an array-based view of the hypergraph, with dense node and edge ids, for algorithms that
+   * visit the whole forest. It is built on first use and then cached, so code that changes the
+   * hypergraph afterwards (e.g., pruning) must call {@link #invalidateIndex()}.
+   * 
+   * @return the view
+   */
+  public IndexedHyperGraph index() {
+    if (index == null)
+      index = new IndexedHyperGraph(this);
+    return index;
+  }
+
+  /**
+   * Drops the cached array-based view, after the hypergraph has been changed.
+   */
+  public void invalidateIndex() {
+    index = null;
+  }
+
   public int sentID() {
     return sentence.id();
   }
@@ -138,7 +161,8 @@ public class HyperGraph {
   }
   
   /**
-   * Dump the hypergraph to the specified file.
+   * Dump the hypergraph to the specified file. This text format can't be read back; see
+   * {@link HyperGraphWriter} and {@link HyperGraphReader} for one that can.
    * 
    * @param fileName local file path
    * @param model {@link java.util.List} of {@link org.apache.joshua.decoder.ff.FeatureFunction}'s
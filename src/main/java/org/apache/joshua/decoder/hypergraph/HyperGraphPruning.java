@@ -18,7 +18,8 @@
  */
 package org.apache.joshua.decoder.hypergraph;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.joshua.corpus.Vocabulary;
 
@@ -31,7 +32,6 @@ import org.apache.joshua.corpus.Vocabulary;
  */
 public class HyperGraphPruning extends TrivialInsideOutside {
 
-  final HashMap<HGNode, Boolean> processedNodesTbl = new HashMap<>();
   double bestLogProb;// viterbi unnormalized log prob in the hypergraph
 
   boolean ViterbiPruning = false;// Viterbi or Posterior pruning
@@ -56,7 +56,6 @@ public class HyperGraphPruning extends TrivialInsideOutside {
   }
 
   public void clearState() {
-    processedNodesTbl.clear();
     super.clearState();
   }
 
@@ -80,11 +79,22 @@ public class HyperGraphPruning extends TrivialInsideOutside {
 
     numSurvivedEdges = 0;
     numSurvivedNodes = 0;
-    processedNodesTbl.clear();
-    pruningNode(hg.goalNode);
 
-    // clear up
-    processedNodesTbl.clear();
+    /*
+     * Visit the nodes top-down (in reverse topological order), so that a node is reached only if
+     * one of its upper-deductions survived
+     */
+    IndexedHyperGraph graph = getIndex();
+    boolean[] reached = new boolean[graph.numNodes()];
+    if (graph.goal() >= 0)
+      reached[graph.goal()] = true;
+    for (int n = graph.goal(); n >= 0; n--) {
+      if (reached[n])
+        pruningNode(graph, n, reached);
+    }
+
+    // the hypergraph has changed
+    hg.invalidateIndex();
 
     System.out.println("Item suvived ratio: " + numSurvivedNodes * 1.0 / hg.numNodes + " =  "
         + numSurvivedNodes + "/" + hg.numNodes);
@@ -93,24 +103,23 @@ public class HyperGraphPruning extends TrivialInsideOutside {
   }
 
 
-  private void pruningNode(HGNode it) {
+  private void pruningNode(IndexedHyperGraph graph, int n, boolean[] reached) {
 
-    if (processedNodesTbl.containsKey(it)) return;
-
-    processedNodesTbl.put(it, true);
+    HGNode it = graph.node(n);
     boolean shouldSurvive = false;
 
-    // ### recursive call on each deduction
-    for (int i = 0; i < it.hyperedges.size(); i++) {
-      HyperEdge dt = it.hyperedges.get(i);
-      boolean survived = pruningEdge(dt, it);// deduction-specifc operation
-      if (survived) {
+    // ### call on each deduction
+    List<HyperEdge> survivors = new ArrayList<>(graph.endEdge(n) - graph.firstEdge(n));
+    for (int e = graph.firstEdge(n); e < graph.endEdge(n); e++) {
+      if (pruningEdge(graph, e, reached)) {// deduction-specifc operation
+        survivors.add(graph.edge(e));
         shouldSurvive = true; // at least one deduction survive
-      } else {
-        it.hyperedges.remove(i);
-        i--;
       }
     }
+    if (survivors.size() < it.hyperedges.size()) {
+      it.hyperedges.clear();
+      it.hyperedges.addAll(survivors);
+    }
     // TODO: now we simply remove the pruned deductions, but in general, we may want to update the
     // variables mainted in the item (e.g., best_deduction); this depends on the pruning method used
 
@@ -130,37 +139,35 @@ public class HyperGraphPruning extends TrivialInsideOutside {
 
   // if survive, return true
   // best-deduction is always kept
-  private boolean pruningEdge(HyperEdge dt, HGNode parent) {
+  private boolean pruningEdge(IndexedHyperGraph graph, int e, boolean[] reached) {
 
     /**
      * TODO: theoretically, if an item is get called, then its best deduction should always be kept
      * even just by the threshold-checling. In reality, due to precision of Double, the
      * threshold-checking may not be perfect
      */
-    if (dt != parent.bestHyperedge) { // best deduction should always survive if the Item is get
-                                      // called
+    if (e != graph.bestEdge(graph.head(e))) { // best deduction should always survive if the Item is
+                                              // get called
       // ### prune?
-      if (shouldPruneHyperedge(dt, parent)) {
+      if (shouldPruneHyperedge(graph.edge(e), e)) {
         return false; // early stop
       }
     }
 
-    // ### still survive, recursive call all my ant-items
-    if (null != dt.getTailNodes()) {
-      // recursive call on each ant item, note: the ant_it will not be pruned
-      // as I need it
-      dt.getTailNodes().forEach(this::pruningNode);
-    }
+    // ### still survive, mark all my ant-items as reached, note: the ant_it will not be pruned
+    // as I need it
+    for (int k = 0; k < graph.arity(e); k++)
+      reached[graph.tail(e, k)] = true;
 
     // ### if get to here, then survive; remember: if I survive, then my upper-item must survive
     numSurvivedEdges++;
     return true; // survive
   }
 
-  private boolean shouldPruneHyperedge(HyperEdge dt, HGNode parent) {
+  private boolean shouldPruneHyperedge(HyperEdge dt, int e) {
 
     // ### get merit
-    double postLogProb = getEdgeUnormalizedPosteriorLogProb(dt, parent);
+    double postLogProb = getEdgeUnnormalizedPosteriorLogProb(e);
 
 
     if (dt.getRule() != null && dt.getRule().getOwner().equals(glueGrammarOwner)
@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.FeatureDelta;
+import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.ff.tm.OwnerId;
+import org.apache.joshua.decoder.ff.tm.OwnerMap;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.apache.joshua.util.io.Reader;
+
+/**
+ * Reads the hypergraphs written by {@link HyperGraphWriter}, one sentence at a time. The file is
+ * either memory-mapped, in windows of a few hundred megabytes, or read one block at a time into a
+ * reused buffer. The node and edge arrays of each block are read in bulk, and the hypergraph is
+ * then rebuilt in one pass over them, creating each rule of the block once.
+ * 
+ * The rebuilt hypergraphs have the rules, scores and (if they were written) per-edge feature
+ * values of the original ones, the latter as each edge's {@link FeatureDelta}, so that k-best
+ * extraction can output the features without the feature functions. They have no dynamic
+ * programming states.
+ */
+public class HyperGraphReader implements Reader<HyperGraph> {
+
+  /* The size of the memory-mapped windows (a larger block gets a window of its own) */
+  private static final int WINDOW = 1 << 28;
+
+  private final FileChannel channel;
+  private final long size;
+  private final boolean memoryMapped;
+  private final JoshuaConfiguration config;
+
+  /* The start of the next block */
+  private long position;
+
+  /* The current memory-mapped window, or the buffer blocks are read into */
+  private ByteBuffer window = null;
+  private long windowStart = 0;
+
+  private HyperGraph buffer = null;
+
+  /**
+   * Opens a file of hypergraphs, memory-mapping it.
+   * 
+   * @param filename the file
+   * @param config the configuration, which is needed to rebuild the input sentences
+   * @throws IOException if the file can't be opened or is not in the right format
+   */
+  public HyperGraphReader(String filename, JoshuaConfiguration config) throws IOException {
+    this(filename, true, config);
+  }
+
+  /**
+   * Opens a file of hypergraphs.
+   * 
+   * @param filename the file
+   * @param memoryMapped whether to memory-map the file, rather than read it block by block
+   * @param config the configuration, which is needed to rebuild the input sentences
+   * @throws IOException if the file can't be opened or is not in the right format
+   */
+  public HyperGraphReader(String filename, boolean memoryMapped, JoshuaConfiguration config)
+      throws IOException {
+    this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    this.size = channel.size();
+    this.memoryMapped = memoryMapped;
+    this.config = config;
+    if (size < 4 || region(0, 4).getInt() != HyperGraphWriter.MAGIC) {
+      channel.close();
+      throw new IOException(String.format("%s is not a binary hypergraph file", filename));
+    }
+    this.position = 4;
+  }
+
+  /**
+   * Reads the next hypergraph. Sentences that weren't translated have a hypergraph without a goal
+   * node.
+   * 
+   * @return the hypergraph, or null at the end of the file
+   * @throws IOException if there is an error reading or the file is corrupt
+   */
+  @Override
+  public HyperGraph readLine() throws IOException {
+    if (buffer != null) {
+      HyperGraph hg = buffer;
+      buffer = null;
+      return hg;
+    }
+    ByteBuffer block = nextBlock();
+    return (block == null) ? null : decode(block);
+  }
+
+  /**
+   * Skips the next hypergraph without decoding it.
+   * 
+   * @return false at the end of the file
+   * @throws IOException if there is an error reading or the file is corrupt
+   */
+  public boolean skip() throws IOException {
+    if (buffer != null) {
+      buffer = null;
+      return true;
+    }
+    return nextBlock() != null;
+  }
+
+  private ByteBuffer nextBlock() throws IOException {
+    if (position >= size)
+      return null;
+    if (position + 4 > size)
+      throw new EOFException("Truncated hypergraph file");
+    int length = region(position, 4).getInt();
+    if (length < 0 || position + 4 + length > size)
+      throw new EOFException("Truncated hypergraph file");
+    ByteBuffer block = region(position + 4, length);
+    position += 4 + length;
+    return block;
+  }
+
+  /*
+   * Returns a buffer holding the given part of the file. It is only valid until the next call.
+   */
+  private ByteBuffer region(long start, int length) throws IOException {
+    if (memoryMapped) {
+      if (window == null || start < windowStart
+          || start + length > windowStart + window.capacity()) {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(size - start, Math.max(length, WINDOW)));
+      }
+      ByteBuffer region = window.duplicate();
+      region.position((int) (start - windowStart));
+      region.limit(region.position() + length);
+      return region.slice();
+    }
+
+    if (window == null || window.capacity() < length)
+      window = ByteBuffer.allocate(Math.max(length, 1 << 16));
+    window.clear();
+    window.limit(length);
+    while (window.hasRemaining())
+      if (channel.read(window, start + window.position()) < 0)
+        throw new EOFException("Truncated hypergraph file");
+    window.flip();
+    return window;
+  }
+
+  private HyperGraph decode(ByteBuffer in) throws IOException {
+    int id = in.getInt();
+    String source = readString(in);
+
+    int[] symbols = new int[in.getInt()];
+    for (int k = 0; k < symbols.length; k++)
+      symbols[k] = Vocabulary.id(readString(in));
+    String[] names = new String[in.getInt()];
+    for (int k = 0; k < names.length; k++)
+      names[k] = readString(in);
+    boolean hasFeatures = in.getInt() != 0;
+
+    Rule[] rules = new Rule[in.getInt()];
+    OwnerId[] owners = new OwnerId[names.length];
+    for (int r = 0; r < rules.length; r++) {
+      int lhs = symbols[in.getInt()];
+      int owner = in.getInt();
+      if (owners[owner] == null)
+        owners[owner] = OwnerMap.register(names[owner]);
+      int arity = in.getInt();
+      int[] sourceSide = new int[in.getInt()];
+      for (int k = 0; k < sourceSide.length; k++)
+        sourceSide[k] = symbols[in.getInt()];
+      int[] targetSide = new int[in.getInt()];
+      for (int k = 0; k < targetSide.length; k++) {
+        int symbol = in.getInt();
+        targetSide[k] = (symbol < 0) ? symbol : symbols[symbol];
+      }
+      String features = names[in.getInt()];
+      String alignment = null;
+      int alignmentLength = in.getInt();
+      if (alignmentLength >= 0) {
+        StringBuilder points = new StringBuilder();
+        for (int k = 0; k < alignmentLength; k += 2) {
+          if (k > 0)
+            points.append(' ');
+          points.append(in.get()).append('-').append(in.get());
+        }
+        alignment = points.toString();
+      }
+      rules[r] = new Rule(lhs, sourceSide, targetSide, features, arity, alignment);
+      rules[r].setOwner(owners[owner]);
+    }
+
+    int numNodes = in.getInt();
+    int numEdges = in.getInt();
+    int numTails = in.getInt();
+    int numFeatures = in.getInt();
+    int[] nodeI = readInts(in, numNodes);
+    int[] nodeJ = readInts(in, numNodes);
+    int[] nodeLhs = readInts(in, numNodes);
+    float[] nodeScore = readFloats(in, numNodes);
+    int[] nodeBest = readInts(in, numNodes);
+    int[] nodeEdgeEnd = readInts(in, numNodes);
+    int[] edgeRule = readInts(in, numEdges);
+    float[] edgeBest = readFloats(in, numEdges);
+    float[] edgeTransition = readFloats(in, numEdges);
+    int[] edgeTailEnd = readInts(in, numEdges);
+    int[] edgeFeatureEnd = readInts(in, numEdges);
+    int[] tails = readInts(in, numTails);
+    int[] featureNames = readInts(in, numFeatures);
+    float[] featureValues = readFloats(in, numFeatures);
+
+    // Features that are dense in this run of the decoder are recorded by id
+    int[] denseIds = null;
+    if (hasFeatures) {
+      HashMap<String, Integer> dense = new HashMap<>();
+      for (int k = 0; k < FeatureVector.DENSE_FEATURE_NAMES.size(); k++)
+        dense.put(FeatureVector.DENSE_FEATURE_NAMES.get(k), k);
+      denseIds = new int[names.length];
+      for (int k = 0; k < names.length; k++)
+        denseIds[k] = dense.getOrDefault(names[k], -1);
+    }
+
+    HGNode[] nodes = new HGNode[numNodes];
+    int e = 0;
+    for (int n = 0; n < numNodes; n++) {
+      List<HyperEdge> edges = new ArrayList<>(nodeEdgeEnd[n] - e);
+      HyperEdge best = null;
+      for (; e < nodeEdgeEnd[n]; e++) {
+        int tailStart = (e == 0) ? 0 : edgeTailEnd[e - 1];
+        List<HGNode> tailNodes = null;
+        if (edgeTailEnd[e] > tailStart) {
+          tailNodes = new ArrayList<>(edgeTailEnd[e] - tailStart);
+          for (int t = tailStart; t < edgeTailEnd[e]; t++) {
+            if (tails[t] >= n)
+              throw new IOException("Corrupt hypergraph file: nodes out of order");
+            tailNodes.add(nodes[tails[t]]);
+          }
+        }
+
+        FeatureDelta features = null;
+        if (hasFeatures) {
+          FeatureDelta.Builder builder = new FeatureDelta.Builder();
+          for (int f = (e == 0) ? 0 : edgeFeatureEnd[e - 1]; f < edgeFeatureEnd[e]; f++) {
+            int name = featureNames[f];
+            if (denseIds[name] >= 0)
+              builder.add(denseIds[name], featureValues[f]);
+            else
+              builder.add(names[name], featureValues[f]);
+          }
+          features = builder.build();
+        }
+
+        HyperEdge edge = new HyperEdge(edgeRule[e] < 0 ? null : rules[edgeRule[e]], edgeBest[e],
+            edgeTransition[e], tailNodes, null, features);
+        edges.add(edge);
+        if (e == nodeBest[n])
+          best = edge;
+      }
+
+      nodes[n] = new HGNode(nodeI[n], nodeJ[n], symbols[nodeLhs[n]], edges, best, null);
+      nodes[n].score = nodeScore[n];
+    }
+
+    Sentence sentence = (id < 0) ? null : new Sentence(source, id, config);
+    return new HyperGraph(numNodes > 0 ? nodes[numNodes - 1] : null, numNodes, numEdges, sentence);
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    String string;
+    if (in.hasArray()) {
+      string = new String(in.array(), in.arrayOffset() + in.position(), length,
+          StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      string = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return string;
+  }
+
+  private static int[] readInts(ByteBuffer in, int size) {
+    int[] values = new int[size];
+    in.asIntBuffer().get(values);
+    in.position(in.position() + 4 * size);
+    return values;
+  }
+
+  private static float[] readFloats(ByteBuffer in, int size) {
+    float[] values = new float[size];
+    in.asFloatBuffer().get(values);
+    in.position(in.position() + 4 * size);
+    return values;
+  }
+
+  @Override
+  public boolean ready() throws IOException {
+    return buffer != null || position < size;
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+  }
+
+  @Override
+  public Iterator<HyperGraph> iterator() {
+    return this;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (buffer == null) {
+      try {
+        buffer = readLine();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return buffer != null;
+  }
+
+  @Override
+  public HyperGraph next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    HyperGraph hg = buffer;
+    buffer = null;
+    return hg;
+  }
+}
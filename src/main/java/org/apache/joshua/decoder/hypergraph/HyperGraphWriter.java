@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.chart_parser.ComputeNodeResult;
+import org.apache.joshua.decoder.ff.FeatureFunction;
+import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.ff.tm.OwnerMap;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.segment_file.Sentence;
+
+/**
+ * Writes hypergraphs in a compact binary format, which {@link HyperGraphReader} loads back
+ * without decoding the sentences again, e.g. for rescoring, oracle extraction or MBR.
+ * 
+ * The file starts with the four bytes "JHG1", followed by one block per sentence. Each block is
+ * self-contained (it has its own word and name tables), so blocks can be skipped or loaded
+ * independently, and is preceded by its length in bytes. A block holds, in this order:
+ * 
+ * <ul>
+ * <li>the sentence id and the source sentence</li>
+ * <li>a table of the words and nonterminals used, and a table of the other strings (feature
+ * names, rule owners and rule feature strings)</li>
+ * <li>the distinct rules: left-hand side, owner, arity, source side, target side, feature string
+ * and alignment points</li>
+ * <li>the node and edge arrays of the hypergraph in the order of {@link IndexedHyperGraph} (tail
+ * nodes before their heads, the goal node last, and the edges of each node contiguous): for each
+ * node its span, left-hand side, score, best edge and the end of its edges; for each edge its rule,
+ * best derivation score, transition score, and the ends of its tail nodes and its features; then
+ * the tail nodes of all edges, and the (name, value) features of all edges</li>
+ * </ul>
+ * 
+ * All numbers are big-endian four-byte ints and floats, and the arrays are written whole, so that
+ * they can be read in bulk. Strings are written as their length in bytes followed by their UTF-8
+ * encoding. The per-edge features are the unweighted feature values of the edge alone, as computed
+ * by {@link ComputeNodeResult#computeTransitionFeatures}; they are written only if the feature
+ * functions are given. Dynamic programming states are not written.
+ */
+public class HyperGraphWriter implements Flushable, Closeable {
+
+  static final int MAGIC = ('J' << 24) | ('H' << 16) | ('G' << 8) | '1';
+
+  private final DataOutputStream out;
+
+  public HyperGraphWriter(String filename) throws IOException {
+    this(new FileOutputStream(filename));
+  }
+
+  public HyperGraphWriter(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+    this.out.writeInt(MAGIC);
+  }
+
+  /**
+   * Appends a hypergraph.
+   * 
+   * @param sentence the input sentence
+   * @param hg the hypergraph, or null if the sentence wasn't translated
+   * @param model the feature functions, to write the feature values of each edge, or null
+   * @throws IOException if there is an error writing
+   */
+  public void write(Sentence sentence, HyperGraph hg, List<FeatureFunction> model)
+      throws IOException {
+    write(encode(sentence, hg, model));
+  }
+
+  /**
+   * Appends a hypergraph that was already encoded with {@link #encode}.
+   * 
+   * @param block the encoded hypergraph
+   * @throws IOException if there is an error writing
+   */
+  public void write(byte[] block) throws IOException {
+    out.writeInt(block.length);
+    out.write(block);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Encodes a hypergraph as a block of the file format. This is independent of any writer, so that
+   * the decoder threads can encode their hypergraphs and leave only the writing to the thread that
+   * puts the outputs in order.
+   * 
+   * @param sentence the input sentence
+   * @param hg the hypergraph, or null if the sentence wasn't translated
+   * @param model the feature functions, to write the feature values of each edge, or null
+   * @return the encoded hypergraph
+   * @throws IOException if there is an error encoding
+   */
+  public static byte[] encode(Sentence sentence, HyperGraph hg, List<FeatureFunction> model)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 12);
+    new Encoder(sentence, hg, model).encode(new DataOutputStream(bytes));
+    return bytes.toByteArray();
+  }
+
+  private static class Encoder {
+    private final Sentence sentence;
+    private final IndexedHyperGraph graph;
+    private final List<FeatureFunction> model;
+
+    private final Map<Integer, Integer> symbolIds = new HashMap<>();
+    private final List<String> symbols = new ArrayList<>();
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final IdentityHashMap<Rule, Integer> ruleIds = new IdentityHashMap<>();
+    private final List<Rule> rules = new ArrayList<>();
+
+    Encoder(Sentence sentence, HyperGraph hg, List<FeatureFunction> model) {
+      this.sentence = sentence;
+      this.graph = (hg == null) ? new IndexedHyperGraph((HGNode) null) : hg.index();
+      this.model = model;
+    }
+
+    private int symbol(int id) {
+      Integer index = symbolIds.get(id);
+      if (index == null) {
+        index = symbols.size();
+        symbolIds.put(id, index);
+        symbols.add(Vocabulary.word(id));
+      }
+      return index;
+    }
+
+    private int name(String name) {
+      Integer index = nameIds.get(name);
+      if (index == null) {
+        index = names.size();
+        nameIds.put(name, index);
+        names.add(name);
+      }
+      return index;
+    }
+
+    private int rule(Rule rule) {
+      if (rule == null)
+        return -1;
+      Integer index = ruleIds.get(rule);
+      if (index == null) {
+        index = rules.size();
+        ruleIds.put(rule, index);
+        rules.add(rule);
+      }
+      return index;
+    }
+
+    void encode(DataOutputStream out) throws IOException {
+      int numNodes = graph.numNodes();
+      int numEdges = graph.numEdges();
+
+      int[] nodeI = new int[numNodes];
+      int[] nodeJ = new int[numNodes];
+      int[] nodeLhs = new int[numNodes];
+      float[] nodeScore = new float[numNodes];
+      int[] nodeBest = new int[numNodes];
+      int[] nodeEdgeEnd = new int[numNodes];
+      for (int n = 0; n < numNodes; n++) {
+        HGNode node = graph.node(n);
+        nodeI[n] = node.i;
+        nodeJ[n] = node.j;
+        nodeLhs[n] = symbol(node.lhs);
+        nodeScore[n] = node.getScore();
+        nodeBest[n] = graph.bestEdge(n);
+        nodeEdgeEnd[n] = graph.endEdge(n);
+      }
+
+      int[] edgeRule = new int[numEdges];
+      float[] edgeBest = new float[numEdges];
+      float[] edgeTransition = new float[numEdges];
+      int[] edgeTailEnd = new int[numEdges];
+      int[] edgeFeatureEnd = new int[numEdges];
+      int[] tails = new int[16];
+      int numTails = 0;
+      int[] featureNames = new int[16];
+      float[] featureValues = new float[16];
+      int numFeatures = 0;
+      for (int e = 0; e < numEdges; e++) {
+        HyperEdge edge = graph.edge(e);
+        edgeRule[e] = rule(edge.getRule());
+        edgeBest[e] = edge.getBestDerivationScore();
+        edgeTransition[e] = edge.getTransitionLogP(false);
+
+        for (int k = 0; k < graph.arity(e); k++) {
+          if (numTails == tails.length)
+            tails = Arrays.copyOf(tails, 2 * numTails);
+          tails[numTails++] = graph.tail(e, k);
+        }
+        edgeTailEnd[e] = numTails;
+
+        if (model != null) {
+          HGNode head = graph.node(graph.head(e));
+          FeatureVector features = ComputeNodeResult.computeTransitionFeatures(model, edge, head.i,
+              head.j, sentence);
+          List<Float> dense = features.getDenseFeatures();
+          int size = numFeatures + dense.size() + features.getSparseFeatures().size();
+          if (size > featureNames.length) {
+            featureNames = Arrays.copyOf(featureNames, 2 * size);
+            featureValues = Arrays.copyOf(featureValues, 2 * size);
+          }
+          for (int id = 0; id < dense.size(); id++) {
+            if (dense.get(id) != 0.0f) {
+              featureNames[numFeatures] = name(FeatureVector.DENSE_FEATURE_NAMES.get(id));
+              featureValues[numFeatures++] = dense.get(id);
+            }
+          }
+          for (Map.Entry<String, Float> feature : features.getSparseFeatures().entrySet()) {
+            featureNames[numFeatures] = name(feature.getKey());
+            featureValues[numFeatures++] = feature.getValue();
+          }
+        }
+        edgeFeatureEnd[e] = numFeatures;
+      }
+
+      // The rules come before the arrays that refer to them, but they add to the tables
+      ByteArrayOutputStream ruleBytes = new ByteArrayOutputStream();
+      DataOutputStream ruleOut = new DataOutputStream(ruleBytes);
+      for (Rule rule : rules) {
+        ruleOut.writeInt(symbol(rule.getLHS()));
+        ruleOut.writeInt(name(OwnerMap.getOwner(rule.getOwner())));
+        ruleOut.writeInt(rule.getArity());
+        int[] source = rule.getFrench();
+        ruleOut.writeInt(source.length);
+        for (int id : source)
+          ruleOut.writeInt(symbol(id));
+        // Target-side nonterminals are negative indices into the source-side ones
+        int[] target = rule.getEnglish();
+        ruleOut.writeInt(target.length);
+        for (int id : target)
+          ruleOut.writeInt(id < 0 ? id : symbol(id));
+        ruleOut.writeInt(name(rule.getFeatureString()));
+        byte[] alignment = rule.getAlignment();
+        if (alignment == null) {
+          ruleOut.writeInt(-1);
+        } else {
+          ruleOut.writeInt(alignment.length);
+          ruleOut.write(alignment);
+        }
+      }
+      ruleOut.flush();
+
+      out.writeInt(sentence == null ? -1 : sentence.id());
+      writeString(out, sentence == null ? "" : sentence.source());
+      out.writeInt(symbols.size());
+      for (String symbol : symbols)
+        writeString(out, symbol);
+      out.writeInt(names.size());
+      for (String name : names)
+        writeString(out, name);
+      out.writeInt(model != null ? 1 : 0);
+      out.writeInt(rules.size());
+      ruleBytes.writeTo(out);
+
+      out.writeInt(numNodes);
+      out.writeInt(numEdges);
+      out.writeInt(numTails);
+      out.writeInt(numFeatures);
+      writeInts(out, nodeI, numNodes);
+      writeInts(out, nodeJ, numNodes);
+      writeInts(out, nodeLhs, numNodes);
+      writeFloats(out, nodeScore, numNodes);
+      writeInts(out, nodeBest, numNodes);
+      writeInts(out, nodeEdgeEnd, numNodes);
+      writeInts(out, edgeRule, numEdges);
+      writeFloats(out, edgeBest, numEdges);
+      writeFloats(out, edgeTransition, numEdges);
+      writeInts(out, edgeTailEnd, numEdges);
+      writeInts(out, edgeFeatureEnd, numEdges);
+      writeInts(out, tails, numTails);
+      writeInts(out, featureNames, numFeatures);
+      writeFloats(out, featureValues, numFeatures);
+      out.flush();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values, int size) throws IOException {
+    for (int k = 0; k < size; k++)
+      out.writeInt(values[k]);
+  }
+
+  private static void writeFloats(DataOutputStream out, float[] values, int size)
+      throws IOException {
+    for (int k = 0; k < size; k++)
+      out.writeFloat(values[k]);
+  }
+}
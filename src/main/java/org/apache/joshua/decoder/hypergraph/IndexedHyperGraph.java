@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * An array-based view of a hypergraph, for algorithms that visit every node and edge (inside-outside,
+ * pruning, MBR). The nodes reachable from the goal node are numbered 0..numNodes-1 in topological
+ * order (tail nodes before the nodes they build, the goal node last), and their incoming edges are
+ * numbered 0..numEdges-1 so that the edges of each node are contiguous. Values per node or per edge
+ * can then be kept in primitive arrays indexed by these ids instead of in maps keyed by objects.
+ * 
+ * The view is a snapshot: it is built once (see {@link HyperGraph#index()}) and doesn't follow
+ * later changes to the hypergraph.
+ */
+public class IndexedHyperGraph {
+
+  private final HGNode[] nodes;
+  private final HyperEdge[] edges;
+
+  /* The edges of node n are edgeStart[n] .. edgeStart[n+1]-1 */
+  private final int[] edgeStart;
+
+  /* The head node of each edge */
+  private final int[] edgeHead;
+
+  /* The tail nodes of edge e are tails[tailStart[e]] .. tails[tailStart[e+1]-1] */
+  private final int[] tailStart;
+  private final int[] tails;
+
+  /* The id of each node's best incoming edge (-1 if it has none) */
+  private final int[] bestEdge;
+
+  private final IdentityHashMap<HGNode, Integer> nodeIds;
+
+  public IndexedHyperGraph(HyperGraph hg) {
+    this(hg.goalNode);
+  }
+
+  public IndexedHyperGraph(HGNode goalNode) {
+    // Number the nodes in post-order, iteratively, since forests can be deep. For each node on the
+    // stack, we track the edge and tail node to visit next.
+    nodeIds = new IdentityHashMap<>();
+    List<HGNode> order = new ArrayList<>();
+    if (goalNode != null) {
+      List<HGNode> stack = new ArrayList<>();
+      int[] nextEdge = new int[16];
+      int[] nextTail = new int[16];
+      stack.add(goalNode);
+      nodeIds.put(goalNode, -1);
+      while (!stack.isEmpty()) {
+        int top = stack.size() - 1;
+        HGNode node = stack.get(top);
+        HGNode child = null;
+        while (child == null && node.hyperedges != null && nextEdge[top] < node.hyperedges.size()) {
+          List<HGNode> edgeTails = node.hyperedges.get(nextEdge[top]).getTailNodes();
+          if (edgeTails != null && nextTail[top] < edgeTails.size()) {
+            child = edgeTails.get(nextTail[top]++);
+          } else {
+            nextEdge[top]++;
+            nextTail[top] = 0;
+          }
+        }
+
+        if (child == null) {
+          stack.remove(top);
+          nodeIds.put(node, order.size());
+          order.add(node);
+        } else if (!nodeIds.containsKey(child)) {
+          nodeIds.put(child, -1);
+          stack.add(child);
+          if (stack.size() > nextEdge.length) {
+            nextEdge = Arrays.copyOf(nextEdge, 2 * nextEdge.length);
+            nextTail = Arrays.copyOf(nextTail, 2 * nextTail.length);
+          }
+          nextEdge[top + 1] = 0;
+          nextTail[top + 1] = 0;
+        }
+      }
+    }
+    nodes = order.toArray(new HGNode[0]);
+
+    int numEdges = 0;
+    int numTails = 0;
+    for (HGNode node : nodes) {
+      if (node.hyperedges != null) {
+        numEdges += node.hyperedges.size();
+        for (HyperEdge edge : node.hyperedges)
+          if (edge.getTailNodes() != null)
+            numTails += edge.getTailNodes().size();
+      }
+    }
+
+    edges = new HyperEdge[numEdges];
+    edgeStart = new int[nodes.length + 1];
+    edgeHead = new int[numEdges];
+    tailStart = new int[numEdges + 1];
+    tails = new int[numTails];
+    bestEdge = new int[nodes.length];
+
+    int e = 0;
+    int t = 0;
+    for (int n = 0; n < nodes.length; n++) {
+      edgeStart[n] = e;
+      bestEdge[n] = -1;
+      if (nodes[n].hyperedges == null)
+        continue;
+      for (HyperEdge edge : nodes[n].hyperedges) {
+        if (edge == nodes[n].bestHyperedge)
+          bestEdge[n] = e;
+        edges[e] = edge;
+        edgeHead[e] = n;
+        tailStart[e] = t;
+        if (edge.getTailNodes() != null)
+          for (HGNode tail : edge.getTailNodes())
+            tails[t++] = nodeIds.get(tail);
+        e++;
+      }
+    }
+    edgeStart[nodes.length] = e;
+    tailStart[e] = t;
+  }
+
+  public int numNodes() {
+    return nodes.length;
+  }
+
+  public int numEdges() {
+    return edges.length;
+  }
+
+  /**
+   * @return the id of the goal node (the last one), or -1 if the hypergraph is empty
+   */
+  public int goal() {
+    return nodes.length - 1;
+  }
+
+  public HGNode node(int n) {
+    return nodes[n];
+  }
+
+  public HyperEdge edge(int e) {
+    return edges[e];
+  }
+
+  /**
+   * @param node a node of the hypergraph
+   * @return its id, or -1 if it isn't in the view
+   */
+  public int id(HGNode node) {
+    Integer id = nodeIds.get(node);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * @param head the head node of the edge
+   * @param edge an incoming edge of the node
+   * @return the edge's id, or -1 if it isn't in the view
+   */
+  public int id(HyperEdge edge, HGNode head) {
+    int n = id(head);
+    if (n >= 0)
+      for (int e = edgeStart[n]; e < edgeStart[n + 1]; e++)
+        if (edges[e] == edge)
+          return e;
+    return -1;
+  }
+
+  /**
+   * @param n a node id
+   * @return the id of the node's first incoming edge
+   */
+  public int firstEdge(int n) {
+    return edgeStart[n];
+  }
+
+  /**
+   * @param n a node id
+   * @return one more than the id of the node's last incoming edge
+   */
+  public int endEdge(int n) {
+    return edgeStart[n + 1];
+  }
+
+  /**
+   * @param n a node id
+   * @return the id of the node's best incoming edge, or -1
+   */
+  public int bestEdge(int n) {
+    return bestEdge[n];
+  }
+
+  /**
+   * @param e an edge id
+   * @return the id of the edge's head node
+   */
+  public int head(int e) {
+    return edgeHead[e];
+  }
+
+  /**
+   * @param e an edge id
+   * @return the number of tail nodes of the edge
+   */
+  public int arity(int e) {
+    return tailStart[e + 1] - tailStart[e];
+  }
+
+  /**
+   * @param e an edge id
+   * @param k the index of a tail node
+   * @return the id of the kth tail node of the edge
+   */
+  public int tail(int e, int k) {
+    return tails[tailStart[e] + k];
+  }
+}
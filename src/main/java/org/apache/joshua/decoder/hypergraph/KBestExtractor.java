@@ -27,11 +27,16 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
 
 import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.BLEU;
@@ -42,9 +47,11 @@ import org.apache.joshua.decoder.ff.fragmentlm.Tree;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
 import org.apache.joshua.decoder.ff.tm.Rule;
 import org.apache.joshua.decoder.io.DeNormalize;
+import org.apache.joshua.decoder.io.OutputFormat;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.apache.joshua.decoder.segment_file.Token;
 import org.apache.joshua.util.FormatUtils;
+import org.apache.joshua.util.io.NBestEntry;
 import org.apache.joshua.decoder.StructuredTranslation;
 import org.apache.joshua.decoder.StructuredTranslationFactory;
 
@@ -90,12 +97,18 @@ import org.apache.joshua.decoder.StructuredTranslationFactory;
  * <p>The configuration parameter `top-n` controls how many items are returned. If this is set to 0,
  * k-best extraction should be turned off entirely.</p>
  * 
+ * <p>If the configuration parameter `kbest-threads` is set, the k best derivations are all
+ * extracted first, and are then turned into output (strings, features, alignments, and so on) on
+ * that many threads. In this mode, the unique n-best strings (`use-unique-nbest`) are told apart by
+ * 64-bit fingerprints of their words, which are combined from those of the subderivations, instead
+ * of by the strings themselves.</p>
+ * 
  * @author Zhifei Li, zhifei.work@gmail.com
  * @author Matt Post post@cs.jhu.edu
  */
 public class KBestExtractor {
   private final JoshuaConfiguration joshuaConfiguration;
-  private final String outputFormat;
+  private final OutputFormat outputFormat;
   private final HashMap<HGNode, VirtualNode> virtualNodesTable = new HashMap<>();
 
   // static final String rootSym = JoshuaConfiguration.goal_symbol;
@@ -124,23 +137,56 @@ public class KBestExtractor {
   /* BLEU statistics of the references */
   private BLEU.References references = null;
 
+  /* Whether to extract all k derivations before producing output (see kbest-threads) */
+  private final boolean extractFirst;
+
+  /* Whether to tell unique strings apart by their fingerprints */
+  private final boolean useFingerprints;
+
+  /* The threads that produce the output from the derivations, if any */
+  private final ExecutorService outputPool;
+
   public KBestExtractor(
       Sentence sentence,
       List<FeatureFunction> featureFunctions,
       FeatureVector weights,
       boolean isMonolingual,
       JoshuaConfiguration joshuaConfiguration) {
+    this(sentence, featureFunctions, weights, isMonolingual, joshuaConfiguration, null);
+  }
+
+  /**
+   * @param sentence the input sentence
+   * @param featureFunctions the feature functions
+   * @param weights the weights being used to score the forest
+   * @param isMonolingual whether to output the source side
+   * @param joshuaConfiguration the configuration
+   * @param outputPool the threads on which to produce the output when `kbest-threads` is set, or
+   *          null to do so on the calling thread
+   */
+  public KBestExtractor(
+      Sentence sentence,
+      List<FeatureFunction> featureFunctions,
+      FeatureVector weights,
+      boolean isMonolingual,
+      JoshuaConfiguration joshuaConfiguration,
+      ExecutorService outputPool) {
 
     this.featureFunctions = featureFunctions;
 
     this.joshuaConfiguration = joshuaConfiguration;
-    this.outputFormat = this.joshuaConfiguration.outputFormat;
+    this.outputFormat = this.joshuaConfiguration.getOutputFormat();
     this.extractUniqueNbest = joshuaConfiguration.use_unique_nbest;
 
     this.weights = weights;
     this.defaultSide = (isMonolingual ? Side.SOURCE : Side.TARGET);
     this.sentence = sentence;
 
+    this.extractFirst = joshuaConfiguration.kbest_threads > 0;
+    // The fingerprints follow the target-side yield only
+    this.useFingerprints = extractFirst && extractUniqueNbest && defaultSide == Side.TARGET;
+    this.outputPool = extractFirst ? outputPool : null;
+
     if (joshuaConfiguration.rescoreForest) {
       references = new BLEU.References(sentence.references());
     }
@@ -190,6 +236,16 @@ public class KBestExtractor {
     if (hg == null || hg.goalNode == null) {
       return emptyList();
     }
+    if (extractFirst)
+      return produceOutput(getKBestDerivations(hg.goalNode, topN), (derivationState, k) -> {
+        StructuredTranslation translation = StructuredTranslationFactory
+            .fromKBestDerivation(sentence, derivationState);
+        // the features are the expensive part, so compute them here, in parallel
+        if (sentence.withFeatures)
+          translation.getTranslationFeatures();
+        return translation;
+      });
+
     final List<StructuredTranslation> kbest = new ArrayList<>(topN);
     for (int k = 1; k <= topN; k++) {
       StructuredTranslation translation = getKthStructuredTranslation(hg.goalNode, k);
@@ -213,57 +269,120 @@ public class KBestExtractor {
    * @return todo
    */
   public String getKthHyp(HGNode node, int k) {
+    final DerivationState derivationState = getKthDerivation(node, k);
+    if (derivationState == null)
+      return null;
+    return outputFormat.format(placeholders(derivationState, k));
+  }
 
-    String outputString = null;
-    DerivationState derivationState = getKthDerivation(node, k);
-    if (derivationState != null) {
-      // ==== read the kbest from each hgnode and convert to output format
-      String hypothesis = maybeProjectCase(
-                            unescapeSpecialSymbols(
-                              removeSentenceMarkers(
-                                derivationState.getHypothesis())), derivationState);
-      
-      
-      /*
-       * To save space, the decoder only stores the model cost,
-       * no the individual feature values.
-       * If you want to output them, you have to replay them.
-       */
+  /**
+   * Writes the kth derivation to the output using the "output-format" config file parameter as a
+   * template, without building an intermediate string.
+   * 
+   * @param node the node to start at
+   * @param k the kth best derivation (indexed from 1)
+   * @param out where to write the hypothesis (no newline is added)
+   * @return false if there is no kth derivation
+   * @throws IOException if there is an error writing
+   */
+  public boolean writeKthHyp(HGNode node, int k, Appendable out) throws IOException {
+    final DerivationState derivationState = getKthDerivation(node, k);
+    if (derivationState == null)
+      return false;
+    outputFormat.format(out, placeholders(derivationState, k));
+    return true;
+  }
 
-      FeatureVector features = new FeatureVector();
-      if (outputFormat.contains("%f") || outputFormat.contains("%d"))
-        features = derivationState.getFeatures();
-
-      outputString = outputFormat
-          .replace("%k", Integer.toString(k))
-          .replace("%s", hypothesis)
-          .replace("%S", DeNormalize.processSingleLine(hypothesis))
-          // TODO (kellens): Fix the recapitalization here
-          .replace("%i", Integer.toString(sentence.id()))
-          .replace("%f", joshuaConfiguration.moses ? features.mosesString() : features.toString())
-          .replace("%c", String.format("%.3f", derivationState.cost));
-
-      if (outputFormat.contains("%t")) {
-        outputString = outputString.replace("%t", derivationState.getTree());
-      }
+  /**
+   * Returns the kth derivation as an n-best list entry, for writing in the binary n-best format.
+   * The hypothesis is the same as the one printed for %s.
+   * 
+   * @param node the node to start at
+   * @param k the kth best derivation (indexed from 1)
+   * @return the entry, or null if there is no kth derivation
+   */
+  public NBestEntry getKthEntry(HGNode node, int k) {
+    final DerivationState derivationState = getKthDerivation(node, k);
+    if (derivationState == null)
+      return null;
+    return toNBestEntry(sentence.id(), getHypothesisString(derivationState),
+        derivationState.getFeatures(), derivationState.cost);
+  }
 
-      if (outputFormat.contains("%e")) {
-        outputString = outputString.replace("%e", removeSentenceMarkers(derivationState.getHypothesis(Side.SOURCE)));
-      }
+  /**
+   * Builds an n-best list entry, listing the features in the order in which
+   * {@link FeatureVector#toString()} prints them: the dense features, then the sparse ones, sorted.
+   * 
+   * @param sentenceId the sentence number
+   * @param hypothesis the output string
+   * @param features the feature values
+   * @param score the model score
+   * @return the entry
+   */
+  public static NBestEntry toNBestEntry(int sentenceId, String hypothesis, FeatureVector features,
+      float score) {
+    List<String> names = new ArrayList<>(FeatureVector.DENSE_FEATURE_NAMES);
+    List<String> sparse = new ArrayList<>(features.getSparseFeatures().keySet());
+    sparse.removeAll(FeatureVector.DENSE_FEATURE_NAMES);
+    Collections.sort(sparse);
+    names.addAll(sparse);
+
+    float[] values = new float[names.size()];
+    for (int i = 0; i < values.length; i++)
+      values[i] = i < FeatureVector.DENSE_FEATURE_NAMES.size()
+          ? features.getDense(i)
+          : features.getSparse(names.get(i));
+
+    String[] words = hypothesis.isEmpty() ? new String[0] : hypothesis.split("\\s+");
+    return new NBestEntry(sentenceId, words, names.toArray(new String[0]), values, score);
+  }
 
-      /* %d causes a derivation with rules one per line to be output */
-      if (outputFormat.contains("%d")) {
-        outputString = outputString.replace("%d", derivationState.getDerivation());
-      }
-      
-      /* %a causes output of word level alignments between input and output hypothesis */
-      if (outputFormat.contains("%a")) {
-        outputString = outputString.replace("%a",  derivationState.getWordAlignment());
+  /* The output string of a derivation, as printed for %s */
+  private String getHypothesisString(DerivationState derivationState) {
+    return maybeProjectCase(
+             unescapeSpecialSymbols(
+               removeSentenceMarkers(
+                 derivationState.getHypothesis())), derivationState);
+  }
+
+  /**
+   * Returns the values of the output format's placeholders for a derivation. Each is computed only
+   * when the template asks for it; in particular, the features, which are not stored in the
+   * hypergraph and have to be replayed, are computed only for %f or %d.
+   */
+  private OutputFormat.Fields placeholders(final DerivationState derivationState, final int k) {
+    return new OutputFormat.Fields() {
+      // ==== read the kbest from each hgnode and convert to output format
+      private String hypothesis = null;
+
+      private String hypothesis() {
+        if (hypothesis == null)
+          hypothesis = getHypothesisString(derivationState);
+        return hypothesis;
       }
-      
-    }
 
-    return outputString;
+      @Override
+      public CharSequence get(char key) {
+        switch (key) {
+        case 'k': return Integer.toString(k);
+        case 's': return hypothesis();
+        // TODO (kellens): Fix the recapitalization here
+        case 'S': return DeNormalize.processSingleLine(hypothesis());
+        case 'i': return Integer.toString(sentence.id());
+        case 'f':
+          final FeatureVector features = derivationState.getFeatures();
+          return joshuaConfiguration.moses ? features.mosesString() : features.toString();
+        case 'c': return OutputFormat.formatScore(derivationState.cost);
+        case 't': return derivationState.getTree();
+        case 'e': return removeSentenceMarkers(derivationState.getHypothesis(Side.SOURCE));
+        /* %d causes a derivation with rules one per line to be output */
+        case 'd': return derivationState.getDerivation();
+        /* %a causes output of word level alignments between input and output hypothesis */
+        case 'a': return derivationState.getWordAlignment();
+        default: return null;
+        }
+      }
+    };
   }
 
   // =========================== end kbestHypergraph
@@ -335,15 +454,83 @@ public class KBestExtractor {
     if (null == hg.goalNode)
       return;
 
+    if (extractFirst) {
+      List<String> lines = produceOutput(getKBestDerivations(hg.goalNode, topN),
+          (derivationState, k) -> outputFormat.format(placeholders(derivationState, k)));
+      for (String line : lines) {
+        out.write(line);
+        out.write("\n");
+      }
+    } else {
+      for (int k = 1; k <= topN; k++) {
+        if (!writeKthHyp(hg.goalNode, k, out))
+          break;
+        out.write("\n");
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Extracts the k best derivations, without producing any output for them.
+   * 
+   * @param node the node to start at
+   * @param topN how many to extract
+   * @return the derivations, best first (fewer than topN if there aren't that many)
+   */
+  public List<DerivationState> getKBestDerivations(HGNode node, int topN) {
+    final List<DerivationState> derivations = new ArrayList<>(Math.min(topN, 1 << 12));
     for (int k = 1; k <= topN; k++) {
-      String hypStr = getKthHyp(hg.goalNode, k);
-      if (null == hypStr)
+      final DerivationState derivationState = getKthDerivation(node, k);
+      if (derivationState == null)
         break;
+      derivations.add(derivationState);
+    }
+    return derivations;
+  }
+
+  /*
+   * Applies the function to each derivation and its (1-indexed) rank, on the output threads if there
+   * are any. This only reads the virtual nodes, which are complete once the derivations have been
+   * extracted, so the derivations can be visited concurrently.
+   */
+  private <T> List<T> produceOutput(final List<DerivationState> derivations,
+      final BiFunction<DerivationState, Integer, T> function) {
+    final int size = derivations.size();
+    final List<T> outputs = new ArrayList<>(size);
+
+    if (outputPool == null || size < 2) {
+      for (int k = 0; k < size; k++)
+        outputs.add(function.apply(derivations.get(k), k + 1));
+      return outputs;
+    }
 
-      out.write(hypStr);
-      out.write("\n");
-      out.flush();
+    // A few chunks per thread, in order, to even out the work
+    final int chunks = Math.min(size, 4 * joshuaConfiguration.kbest_threads);
+    final List<Callable<List<T>>> tasks = new ArrayList<>(chunks);
+    for (int c = 0; c < chunks; c++) {
+      final int start = (int) ((long) size * c / chunks);
+      final int end = (int) ((long) size * (c + 1) / chunks);
+      tasks.add(() -> {
+        final List<T> chunk = new ArrayList<>(end - start);
+        for (int k = start; k < end; k++)
+          chunk.add(function.apply(derivations.get(k), k + 1));
+        return chunk;
+      });
     }
+
+    try {
+      for (Future<List<T>> chunk : outputPool.invokeAll(tasks))
+        outputs.addAll(chunk.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted during k-best extraction", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+    return outputs;
   }
 
   /**
@@ -388,7 +575,7 @@ public class KBestExtractor {
     public final List<DerivationState> nbests = new ArrayList<>();
 
     // remember frontier states, best-first; in the paper, it is called cand[v]
-    private PriorityQueue<DerivationState> candHeap = null;
+    private CandidateHeap candHeap = null;
 
     // Remember which DerivationState has been explored (positions in the hypercube). This allows
     // us to avoid duplicated states that are reached from different places of expansion, e.g.,
@@ -398,6 +585,9 @@ public class KBestExtractor {
     // This records unique *strings* at each item, used for unique-nbest-string extraction.
     private HashSet<String> uniqueStringsTable = null;
 
+    // The same, by the fingerprints of the strings (see kbest-threads)
+    private FingerprintSet uniqueFingerprints = null;
+
     public VirtualNode(HGNode it) {
       this.node = it;
     }
@@ -436,7 +626,10 @@ public class KBestExtractor {
           derivationState = candHeap.poll();
           // derivation_tbl.remove(res.get_signature());//TODO: should remove? note that two state
           // may be tied because the cost is the same
-          if (extractUniqueNbest) {
+          if (useFingerprints) {
+            if (uniqueFingerprints.add(derivationState.getFingerprint()))
+              nbests.add(derivationState);
+          } else if (extractUniqueNbest) {
             // We pass false for extract_nbest_tree because we want; to check that the hypothesis
             // *strings* are unique, not the trees.
             final String res_str = derivationState.getHypothesis();
@@ -490,8 +683,7 @@ public class KBestExtractor {
       /* For each tail node, create a new state candidate by "sliding" that item one position. */
       for (int i = 0; i < previousState.edge.getTailNodes().size(); i++) {
         /* Create a new virtual node that is a copy of the current node */
-        HGNode tailNode = previousState.edge.getTailNodes().get(i);
-        VirtualNode virtualTailNode = kbestExtractor.getVirtualNode(tailNode);
+        VirtualNode virtualTailNode = previousState.tailVirtualNodes[i];
         // Copy over the ranks.
         int[] newRanks = new int[previousState.ranks.length];
         System.arraycopy(previousState.ranks, 0, newRanks, 0, newRanks.length);
@@ -501,6 +693,7 @@ public class KBestExtractor {
         // Create a new state so we can see if it's new. The cost will be set below if it is.
         DerivationState nextState = new DerivationState(previousState.parentNode,
             previousState.edge, newRanks, 0.0f, previousState.edgePos);
+        nextState.tailVirtualNodes = previousState.tailVirtualNodes;
 
         // Don't add the state to the list of candidates if it's already been added.
         if (!derivationTable.contains(nextState)) {
@@ -536,7 +729,7 @@ public class KBestExtractor {
      */
     private void getCandidates(KBestExtractor kbestExtractor) {
       /* The list of candidates extending from this (virtual) node. */
-      candHeap = new PriorityQueue<>(11, new DerivationStateComparator());
+      candHeap = new CandidateHeap();
 
       /*
        * When exploring the cube frontier, there are multiple paths to each candidate. For example,
@@ -553,7 +746,9 @@ public class KBestExtractor {
        * A Joshua configuration option allows the decoder to output only unique strings. In that
        * case, we keep an list of the frontiers of derivation states extending from this node.
        */
-      if (extractUniqueNbest) {
+      if (useFingerprints) {
+        uniqueFingerprints = new FingerprintSet();
+      } else if (extractUniqueNbest) {
         uniqueStringsTable = new HashSet<>();
       }
 
@@ -605,6 +800,7 @@ public class KBestExtractor {
     private DerivationState getBestDerivation(KBestExtractor kbestExtractor, HGNode parentNode,
         HyperEdge hyperEdge, int edgePos) {
       int[] ranks;
+      VirtualNode[] tailVirtualNodes = null;
       float cost = 0.0f;
 
       /*
@@ -617,19 +813,20 @@ public class KBestExtractor {
       } else {
         // "ranks" records which derivation to take at each of the tail nodes. Ranks are 1-indexed.
         ranks = new int[hyperEdge.getTailNodes().size()];
+        tailVirtualNodes = new VirtualNode[ranks.length];
 
         /* Initialize the one-best at each tail node. */
         for (int i = 0; i < hyperEdge.getTailNodes().size(); i++) { // children is ready
           ranks[i] = 1;
-          VirtualNode childVirtualNode = kbestExtractor.getVirtualNode(hyperEdge.getTailNodes()
-              .get(i));
+          tailVirtualNodes[i] = kbestExtractor.getVirtualNode(hyperEdge.getTailNodes().get(i));
           // recurse
-          childVirtualNode.lazyKBestExtractOnNode(kbestExtractor, ranks[i]);
+          tailVirtualNodes[i].lazyKBestExtractOnNode(kbestExtractor, ranks[i]);
         }
       }
       cost = hyperEdge.getBestDerivationScore();
 
       DerivationState state = new DerivationState(parentNode, hyperEdge, ranks, cost, edgePos);
+      state.tailVirtualNodes = tailVirtualNodes;
       if (joshuaConfiguration.rescoreForest)
         state.bleu = state.computeBLEU();
 
@@ -681,6 +878,19 @@ public class KBestExtractor {
      */
     BLEU.Stats stats = null;
 
+    /*
+     * The fingerprint of the derivation's target-side words, and the multiplier that appends them
+     * to a prefix (FINGERPRINT_BASE to the power of the number of words), computed on first use
+     */
+    private long fingerprint;
+    private long fingerprintShift = 0;
+
+    /*
+     * The virtual nodes of the edge's tail nodes, looked up once per edge and shared by all the
+     * states along it, so that following a derivation takes no table lookups
+     */
+    private VirtualNode[] tailVirtualNodes = null;
+
     public DerivationState(HGNode pa, HyperEdge e, int[] r, float c, int pos) {
       parentNode = pa;
       edge = e;
@@ -776,8 +986,8 @@ public class KBestExtractor {
     public int hashCode() {
       int hash = edgePos;
       if (ranks != null) {
-        for (int i = 0; i < ranks.length; i++)
-          hash = hash * 53 + i;
+        for (int rank : ranks)
+          hash = hash * 53 + rank;
       }
 
       return hash;
@@ -836,6 +1046,45 @@ public class KBestExtractor {
       return visit(new OutputStringExtractor(side.equals(Side.SOURCE))).toString();
     }
 
+    /**
+     * Returns a 64-bit fingerprint of the target-side words of the derivation (a polynomial hash of
+     * their ids), so that derivations with the same string have the same fingerprint and, but for
+     * very unlikely collisions, those with different strings don't. It is combined from those of
+     * the subderivations, which must have been computed already, so it takes time proportional to
+     * the size of the rule rather than of the derivation.
+     * 
+     * @return the fingerprint
+     */
+    public long getFingerprint() {
+      if (fingerprintShift == 0) {
+        long hash = 0;
+        long shift = 1;
+        final Rule rule = edge.getRule();
+        if (rule == null) {
+          // The goal node's edges have no rule, and the words of their (single) tail node
+          final DerivationState child = getChildDerivationState(edge, 0);
+          hash = child.getFingerprint();
+          shift = child.fingerprintShift;
+        } else {
+          for (int word : rule.getEnglish()) {
+            if (FormatUtils.isNonterminal(word)) {
+              // Target-side nonterminals point to the tail nodes (-1 to the first, and so on)
+              final DerivationState child = getChildDerivationState(edge, -(word + 1));
+              hash = hash * child.fingerprintShift + child.getFingerprint();
+              shift *= child.fingerprintShift;
+            } else {
+              hash = hash * FINGERPRINT_BASE + (word + 1) * FINGERPRINT_MULTIPLIER;
+              shift *= FINGERPRINT_BASE;
+            }
+          }
+        }
+        fingerprint = hash;
+        // FINGERPRINT_BASE is odd, so its powers are never 0
+        fingerprintShift = shift;
+      }
+      return fingerprint;
+    }
+
     public FeatureVector getFeatures() {
       final FeatureVectorExtractor extractor = new FeatureVectorExtractor(featureFunctions, sentence);
       visit(extractor);
@@ -856,6 +1105,8 @@ public class KBestExtractor {
      * @return todo
      */
     public DerivationState getChildDerivationState(HyperEdge edge, int tailNodeIndex) {
+      if (edge == this.edge && tailVirtualNodes != null)
+        return tailVirtualNodes[tailNodeIndex].nbests.get(ranks[tailNodeIndex] - 1);
       HGNode child = edge.getTailNodes().get(tailNodeIndex);
       VirtualNode virtualChild = getVirtualNode(child);
       return virtualChild.nbests.get(ranks[tailNodeIndex] - 1);
@@ -863,6 +1114,132 @@ public class KBestExtractor {
 
   } // end of Class DerivationState
 
+  /* Constants for the fingerprints: both odd, so that they are invertible modulo 2^64 */
+  private static final long FINGERPRINT_BASE = 0xbf58476d1ce4e5b9L;
+  private static final long FINGERPRINT_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+  /**
+   * The candidates at a virtual node, best first. This is the binary heap of
+   * {@link java.util.PriorityQueue} with a {@link DerivationStateComparator}, so that candidates
+   * with the same cost come out in the same order, but each candidate's cost is computed once, when
+   * it is added, and kept in a float array next to it, rather than recomputed (with a lookup of
+   * the BLEU weight) for every comparison.
+   */
+  private static class CandidateHeap {
+    private DerivationState[] states = new DerivationState[11];
+    private float[] costs = new float[11];
+    private int size = 0;
+
+    public int size() {
+      return size;
+    }
+
+    public void add(DerivationState state) {
+      if (size == states.length) {
+        states = Arrays.copyOf(states, 2 * size);
+        costs = Arrays.copyOf(costs, 2 * size);
+      }
+      final float cost = state.getCost();
+      int k = size++;
+      while (k > 0) {
+        final int parent = (k - 1) >>> 1;
+        if (compare(cost, costs[parent]) >= 0)
+          break;
+        states[k] = states[parent];
+        costs[k] = costs[parent];
+        k = parent;
+      }
+      states[k] = state;
+      costs[k] = cost;
+    }
+
+    public DerivationState poll() {
+      if (size == 0)
+        return null;
+      final DerivationState result = states[0];
+      final int n = --size;
+      final DerivationState last = states[n];
+      final float lastCost = costs[n];
+      states[n] = null;
+      if (n > 0) {
+        int k = 0;
+        final int half = n >>> 1;
+        while (k < half) {
+          int child = 2 * k + 1;
+          final int right = child + 1;
+          if (right < n && compare(costs[child], costs[right]) > 0)
+            child = right;
+          if (compare(lastCost, costs[child]) <= 0)
+            break;
+          states[k] = states[child];
+          costs[k] = costs[child];
+          k = child;
+        }
+        states[k] = last;
+        costs[k] = lastCost;
+      }
+      return result;
+    }
+
+    /* The order of DerivationStateComparator: higher costs first */
+    private static int compare(float one, float another) {
+      if (one > another)
+        return -1;
+      else if (one == another)
+        return 0;
+      else
+        return 1;
+    }
+  }
+
+  /**
+   * A set of fingerprints, kept in an open-addressing table of longs.
+   */
+  private static class FingerprintSet {
+    private long[] table = new long[16];
+    private int size = 0;
+    // The table uses 0 for empty slots, so the fingerprint 0 is recorded separately
+    private boolean hasZero = false;
+
+    /**
+     * @param fingerprint the fingerprint to add
+     * @return false if it was already in the set
+     */
+    public boolean add(long fingerprint) {
+      if (fingerprint == 0) {
+        final boolean added = !hasZero;
+        hasZero = true;
+        return added;
+      }
+      if (2 * (size + 1) > table.length)
+        grow();
+      if (!insert(table, fingerprint))
+        return false;
+      size++;
+      return true;
+    }
+
+    private static boolean insert(long[] table, long fingerprint) {
+      final int mask = table.length - 1;
+      int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+      while (table[slot] != 0) {
+        if (table[slot] == fingerprint)
+          return false;
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = fingerprint;
+      return true;
+    }
+
+    private void grow() {
+      final long[] bigger = new long[2 * table.length];
+      for (long fingerprint : table)
+        if (fingerprint != 0)
+          insert(bigger, fingerprint);
+      table = bigger;
+    }
+  }
+
   public static class DerivationStateComparator implements Comparator<DerivationState> {
     // natural order by cost
     public int compare(DerivationState one, DerivationState another) {
@@ -18,14 +18,19 @@
  */
 package org.apache.joshua.decoder.io;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
 import org.apache.joshua.decoder.StructuredTranslation;
 import org.apache.joshua.decoder.Translation;
+import org.apache.joshua.decoder.segment_file.Sentence;
 
 /**
  * Represents a JSON object returned by the server. The object has the format
@@ -36,13 +41,25 @@ import org.apache.joshua.decoder.Translation;
  *       translatedText: "",
  *       raw_nbest: [
  *         { hyp: "",
- *           totalScore: 0.0, } ]
+ *           totalScore: 0.0,
+ *           features: { name: 0.0, ... },
+ *           alignment: [ [ 0, ... ], ... ] } ]
  *       tokenization: { ... }
  *       translatedTextRaw: "",
  *       nbest: [
  *         { translatedText: "",
  *           translatedTextRaw: "",
- *           tokenization: { ... } } ] } ] } }
+ *           tokenization: { ... } } ] } ] },
+ *   metadata: [ "" ],
+ *   error: "" }
+ * 
+ * where the error is only present if the request failed. 
+ * The object is either built up and then serialized with {@link #toString()}, or, for large
+ * requests, streamed with {@link #write(Iterable, Writer)}, which writes each translation as it
+ * arrives instead of keeping them all. The features and the alignment (for each target word, the
+ * source words it is aligned to) are left out for sentences whose request turned them off (see
+ * {@link org.apache.joshua.decoder.segment_file.Sentence#withFeatures}). If decoding fails while
+ * the translations are streamed, the object is still completed, with the error.
  * 
  * @author post
  */
@@ -50,6 +67,7 @@ import org.apache.joshua.decoder.Translation;
 public class JSONMessage {
   public Data data = null;
   public List<String> metadata = null;
+  public String error = null;
   public JSONMessage() {
     metadata = new ArrayList<>();
   }
@@ -77,10 +95,7 @@ public class JSONMessage {
     TranslationItem item = addTranslation(viterbi);
 
     for (StructuredTranslation hyp: translation.getStructuredTranslations()) {
-      String text = hyp.getTranslationString();
-      float score = hyp.getTranslationScore();
-
-      item.addHypothesis(text, score);
+      item.raw_nbest.add(new NBestItem(hyp));
     }
     
       // old string-based k-best output
@@ -138,13 +153,25 @@ public class JSONMessage {
     }
   }
   
-  public class NBestItem {
+  public static class NBestItem {
     public final String hyp;
     public final float totalScore;
+    public final Map<String, Float> features;
+    public final List<List<Integer>> alignment;
     
     public NBestItem(String hyp, float score) {
       this.hyp = hyp;
       this.totalScore = score;  
+      this.features = null;
+      this.alignment = null;
+    }
+
+    public NBestItem(StructuredTranslation translation) {
+      Sentence source = translation.getSourceSentence();
+      this.hyp = translation.getTranslationString();
+      this.totalScore = translation.getTranslationScore();
+      this.features = source.withFeatures ? translation.getTranslationFeatures() : null;
+      this.alignment = source.withAlignments ? translation.getTranslationWordAlignments() : null;
     }
   }
   
@@ -156,4 +183,104 @@ public class JSONMessage {
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     return gson.toJson(this) + "\n";
   }
+
+  /**
+   * Writes the JSON object for the translations, followed by the translations and metadata already
+   * added to this message, to the writer. Each translation is written and flushed as soon as the
+   * iterator returns it, and isn't kept. The text is the same as {@link #toString()} would give
+   * after adding the translations.
+   * <p>
+   * If the translations' iterator throws, the translations written so far are followed by the
+   * error, so that the object is still well-formed, and the exception is then rethrown.
+   * 
+   * @param translations the translations, in order
+   * @param out where to write the object; it is flushed but not closed
+   * @throws IOException if writing fails
+   */
+  public void write(Iterable<Translation> translations, Writer out) throws IOException {
+    // the settings of GsonBuilder().setPrettyPrinting()
+    JsonWriter writer = new JsonWriter(out);
+    writer.setIndent("  ");
+    writer.setHtmlSafe(true);
+
+    writer.beginObject();
+    boolean started = false;
+    RuntimeException failure = null;
+    try {
+      for (Translation translation : translations) {
+        List<StructuredTranslation> hyps = translation.getStructuredTranslations();
+        List<NBestItem> nbest = new ArrayList<>(hyps.size());
+        for (StructuredTranslation hyp : hyps)
+          nbest.add(new NBestItem(hyp));
+        if (!started)
+          started = startData(writer);
+        write(writer, hyps.get(0).getFormattedTranslationString(), nbest);
+        writer.flush();
+      }
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+    if (!started && data != null)
+      started = startData(writer);
+    if (started)
+      writer.endArray().endObject();
+    writer.name("metadata").beginArray();
+    for (String msg : metadata)
+      writer.value(msg);
+    writer.endArray();
+    String message = error;
+    if (failure != null)
+      message = failure.getMessage() != null ? failure.getMessage() : failure.toString();
+    if (message != null)
+      writer.name("error").value(message);
+    writer.endObject();
+    writer.flush();
+    out.write("\n");
+    out.flush();
+
+    if (failure != null)
+      throw failure;
+  }
+
+  /*
+   * Opens the data object and its translations array, and writes the translations already added.
+   */
+  private boolean startData(JsonWriter writer) throws IOException {
+    writer.name("data").beginObject().name("translations").beginArray();
+    if (data != null)
+      for (TranslationItem item : data.translations)
+        write(writer, item.translatedText, item.raw_nbest);
+    return true;
+  }
+
+  private static void write(JsonWriter writer, String translatedText, List<NBestItem> nbest)
+      throws IOException {
+    writer.beginObject();
+    writer.name("translatedText").value(translatedText);
+    writer.name("raw_nbest").beginArray();
+    for (NBestItem item : nbest) {
+      // Numbers, so that floats are printed as floats rather than widened to doubles
+      writer.beginObject().name("hyp").value(item.hyp).name("totalScore")
+          .value(Float.valueOf(item.totalScore));
+      if (item.features != null) {
+        writer.name("features").beginObject();
+        for (Map.Entry<String, Float> feature : item.features.entrySet())
+          writer.name(feature.getKey()).value(feature.getValue());
+        writer.endObject();
+      }
+      if (item.alignment != null) {
+        writer.name("alignment").beginArray();
+        for (List<Integer> points : item.alignment) {
+          writer.beginArray();
+          for (int point : points)
+            writer.value(point);
+          writer.endArray();
+        }
+        writer.endArray();
+      }
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.endObject();
+  }
 }
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A compiled version of the "output-format" template (e.g., "%i ||| %s ||| %f ||| %c").
+ * 
+ * The template is parsed once into literal text and placeholders (a '%' followed by a letter).
+ * Formatting a line walks the parsed template and asks a {@link Fields} object for the value of
+ * each placeholder as it is reached, so values are only computed for placeholders that are
+ * actually present, and the line is written directly to an {@link Appendable}. A placeholder that
+ * occurs more than once is computed once per line.
+ * 
+ * Placeholders that a context doesn't know about (e.g., %k when printing the Viterbi output) are
+ * copied through literally, as they were when the template was filled in with String.replace().
+ */
+public class OutputFormat {
+
+  /**
+   * Supplies the placeholder values for a single output line.
+   */
+  public interface Fields {
+    /**
+     * @param key the placeholder letter (e.g., 's' for "%s")
+     * @return the placeholder's value, or null if it is not defined in this context
+     */
+    CharSequence get(char key);
+  }
+
+  private final String template;
+
+  /* The literal text preceding each placeholder; literals has one more entry than keys */
+  private final String[] literals;
+
+  /* The placeholder letters, in template order */
+  private final char[] keys;
+
+  /* For each placeholder, the index of the first placeholder with the same letter */
+  private final int[] slots;
+
+  /* Whether any placeholder letter is repeated, in which case values are memoized per line */
+  private final boolean repeated;
+
+  private OutputFormat(String template) {
+    this.template = template;
+
+    List<String> literalList = new ArrayList<>();
+    StringBuilder keyList = new StringBuilder();
+    StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < template.length(); i++) {
+      char c = template.charAt(i);
+      if (c == '%' && i + 1 < template.length() && isKey(template.charAt(i + 1))) {
+        literalList.add(literal.toString());
+        literal.setLength(0);
+        keyList.append(template.charAt(++i));
+      } else {
+        literal.append(c);
+      }
+    }
+    literalList.add(literal.toString());
+
+    this.literals = literalList.toArray(new String[0]);
+    this.keys = keyList.toString().toCharArray();
+    this.slots = new int[keys.length];
+    boolean anyRepeated = false;
+    for (int i = 0; i < keys.length; i++) {
+      slots[i] = keyList.indexOf(String.valueOf(keys[i]));
+      anyRepeated |= slots[i] != i;
+    }
+    this.repeated = anyRepeated;
+  }
+
+  /**
+   * Parses an output format template.
+   * 
+   * @param template the template, e.g., "%i ||| %s ||| %f ||| %c"
+   * @return the compiled template
+   */
+  public static OutputFormat compile(String template) {
+    return new OutputFormat(template);
+  }
+
+  private static boolean isKey(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * @return the template this object was compiled from
+   */
+  public String getTemplate() {
+    return template;
+  }
+
+  /**
+   * @param key a placeholder letter
+   * @return whether the template contains the placeholder
+   */
+  public boolean uses(char key) {
+    for (char c : keys)
+      if (c == key)
+        return true;
+    return false;
+  }
+
+  /**
+   * Writes one line (without a trailing newline) to the output.
+   * 
+   * @param out where to write the line
+   * @param fields the placeholder values
+   * @throws IOException if writing fails
+   */
+  public void format(Appendable out, Fields fields) throws IOException {
+    CharSequence[] values = repeated ? new CharSequence[keys.length] : null;
+    for (int i = 0; i < keys.length; i++) {
+      out.append(literals[i]);
+
+      CharSequence value;
+      if (values == null) {
+        value = fields.get(keys[i]);
+      } else {
+        if (values[slots[i]] == null)
+          values[slots[i]] = fields.get(keys[i]);
+        value = values[slots[i]];
+      }
+
+      if (value != null)
+        out.append(value);
+      else
+        out.append('%').append(keys[i]);
+    }
+    out.append(literals[keys.length]);
+  }
+
+  /**
+   * Formats one line into a string.
+   * 
+   * @param fields the placeholder values
+   * @return the formatted line
+   */
+  public String format(Fields fields) {
+    StringBuilder sb = new StringBuilder(template.length() + 64);
+    try {
+      format(sb, fields);
+    } catch (IOException e) {
+      // StringBuilder doesn't throw
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  /* Whether the default locale writes plain ASCII digits with a '.' separator */
+  private static final boolean PLAIN_LOCALE;
+  static {
+    DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+    PLAIN_LOCALE = symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0'
+        && symbols.getMinusSign() == '-';
+  }
+
+  /**
+   * Formats a score with three decimal places. This produces the same string as
+   * String.format("%.3f", score) (which rounds half-up from the shortest decimal representation),
+   * without parsing a format string for every line.
+   * 
+   * @param score the score
+   * @return the formatted score
+   */
+  public static String formatScore(float score) {
+    if (!PLAIN_LOCALE || Float.isNaN(score) || Float.isInfinite(score))
+      return String.format("%.3f", score);
+
+    /*
+     * For ordinary magnitudes, round in double arithmetic. The error (against the decimal digits
+     * that String.format rounds) is a few ulps of the scaled value, so the result is exact unless
+     * the scaled value is within that of a tie, in which case BigDecimal decides.
+     */
+    double scaled = Math.abs((double) score) * 1000.0;
+    if (scaled < 1e9) {
+      double floor = Math.floor(scaled);
+      double fraction = scaled - floor;
+      if (Math.abs(fraction - 0.5) > 1e-6) {
+        long thousandths = (long) floor + (fraction > 0.5 ? 1 : 0);
+        boolean negative = score < 0 || Float.floatToRawIntBits(score) == Integer.MIN_VALUE;
+        StringBuilder sb = new StringBuilder(16);
+        if (negative)
+          sb.append('-');
+        sb.append(thousandths / 1000).append('.');
+        long rest = thousandths % 1000;
+        if (rest < 100)
+          sb.append('0');
+        if (rest < 10)
+          sb.append('0');
+        return sb.append(rest).toString();
+      }
+    }
+
+    BigDecimal rounded = new BigDecimal(Double.toString(score)).setScale(3, RoundingMode.HALF_UP);
+    String result = rounded.toPlainString();
+    // BigDecimal has no negative zero, but the formatter keeps the sign
+    if (rounded.signum() == 0 && (score < 0 || Float.floatToRawIntBits(score) == Integer.MIN_VALUE))
+      return "-" + result;
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("OutputFormat(%s, keys=%s)", template, Arrays.toString(keys));
+  }
+}
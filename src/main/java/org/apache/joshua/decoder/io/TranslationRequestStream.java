@@ -57,6 +57,10 @@ public class TranslationRequestStream {
   /* Whether the request has been killed by a broken client connection. */
   private volatile boolean isShutDown = false;
 
+  /* Whether the structured outputs of the sentences include their features and word alignments */
+  private boolean withFeatures = true;
+  private boolean withAlignments = true;
+
   public TranslationRequestStream(BufferedReader reader, JoshuaConfiguration joshuaConfiguration) {
     this.joshuaConfiguration = joshuaConfiguration;
     
@@ -132,6 +136,18 @@ public class TranslationRequestStream {
     return sentenceNo + 1;
   }
 
+  /**
+   * Sets whether the structured outputs of the request's sentences include their features and word
+   * alignments (see {@link Sentence#withFeatures}). Leaving them out saves computing them.
+   * 
+   * @param withFeatures whether to include the features
+   * @param withAlignments whether to include the word alignments
+   */
+  public synchronized void setStructuredOutput(boolean withFeatures, boolean withAlignments) {
+    this.withFeatures = withFeatures;
+    this.withAlignments = withAlignments;
+  }
+
   /*
    * Returns the next sentence item, then sets it to null, so that hasNext() will know to produce a
    * new one.
@@ -147,6 +163,8 @@ public class TranslationRequestStream {
       if (nextSentence != null) {
         sentenceNo++;
         nextSentence.id = sentenceNo;
+        nextSentence.withFeatures = withFeatures;
+        nextSentence.withAlignments = withAlignments;
       }
     } catch (IOException e) {
       this.shutdown();
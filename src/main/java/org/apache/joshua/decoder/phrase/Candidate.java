@@ -39,6 +39,7 @@ import java.util.List;
 import org.apache.joshua.corpus.Span;
 import org.apache.joshua.decoder.chart_parser.ComputeNodeResult;
 import org.apache.joshua.decoder.ff.FeatureFunction;
+import org.apache.joshua.decoder.ff.StatefulFF;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
 import org.apache.joshua.decoder.ff.tm.Rule;
 import org.apache.joshua.decoder.hypergraph.HGNode;
@@ -66,10 +67,20 @@ public class Candidate implements Comparable<Candidate> {
   
   /* 
    * Stores the inside cost of the current phrase, as well as the computed dynamic programming
-   * state. Expensive to compute so there is an option of delaying it.
+   * state. Expensive to compute, so it is delayed until the candidate is first scored. Cube
+   * pruning reaches many candidates more than once, and in constrained decoding rejects many
+   * more, so those are never passed through the feature functions.
    */
   private ComputeNodeResult computedResult;
 
+  // see Hypothesis.getTargetPosition(); -1 if the phrase violates the target constraint
+  private final int targetPosition;
+
+  // the coverage of the hypothesis made from this candidate, and what it would recombine on;
+  // both found on demand
+  private Coverage coverage;
+  private Signature signature;
+
   /**
    * When candidate objects are extended, the new one is initialized with the same underlying
    * "phrases" and "hypotheses" and "span" objects. So these all have to be equal, as well as
@@ -124,9 +135,7 @@ public class Candidate implements Comparable<Candidate> {
 //    this.score = hypotheses.get(ranks[0]).score + phrases.get(ranks[1]).getEstimatedCost();
 
     this.computedResult = null;
-    
-    // TODO: compute this proactively or lazily according to a parameter
-    computeResult();
+    this.targetPosition = matchTarget();
   }
   
   /**
@@ -141,6 +150,101 @@ public class Candidate implements Comparable<Candidate> {
     return getLastCovered() < getPhraseEnd();
   }
   
+  /**
+   * Matches the target side of the current phrase against the target constraint (if any), from
+   * the position reached by the current hypothesis. Since the target side of a hypothesis is
+   * always built left to right, the constraint is a linear automaton over word ids, whose state is
+   * the position of the next target word.
+   * 
+   * @return the position after the phrase, or -1 if the phrase doesn't match the constraint there
+   */
+  private int matchTarget() {
+    int position = getHypothesis().getTargetPosition();
+    if (sentence.target() == null)
+      return position;
+
+    int[] target = sentence.getTargetWordIDs();
+    for (int word : getPhraseRule().getEnglish()) {
+      // skip the nonterminal that some phrase tables put before the target words
+      if (word < 0)
+        continue;
+      if (position >= target.length || target[position] != word)
+        return -1;
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * In constrained decoding, returns the position in the target constraint after this candidate's
+   * phrase is applied.
+   * 
+   * @return the position of the next target word, or -1 if the phrase violates the constraint
+   */
+  public int getTargetPosition() {
+    return targetPosition;
+  }
+
+  /**
+   * Returns what the hypothesis made from this candidate would recombine on, without scoring the
+   * candidate. This is null if a stateful feature can't tell its state before scoring (see
+   * {@link StatefulFF#computeState}).
+   * 
+   * @return the signature, or null
+   */
+  public Signature getSignature() {
+    if (signature == null) {
+      List<DPState> states = new ArrayList<>();
+      for (FeatureFunction feature : featureFunctions) {
+        if (feature.isStateful()) {
+          DPState state = ((StatefulFF) feature).computeState(getRule(), getTailNodes(),
+              getLastCovered(), getPhraseEnd(), sentence);
+          if (state == null)
+            return null;
+          states.add(((StatefulFF) feature).getStateIndex(), state);
+        }
+      }
+      signature = new Signature(getCoverage(), getPhraseEnd(), targetPosition, states);
+    }
+    return signature;
+  }
+
+  /**
+   * The fields that two hypotheses must share to recombine (see {@link Hypothesis#equals}): the
+   * coverage, the last source index, the position in the target constraint, and the states of
+   * the stateful features.
+   */
+  public static final class Signature {
+    private final Coverage coverage;
+    private final int lastSourceIndex;
+    private final int targetPosition;
+    private final List<DPState> states;
+
+    private Signature(Coverage coverage, int lastSourceIndex, int targetPosition,
+        List<DPState> states) {
+      this.coverage = coverage;
+      this.lastSourceIndex = lastSourceIndex;
+      this.targetPosition = targetPosition;
+      this.states = states;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * lastSourceIndex + 19 * coverage.hashCode() + 7 * targetPosition
+          + states.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof Signature) {
+        Signature other = (Signature) obj;
+        return lastSourceIndex == other.lastSourceIndex && targetPosition == other.targetPosition
+            && coverage.equals(other.coverage) && states.equals(other.states);
+      }
+      return false;
+    }
+  }
+
   /**
    * Extends the cube pruning dot in both directions and returns the resulting set. Either of the
    * results can be null if the end of their respective lists is reached.
@@ -221,7 +325,7 @@ public class Candidate implements Comparable<Candidate> {
   /**
    * Ensures that the cost of applying the edge has been 
    * computed. This is tucked away in an accessor so that 
-   * we can do it lazily if we wish.
+   * it is done lazily, the first time it is needed.
    * 
    * @return the computed result.
    */
@@ -268,9 +372,11 @@ public class Candidate implements Comparable<Candidate> {
    * @return the bit vector of this hypothesis
    */
   public Coverage getCoverage() {
-    Coverage cov = new Coverage(getHypothesis().getCoverage());
-    cov.set(getSpan());
-    return cov;
+    if (coverage == null) {
+      coverage = new Coverage(getHypothesis().getCoverage());
+      coverage.set(getSpan());
+    }
+    return coverage;
   }
 
   /**
@@ -287,7 +393,7 @@ public class Candidate implements Comparable<Candidate> {
    */
   public float score() {
 //    float score = computedResult.getViterbiCost() + future_delta;
-    float score = getHypothesis().getScore() + getPhraseNode().getScore() + future_delta + computedResult.getTransitionCost();
+    float score = getHypothesis().getScore() + getPhraseNode().getScore() + future_delta + computeResult().getTransitionCost();
     return score;
   }
   
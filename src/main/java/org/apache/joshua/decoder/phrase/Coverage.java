@@ -26,6 +26,13 @@ import org.apache.joshua.corpus.Span;
  * Represents a coverage vector. The vector is relative to a hypothesis. {firstZero} denotes the
  * first uncovered word of the sentence, and {bits} contains the coverage vector of all the words
  * after it, with the first zero removed. 
+ * <p>
+ * Since the reordering limit keeps the covered words close to the first zero, the bits nearly always
+ * fit in a single <code>long</code>, which is used directly so that the checks in the inner loop of
+ * the search do not allocate. Only when a word more than 64 positions past the first zero is
+ * covered (e.g., with an unlimited reordering window) are the bits kept in a {@link BitSet}. The
+ * representation is canonical (the {@link BitSet} is only used when the bits do not fit in a long),
+ * which keeps equality and hashing simple.
  */
 
 public class Coverage {
@@ -35,7 +42,10 @@ public class Coverage {
 
   // Bits with the first zero removed.                                                             
   // We also assume anything beyond this is zero due to the reordering window.                     
-  // Lowest bits correspond to next word.    
+  // Lowest bits correspond to next word. Unused (0) when bits is non-null.
+  private long window;
+
+  // The bits, when they do not fit in the window; null otherwise.
   private BitSet bits;
 
   // Default bit vector length
@@ -43,12 +53,10 @@ public class Coverage {
 
   public Coverage() {
     firstZero = 0;
-    bits = new BitSet(INITIAL_LENGTH);
   }
 
   public Coverage(int firstZero) {
     this.firstZero = firstZero;
-    bits = new BitSet(INITIAL_LENGTH);
   }
 
   /**
@@ -59,8 +67,9 @@ public class Coverage {
     StringBuilder sb = new StringBuilder();
     sb.append(String.format("%d ", firstZero));
 
-    for (int i = 0; i < Math.max(INITIAL_LENGTH, bits.length()); i++) { // only display first 10 bits
-      sb.append(bits.get(i) ? "x" : ".");
+    int length = (bits != null) ? bits.length() : Long.SIZE - Long.numberOfLeadingZeros(window);
+    for (int i = 0; i < Math.max(INITIAL_LENGTH, length); i++) { // only display first 10 bits
+      sb.append(get(i) ? "x" : ".");
     }
 
     return sb.toString();
@@ -73,7 +82,28 @@ public class Coverage {
    */
   public Coverage(Coverage other) {
     this.firstZero = other.firstZero;
-    this.bits = (BitSet) other.bits.clone();
+    this.window = other.window;
+    if (other.bits != null)
+      this.bits = (BitSet) other.bits.clone();
+  }
+
+  /* Returns the (relative) bit i. */
+  private boolean get(int i) {
+    if (bits != null)
+      return bits.get(i);
+    return i < Long.SIZE && (window & (1L << i)) != 0;
+  }
+
+  /* A mask with the bits [from, to) on, where 0 &lt;= from &lt;= to &lt;= 64. */
+  private static long mask(int from, int to) {
+    if (from >= to)
+      return 0L;
+    return (to == Long.SIZE ? -1L : (1L << to) - 1) & (-1L << from);
+  }
+
+  /* Shifts the window right by n bits, which may be 64 or more. */
+  private static long shift(long window, int n) {
+    return (n >= Long.SIZE) ? 0L : window >>> n;
   }
 
   /**
@@ -86,8 +116,23 @@ public class Coverage {
   public void set(int begin, int end) {
     assert compatible(begin, end);
 
-    //    StringBuffer sb = new StringBuffer();
-    //    sb.append(String.format("SET(%d,%d) %s", begin, end, this));
+    if (bits == null) {
+      if (begin == firstZero) {
+        // A concatenation. We might also have exactly covered a gap, in which case we need to
+        // shift firstZero and the bits until we reach the new end.
+        long shifted = shift(window, end - begin);
+        int firstClear = Long.numberOfTrailingZeros(~shifted);
+        firstZero = end + firstClear;
+        window = shift(shifted, firstClear);
+        return;
+      } else if (end - firstZero <= Long.SIZE) {
+        window |= mask(begin - firstZero, end - firstZero);
+        return;
+      }
+      // the bits no longer fit in the window
+      bits = BitSet.valueOf(new long[] { window });
+      window = 0L;
+    }
 
     if (begin == firstZero) {
       // A concatenation. 
@@ -101,12 +146,15 @@ public class Coverage {
         bits = bits.get(firstClear,  bits.length());
       }
     } else {
-      // Set the bits relative to the currenS
-      bits.or(pattern(begin, end));
+      // Set the bits relative to the current first zero
+      bits.set(begin - firstZero, end - firstZero);
     }
 
-    //    sb.append(String.format(" -> %s", this));
-    //    System.err.println(sb);
+    // return to the window if the bits fit again
+    if (bits.length() <= Long.SIZE) {
+      window = bits.isEmpty() ? 0L : bits.toLongArray()[0];
+      bits = null;
+    }
   }
 
   /**
@@ -128,9 +176,12 @@ public class Coverage {
    */
   public boolean compatible(int begin, int end) {
     if (begin >= firstZero) {
-      BitSet pattern = new BitSet();
-      pattern.set(begin - firstZero, end - firstZero);
-      return ! bits.intersects(pattern);
+      if (bits != null) {
+        int next = bits.nextSetBit(begin - firstZero);
+        return next == -1 || next >= end - firstZero;
+      }
+      return (window & mask(Math.min(begin - firstZero, Long.SIZE),
+          Math.min(end - firstZero, Long.SIZE))) == 0;
     }
     return false;
   }
@@ -158,6 +209,13 @@ public class Coverage {
    * @return todo
    */
   public int leftOpening(int begin) {
+    if (bits == null) {
+      long before = window & mask(1, Math.min(begin - firstZero + 1, Long.SIZE));
+      if (before != 0)
+        return Long.SIZE - Long.numberOfLeadingZeros(before) + firstZero;
+      return firstZero;
+    }
+
     for (int i = begin - firstZero; i > 0; --i) {
       if (bits.get(i)) {
         assert compatible(i + firstZero + 1, begin);
@@ -185,6 +243,14 @@ public class Coverage {
    * @return todo
    */
   public int rightOpening(int end, int sentenceLength) {
+    if (bits == null) {
+      long after = window & mask(Math.min(end - firstZero, Long.SIZE),
+          Math.max(0, Math.min(Long.SIZE, sentenceLength - firstZero)));
+      if (after != 0)
+        return Long.numberOfTrailingZeros(after) + firstZero;
+      return sentenceLength;
+    }
+
     for (int i = end - firstZero; i < Math.min(64, sentenceLength - firstZero); i++) {
       if (bits.get(i)) {
         return i + firstZero;
@@ -210,19 +276,22 @@ public class Coverage {
   }
 
   /**
-   * Returns the underlying coverage bits.
+   * Returns the underlying coverage bits. This creates a new {@link java.util.BitSet} when the
+   * bits are kept in a long.
    * 
    * @return {@link java.util.BitSet} vector of bits
    */
   public BitSet getCoverage() {
-    return bits;
+    return (bits != null) ? bits : BitSet.valueOf(new long[] { window });
   }
 
   @Override
   public boolean equals(Object obj) {
     if (obj instanceof Coverage) {
       Coverage other = (Coverage) obj;
-      return getCoverage().equals(other.getCoverage()) && firstZero() == other.firstZero();
+      if (firstZero != other.firstZero || window != other.window)
+        return false;
+      return (bits == null) ? other.bits == null : bits.equals(other.bits);
     }
 
     return false;
@@ -230,6 +299,7 @@ public class Coverage {
 
   @Override
   public int hashCode() {
-    return getCoverage().hashCode() * firstZero();
+    int hash = 31 * firstZero + Long.hashCode(window);
+    return (bits == null) ? hash : 31 * hash + bits.hashCode();
   }
 }
@@ -18,16 +18,24 @@
  */
 package org.apache.joshua.decoder.phrase;
 
-import org.apache.joshua.util.ChartSpan;
+import java.util.Arrays;
+
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.hypergraph.HGNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * The future cost (outside) estimate for phrase-based decoding. For every span of the input it
+ * holds the best estimated score of covering that span with translation options, which is used
+ * to score partial hypotheses by what they have left to translate (Koehn et al., 2003).
+ */
 public class Future {
 
   private static final Logger LOG = LoggerFactory.getLogger(Future.class);
 
-  // Square matrix with half the values ignored.
-  private final ChartSpan<Float> entries;
+  // Square matrix with half the values ignored, indexed by begin * (sentlen + 1) + end.
+  private final float[] entries;
 
   private final int sentlen;
 
@@ -36,13 +44,20 @@ public class Future {
    * that have been assembled in a {@link org.apache.joshua.decoder.phrase.PhraseChart}.
    * Requires that there be a translation at least for every word (which can be 
    * accomplished with a pass-through grammar).
+   * <p>
+   * The estimate of a single phrase is the best estimated cost among its translation options, as
+   * computed by {@link Rule#estimateRuleCost(java.util.List)} when the options were sorted. This
+   * includes the feature functions' estimates, such as the language model's estimate of the
+   * target phrase out of context. The estimate of a longer span is the best split into two
+   * smaller spans, or the best phrase covering all of it.
    * 
    * @param chart an input {@link org.apache.joshua.decoder.phrase.PhraseChart}
    */
   public Future(PhraseChart chart) {
 
     sentlen = chart.SentenceLength();
-    entries = new ChartSpan<Float>(sentlen + 1, Float.NEGATIVE_INFINITY);
+    entries = new float[(sentlen + 1) * (sentlen + 1)];
+    Arrays.fill(entries, Float.NEGATIVE_INFINITY);
     
     /*
      * The sentence is represented as a sequence of words, with the first and last words set
@@ -61,7 +76,7 @@ public class Future {
         else {
           PhraseNodes phrases = chart.getRange(begin, end);
           if (phrases != null)
-            setEntry(begin, end, phrases.get(0).bestHyperedge.getRule().getEstimatedCost());
+            setEntry(begin, end, bestEstimate(phrases));
         }
       }
     }
@@ -69,9 +84,12 @@ public class Future {
     // All the phrases are in, now do minimum dynamic programming.  Lengths 0 and 1 were already handled above.
     for (int length = 2; length <= chart.SentenceLength(); length++) {
       for (int begin = 1; begin <= chart.SentenceLength() - length; begin++) {
-        for (int division = begin + 1; division < begin + length; division++) {
-          setEntry(begin, begin + length, Math.max(getEntry(begin, begin + length), getEntry(begin, division) + getEntry(division, begin + length)));
+        int end = begin + length;
+        float best = getEntry(begin, end);
+        for (int division = begin + 1; division < end; division++) {
+          best = Math.max(best, getEntry(begin, division) + getEntry(division, end));
         }
+        setEntry(begin, end, best);
       }
     }
 
@@ -84,6 +102,19 @@ public class Future {
     }
   }
 
+  /*
+   * The translation options are sorted by their score in isolation, which is not necessarily the
+   * order of their estimates, so all of them are considered.
+   */
+  private static float bestEstimate(PhraseNodes phrases) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (HGNode node : phrases) {
+      Rule rule = node.bestHyperedge.getRule();
+      best = Math.max(best, rule.getEstimatedCost());
+    }
+    return best;
+  }
+
   public float Full() {
     //    System.err.println("Future::Full(): " + Entry(1, sentlen));
     return getEntry(1, sentlen);
@@ -108,13 +139,13 @@ public class Future {
   private float getEntry(int begin, int end) {
     assert end >= begin;
     assert end <= this.sentlen;
-    return entries.get(begin, end);
+    return entries[begin * (sentlen + 1) + end];
   }
 
   private void setEntry(int begin, int end, float value) {
     assert end >= begin;
     assert end <= this.sentlen;
 //    System.err.println(String.format("Future.setEntry(%d, %d) = %f", begin, end, value));
-    entries.set(begin, end, value);
+    entries[begin * (sentlen + 1) + end] = value;
   }
 }
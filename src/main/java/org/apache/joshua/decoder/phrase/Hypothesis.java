@@ -20,6 +20,7 @@ package org.apache.joshua.decoder.phrase;
 
 import java.util.List;
 
+import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
 import org.apache.joshua.decoder.ff.tm.Rule;
 import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
@@ -42,10 +43,73 @@ public class Hypothesis extends HGNode implements Comparable<Hypothesis> {
   // The hypothesis' coverage vector
   private final Coverage coverage;
 
-  public static Rule BEGIN_RULE = new HieroFormatReader().parseLine("[GOAL] ||| <s> ||| <s> |||   ||| 0-0");
-  public static Rule END_RULE   = new HieroFormatReader().parseLine("[GOAL] ||| </s> ||| </s> |||   ||| 0-0");
-  public static Rule INORDER_RULE  = new HieroFormatReader().parseLine("[GOAL] ||| [GOAL,1] [X,2] ||| [GOAL,1] [X,2] |||   ||| 0-0 1-1");
-  public static Rule INVERTED_RULE  = new HieroFormatReader().parseLine("[GOAL] ||| [X,1] [GOAL,2] ||| [GOAL,2] [X,1] |||   ||| 0-1 1-0");
+  /*
+   * In constrained decoding, the number of words of the target constraint (including <s>) that
+   * this hypothesis has produced. Since the target side is always built left to right, this is
+   * the only state needed to check the constraint. It stays at 1 otherwise.
+   */
+  private final int targetPosition;
+
+  public static final Rule BEGIN_RULE = new GlueRule("[GOAL] ||| <s> ||| <s> |||   ||| 0-0");
+  public static final Rule END_RULE   = new GlueRule("[GOAL] ||| </s> ||| </s> |||   ||| 0-0");
+  public static final Rule INORDER_RULE  = new GlueRule("[GOAL] ||| [GOAL,1] [X,2] ||| [GOAL,1] [X,2] |||   ||| 0-0 1-1");
+  public static final Rule INVERTED_RULE  = new GlueRule("[GOAL] ||| [X,1] [GOAL,2] ||| [GOAL,2] [X,1] |||   ||| 0-1 1-0");
+
+  /**
+   * A rule that looks up the ids of its symbols in the vocabulary as it is when they are asked
+   * for. The rules above are compared by identity and shared by every decoder in the JVM, but the
+   * vocabulary is cleared and rebuilt when a decoder starts (and when a packed grammar is read), so
+   * the ids of "&lt;s&gt;", "&lt;/s&gt;" and "[GOAL]" they were first parsed with can go stale.
+   */
+  private static class GlueRule extends Rule {
+    private final String line;
+    // the rule parsed in the vocabulary of the given generation, replaced as a whole
+    private volatile Parse parse;
+
+    private static class Parse {
+      final int generation;
+      final Rule rule;
+
+      Parse(String line) {
+        this.generation = Vocabulary.generation();
+        this.rule = new HieroFormatReader().parseLine(line);
+      }
+    }
+
+    private GlueRule(String line) {
+      this(line, new Parse(line));
+    }
+
+    private GlueRule(String line, Parse parse) {
+      super(parse.rule.getLHS(), parse.rule.getFrench(), parse.rule.getEnglish(),
+          parse.rule.getFeatureString(), parse.rule.getArity(), parse.rule.getAlignmentString());
+      this.line = line;
+      this.parse = parse;
+    }
+
+    /* The rule parsed against the current vocabulary */
+    private Rule current() {
+      Parse current = parse;
+      if (current.generation != Vocabulary.generation())
+        parse = current = new Parse(line);
+      return current.rule;
+    }
+
+    @Override
+    public int getLHS() {
+      return current().getLHS();
+    }
+
+    @Override
+    public int[] getFrench() {
+      return current().getFrench();
+    }
+
+    @Override
+    public int[] getEnglish() {
+      return current().getEnglish();
+    }
+  }
   
   public String toString() {
     StringBuffer sb = new StringBuffer();
@@ -60,6 +124,7 @@ public class Hypothesis extends HGNode implements Comparable<Hypothesis> {
     super(0, 1, BEGIN_RULE.getLHS(), states,
         new HyperEdge(BEGIN_RULE, 0.0f, 0.0f, null, null), futureCost);
     this.coverage = new Coverage(1);
+    this.targetPosition = 1;
   }
 
   /**
@@ -72,8 +137,9 @@ public class Hypothesis extends HGNode implements Comparable<Hypothesis> {
     super(cand.getLastCovered(), cand.getPhraseEnd(), cand.getRule().getLHS(), cand.getStates(), 
         new HyperEdge(cand.getRule(), cand.computeResult().getViterbiCost(), 
             cand.computeResult().getTransitionCost(),
-            cand.getTailNodes(), null), cand.score());
+            cand.getTailNodes(), null, cand.computeResult().getFeatureDelta()), cand.score());
     this.coverage = cand.getCoverage();
+    this.targetPosition = cand.getTargetPosition();
   }
 
   
@@ -81,12 +147,23 @@ public class Hypothesis extends HGNode implements Comparable<Hypothesis> {
   public Hypothesis(List<DPState> states, float score, Hypothesis previous, int source_end, Rule target) {
     super(-1, source_end, -1, null, null, score);
     this.coverage = previous.coverage;
+    this.targetPosition = previous.targetPosition;
   }
 
   public Coverage getCoverage() {
     return coverage;
   }
 
+  /**
+   * Returns the number of words of the target constraint that this hypothesis has produced,
+   * counting the sentence-start marker. This is only tracked in constrained decoding.
+   * 
+   * @return the position in the target constraint of the next word to produce
+   */
+  public int getTargetPosition() {
+    return targetPosition;
+  }
+
   public Rule getRule() {
     return bestHyperedge.getRule();
   }
@@ -104,7 +181,7 @@ public class Hypothesis extends HGNode implements Comparable<Hypothesis> {
   @Override
   public int hashCode() {
     int hash = 0;
-    hash = 31 * getLastSourceIndex() + 19 * getCoverage().hashCode();
+    hash = 31 * getLastSourceIndex() + 19 * getCoverage().hashCode() + 7 * targetPosition;
     if (null != dpStates && dpStates.size() > 0)
       for (DPState dps: dpStates)
         hash *= 57 + dps.hashCode();
@@ -114,7 +191,8 @@ public class Hypothesis extends HGNode implements Comparable<Hypothesis> {
   /**
    * Defines equivalence in terms of recombinability. Two hypotheses are recombinable if 
    * all their DP states are the same, their coverage is the same, and they have the next soure
-   * index the same.
+   * index the same. In constrained decoding, they must also have produced the same number of
+   * target words.
    */
   @Override
   public boolean equals(Object obj) {
@@ -123,6 +201,9 @@ public class Hypothesis extends HGNode implements Comparable<Hypothesis> {
 
       if (getLastSourceIndex() != other.getLastSourceIndex() || ! getCoverage().equals(other.getCoverage()))
         return false;
+
+      if (targetPosition != other.targetPosition)
+        return false;
       
       if (dpStates == null)
         return (other.dpStates == null);
@@ -28,6 +28,7 @@ import org.apache.joshua.decoder.ff.tm.Rule;
 import org.apache.joshua.decoder.ff.tm.RuleCollection;
 import org.apache.joshua.decoder.hypergraph.HGNode;
 import org.apache.joshua.decoder.hypergraph.HyperEdge;
+import org.apache.joshua.decoder.phrase.TranslationOptionCache.TranslationOptions;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,6 +68,24 @@ public class PhraseChart {
    */
   public PhraseChart(PhraseTable[] tables, List<FeatureFunction> features, Sentence source,
       int num_options) {
+    this(tables, new PhraseTable[0], features, source, num_options, null);
+  }
+
+  /**
+   * Create a new PhraseChart object, taking the options of the decoder's phrase tables from a
+   * cache that is shared across sentences when possible.
+   * 
+   * @param tables the decoder's {@link org.apache.joshua.decoder.phrase.PhraseTable}'s
+   * @param sentenceTables the {@link org.apache.joshua.decoder.phrase.PhraseTable}'s built for this
+   *          sentence (e.g., for OOVs), which are never cached
+   * @param features {@link java.util.List} of {@link org.apache.joshua.decoder.ff.FeatureFunction}'s
+   * @param source input to {@link org.apache.joshua.lattice.Lattice}
+   * @param num_options number of translation options (typically set to 20)
+   * @param cache the {@link org.apache.joshua.decoder.phrase.TranslationOptionCache}, or null
+   */
+  public PhraseChart(PhraseTable[] tables, PhraseTable[] sentenceTables,
+      List<FeatureFunction> features, Sentence source, int num_options,
+      TranslationOptionCache cache) {
 
     float startTime = System.currentTimeMillis();
 
@@ -78,6 +97,9 @@ public class PhraseChart {
     for (PhraseTable table1 : tables)
       max_source_phrase_length = Math
           .max(max_source_phrase_length, table1.getMaxSourcePhraseLength());
+    for (PhraseTable table1 : sentenceTables)
+      max_source_phrase_length = Math
+          .max(max_source_phrase_length, table1.getMaxSourcePhraseLength());
     sentence_length = source.length();
 
 //    System.err.println(String.format(
@@ -93,9 +115,20 @@ public class PhraseChart {
       for (int end = begin + 1; (end != sentence_length + 1)
           && (end <= begin + max_source_phrase_length); ++end) {
         if (source.hasPath(begin, end)) {
-          for (PhraseTable table : tables)
-            addToRange(begin, end,
-                table.getPhrases(Arrays.copyOfRange(source.getWordIDs(), begin, end)));
+          int[] words = Arrays.copyOfRange(source.getWordIDs(), begin, end);
+          if (cache != null) {
+            TranslationOptions options = cache.get(words);
+            if (options == null) {
+              options = collectOptions(tables, words, begin, end);
+              cache.put(words, options);
+            }
+            addToRange(begin, end, options);
+          } else {
+            for (PhraseTable table : tables)
+              addToRange(begin, end, table.getPhrases(words));
+          }
+          for (PhraseTable table : sentenceTables)
+            addToRange(begin, end, table.getPhrases(words));
         }
 
       }
@@ -180,40 +213,103 @@ public class PhraseChart {
    */
   private void addToRange(int i, int j, RuleCollection to) {
     if (to != null) {
-      /*
-       * This first call to getSortedRules() is important, because it is what
-       * causes the scoring and sorting to happen. It is also a synchronized call,
-       * which is necessary because the underlying grammar gets sorted. Subsequent calls to get the
-       * rules will just return the already-sorted list. Here, we score, sort,
-       * and then trim the list to the number of translation options. Trimming provides huge
-       * performance gains --- the more common the word, the more translations options it is
-       * likely to have (often into the tens of thousands).
-       */
-      List<Rule> rules = to.getSortedRules(features);
-      
-      // TODO: I think this is a race condition
-      if (numOptions > 0 && rules.size() > numOptions)
-        rules = rules.subList(0,  numOptions - 1);
+      for (Rule rule: getOptions(to))
+        addToRange(i, j, rule, null);
+    }
+  }
+
+  /**
+   * Add a set of cached translation options to the current span.
+   * 
+   * @param i beginning of span
+   * @param j end of span
+   * @param options the options of all of the decoder's grammars for the span
+   */
+  private void addToRange(int i, int j, TranslationOptions options) {
+    for (int r = 0; r < options.size(); r++)
+      addToRange(i, j, options.getRule(r), options.getScores(r));
+  }
+
+  /*
+   * Turns a rule into an HGNode, and adds it to the span. The scores of the feature functions that
+   * are already known are not recomputed.
+   */
+  private void addToRange(int i, int j, Rule rule, float[] knownScores) {
+    try {
+      int offset = offset(i, j);
+      if (entries.get(offset) == null)
+        entries.set(offset, new PhraseNodes(i, j, numOptions));
+      PhraseNodes nodes = entries.get(offset);
+
+      ComputeNodeResult result = new ComputeNodeResult(features, rule, null, i, j, null, sentence,
+          knownScores);
+      HyperEdge edge = new HyperEdge(rule, result.getViterbiCost(), result.getTransitionCost(), null, null,
+          result.getFeatureDelta());
+      HGNode phraseNode = new HGNode(i, j, rule.getLHS(), result.getDPStates(), edge, result.getPruningEstimate());
+      nodes.add(phraseNode);
+    } catch (java.lang.IndexOutOfBoundsException e) {
+      LOG.error("Whoops! {} [{}-{}] too long ({})", rule, i, j, entries.size());
+      LOG.error(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns the translation options of a grammar's rule collection.
+   * 
+   * @param to a {@link org.apache.joshua.decoder.ff.tm.RuleCollection}
+   * @return the best-scoring rules
+   */
+  private List<Rule> getOptions(RuleCollection to) {
+    /*
+     * This first call to getSortedRules() is important, because it is what
+     * causes the scoring and sorting to happen. It is also a synchronized call,
+     * which is necessary because the underlying grammar gets sorted. Subsequent calls to get the
+     * rules will just return the already-sorted list. Here, we score, sort,
+     * and then trim the list to the number of translation options. Trimming provides huge
+     * performance gains --- the more common the word, the more translations options it is
+     * likely to have (often into the tens of thousands).
+     */
+    List<Rule> rules = to.getSortedRules(features);
+
+    // TODO: I think this is a race condition
+    if (numOptions > 0 && rules.size() > numOptions)
+      rules = rules.subList(0,  numOptions - 1);
 //        to.getRules().subList(numOptions, to.getRules().size()).clear();
+    return rules;
+  }
+
+  /**
+   * Collects the translation options of all of the decoder's grammars for a source phrase, and
+   * computes the scores of the feature functions that can be shared across sentences.
+   * 
+   * @param tables the decoder's {@link org.apache.joshua.decoder.phrase.PhraseTable}'s
+   * @param words the source phrase
+   * @param i beginning of span
+   * @param j end of span
+   * @return the options, for the {@link org.apache.joshua.decoder.phrase.TranslationOptionCache}
+   */
+  private TranslationOptions collectOptions(PhraseTable[] tables, int[] words, int i, int j) {
+    List<Rule> rules = new ArrayList<>();
+    for (PhraseTable table : tables) {
+      RuleCollection to = table.getPhrases(words);
+      if (to != null)
+        rules.addAll(getOptions(to));
+    }
 
-      try {
-        int offset = offset(i, j);
-        if (entries.get(offset) == null)
-          entries.set(offset, new PhraseNodes(i, j, numOptions));
-        PhraseNodes nodes = entries.get(offset);
-
-        // Turn each rule into an HGNode, add them one by one 
-        for (Rule rule: rules) {
-          ComputeNodeResult result = new ComputeNodeResult(features, rule, null, i, j, null, sentence);
-          HyperEdge edge = new HyperEdge(rule, result.getViterbiCost(), result.getTransitionCost(), null, null);
-          HGNode phraseNode = new HGNode(i, j, rule.getLHS(), result.getDPStates(), edge, result.getPruningEstimate());
-          nodes.add(phraseNode);
+    float[][] scores = new float[rules.size()][features.size()];
+    for (int r = 0; r < rules.size(); r++) {
+      for (int f = 0; f < features.size(); f++) {
+        FeatureFunction feature = features.get(f);
+        if (TranslationOptionCache.isCacheable(feature)) {
+          FeatureFunction.ScoreAccumulator acc = feature.new ScoreAccumulator();
+          feature.compute(rules.get(r), null, i, j, null, sentence, acc);
+          scores[r][f] = acc.getScore();
+        } else {
+          scores[r][f] = Float.NaN;
         }
-//        entries.get(offset).addAll(rules);
-      } catch (java.lang.IndexOutOfBoundsException e) {
-        LOG.error("Whoops! {} [{}-{}] too long ({})", to, i, j, entries.size());
-        LOG.error(e.getMessage(), e);
       }
     }
+
+    return new TranslationOptions(rules.toArray(new Rule[rules.size()]), scores);
   }
 }
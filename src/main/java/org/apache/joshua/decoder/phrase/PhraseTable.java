@@ -34,6 +34,7 @@ import org.apache.joshua.decoder.ff.tm.RuleCollection;
 import org.apache.joshua.decoder.ff.tm.Trie;
 import org.apache.joshua.decoder.ff.tm.hash_based.MemoryBasedBatchGrammar;
 import org.apache.joshua.decoder.ff.tm.packed.PackedGrammar;
+import org.apache.joshua.tools.TestSetFilter;
 
 /**
  * Represents a phrase table, and is implemented as a wrapper around either a {@link PackedGrammar}
@@ -58,6 +59,22 @@ public class PhraseTable implements Grammar {
    */
   public PhraseTable(String grammarFile, String owner, String type, JoshuaConfiguration config) 
       throws IOException {
+    this(grammarFile, owner, type, config, null);
+  }
+
+  /**
+   * As above, but text phrase tables are restricted to the phrases permitted by the supplied
+   * test-set filter. Packed phrase tables are not filtered.
+   * 
+   * @param grammarFile file path parent directory
+   * @param owner used to set phrase owners
+   * @param type the grammar specification keyword (e.g., "thrax" or "moses")
+   * @param config a populated {@link org.apache.joshua.decoder.JoshuaConfiguration}
+   * @param filter a {@link TestSetFilter} loaded with the test set, or null
+   * @throws IOException if there is an error reading the grammar file
+   */
+  public PhraseTable(String grammarFile, String owner, String type, JoshuaConfiguration config,
+      TestSetFilter filter) throws IOException {
     this.config = config;
     int spanLimit = 0;
     
@@ -70,7 +87,8 @@ public class PhraseTable implements Grammar {
       }
 
     } else {
-      this.backend = new MemoryBasedBatchGrammar(type, grammarFile, owner, "[X]", spanLimit, config);
+      this.backend = new MemoryBasedBatchGrammar(type, grammarFile, owner, "[X]", spanLimit, config,
+          filter);
     }
   }
   
@@ -118,6 +136,16 @@ public class PhraseTable implements Grammar {
   public void addRule(Rule rule) {
     backend.addRule(rule);
   }
+
+  /**
+   * Removes a rule from the grammar. Only supported when the backend is a MemoryBasedBatchGrammar.
+   * 
+   * @param rule the rule to remove
+   */
+  @Override
+  public void removeRule(Rule rule) {
+    backend.removeRule(rule);
+  }
   
   /**
    * Saves the grammar to disk. Only supported when the backend is a MemoryBasedBatchGrammar.
@@ -163,6 +191,11 @@ public class PhraseTable implements Grammar {
     return backend.isSorted();
   }
 
+  @Override
+  public void invalidateSortedRules() {
+    backend.invalidateSortedRules();
+  }
+
   /**
    * This should never be called. 
    */
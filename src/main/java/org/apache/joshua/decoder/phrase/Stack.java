@@ -26,7 +26,7 @@ import java.util.PriorityQueue;
 import java.util.Set;
 
 import org.apache.joshua.decoder.JoshuaConfiguration;
-import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.chart_parser.SearchArena;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,29 +46,38 @@ public class Stack extends ArrayList<Hypothesis> {
   private Sentence sentence;
   private JoshuaConfiguration config;
 
-  /* The list of states we've already visited. */
-  private final HashSet<Candidate> visitedStates;
-  
-  /* A list of candidates sorted for consideration for entry to the chart (for cube pruning) */
-  private final PriorityQueue<Candidate> candidates;
+  /* Where the queues and sets of cube pruning come from */
+  private final SearchArena arena;
+
+  /* The candidates for entry to the chart (for cube pruning) */
+  private final Cube cube;
   
   /* Short-circuits adding a cube-prune state more than once */
   private final HashMap<Hypothesis, Hypothesis> deduper;
+
+  /*
+   * The signatures of the hypotheses in the stack, kept only for 1-best (top-n = 0) output, where
+   * the edges that a hypothesis absorbs are never looked at
+   */
+  private final HashSet<Candidate.Signature> signatures;
   
   /**
    * Create a new stack. Stacks are organized one for each number of source words that are covered.
    * 
    * @param sentence input for a {@link org.apache.joshua.lattice.Lattice}
    * @param config populated {@link org.apache.joshua.decoder.JoshuaConfiguration}
+   * @param arena the {@link org.apache.joshua.decoder.chart_parser.SearchArena} of the search
    */
-  public Stack(Sentence sentence, JoshuaConfiguration config) {
+  public Stack(Sentence sentence, JoshuaConfiguration config, SearchArena arena) {
     this.sentence = sentence;
     this.config = config;
+    this.arena = arena;
     
-    this.candidates = new PriorityQueue<Candidate>(1);
+    this.cube = new Cube();
     this.coverages = new HashMap<Coverage, ArrayList<Hypothesis>>();
-    this.visitedStates = new HashSet<Candidate>();
     this.deduper = new HashMap<Hypothesis,Hypothesis>();
+    this.signatures = config.topN == 0 && !config.mbr && config.hypergraph_file == null
+        ? new HashSet<>() : null;
   }
 
   /**
@@ -131,70 +140,67 @@ public class Stack extends ArrayList<Hypothesis> {
    * a little generalization of spans / coverage).
    * 
    * This function is also used to (fairly concisely) implement constrained decoding. Before
-   * adding a candidate, we ensure that the sequence of English words match the sentence. If not,
-   * the code extends the dot in the cube-pruning chart to the next phrase, since that one might
-   * be a match.
+   * adding a candidate, we ensure that its phrase continues the target sentence from where its
+   * hypothesis left off. If not, the code extends the dot in the cube-pruning chart to the next
+   * phrase, since that one might be a match. With 1-best output, a candidate that would recombine
+   * with a hypothesis already in the stack is dropped here, before it is scored.
    * @param cand a partially-initialized translation {@link org.apache.joshua.decoder.phrase.Candidate}
    */
   public void addCandidate(Candidate cand) {
-    if (visitedStates.contains(cand))
-      return;
-    
-    visitedStates.add(cand);
-
-    // Constrained decoding
-    if (sentence.target() != null) {
-
-      /* Get the rule. If if it's a swap or monolingual rule, find the right backpointer */
-      Rule rule = cand.getHypothesis().getRule();
-      if (rule == Hypothesis.INORDER_RULE)
-        rule = cand.getHypothesis().bestHyperedge.getTailNodes().get(1).bestHyperedge.getRule();
-      else if (rule == Hypothesis.INVERTED_RULE)
-        rule = cand.getHypothesis().bestHyperedge.getTailNodes().get(0).bestHyperedge.getRule();
-      String oldWords = rule.getEnglishWords();
-
-      String newWords = cand.getPhraseRule().getEnglishWords();
-          
-      boolean allowed = sentence.fullTarget().contains(oldWords + " " + newWords);
-      
-      // If the string is not found in the target sentence, explore the cube neighbors
-      if (! allowed) {
-        Candidate next = cand.extendPhrase();
-        if (next != null)
-          addCandidate(next); 
-        
-        return;
-      }
-    }
-
-    candidates.add(cand);
+    cube.add(cand);
   }
   
   /**
    * Cube pruning. Repeatedly pop the top candidate, creating a new hyperedge from it, adding it to
    * the k-best list, and then extending the list of candidates with extensions of the current
-   * candidate.
+   * candidate. This stops after the pop limit, or when the remaining candidates fall out of the
+   * beam (config.beam_threshold) around the best candidate popped. Candidates whose coverage
+   * vector already has config.coverage_histogram_limit hypotheses in the stack are dropped.
+   * 
+   * @return the number of candidates popped
    */
-  public void search() {
+  public int search() {
     int to_pop = config.pop_limit;
+    int pops = 0;
+    float best = Float.NEGATIVE_INFINITY;
     
     if (LOG.isDebugEnabled()) {
-      LOG.debug("Stack::search(): pop: {} size: {}", to_pop, candidates.size());
-      for (Candidate c: candidates)
+      LOG.debug("Stack::search(): pop: {} size: {}", to_pop, cube.candidates.size());
+      for (Candidate c: cube.candidates)
         LOG.debug("{}", c);
     }
-    while (to_pop > 0 && !candidates.isEmpty()) {
-      Candidate got = candidates.poll();
-      if (got != null) {
-        addHypothesis(got);
-        --to_pop;
-        
-        for (Candidate c : got.extend())
-          if (c != null) {
-            addCandidate(c);
-          }
+
+    while (to_pop > 0 && !cube.candidates.isEmpty()) {
+      Candidate top = cube.candidates.peek();
+
+      // Drop candidates for full coverages, along with their cube neighbors 
+      if (config.coverage_histogram_limit > 0 && isFull(top.getCoverage())) {
+        cube.candidates.poll();
+        continue;
       }
+
+      if (top.score() < best - config.beam_threshold)
+        break;
+
+      Candidate got = cube.candidates.poll();
+      addHypothesis(got);
+      cube.addNeighbors(got);
+      best = Math.max(best, got.score());
+      --to_pop;
+      ++pops;
     }
+    cube.recycle();
+    return pops;
+  }
+
+  /*
+   * Whether the stack holds as many hypotheses with the given coverage as it may.
+   */
+  private boolean isFull(Coverage coverage) {
+    if (config.coverage_histogram_limit <= 0)
+      return false;
+    ArrayList<Hypothesis> hypotheses = coverages.get(coverage);
+    return hypotheses != null && hypotheses.size() >= config.coverage_histogram_limit;
   }
 
   /**
@@ -216,6 +222,8 @@ public class Stack extends ArrayList<Hypothesis> {
       taskName = "creating new hypothesis";
       add(added);
       deduper.put(added, added);
+      if (signatures != null && complete.getSignature() != null)
+        signatures.add(complete.getSignature());
     }
 
     if (LOG.isDebugEnabled()) {
@@ -228,4 +236,66 @@ public class Stack extends ArrayList<Hypothesis> {
           complete.computeResult().getTransitionCost() + complete.getFutureEstimate());
     }
   }
+
+  /**
+   * The state of cube pruning over a set of candidates: the queue of candidates sorted for
+   * consideration for entry to the chart, and the states already visited. These are taken from the
+   * arena, and given back to it once the stack has been searched.
+   */
+  private class Cube {
+
+    private final PriorityQueue<Candidate> candidates = arena.queue();
+    private final HashSet<Candidate> visited = arena.set();
+
+    /*
+     * Adds a scored candidate to the queue. This is where constrained decoding happens: a
+     * candidate whose phrase doesn't continue the target sentence is replaced by its next
+     * neighbor in the cube, since that one might be a match.
+     */
+    private void add(Candidate cand) {
+      if (visited.contains(cand))
+        return;
+
+      visited.add(cand);
+
+      // Constrained decoding
+      if (sentence.target() != null && cand.getTargetPosition() < 0) {
+        // The phrase doesn't continue the target sentence, so explore the cube neighbors
+        Candidate next = cand.extendPhrase();
+        if (next != null)
+          add(next);
+
+        return;
+      }
+
+      /*
+       * In 1-best search, a candidate that would recombine with a hypothesis already in the stack
+       * is not scored. Candidates are popped best first, so it would most likely only add a worse
+       * edge to that hypothesis. Its cube neighbors are explored in its place.
+       */
+      if (signatures != null) {
+        Candidate.Signature signature = cand.getSignature();
+        if (signature != null && signatures.contains(signature))
+          return;
+      }
+
+      candidates.add(cand);
+    }
+
+    /*
+     * Adds the neighbors in the cube of a popped candidate. This comes after the candidate's
+     * hypothesis is in the stack, so that neighbors that recombine with it are recognized.
+     */
+    private void addNeighbors(Candidate got) {
+      for (Candidate c : got.extend())
+        if (c != null) {
+          add(c);
+        }
+    }
+
+    private void recycle() {
+      arena.recycle(candidates);
+      arena.recycle(visited);
+    }
+  }
 }
@@ -42,6 +42,7 @@ import java.util.List;
 
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.chart_parser.ComputeNodeResult;
+import org.apache.joshua.decoder.chart_parser.SearchArena;
 import org.apache.joshua.decoder.ff.FeatureFunction;
 import org.apache.joshua.decoder.ff.tm.AbstractGrammar;
 import org.apache.joshua.decoder.ff.tm.Grammar;
@@ -82,6 +83,20 @@ public class Stacks {
    */
   public Stacks(Sentence sentence, List<FeatureFunction> featureFunctions, Grammar[] grammars, 
       JoshuaConfiguration config) {
+    this(sentence, featureFunctions, grammars, config, null);
+  }
+
+  /**
+   * As above, with the options of the grammars taken from a cache shared across sentences.
+   * 
+   * @param sentence input to {@link org.apache.joshua.lattice.Lattice}
+   * @param featureFunctions {@link java.util.List} of {@link org.apache.joshua.decoder.ff.FeatureFunction}'s
+   * @param grammars an array of {@link org.apache.joshua.decoder.ff.tm.Grammar}'s
+   * @param config a populated {@link org.apache.joshua.decoder.JoshuaConfiguration}
+   * @param optionCache a {@link org.apache.joshua.decoder.phrase.TranslationOptionCache}, or null
+   */
+  public Stacks(Sentence sentence, List<FeatureFunction> featureFunctions, Grammar[] grammars, 
+      JoshuaConfiguration config, TranslationOptionCache optionCache) {
 
     this.sentence = sentence;
     this.featureFunctions = featureFunctions;
@@ -92,18 +107,20 @@ public class Stacks {
       if (grammar instanceof PhraseTable)
         ++num_phrase_tables;
     
-    PhraseTable[] phraseTables = new PhraseTable[num_phrase_tables + 2];
+    PhraseTable[] phraseTables = new PhraseTable[num_phrase_tables];
     for (int i = 0, j = 0; i < grammars.length; i++)
       if (grammars[i] instanceof PhraseTable)
         phraseTables[j++] = (PhraseTable) grammars[i];
     
-    phraseTables[phraseTables.length - 2] = new PhraseTable(UNKNOWN_OWNER, config);
-    phraseTables[phraseTables.length - 2].addRule(Hypothesis.END_RULE);
+    PhraseTable[] sentenceTables = new PhraseTable[2];
+    sentenceTables[0] = new PhraseTable(UNKNOWN_OWNER, config);
+    sentenceTables[0].addRule(Hypothesis.END_RULE);
     
-    phraseTables[phraseTables.length - 1] = new PhraseTable("oov", config);
-    AbstractGrammar.addOOVRules(phraseTables[phraseTables.length - 1], sentence.getLattice(), featureFunctions, config.true_oovs_only);
+    sentenceTables[1] = new PhraseTable("oov", config);
+    AbstractGrammar.addOOVRules(sentenceTables[1], sentence.getLattice(), featureFunctions, config.true_oovs_only);
     
-    this.chart = new PhraseChart(phraseTables, featureFunctions, sentence, config.num_translation_options);
+    this.chart = new PhraseChart(phraseTables, sentenceTables, featureFunctions, sentence,
+        config.num_translation_options, optionCache);
   }
   
   
@@ -113,6 +130,15 @@ public class Stacks {
    * @return a {@link org.apache.joshua.decoder.hypergraph.HyperGraph} representing the search space
    */
   public HyperGraph search() {
+    SearchArena arena = SearchArena.acquire(config);
+    try {
+      return search(arena);
+    } finally {
+      arena.release();
+    }
+  }
+
+  private HyperGraph search(SearchArena arena) {
     
     long startTime = System.currentTimeMillis();
     
@@ -125,13 +151,14 @@ public class Stacks {
     // Initialize root hypothesis with <s> context and future cost for everything.
     ComputeNodeResult result = new ComputeNodeResult(this.featureFunctions, Hypothesis.BEGIN_RULE,
         null, -1, 1, null, this.sentence);
-    Stack firstStack = new Stack(sentence, config);
+    Stack firstStack = new Stack(sentence, config, arena);
     firstStack.add(new Hypothesis(result.getDPStates(), future.Full()));
     stacks.add(firstStack);
+    int totalPops = 0;
     
     // Decode with increasing numbers of source words. 
     for (int source_words = 2; source_words <= sentence.length(); ++source_words) {
-      Stack targetStack = new Stack(sentence, config);
+      Stack targetStack = new Stack(sentence, config, arena);
       stacks.add(targetStack);
 
       // Iterate over stacks to continue from.
@@ -206,11 +233,13 @@ public class Stacks {
       
 //      System.err.println(String.format("\nBuilding cube-pruning chart for %d words", source_words));
 
-      targetStack.search();
+      int pops = targetStack.search();
+      totalPops += pops;
+      LOG.debug("Input {}: stack {} used {} pops", sentence.id(), source_words, pops);
     }
     
-    LOG.info("Input {}: Search took {} seconds", sentence.id(),
-        (System.currentTimeMillis() - startTime) / 1000.0f);
+    LOG.info("Input {}: Search took {} seconds ({} pops)", sentence.id(),
+        (System.currentTimeMillis() - startTime) / 1000.0f, totalPops);
     
     return createGoalNode();
   }
@@ -266,7 +295,8 @@ public class Stacks {
       if (null == this.end)
         this.end = new Hypothesis(null, score + finalTransitionScore, hyp, sentence.length(), null);
 
-      HyperEdge edge = new HyperEdge(null, score + finalTransitionScore, finalTransitionScore, tailNodes, null);
+      HyperEdge edge = new HyperEdge(null, score + finalTransitionScore, finalTransitionScore, tailNodes, null,
+          ComputeNodeResult.computeFinalFeatureDelta(featureFunctions, hyp, -1, sentence.length(), null, sentence));
       end.addHyperedgeInNode(edge);
     }
     
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.phrase;
+
+import static com.google.common.cache.CacheBuilder.newBuilder;
+
+import java.util.Arrays;
+
+import org.apache.joshua.decoder.ff.FeatureFunction;
+import org.apache.joshua.decoder.ff.SourceDependentFF;
+import org.apache.joshua.decoder.ff.tm.Rule;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A cache of translation options that is shared across sentences (and decoding threads). It maps
+ * a sequence of source words to the pruned and sorted rules that the decoder's phrase tables
+ * provide for it, together with the scores of the feature functions that depend on the rule
+ * alone. Frequent n-grams recur in nearly every sentence, and for them a
+ * {@link org.apache.joshua.decoder.phrase.PhraseChart} can skip the grammar lookup, the sort, and
+ * most of the scoring.
+ * <p>
+ * The cached scores are weighted, and the rules are those of the grammars at the time they were
+ * cached, so the cache must be invalidated whenever the weights or the grammars change.
+ */
+public class TranslationOptionCache {
+
+  private final Cache<Key, TranslationOptions> cache;
+
+  /**
+   * @param maximumSize the maximum number of source phrases to keep; the least recently used
+   *          ones are evicted first
+   */
+  public TranslationOptionCache(int maximumSize) {
+    cache = newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * Whether the score of a feature function can be shared across sentences. This is the case for
+   * stateless feature functions that are not sentence-specific, which, for a rule applied without
+   * tail nodes, depend on the rule alone.
+   * 
+   * @param feature a {@link org.apache.joshua.decoder.ff.FeatureFunction}
+   * @return true if its scores can be cached
+   */
+  public static boolean isCacheable(FeatureFunction feature) {
+    return !feature.isStateful() && !(feature instanceof SourceDependentFF);
+  }
+
+  public TranslationOptions get(int[] sourceWords) {
+    return cache.getIfPresent(new Key(sourceWords));
+  }
+
+  public void put(int[] sourceWords, TranslationOptions options) {
+    cache.put(new Key(sourceWords), options);
+  }
+
+  /**
+   * Drops all cached options. This must be called after the grammars or the weights change.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * @return the hit, miss, and eviction counts since the cache was created
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * The cached translation options of a source phrase. The scores of the feature functions that
+   * are not cacheable are NaN.
+   */
+  public static class TranslationOptions {
+
+    private final Rule[] rules;
+    private final float[][] scores;
+
+    public TranslationOptions(Rule[] rules, float[][] scores) {
+      this.rules = rules;
+      this.scores = scores;
+    }
+
+    public int size() {
+      return rules.length;
+    }
+
+    public Rule getRule(int i) {
+      return rules[i];
+    }
+
+    /**
+     * @param i the index of a rule
+     * @return the score of each feature function for the rule, in the order of the decoder's
+     *         feature functions
+     */
+    public float[] getScores(int i) {
+      return scores[i];
+    }
+  }
+
+  private static final class Key {
+    private final int[] words;
+    private final int hash;
+
+    Key(int[] words) {
+      this.words = words;
+      this.hash = Arrays.hashCode(words);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key && Arrays.equals(words, ((Key) other).words);
+    }
+  }
+}
@@ -68,6 +68,7 @@ public class Sentence {
   
   protected String target = null;
   protected String fullTarget = null;
+  protected int[] targetWordIDs = null;
   protected String[] references = null;
 
   /* Lattice representation of the source sentence. */
@@ -78,6 +79,13 @@ public class Sentence {
   
   public JoshuaConfiguration config = null;
 
+  /*
+   * Whether the structured output of this sentence (see StructuredTranslation) includes the
+   * features and the word alignments. A request can turn them off to save the work.
+   */
+  public boolean withFeatures = true;
+  public boolean withAlignments = true;
+
   private LanguageModelStateManager stateManager = new LanguageModelStateManager();
 
   /**
@@ -358,6 +366,19 @@ public class Sentence {
     return fullTarget; 
   }
 
+  /**
+   * Returns the word ids of the target side, with sentence markers. This is the form used to
+   * check the target constraint during constrained decoding.
+   * 
+   * @return the word ids of {@link #fullTarget()}
+   */
+  public int[] getTargetWordIDs() {
+    if (targetWordIDs == null) {
+      targetWordIDs = Vocabulary.addAll(fullTarget());
+    }
+    return targetWordIDs;
+  }
+
   public String source(int i, int j) {
     StringTokenizer st = new StringTokenizer(fullSource());
     int index = 0;
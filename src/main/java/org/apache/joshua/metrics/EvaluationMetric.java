@@ -85,7 +85,8 @@ public abstract class EvaluationMetric {
 
     switch (metricName) {
     case "BLEU":
-      retMetric = new BLEU(metricOptions); // the "BLEU" metric corresponds to the BLEU class
+      // the "BLEU" metric corresponds to the BLEU class, computed on word ids by PackedBLEU
+      retMetric = new PackedBLEU(metricOptions);
 
       break;
     case "BLEU_SBP":
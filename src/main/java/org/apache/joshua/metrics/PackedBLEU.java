@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * BLEU with the same sufficient statistics as {@link BLEU}, computed on word ids instead of
+ * n-gram strings.
+ * 
+ * The words of each sentence's references are numbered from 1, and an n-gram of reference words
+ * is packed into a long, with a sentence-specific number of bits per word. The maximum reference
+ * count of each n-gram is kept in a sorted array of packed n-grams. A candidate n-gram that
+ * contains a word not found in the references can't be matched, so it is never packed or looked
+ * up. Sentences whose references have too many distinct words for their n-grams to fit in a long
+ * keep the string counts of {@link BLEU}.
+ * 
+ * The sufficient statistics of a batch of candidates are computed in parallel.
+ */
+public class PackedBLEU extends BLEU {
+
+  /* The ids of each sentence's reference words, numbered from 1 */
+  private HashMap<String, Integer>[] refWordIds;
+
+  /* The number of bits per word in each sentence's packed n-grams */
+  private int[] idBits;
+
+  /*
+   * The packed n-grams (of all lengths) of each sentence's references, sorted, and their maximum
+   * counts in any one reference; null for the sentences that keep string counts
+   */
+  private long[][] refGrams;
+  private int[][] refGramCounts;
+
+  public PackedBLEU() {
+    super();
+  }
+
+  public PackedBLEU(String[] BLEU_options) {
+    super(BLEU_options);
+  }
+
+  public PackedBLEU(int mxGrmLn, String methodStr) {
+    super(mxGrmLn, methodStr);
+  }
+
+  private static String[] words(String str) {
+    return str.equals("") ? new String[0] : str.split("\\s+");
+  }
+
+  /**
+   * Builds the packed reference counts, which replace the <code>maxNgramCounts</code> of
+   * {@link BLEU}.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void set_maxNgramCounts() {
+    maxNgramCounts = new HashMap[numSentences];
+    refWordIds = new HashMap[numSentences];
+    idBits = new int[numSentences];
+    refGrams = new long[numSentences][];
+    refGramCounts = new int[numSentences][];
+    refWordCount = new int[numSentences][refsPerSen];
+
+    for (int i = 0; i < numSentences; ++i) {
+      HashMap<String, Integer> ids = new HashMap<>();
+      int[][] refIds = new int[refsPerSen][];
+      for (int r = 0; r < refsPerSen; ++r) {
+        String[] words = words(refSentences[i][r]);
+        refWordCount[i][r] = words.length;
+        refIds[r] = new int[words.length];
+        for (int j = 0; j < words.length; ++j) {
+          Integer id = ids.get(words[j]);
+          if (id == null) {
+            id = ids.size() + 1;
+            ids.put(words[j], id);
+          }
+          refIds[r][j] = id;
+        }
+      }
+
+      int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(ids.size()));
+      if (bits * getMaxGramLength() > 63) {
+        maxNgramCounts[i] = getMaxNgramCountsAll(i);
+        continue;
+      }
+      refWordIds[i] = ids;
+      idBits[i] = bits;
+
+      HashMap<Long, Integer> maxCounts = new HashMap<>();
+      for (int r = 0; r < refsPerSen; ++r) {
+        HashMap<Long, Integer> counts = new HashMap<>();
+        long[] keys = new long[refIds[r].length];
+        for (int n = 1; n <= getMaxGramLength(); ++n) {
+          for (int st = 0; st + n <= keys.length; ++st) {
+            keys[st] = (keys[st] << bits) | refIds[r][st + n - 1];
+            counts.merge(keys[st], 1, Integer::sum);
+          }
+        }
+        for (Map.Entry<Long, Integer> entry : counts.entrySet())
+          maxCounts.merge(entry.getKey(), entry.getValue(), Math::max);
+      }
+
+      long[] grams = new long[maxCounts.size()];
+      int g = 0;
+      for (long gram : maxCounts.keySet())
+        grams[g++] = gram;
+      Arrays.sort(grams);
+      int[] counts = new int[grams.length];
+      for (g = 0; g < grams.length; ++g)
+        counts[g] = maxCounts.get(grams[g]);
+      refGrams[i] = grams;
+      refGramCounts[i] = counts;
+    }
+  }
+
+  /* The string counts of BLEU.set_maxNgramCounts(), for one sentence */
+  private HashMap<String, Integer> getMaxNgramCountsAll(int i) {
+    HashMap<String, Integer> maxCounts = getNgramCountsAll(refSentences[i][0]);
+    for (int r = 1; r < refsPerSen; ++r) {
+      for (Map.Entry<String, Integer> entry : getNgramCountsAll(refSentences[i][r]).entrySet())
+        maxCounts.merge(entry.getKey(), entry.getValue(), Math::max);
+    }
+    return maxCounts;
+  }
+
+  @Override
+  public void set_prec_suffStats(int[] stats, String[] words, int i) {
+    if (refGrams[i] == null) {
+      super.set_prec_suffStats(stats, words, i);
+      return;
+    }
+
+    final HashMap<String, Integer> ids = refWordIds[i];
+    final int bits = idBits[i];
+    final long[] grams = refGrams[i];
+    final int[] gramCounts = refGramCounts[i];
+
+    int len = words.length;
+    int[] wordIds = new int[len];
+    for (int j = 0; j < len; ++j) {
+      Integer id = ids.get(words[j]);
+      wordIds[j] = (id == null) ? 0 : id;
+    }
+
+    // keys[st] is the packed n-gram of the current length that starts at st, or 0 if it has a
+    // word that is not in the references
+    long[] keys = new long[len];
+    long[] candGrams = new long[len];
+    for (int n = 1; n <= getMaxGramLength(); ++n) {
+      int count = 0;
+      for (int st = 0; st + n <= len; ++st) {
+        int id = wordIds[st + n - 1];
+        keys[st] = (id == 0 || (n > 1 && keys[st] == 0)) ? 0 : (keys[st] << bits) | id;
+        if (keys[st] != 0)
+          candGrams[count++] = keys[st];
+      }
+
+      // clip the count of each distinct candidate n-gram
+      Arrays.sort(candGrams, 0, count);
+      int correctGramCount = 0;
+      int start = 0;
+      while (start < count) {
+        int end = start + 1;
+        while (end < count && candGrams[end] == candGrams[start])
+          ++end;
+        int g = Arrays.binarySearch(grams, candGrams[start]);
+        if (g >= 0)
+          correctGramCount += Math.min(end - start, gramCounts[g]);
+        start = end;
+      }
+
+      stats[2 * (n - 1)] = correctGramCount;
+      stats[2 * (n - 1) + 1] = Math.max(len - (n - 1), 0); // total gram count
+    }
+  }
+
+  @Override
+  public int[][] suffStats(String[] cand_strings, int[] cand_indices) {
+    if (cand_indices.length != cand_strings.length)
+      return super.suffStats(cand_strings, cand_indices);
+
+    int[][] stats = new int[cand_strings.length][];
+    IntStream.range(0, cand_strings.length).parallel()
+        .forEach(d -> stats[d] = suffStats(cand_strings[d], cand_indices[d]));
+    return stats;
+  }
+}
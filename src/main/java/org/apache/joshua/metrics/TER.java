@@ -28,13 +28,34 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 import org.apache.joshua.util.StreamGobbler;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Translation edit rate. If the tercom jar file option names an existing file, the candidates are
+ * scored by running tercom 0.7.25 on batches of them, as before. Otherwise the edits are counted
+ * in-process by {@link TERCalculator}, a port of tercom's search whose results have not yet been
+ * compared with tercom's own (TERTest does this when given the jar). The words of each sentence's
+ * references are numbered from 1 (candidate words that no reference contains are 0), and the
+ * candidates of a batch are scored in parallel.
+ */
 public class TER extends EvaluationMetric {
+  private static final Logger LOG = LoggerFactory.getLogger(TER.class);
+
+  /* tercom's -P removes these characters */
+  private static final Pattern PUNCTUATION = Pattern.compile("[\\.,\\?:;!\"\\(\\)]");
+  private static final Pattern SPACES = Pattern.compile("\\s+");
+
   private boolean caseSensitive;
   private boolean withPunctuation;
   private int beamWidth;
@@ -42,13 +63,20 @@ public class TER extends EvaluationMetric {
   private String tercomJarFileName;
   private int numScoringThreads;
 
+  /* The ids of each sentence's reference words, and the word ids of each of its references */
+  private HashMap<String, Integer>[] refWordIds;
+  private int[][][] refs;
+
+  private ForkJoinPool scoringPool;
+  private ThreadLocal<TERCalculator> calculators;
+
   public TER(String[] Metric_options) {
     // M_o[0]: case sensitivity, case/nocase
     // M_o[1]: with-punctuation, punc/nopunc
     // M_o[2]: beam width, positive integer
     // M_o[3]: maximum shift distance, positive integer
-    // M_o[4]: filename of tercom jar file
-    // M_o[5]: number of threads to use for TER scoring (= number of tercom processes launched)
+    // M_o[4]: filename of tercom jar file, to score with tercom instead of in-process (optional)
+    // M_o[5]: number of threads to use for TER scoring (with tercom, the number of processes)
 
     // for 0-3, default values in tercom-0.7.25 are: nocase, punc, 20, 50
 
@@ -89,16 +117,16 @@ public class TER extends EvaluationMetric {
     }
 
     tercomJarFileName = Metric_options[4];
-
     if (tercomJarFileName == null || tercomJarFileName.equals("")) {
-      throw new RuntimeException("Problem processing tercom's jar filename");
+      LOG.info("Computing TER in-process; its results have not been verified against tercom "
+          + "0.7.25, whose jar file can be given to use it instead");
+      tercomJarFileName = null;
+    } else if (!new File(tercomJarFileName).exists()) {
+      LOG.warn("Could not find tercom jar file {}; computing TER in-process instead",
+          tercomJarFileName);
+      tercomJarFileName = null;
     } else {
-      File checker = new File(tercomJarFileName);
-      if (!checker.exists()) {
-        String msg = "Could not find tercom jar file " + tercomJarFileName
-            + "(Please make sure you use the full path in the filename)";
-        throw new RuntimeException(msg);
-      }
+      LOG.info("Computing TER with tercom ({})", tercomJarFileName);
     }
 
     numScoringThreads = Integer.parseInt(Metric_options[5]);
@@ -106,18 +134,65 @@ public class TER extends EvaluationMetric {
       throw new RuntimeException("Number of TER scoring threads must be positive");
     }
 
-
-    TercomRunner.set_TercomParams(caseSensitive, withPunctuation, beamWidth, maxShiftDist,
-        tercomJarFileName);
-
+    if (tercomJarFileName != null) {
+      TercomRunner.set_TercomParams(caseSensitive, withPunctuation, beamWidth, maxShiftDist,
+          tercomJarFileName);
+    }
 
     initialize(); // set the data members of the metric
   }
 
+  @SuppressWarnings("unchecked")
   protected void initialize() {
     metricName = "TER";
     toBeMinimized = true;
     suffStatsCount = 2;
+
+    if (tercomJarFileName != null) {
+      return;
+    }
+
+    refWordIds = new HashMap[numSentences];
+    refs = new int[numSentences][refsPerSen][];
+    for (int i = 0; i < numSentences; ++i) {
+      refWordIds[i] = new HashMap<>();
+      for (int r = 0; r < refsPerSen; ++r) {
+        refs[i][r] = wordIds(refSentences[i][r], refWordIds[i], true);
+      }
+    }
+
+    // the workers of a ForkJoinPool are daemon threads, so the pool needn't be shut down
+    scoringPool = new ForkJoinPool(numScoringThreads);
+    calculators = ThreadLocal.withInitial(() -> new TERCalculator(beamWidth, maxShiftDist));
+  }
+
+  /*
+   * Normalizes a sentence as tercom does and maps its words to ids, numbering new words if
+   * addWords is set, and mapping them to 0 otherwise.
+   */
+  private int[] wordIds(String str, HashMap<String, Integer> ids, boolean addWords) {
+    if (!caseSensitive) {
+      str = str.toLowerCase();
+    }
+    if (!withPunctuation) {
+      str = PUNCTUATION.matcher(str).replaceAll("");
+    }
+    str = str.trim();
+    if (str.isEmpty()) {
+      return new int[0];
+    }
+
+    String[] words = SPACES.split(str);
+    int[] wordIds = new int[words.length];
+    for (int w = 0; w < words.length; ++w) {
+      Integer id = ids.get(words[w]);
+      if (id == null && addWords) {
+        id = ids.size() + 1;
+        ids.put(words[w], id);
+      }
+      wordIds[w] = id == null ? 0 : id;
+    }
+    return wordIds;
   }
 
   public double bestPossibleScore() {
@@ -129,10 +204,26 @@ public class TER extends EvaluationMetric {
   }
 
   public int[] suffStats(String cand_str, int i) {
-    // this method should never be used when the metric is TER,
-    // because TER.java overrides createSuffStatsFile below,
-    // which is the only method that calls suffStats(String,int).
-    return null;
+    if (tercomJarFileName != null) {
+      return suffStats(new String[] { cand_str }, new int[] { i })[0];
+    }
+
+    // as in tercom, the edits are those to the closest reference, and the length is the
+    // average reference length (truncated)
+    int[] hyp = wordIds(cand_str, refWordIds[i], false);
+    TERCalculator calculator = calculators.get();
+
+    int bestEdits = Integer.MAX_VALUE;
+    int refWords = 0;
+    for (int r = 0; r < refsPerSen; ++r) {
+      bestEdits = Math.min(bestEdits, calculator.numEdits(hyp, refs[i][r]));
+      refWords += refs[i][r].length;
+    }
+
+    int[] stats = new int[suffStatsCount];
+    stats[0] = bestEdits;
+    stats[1] = refWords / refsPerSen;
+    return stats;
   }
 
   public int[][] suffStats(String[] cand_strings, int[] cand_indices) {
@@ -140,10 +231,31 @@ public class TER extends EvaluationMetric {
 
     int candCount = cand_strings.length;
     if (cand_indices.length != candCount) {
-      System.out.println("Array lengths mismatch in suffStats(String[],int[]); returning null.");
-      return null;
+      throw new IllegalArgumentException("Array lengths mismatch in suffStats(String[],int[]) ("
+          + candCount + " candidates vs. " + cand_indices.length + " indices)");
+    }
+
+    if (tercomJarFileName != null) {
+      return tercomSuffStats(cand_strings, cand_indices);
     }
 
+    int[][] stats = new int[candCount][];
+
+    // a parallel stream started from a task of the pool runs on the pool's numScoringThreads
+    // workers
+    try {
+      scoringPool.submit(() -> IntStream.range(0, candCount).parallel()
+          .forEach(d -> stats[d] = suffStats(cand_strings[d], cand_indices[d]))).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+
+    return stats;
+  }
+
+  /* Scores the candidates with a single run of tercom */
+  private int[][] tercomSuffStats(String[] cand_strings, int[] cand_indices) {
+    int candCount = cand_strings.length;
     int[][] stats = new int[candCount][suffStatsCount];
 
     try {
@@ -216,6 +328,11 @@ public class TER extends EvaluationMetric {
 
   public void createSuffStatsFile(String cand_strings_fileName, String cand_indices_fileName,
       String outputFileName, int maxBatchSize) {
+    if (tercomJarFileName == null) {
+      super.createSuffStatsFile(cand_strings_fileName, cand_indices_fileName, outputFileName,
+          maxBatchSize);
+      return;
+    }
 
     try {
       int batchCount = 0;
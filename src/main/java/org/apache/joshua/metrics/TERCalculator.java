@@ -0,0 +1,438 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the number of edits of translation edit rate (TER) between a hypothesis and a
+ * reference, both given as arrays of word ids.
+ * 
+ * This is a port of the search of tercom 0.7.25 (TERcalc.java) with unit costs: a beam-limited
+ * edit distance, and a greedy search that repeatedly applies the shift of a block of at most
+ * {@link #MAX_SHIFT_SIZE} hypothesis words that reduces the edit distance the most, trying
+ * longer blocks first, until no shift reduces the number of edits. Candidate shifts are pruned,
+ * and ties are broken, following tercom's code. The counts have only been checked against
+ * examples worked out by hand, not against tercom's output, so this is not yet a drop-in
+ * replacement for tercom (see TER, which still runs tercom when given its jar file).
+ * 
+ * An instance reuses its edit distance tables across calls, so it must not be shared between
+ * threads.
+ */
+public class TERCalculator {
+
+  /** The maximum number of words moved by a shift (tercom's MAX_SHIFT_SIZE) */
+  public static final int MAX_SHIFT_SIZE = 10;
+
+  private static final int SHIFT_COST = 1;
+
+  private static final int INF = Integer.MAX_VALUE / 2;
+
+  private final int beamWidth;
+  private final int maxShiftDist;
+
+  /* The edit distance table, indexed [ref position][hyp position], and its back pointers */
+  private int[][] cost = new int[0][0];
+  private char[][] path = new char[0][0];
+
+  /**
+   * @param beamWidth the beam width of the edit distance search (tercom's -b)
+   * @param maxShiftDist the maximum distance a block of words is shifted (tercom's -d)
+   */
+  public TERCalculator(int beamWidth, int maxShiftDist) {
+    this.beamWidth = beamWidth;
+    this.maxShiftDist = maxShiftDist;
+  }
+
+  /**
+   * @param hyp the word ids of the hypothesis
+   * @param ref the word ids of the reference
+   * @return the number of edits (insertions, deletions, substitutions and shifts)
+   */
+  public int numEdits(int[] hyp, int[] ref) {
+    Map<NGram, List<Integer>> refLocations = buildWordMatches(hyp, ref);
+    Alignment alignment = minEditDist(hyp, ref);
+    int shiftEdits = 0;
+    while (true) {
+      Alignment shifted = calcBestShift(alignment, ref, refLocations);
+      if (shifted == null)
+        break;
+      shiftEdits += SHIFT_COST;
+      alignment = shifted;
+    }
+    return alignment.edits + shiftEdits;
+  }
+
+  /* The result of an edit distance search: its cost, edit operations and hypothesis words */
+  private static class Alignment {
+    final int edits;
+    final char[] ops;
+    final int[] hyp;
+
+    Alignment(int edits, char[] ops, int[] hyp) {
+      this.edits = edits;
+      this.ops = ops;
+      this.hyp = hyp;
+    }
+  }
+
+  /* A slice of a word id array, as a map key */
+  private static class NGram {
+    final int[] words;
+    final int from;
+    final int to;
+    final int hash;
+
+    NGram(int[] words, int from, int to) {
+      this.words = words;
+      this.from = from;
+      this.to = to;
+      int h = 1;
+      for (int i = from; i < to; i++)
+        h = 31 * h + words[i];
+      this.hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof NGram))
+        return false;
+      NGram other = (NGram) o;
+      if (hash != other.hash || to - from != other.to - other.from)
+        return false;
+      for (int i = 0; i < to - from; i++)
+        if (words[from + i] != other.words[other.from + i])
+          return false;
+      return true;
+    }
+  }
+
+  /*
+   * Maps each reference n-gram made of words that occur in the hypothesis to its start positions,
+   * in increasing order.
+   */
+  private static Map<NGram, List<Integer>> buildWordMatches(int[] hyp, int[] ref) {
+    Set<Integer> hypWords = new HashSet<>();
+    for (int word : hyp)
+      hypWords.add(word);
+    boolean[] inHyp = new boolean[ref.length];
+    for (int i = 0; i < ref.length; i++)
+      inHyp[i] = hypWords.contains(ref[i]);
+
+    Map<NGram, List<Integer>> locations = new HashMap<>();
+    for (int start = 0; start < ref.length; start++) {
+      for (int end = start; end < ref.length && end - start <= MAX_SHIFT_SIZE && inHyp[end]; end++)
+        locations.computeIfAbsent(new NGram(ref, start, end + 1), k -> new ArrayList<>())
+            .add(start);
+    }
+    return locations;
+  }
+
+  /*
+   * Returns the alignment after the best shift of the hypothesis of the given alignment, or null
+   * if no shift reduces the number of edits.
+   */
+  private Alignment calcBestShift(Alignment current, int[] ref,
+      Map<NGram, List<Integer>> refLocations) {
+    int[] hyp = current.hyp;
+    boolean[] hypErr = new boolean[hyp.length];
+    boolean[] refErr = new boolean[ref.length];
+    int[] refAlign = new int[ref.length];
+    findAlignErr(current.ops, hypErr, refErr, refAlign);
+
+    List<int[]>[] shifts = gatherAllPossShifts(hyp, ref, refLocations, hypErr, refErr, refAlign);
+
+    int bestShiftCost = 0;
+    Alignment best = current;
+    for (int i = shifts.length - 1; i >= 0; i--) {
+      // a shift of i + 1 words fixes at most 2 * (i + 1) errors
+      int maxFix = 2 * (1 + i);
+      int curFix = current.edits - (bestShiftCost + best.edits);
+      if (curFix > maxFix || (bestShiftCost != 0 && curFix == maxFix))
+        break;
+
+      for (int[] shift : shifts[i]) {
+        curFix = current.edits - (bestShiftCost + best.edits);
+        if (curFix > maxFix || (bestShiftCost != 0 && curFix == maxFix))
+          break;
+
+        Alignment shifted = minEditDist(performShift(hyp, shift[0], shift[1], shift[2]), ref);
+        int gain = (best.edits + bestShiftCost) - (shifted.edits + SHIFT_COST);
+        if (gain > 0 || (bestShiftCost == 0 && gain == 0)) {
+          best = shifted;
+          bestShiftCost = SHIFT_COST;
+        }
+      }
+    }
+    return bestShiftCost == 0 ? null : best;
+  }
+
+  /*
+   * Marks the hypothesis and reference words that aren't matched, and records the hypothesis
+   * position each reference word is aligned to (or follows, for deletions).
+   */
+  private static void findAlignErr(char[] ops, boolean[] hypErr, boolean[] refErr,
+      int[] refAlign) {
+    int hypPos = -1;
+    int refPos = -1;
+    for (char op : ops) {
+      switch (op) {
+      case ' ':
+      case 'S':
+        hypPos++;
+        refPos++;
+        hypErr[hypPos] = op == 'S';
+        refErr[refPos] = op == 'S';
+        refAlign[refPos] = hypPos;
+        break;
+      case 'I':
+        hypPos++;
+        hypErr[hypPos] = true;
+        break;
+      case 'D':
+        refPos++;
+        refErr[refPos] = true;
+        refAlign[refPos] = hypPos;
+        break;
+      default:
+        throw new IllegalStateException("Invalid alignment symbol: " + op);
+      }
+    }
+  }
+
+  /*
+   * Returns the candidate shifts {start, end, new location} of hypothesis blocks that match the
+   * reference somewhere else, indexed by block length - 1.
+   */
+  @SuppressWarnings("unchecked")
+  private List<int[]>[] gatherAllPossShifts(int[] hyp, int[] ref,
+      Map<NGram, List<Integer>> refLocations, boolean[] hypErr, boolean[] refErr,
+      int[] refAlign) {
+    List<int[]>[] shifts = new List[MAX_SHIFT_SIZE + 1];
+    for (int i = 0; i < shifts.length; i++)
+      shifts[i] = new ArrayList<>();
+    if (maxShiftDist <= 0)
+      return shifts;
+
+    for (int start = 0; start < hyp.length; start++) {
+      List<Integer> wordLocations = refLocations.get(new NGram(hyp, start, start + 1));
+      if (wordLocations == null)
+        continue;
+
+      boolean ok = false;
+      for (int moveTo : wordLocations) {
+        if (start != refAlign[moveTo] && refAlign[moveTo] - start <= maxShiftDist
+            && start - refAlign[moveTo] - 1 <= maxShiftDist) {
+          ok = true;
+          break;
+        }
+      }
+      if (!ok)
+        continue;
+
+      for (int end = start; ok && end < hyp.length && end < start + MAX_SHIFT_SIZE; end++) {
+        ok = false;
+        List<Integer> blockLocations = refLocations.get(new NGram(hyp, start, end + 1));
+        if (blockLocations == null)
+          continue;
+
+        // only move blocks with an error
+        boolean anyHypErr = false;
+        for (int i = start; i <= end && !anyHypErr; i++)
+          anyHypErr = hypErr[i];
+        if (!anyHypErr) {
+          ok = true;
+          continue;
+        }
+
+        for (int moveTo : blockLocations) {
+          if (refAlign[moveTo] == start
+              || (refAlign[moveTo] >= start && refAlign[moveTo] <= end)
+              || refAlign[moveTo] - start > maxShiftDist
+              || start - refAlign[moveTo] > maxShiftDist)
+            continue;
+          ok = true;
+
+          // only move to places with an error
+          boolean anyRefErr = false;
+          for (int i = 0; i <= end - start && !anyRefErr; i++)
+            anyRefErr = refErr[moveTo + i];
+          if (!anyRefErr)
+            continue;
+
+          for (int refOffset = -1; refOffset <= end - start; refOffset++) {
+            if (refOffset == -1 && moveTo == 0) {
+              shifts[end - start].add(new int[] { start, end, -1 });
+            } else if (start != refAlign[moveTo + refOffset]
+                && (refOffset == 0 || refAlign[moveTo + refOffset] != refAlign[moveTo])) {
+              shifts[end - start].add(new int[] { start, end, refAlign[moveTo + refOffset] });
+            }
+          }
+        }
+      }
+    }
+    return shifts;
+  }
+
+  /* Moves words[start..end] after position newLoc (to the front for -1) */
+  private static int[] performShift(int[] words, int start, int end, int newLoc) {
+    int[] shifted = new int[words.length];
+    int c = 0;
+    if (newLoc == -1) {
+      c = copy(words, start, end + 1, shifted, c);
+      c = copy(words, 0, start, shifted, c);
+      copy(words, end + 1, words.length, shifted, c);
+    } else if (newLoc < start) {
+      c = copy(words, 0, newLoc + 1, shifted, c);
+      c = copy(words, start, end + 1, shifted, c);
+      c = copy(words, newLoc + 1, start, shifted, c);
+      copy(words, end + 1, words.length, shifted, c);
+    } else if (newLoc > end) {
+      c = copy(words, 0, start, shifted, c);
+      c = copy(words, end + 1, newLoc + 1, shifted, c);
+      c = copy(words, start, end + 1, shifted, c);
+      copy(words, newLoc + 1, words.length, shifted, c);
+    } else {
+      // moving the block inside itself
+      int after = Math.min(words.length, end + (newLoc - start) + 1);
+      c = copy(words, 0, start, shifted, c);
+      c = copy(words, end + 1, after, shifted, c);
+      c = copy(words, start, end + 1, shifted, c);
+      copy(words, after, words.length, shifted, c);
+    }
+    return shifted;
+  }
+
+  private static int copy(int[] from, int start, int end, int[] to, int at) {
+    if (end > start) {
+      System.arraycopy(from, start, to, at, end - start);
+      return at + end - start;
+    }
+    return at;
+  }
+
+  /* The beam-limited edit distance search of tercom, column by column over the hypothesis */
+  private Alignment minEditDist(int[] hyp, int[] ref) {
+    if (ref.length + 1 > cost.length || hyp.length + 1 > cost.length) {
+      int max = Math.max(ref.length, hyp.length) + 26;
+      cost = new int[max][max];
+      path = new char[max][max];
+    }
+    for (int i = 0; i <= ref.length; i++) {
+      Arrays.fill(cost[i], 0, hyp.length + 1, -1);
+      Arrays.fill(path[i], 0, hyp.length + 1, '0');
+    }
+    cost[0][0] = 0;
+
+    int currentBest = INF;
+    int lastBest;
+    int currentFirstGood = 0;
+    int firstGood;
+    int curLastGood = 0;
+    int lastGood;
+
+    for (int j = 0; j <= hyp.length; j++) {
+      lastBest = currentBest;
+      currentBest = INF;
+      firstGood = currentFirstGood;
+      currentFirstGood = -1;
+      lastGood = curLastGood;
+      curLastGood = -1;
+
+      for (int i = firstGood; i <= ref.length; i++) {
+        if (i > lastGood)
+          break;
+        if (cost[i][j] < 0)
+          continue;
+        int score = cost[i][j];
+        if (j < hyp.length && score > lastBest + beamWidth)
+          continue;
+        if (currentFirstGood == -1)
+          currentFirstGood = i;
+
+        if (i < ref.length && j < hyp.length) {
+          if (ref[i] == hyp[j]) {
+            if (cost[i + 1][j + 1] == -1 || score < cost[i + 1][j + 1]) {
+              cost[i + 1][j + 1] = score;
+              path[i + 1][j + 1] = ' ';
+            }
+            currentBest = Math.min(currentBest, score);
+          } else {
+            int subCost = score + 1;
+            if (cost[i + 1][j + 1] < 0 || subCost < cost[i + 1][j + 1]) {
+              cost[i + 1][j + 1] = subCost;
+              path[i + 1][j + 1] = 'S';
+              currentBest = Math.min(currentBest, subCost);
+            }
+          }
+        }
+
+        curLastGood = i + 1;
+
+        if (j < hyp.length) {
+          int insCost = score + 1;
+          if (cost[i][j + 1] < 0 || cost[i][j + 1] > insCost) {
+            cost[i][j + 1] = insCost;
+            path[i][j + 1] = 'I';
+          }
+        }
+
+        if (i < ref.length) {
+          int delCost = score + 1;
+          if (cost[i + 1][j] < 0 || cost[i + 1][j] > delCost) {
+            cost[i + 1][j] = delCost;
+            path[i + 1][j] = 'D';
+            if (i >= lastGood)
+              lastGood = i + 1;
+          }
+        }
+      }
+    }
+
+    int length = 0;
+    for (int i = ref.length, j = hyp.length; i > 0 || j > 0; length++) {
+      char op = path[i][j];
+      if (op != 'I')
+        i--;
+      if (op != 'D')
+        j--;
+    }
+    char[] ops = new char[length];
+    for (int i = ref.length, j = hyp.length; i > 0 || j > 0;) {
+      char op = path[i][j];
+      ops[--length] = op;
+      if (op != 'I')
+        i--;
+      if (op != 'D')
+        j--;
+    }
+    return new Alignment(cost[ref.length][hyp.length], ops, hyp);
+  }
+}
@@ -37,6 +37,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.TreeSet;
@@ -45,12 +46,14 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import org.apache.joshua.corpus.Vocabulary;
-import org.apache.joshua.decoder.Decoder;
 import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.TuningDecoder;
 import org.apache.joshua.metrics.EvaluationMetric;
+import org.apache.joshua.util.FeatureIndex;
 import org.apache.joshua.util.StreamGobbler;
 import org.apache.joshua.util.io.ExistingUTF8EncodedTextFile;
+import org.apache.joshua.util.io.NBestEntry;
+import org.apache.joshua.util.io.NBestReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -149,7 +152,7 @@ public class MIRACore {
   /* *********************************************************** */
   /* *********************************************************** */
 
-  private Decoder myDecoder;
+  private TuningDecoder myDecoder;
   // COMMENT OUT if decoder is not Joshua
 
   // the command that runs the decoder; read from decoderCommandFileName
@@ -242,7 +245,7 @@ public class MIRACore {
                                       // when returnBest = true
 
   private String paramsFileName, docInfoFileName, finalLambdaFileName;
-  private String refFileName;
+  private String sourceFileName, refFileName;
   private String decoderOutFileName;
   private String decoderConfigFileName, decoderCommandFileName;
   private String fakeFileNameTemplate, fakeFileNamePrefix, fakeFileNameSuffix;
@@ -309,7 +312,8 @@ public class MIRACore {
 
     // read parameter config file
     try {
-      // read dense parameter names
+      // read dense parameter names, which are numbered from 1
+      FeatureIndex.clear();
       BufferedReader inFile_names = new BufferedReader(new FileReader(paramsFileName));
 
       for (int c = 1; c <= numParams; ++c) {
@@ -320,7 +324,7 @@ public class MIRACore {
 
         // save feature names
         String paramName = (line.substring(0, line.indexOf("|||"))).trim();
-        Vocabulary.id(paramName);
+        FeatureIndex.id(paramName);
         // System.err.println(String.format("VOCAB(%s) = %d", paramName, id));
       }
 
@@ -426,7 +430,7 @@ public class MIRACore {
       print("Initial feature names: {", 1);
 
       for (int c = 1; c <= numParams; ++c)
-        print("\"" + Vocabulary.word(c) + "\"", 1);
+        print("\"" + FeatureIndex.name(c) + "\"", 1);
       println("}", 1);
       println("", 1);
 
@@ -452,7 +456,7 @@ public class MIRACore {
       } else if (normalizationOptions[0] == 1) {
         println(
             "weights will be scaled so that the \""
-                + Vocabulary.word((int) normalizationOptions[2])
+                + FeatureIndex.name((int) normalizationOptions[2])
                 + "\" weight has an absolute value of " + normalizationOptions[1] + ".", 1);
       } else if (normalizationOptions[0] == 2) {
         println("weights will be scaled so that the maximum absolute value is "
@@ -478,7 +482,8 @@ public class MIRACore {
     // by default, load joshua decoder
     if (decoderCommand == null && fakeFileNameTemplate == null) {
       println("Loading Joshua decoder...", 1);
-      myDecoder = new Decoder(joshuaConfiguration, decoderConfigFileName + ".MIRA.orig");
+      myDecoder = new TuningDecoder(joshuaConfiguration, decoderConfigFileName + ".MIRA.orig",
+          sourceFileName, sizeOfNBest);
       println("...finished loading @ " + (new Date()), 1);
       println("");
     } else {
@@ -657,17 +662,24 @@ public class MIRACore {
       // 2: fake decoder
       // 3: internal decoder
 
-      if (!decRunResult[1].equals("2")) {
+      if (decRunResult[1].equals("3")) {
+        // the internal decoder decodes as its n-best lists are read
+        println("Producing temp files for iteration " + iteration, 3);
+        produceTempFiles(myDecoder.decode(), iteration);
         println("...finished decoding @ " + (new Date()), 1);
-      }
+      } else {
+        if (!decRunResult[1].equals("2")) {
+          println("...finished decoding @ " + (new Date()), 1);
+        }
 
-      checkFile(decRunResult[0]);
+        checkFile(decRunResult[0]);
 
-      /************* END OF DECODING **************/
+        /************* END OF DECODING **************/
 
-      println("Producing temp files for iteration " + iteration, 3);
+        println("Producing temp files for iteration " + iteration, 3);
 
-      produceTempFiles(decRunResult[0], iteration);
+        produceTempFiles(decRunResult[0], iteration);
+      }
 
       // save intermedidate output files
       // save joshua.config.mira.it*
@@ -682,7 +694,7 @@ public class MIRACore {
       if (saveInterFiles == 2 || saveInterFiles == 3) { // make copy of intermediate decoder output
                                                         // file...
 
-        if (!decRunResult[1].equals("2")) { // ...but only if no fake decoder
+        if (decRunResult[1].equals("1")) { // ...but only if an external decoder wrote it
           if (!decRunResult[0].endsWith(".gz")) {
             if (!copyFile(decRunResult[0], decRunResult[0] + ".MIRA.it" + iteration)) {
               println("Warning: attempt to make copy of decoder output file (to create"
@@ -1098,7 +1110,7 @@ public class MIRACore {
                 for (String featurePair : featVal_str) {
                   String[] pair = featurePair.split("=");
                   String name = pair[0];
-                  int featId = Vocabulary.id(name);
+                  int featId = FeatureIndex.id(name);
 
                   // need to identify newly fired feats here
                   // in this case currFeatVal is not given the value
@@ -1454,6 +1466,13 @@ public class MIRACore {
       retSA[0] = fakeFileName;
       retSA[1] = "2";
 
+    } else if (myDecoder != null) {
+      // the n-best lists are read from myDecoder in produceTempFiles()
+      println("Running internal decoder...", 1);
+      myDecoder.setWeights(currentWeights());
+      retSA[0] = null;
+      retSA[1] = "3";
+
     } else {
       println("Running external decoder...", 1);
 
@@ -1489,7 +1508,27 @@ public class MIRACore {
     return retSA;
   }
 
+  /**
+   * @return the current weights, by feature name, for the internal decoder
+   */
+  private Map<String, Float> currentWeights() {
+    Map<String, Float> weights = new HashMap<>();
+    for (int c = 1; c <= numParams; ++c)
+      weights.put(FeatureIndex.name(c), lambda.get(c).floatValue());
+    return weights;
+  }
+
   private void produceTempFiles(String nbestFileName, int iteration) {
+    try {
+      NBestReader inFile_nbest = new NBestReader(nbestFileName);
+      produceTempFiles(inFile_nbest, iteration);
+      inFile_nbest.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void produceTempFiles(Iterable<NBestEntry> nbest, int iteration) {
     try {
       String sentsFileName = tmpDirPrefix + "temp.sents.it" + iteration;
       String featsFileName = tmpDirPrefix + "temp.feats.it" + iteration;
@@ -1500,56 +1539,32 @@ public class MIRACore {
 
       PrintWriter outFile_feats = new PrintWriter(featsFileName);
 
-      InputStream inStream_nbest = null;
-      if (nbestFileName.endsWith(".gz")) {
-        inStream_nbest = new GZIPInputStream(new FileInputStream(nbestFileName));
-      } else {
-        inStream_nbest = new FileInputStream(nbestFileName);
-      }
-      BufferedReader inFile_nbest = new BufferedReader(
-          new InputStreamReader(inStream_nbest, "utf8"));
-
-      String line; // , prevLine;
-      String candidate_str = "";
-      String feats_str = "";
-
       int i = 0;
       int n = 0;
-      line = inFile_nbest.readLine();
 
-      while (line != null) {
+      for (NBestEntry entry : nbest) {
 
         /*
-         * line format:
+         * entry format (the reader takes plain, GZIP'd, or binary n-best lists):
          *
          * i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numParams_val
          * .*
+         *
+         * Features can be named (for sparse feature compatibility). You must name all features or
+         * none of them.
          */
 
         // in a well formed file, we'd find the nth candidate for the ith sentence
 
-        int read_i = Integer.parseInt((line.substring(0, line.indexOf("|||"))).trim());
-
-        if (read_i != i) {
+        if (entry.getSentenceId() != i) {
           writeLine("||||||", outFile_sents);
           outFile_feats.println("||||||");
           n = 0;
           ++i;
         }
 
-        line = (line.substring(line.indexOf("|||") + 3)).trim(); // get rid of initial text
-
-        candidate_str = (line.substring(0, line.indexOf("|||"))).trim();
-        feats_str = (line.substring(line.indexOf("|||") + 3)).trim();
-        // get rid of candidate string
-
-        int junk_i = feats_str.indexOf("|||");
-        if (junk_i >= 0) {
-          feats_str = (feats_str.substring(0, junk_i)).trim();
-        }
-
-        writeLine(normalize(candidate_str, textNormMethod), outFile_sents);
-        outFile_feats.println(feats_str);
+        writeLine(normalize(entry.getHypothesis(), textNormMethod), outFile_sents);
+        outFile_feats.println(entry.getFeatures());
 
         ++n;
         if (n == sizeOfNBest) {
@@ -1558,8 +1573,6 @@ public class MIRACore {
           n = 0;
           ++i;
         }
-
-        line = inFile_nbest.readLine();
       }
 
       if (i != numSentences) { // last sentence had too few candidates
@@ -1567,7 +1580,6 @@ public class MIRACore {
         outFile_feats.println("||||||");
       }
 
-      inFile_nbest.close();
       outFile_sents.close();
       outFile_feats.close();
 
@@ -1597,7 +1609,7 @@ public class MIRACore {
       while (line != null) {
         int c_match = -1;
         for (int c = 1; c <= numParams; ++c) {
-          if (line.startsWith(Vocabulary.word(c) + " ")) {
+          if (line.startsWith(FeatureIndex.name(c) + " ")) {
             c_match = c;
             ++origFeatNum;
             break;
@@ -1608,7 +1620,7 @@ public class MIRACore {
           outFile.println(line);
         } else {
           if (Math.abs(params.get(c_match)) > 1e-20)
-            outFile.println(Vocabulary.word(c_match) + " " + params.get(c_match));
+            outFile.println(FeatureIndex.name(c_match) + " " + params.get(c_match));
         }
 
         line = inFile.readLine();
@@ -1617,7 +1629,7 @@ public class MIRACore {
       // now append weights of new features
       for (int c = origFeatNum + 1; c <= numParams; ++c) {
         if (Math.abs(params.get(c)) > 1e-20)
-          outFile.println(Vocabulary.word(c) + " " + params.get(c));
+          outFile.println(FeatureIndex.name(c) + " " + params.get(c));
       }
 
       inFile.close();
@@ -1740,7 +1752,7 @@ public class MIRACore {
       for (int i = 3; i < dummyA.length; ++i) { // in case parameter name has multiple words
         pName = pName + " " + dummyA[i];
       }
-      normalizationOptions[2] = Vocabulary.id(pName);
+      normalizationOptions[2] = FeatureIndex.id(pName);
 
       if (normalizationOptions[1] <= 0) {
         throw new RuntimeException("Value for the absval normalization method must be positive.");
@@ -1982,7 +1994,7 @@ public class MIRACore {
       try {
         PrintWriter outFile_lambdas = new PrintWriter(finalLambdaFileName);
         for (int c = 1; c <= numParams; ++c) {
-          outFile_lambdas.println(Vocabulary.word(c) + " ||| " + lambda.get(c));
+          outFile_lambdas.println(FeatureIndex.name(c) + " ||| " + lambda.get(c));
         }
         outFile_lambdas.close();
 
@@ -2094,7 +2106,7 @@ public class MIRACore {
     /* set default values */
     // Relevant files
     String dirPrefix = null;
-    String sourceFileName = null;
+    sourceFileName = null;
     refFileName = "reference.txt";
     refsPerSen = 1;
     textNormMethod = 1;
@@ -28,8 +28,8 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
 
-import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.metrics.EvaluationMetric;
+import org.apache.joshua.util.FeatureIndex;
 
 // this class implements the PRO tuning method
 public class Optimizer {
@@ -129,7 +129,7 @@ public class Optimizer {
 
         for (String aFeat_str : feat_str) {
           String[] feat_info = aFeat_str.split("[=]");
-          modelScore += Double.parseDouble(feat_info[1]) * finalLambda[Vocabulary.id(feat_info[0])];
+          modelScore += Double.parseDouble(feat_info[1]) * finalLambda[FeatureIndex.id(feat_info[0])];
         }
 
         if (maxModelScore < modelScore) {
@@ -267,14 +267,14 @@ public class Optimizer {
 
         for (String aFeat_str_j1 : feat_str_j1) {
           feat_info = aFeat_str_j1.split("[=]");
-          feat_id = Vocabulary.id(feat_info[0]);
+          feat_id = FeatureIndex.id(feat_info[0]);
           if ((feat_id < isOptimizable.length && isOptimizable[feat_id])
               || feat_id >= isOptimizable.length)
             feat_diff.put(feat_id, feat_info[1]);
         }
         for (String aFeat_str_j2 : feat_str_j2) {
           feat_info = aFeat_str_j2.split("[=]");
-          feat_id = Vocabulary.id(feat_info[0]);
+          feat_id = FeatureIndex.id(feat_info[0]);
           if ((feat_id < isOptimizable.length && isOptimizable[feat_id])
               || feat_id >= isOptimizable.length) {
             if (feat_diff.containsKey(feat_id))
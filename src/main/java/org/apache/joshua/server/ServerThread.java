@@ -19,24 +19,29 @@
 package org.apache.joshua.server;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
 import org.apache.joshua.decoder.Decoder;
 import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.StructuredTranslation;
 import org.apache.joshua.decoder.Translation;
 import org.apache.joshua.decoder.TranslationResponseStream;
 import org.apache.joshua.decoder.ff.tm.Rule;
@@ -134,28 +139,19 @@ public class ServerThread extends Thread implements HttpHandler {
     return result;
   } 
 
-  private class HttpWriter extends OutputStream {
-
-    private HttpExchange client = null;
-    private OutputStream out = null;
-    
-    public HttpWriter(HttpExchange client) {
-      this.client = client;
-      client.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-    }
-    
-    @Override
-    public void write(byte[] response) throws IOException {
-      client.sendResponseHeaders(200, response.length);
-      out = client.getResponseBody();
-      out.write(response);
-      out.close();
-    }
-
-    @Override
-    public void write(int b) throws IOException {
-      out.write(b);
-    }
+  /**
+   * Reads a flag of the query string: it is on unless its last value is "0" or "false".
+   * 
+   * @param params the query string, from {@link #queryToMap(String)}
+   * @param key the name of the flag
+   * @return whether the flag is on
+   */
+  private static boolean isOn(HashMap<String, ArrayList<String>> params, String key) {
+    ArrayList<String> values = params.get(key);
+    if (values == null || values.isEmpty())
+      return true;
+    String value = values.get(values.size() - 1);
+    return !(value.equals("0") || value.equalsIgnoreCase("false"));
   }
 
   /**
@@ -170,6 +166,13 @@ public class ServerThread extends Thread implements HttpHandler {
    * 
    * handle() will use q = {a, b} and meta = {d}
    * 
+   * The flags "features" and "alignments" (e.g., ?q=a&amp;features=0) turn off the features or
+   * the word alignments of the k-best items, which are then not computed.
+   * 
+   * The status is only sent once the first sentence has been decoded, so that a request without
+   * sentences, or whose decoding fails right away, gets an error status and a JSON object with
+   * the error. A failure after that ends the streamed object with the error instead.
+   * 
    * @param client the client connection
    */
   @Override
@@ -180,28 +183,79 @@ public class ServerThread extends Thread implements HttpHandler {
     ArrayList<String> metaList = params.get("meta");
     String meta = (metaList != null && ! metaList.isEmpty()) ? metaList.get(metaList.size() - 1) : null;
     
+    if (queryList == null || queryList.isEmpty()) {
+      sendError(client, 400, "No sentences to translate: pass them as q=...");
+      return;
+    }
+
     /* Join together multiple sentence queries as distinct sentences. */
     BufferedReader reader = new BufferedReader(new StringReader(String.join("\n", queryList)));
     TranslationRequestStream request = new TranslationRequestStream(reader, joshuaConfiguration);
+    request.setStructuredOutput(isOn(params, "features"), isOn(params, "alignments"));
     
     TranslationResponseStream translationResponseStream = decoder.decodeAll(request);
     JSONMessage message = new JSONMessage();
     if (meta != null && ! meta.isEmpty())
       handleMetadata(meta, message);
 
-    for (Translation translation: translationResponseStream) {
-      LOG.info("TRANSLATION: '{}' with {} k-best items, score {}", 
-          translation, translation.getStructuredTranslations().size());
-      message.addTranslation(translation);
+    /* Stream the response: each translation is sent as soon as it has been decoded. */
+    Iterable<Translation> translations = () -> new Iterator<Translation>() {
+      @Override
+      public boolean hasNext() {
+        return translationResponseStream.hasNext();
+      }
+
+      @Override
+      public Translation next() {
+        Translation translation = translationResponseStream.next();
+        List<StructuredTranslation> hyps = translation.getStructuredTranslations();
+        LOG.info("TRANSLATION: '{}' with {} k-best items, score {}", 
+            translation, hyps.size(), hyps.isEmpty() ? null : hyps.get(0).getTranslationScore());
+        return translation;
+      }
+    };
+
+    try {
+      // blocks until the first sentence has been decoded
+      translationResponseStream.hasNext();
+    } catch (RuntimeException e) {
+      LOG.error("Failed to decode request", e);
+      reader.close();
+      sendError(client, 500, e.getMessage() != null ? e.getMessage() : e.toString());
+      return;
+    }
+
+    client.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+    // a length of 0 means chunked transfer encoding
+    client.sendResponseHeaders(200, 0);
+    try (Writer out = new BufferedWriter(
+        new OutputStreamWriter(client.getResponseBody(), FILE_ENCODING))) {
+      message.write(translations, out);
+    } catch (RuntimeException e) {
+      LOG.error("Failed to decode request after the response was started", e);
+    } finally {
+      reader.close();
     }
+  }
 
-    OutputStream out = new HttpWriter(client);
-    out.write(message.toString().getBytes());
-    if (LOG.isDebugEnabled())
-      LOG.debug(message.toString());
-    out.close();
-    
-    reader.close();
+  /**
+   * Responds with an error status and a JSON object holding only the error.
+   * 
+   * @param client the client connection
+   * @param status the HTTP status code
+   * @param error the error message
+   * @throws IOException if the response can't be sent
+   */
+  private static void sendError(HttpExchange client, int status, String error)
+      throws IOException {
+    JSONMessage message = new JSONMessage();
+    message.error = error;
+    byte[] response = message.toString().getBytes(FILE_ENCODING);
+    client.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+    client.sendResponseHeaders(status, response.length);
+    try (OutputStream out = client.getResponseBody()) {
+      out.write(response);
+    }
   }
   
   /**
@@ -234,6 +288,7 @@ public class ServerThread extends Thread implements HttpHandler {
         LOG.info("set_weights: {} {} -> {}", feature, old_weight,
             Decoder.weights.getWeight(feature));
       }
+      decoder.updateWeights();
 
       message.addMetaData("weights " + Decoder.weights.toString());
 
@@ -307,27 +362,7 @@ public class ServerThread extends Thread implements HttpHandler {
     case "remove_rule": {
 
       Rule rule = new HieroFormatReader().parseLine(args);
-
-      Trie trie = decoder.getCustomPhraseTable().getTrieRoot();
-      int[] sourceTokens = rule.getFrench();
-      for (int sourceToken : sourceTokens) {
-        Trie nextTrie = trie.match(sourceToken);
-        if (nextTrie == null)
-          return;
-
-        trie = nextTrie;
-      }
-
-      if (trie.hasRules()) {
-        for (Rule ruleCand : trie.getRuleCollection().getRules()) {
-          if (Arrays.equals(rule.getEnglish(), ruleCand.getEnglish())) {
-            trie.getRuleCollection().getRules().remove(ruleCand);
-            break;
-          }
-        }
-      }
-      
-      decoder.saveCustomPhraseTable();
+      decoder.removeCustomRule(rule);
       
       break;
     }
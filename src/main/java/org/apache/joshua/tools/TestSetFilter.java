@@ -56,6 +56,7 @@ public class TestSetFilter {
   public TestSetFilter() {
     acceptedLastSourceSide = false;
     lastSourceSide = null;
+    filter = new FastFilter();
   }
 
   public String getFilterName() {
@@ -97,7 +98,13 @@ public class TestSetFilter {
     RULE_LENGTH = value;
   }
 
-  private void loadTestSentences(String filename) throws IOException {
+  /**
+   * Adds all sentences in a file (one per line) to the current filter.
+   * 
+   * @param filename the test set to filter to
+   * @throws IOException if the file cannot be read
+   */
+  public void loadTestSentences(String filename) throws IOException {
     int count = 0;
 
     try {
@@ -113,6 +120,16 @@ public class TestSetFilter {
       System.err.println(String.format("Added %d sentences.\n", count));
   }
 
+  /**
+   * Tells the current filter about a single sentence of the test set.
+   * 
+   * @param sentence a (tokenized) input sentence
+   */
+  public void addSentence(String sentence) {
+    filter.addSentence(sentence);
+    lastSourceSide = null;
+  }
+
   /**
    * Top-level filter, responsible for calling the fast or exact version. Takes the source side
    * of a rule and determines whether there is any sentence in the test set that can match it.
@@ -18,6 +18,8 @@
  */
 package org.apache.joshua.util;
 
+import java.util.Arrays;
+
 /**
  * CKY-based decoding makes extensive use of charts, which maintain information about spans (i, j)
  * over the length-n input sentence, 0 &lt;= i &lt;= j &lt;= n. These charts are used for many things; for
@@ -52,6 +54,24 @@ public class ChartSpan<Type> {
       chart[i] = defaultValue;
   }
   
+  /**
+   * Returns the largest span end the chart can hold.
+   * 
+   * @return the width the chart was created with
+   */
+  public int getMax() {
+    return max;
+  }
+
+  /**
+   * Sets every span of the chart to the same value, so that the chart can be reused.
+   * 
+   * @param value the value to store everywhere
+   */
+  public void fill(Type value) {
+    Arrays.fill(chart, value);
+  }
+
   @SuppressWarnings("unchecked")
   public Type get(int i, int j) {
     return (Type) chart[offset(i, j)];
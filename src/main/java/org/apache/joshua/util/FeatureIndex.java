@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the feature names seen by the tuners (PRO, MIRA and AdaGrad), which index their weight
+ * vectors by these numbers. The names of the parameter file are numbered from 1 in the order they
+ * are listed, and sparse features are appended as they are first seen in the n-best lists.
+ * 
+ * The tuners used to keep these numbers in the decoder's
+ * {@link org.apache.joshua.corpus.Vocabulary}, which only works as long as no decoder shares the
+ * JVM with them: loading one clears the vocabulary and fills it with the words of the models.
+ */
+public class FeatureIndex {
+
+  private static final List<String> idToName = new ArrayList<>();
+  private static final Map<String, Integer> nameToId = new HashMap<>();
+
+  static {
+    clear();
+  }
+
+  /**
+   * @param name a feature name
+   * @return the number of the feature, which is assigned if it wasn't seen before
+   */
+  public static synchronized int id(String name) {
+    Integer id = nameToId.get(name);
+    if (id == null) {
+      id = idToName.size();
+      idToName.add(name);
+      nameToId.put(name, id);
+    }
+    return id;
+  }
+
+  /**
+   * @param id the number of a feature
+   * @return the name of the feature
+   */
+  public static synchronized String name(int id) {
+    return idToName.get(id);
+  }
+
+  /**
+   * @return the number of features, which is also the highest feature number plus one
+   */
+  public static synchronized int size() {
+    return idToName.size();
+  }
+
+  /**
+   * Forgets all features. Number 0 is reserved, so that the features are numbered from 1.
+   */
+  public static synchronized void clear() {
+    idToName.clear();
+    nameToId.clear();
+    idToName.add("");
+  }
+}
@@ -20,6 +20,8 @@ package org.apache.joshua.util;
 
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import org.apache.joshua.corpus.Vocabulary;
@@ -152,6 +154,69 @@ public class FormatUtils {
     return s.replaceAll("<s> ", "").replace(" </s>", "");
   }
 
+  /**
+   * Splits a grammar line into its fields. This is a regex-free equivalent of
+   * <code>line.split(Constants.fieldDelimiter)</code>, and is used in the grammar readers, where
+   * it is called once per rule.
+   * 
+   * @param line a line of a grammar file
+   * @return the fields, with trailing empty fields removed
+   */
+  public static String[] splitFields(String line) {
+    List<String> fields = new ArrayList<>();
+    int start = 0;
+    int i = 0;
+    while (i + 4 < line.length()) {
+      if (isWhitespace(line.charAt(i)) && line.charAt(i + 1) == '|' && line.charAt(i + 2) == '|'
+          && line.charAt(i + 3) == '|' && isWhitespace(line.charAt(i + 4))) {
+        fields.add(line.substring(start, i));
+        start = i + 5;
+        i = start;
+      } else {
+        i++;
+      }
+    }
+    if (fields.isEmpty())
+      return new String[] { line };
+    fields.add(line.substring(start));
+    return trimTrailingEmpty(fields);
+  }
+
+  /**
+   * Splits a string on runs of whitespace. This is a regex-free equivalent of
+   * <code>s.split("\\s+")</code>.
+   * 
+   * @param s the string to split
+   * @return the tokens, with a leading empty token if the string starts with whitespace
+   */
+  public static String[] splitSpaces(String s) {
+    List<String> tokens = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      if (isWhitespace(s.charAt(i))) {
+        if (i > start || i == 0)
+          tokens.add(s.substring(start, i));
+        start = i + 1;
+      }
+    }
+    if (tokens.isEmpty())
+      return new String[] { s };
+    tokens.add(s.substring(start));
+    return trimTrailingEmpty(tokens);
+  }
+
+  /* The characters matched by \s in a regular expression. */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+  }
+
+  private static String[] trimTrailingEmpty(List<String> tokens) {
+    int size = tokens.size();
+    while (size > 0 && tokens.get(size - 1).isEmpty())
+      size--;
+    return tokens.subList(0, size).toArray(new String[size]);
+  }
+
   /**
    * Returns true if the String parameter represents a valid number.
    * <p>
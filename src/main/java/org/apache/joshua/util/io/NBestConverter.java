@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util.io;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts n-best lists between the text and binary formats. The input format (and compression)
+ * is detected automatically.
+ * 
+ * Usage: java NBestConverter -binary|-text [input [output]] (default to stdin/stdout)
+ * 
+ * Lists written by the decoder survive the round trip unchanged. For other text lists, feature
+ * values and scores come back printed with three decimal places and runs of whitespace in the
+ * candidate collapsed to single spaces.
+ */
+public class NBestConverter {
+
+  /**
+   * Copies an n-best list to the binary format.
+   * 
+   * @param in the list to read
+   * @param out where to write it
+   * @return the number of entries copied
+   * @throws IOException if there is an error reading or writing
+   */
+  public static int toBinary(NBestReader in, OutputStream out) throws IOException {
+    int count = 0;
+    NBestWriter writer = new NBestWriter(out);
+    for (NBestEntry entry : in) {
+      writer.write(entry);
+      count++;
+    }
+    writer.close();
+    return count;
+  }
+
+  /**
+   * Copies an n-best list to the text format.
+   * 
+   * @param in the list to read
+   * @param out where to write it
+   * @return the number of entries copied
+   * @throws IOException if there is an error reading or writing
+   */
+  public static int toText(NBestReader in, OutputStream out) throws IOException {
+    int count = 0;
+    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    for (NBestEntry entry : in) {
+      writer.write(entry.toString());
+      writer.write("\n");
+      count++;
+    }
+    writer.close();
+    return count;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 3
+        || !(args[0].equals("-binary") || args[0].equals("-text"))) {
+      System.err.println("Usage: NBestConverter -binary|-text [input [output]]\n       (default to stdin/stdout)");
+      System.exit(1);
+    }
+
+    NBestReader in = new NBestReader(args.length > 1 ? args[1] : "-");
+    OutputStream out = (args.length > 2 && !args[2].equals("-"))
+        ? new FileOutputStream(args[2])
+        : System.out;
+
+    if (args[0].equals("-binary"))
+      toBinary(in, out);
+    else
+      toText(in, out);
+    in.close();
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.joshua.decoder.io.OutputFormat;
+
+/**
+ * One entry of an n-best list: the sentence number, the candidate translation, its feature values,
+ * and its model score. This is the unit read by {@link NBestReader} and written by
+ * {@link NBestWriter}, and is the same whether the list was stored as text, in the decoder's
+ * default format
+ * 
+ * <pre>
+ * i ||| words of candidate translation . ||| feat-1=val feat-2=val ... ||| score
+ * </pre>
+ * 
+ * or in the binary format. Entries read from text keep the original strings, which are only split
+ * into words and features if they are asked for; entries read from the binary format (or built
+ * by the decoder) keep the words and features, which are only joined into strings (feature values
+ * and the score printed with three decimal places, as the decoder does) if they are asked for.
+ * Feature names are optional; unnamed features have the empty string as their name.
+ */
+public class NBestEntry {
+
+  private final int sentenceId;
+
+  /* The model score, or NaN if the text entry had none */
+  private final float score;
+
+  private String hypothesis;
+  private String[] words;
+
+  private String features;
+  private String[] featureNames;
+  private float[] featureValues;
+
+  /**
+   * Creates an entry from its text fields.
+   * 
+   * @param sentenceId the (0-indexed) sentence number
+   * @param hypothesis the candidate translation
+   * @param features the feature values, as a string of name=value pairs (or just values)
+   * @param score the model score (NaN if not known)
+   */
+  public NBestEntry(int sentenceId, String hypothesis, String features, float score) {
+    this.sentenceId = sentenceId;
+    this.hypothesis = hypothesis;
+    this.features = features;
+    this.score = score;
+  }
+
+  /**
+   * Creates an entry from the candidate words and feature values.
+   * 
+   * @param sentenceId the (0-indexed) sentence number
+   * @param words the words of the candidate translation
+   * @param featureNames the feature names ("" for unnamed features)
+   * @param featureValues the feature values, parallel to featureNames
+   * @param score the model score (NaN if not known)
+   */
+  public NBestEntry(int sentenceId, String[] words, String[] featureNames, float[] featureValues,
+      float score) {
+    if (featureNames.length != featureValues.length)
+      throw new IllegalArgumentException("feature names and values differ in length");
+    this.sentenceId = sentenceId;
+    this.words = words;
+    this.featureNames = featureNames;
+    this.featureValues = featureValues;
+    this.score = score;
+  }
+
+  /**
+   * Parses a line of a text n-best list. The fields are split the way the tuners always have: the
+   * sentence number, the candidate and the features are the first three "|||"-delimited fields,
+   * and the score is the fourth one, if there is one and it is a number.
+   * 
+   * @param line a line of the form "i ||| candidate ||| features [||| score ...]"
+   * @return the entry
+   * @throws IllegalArgumentException if the line doesn't have at least three fields
+   */
+  public static NBestEntry parse(String line) {
+    int first = line.indexOf("|||");
+    int second = first < 0 ? -1 : line.indexOf("|||", first + 3);
+    if (second < 0)
+      throw new IllegalArgumentException("Malformed n-best line: '" + line + "'");
+
+    int sentenceId = Integer.parseInt(line.substring(0, first).trim());
+    String hypothesis = line.substring(first + 3, second).trim();
+
+    String features = line.substring(second + 3);
+    float score = Float.NaN;
+    int third = features.indexOf("|||");
+    if (third >= 0) {
+      String rest = features.substring(third + 3);
+      int fourth = rest.indexOf("|||");
+      try {
+        score = Float.parseFloat((fourth >= 0 ? rest.substring(0, fourth) : rest).trim());
+      } catch (NumberFormatException e) {
+        // not a score
+      }
+      features = features.substring(0, third);
+    }
+
+    return new NBestEntry(sentenceId, hypothesis, features.trim(), score);
+  }
+
+  public int getSentenceId() {
+    return sentenceId;
+  }
+
+  /**
+   * @return the model score, or NaN if it isn't known
+   */
+  public float getScore() {
+    return score;
+  }
+
+  /**
+   * @return the candidate translation
+   */
+  public String getHypothesis() {
+    if (hypothesis == null)
+      hypothesis = String.join(" ", words);
+    return hypothesis;
+  }
+
+  /**
+   * @return the words of the candidate translation
+   */
+  public String[] getWords() {
+    if (words == null)
+      words = hypothesis.isEmpty() ? new String[0] : hypothesis.split("\\s+");
+    return words;
+  }
+
+  /**
+   * @return the features, as a string of name=value pairs
+   */
+  public String getFeatures() {
+    if (features == null) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < featureNames.length; i++) {
+        if (i > 0)
+          sb.append(' ');
+        if (!featureNames[i].isEmpty())
+          sb.append(featureNames[i]).append('=');
+        sb.append(OutputFormat.formatScore(featureValues[i]));
+      }
+      features = sb.toString();
+    }
+    return features;
+  }
+
+  /**
+   * @return the feature names, in order ("" for unnamed features)
+   */
+  public String[] getFeatureNames() {
+    splitFeatures();
+    return featureNames;
+  }
+
+  /**
+   * @return the feature values, parallel to {@link #getFeatureNames()}
+   */
+  public float[] getFeatureValues() {
+    splitFeatures();
+    return featureValues;
+  }
+
+  /*
+   * Splits the features string. Both "name=value" and Moses' "name= value" are understood; tokens
+   * without a '=' are unnamed values.
+   */
+  private void splitFeatures() {
+    if (featureNames != null)
+      return;
+
+    List<String> names = new ArrayList<>();
+    List<Float> values = new ArrayList<>();
+    String[] tokens = features.isEmpty() ? new String[0] : features.split("\\s+");
+    for (int i = 0; i < tokens.length; i++) {
+      String token = tokens[i];
+      int equals = token.lastIndexOf('=');
+      if (equals < 0) {
+        names.add("");
+        values.add(Float.parseFloat(token));
+      } else if (equals == token.length() - 1 && i + 1 < tokens.length) {
+        names.add(token.substring(0, equals));
+        values.add(Float.parseFloat(tokens[++i]));
+      } else {
+        names.add(token.substring(0, equals));
+        values.add(Float.parseFloat(token.substring(equals + 1)));
+      }
+    }
+
+    featureNames = names.toArray(new String[0]);
+    featureValues = new float[values.size()];
+    for (int i = 0; i < featureValues.length; i++)
+      featureValues[i] = values.get(i);
+  }
+
+  /**
+   * @return the entry as a line of a text n-best list (without the newline)
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(sentenceId).append(" ||| ").append(getHypothesis()).append(" ||| ").append(getFeatures());
+    if (!Float.isNaN(score))
+      sb.append(" ||| ").append(OutputFormat.formatScore(score));
+    return sb.toString();
+  }
+}
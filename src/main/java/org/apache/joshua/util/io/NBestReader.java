@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads an n-best list one {@link NBestEntry} at a time. This is shared by the tuners (MERT, PRO,
+ * MIRA, and AdaGrad), which read the decoder's n-best output on every iteration. The format is
+ * detected from the contents of the file: it can be text (one "i ||| candidate ||| features |||
+ * score" line per entry; blank lines and lines without "|||" are skipped) or binary (see
+ * {@link NBestWriter}), and either can be GZIP'd.
+ */
+public class NBestReader implements Reader<NBestEntry> {
+
+  /* Exactly one of these is set, depending on the format */
+  private BufferedReader text;
+  private DataInputStream binary;
+
+  /* The binary format's word and feature vocabularies */
+  private final ArrayList<String> words = new ArrayList<>();
+  private final ArrayList<String> features = new ArrayList<>();
+
+  private NBestEntry buffer = null;
+
+  /**
+   * Opens an n-best list.
+   * 
+   * @param filename the file to read ("-" for STDIN)
+   * @throws IOException if the file can't be opened
+   */
+  public NBestReader(String filename) throws IOException {
+    this(filename.equals("-")
+        ? new FileInputStream(FileDescriptor.in)
+        : new FileInputStream(filename));
+  }
+
+  /**
+   * Reads an n-best list from a stream.
+   * 
+   * @param in the stream
+   * @throws IOException if there is an error reading the start of the stream
+   */
+  public NBestReader(InputStream in) throws IOException {
+    BufferedInputStream stream = new BufferedInputStream(in, 1 << 16);
+    stream.mark(2);
+    if (stream.read() == 0x1f && stream.read() == 0x8b) {
+      stream.reset();
+      stream = new BufferedInputStream(new GZIPInputStream(stream, 1 << 16), 1 << 16);
+    } else {
+      stream.reset();
+    }
+
+    stream.mark(4);
+    DataInputStream data = new DataInputStream(stream);
+    int magic;
+    try {
+      magic = data.readInt();
+    } catch (EOFException e) {
+      magic = 0;
+    }
+    if (magic == NBestWriter.MAGIC) {
+      binary = data;
+    } else {
+      stream.reset();
+      text = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * @return whether the list being read is in the binary format
+   */
+  public boolean isBinary() {
+    return binary != null;
+  }
+
+  @Override
+  public NBestEntry readLine() throws IOException {
+    if (buffer != null) {
+      NBestEntry entry = buffer;
+      buffer = null;
+      return entry;
+    }
+    return binary != null ? readBinary() : readText();
+  }
+
+  private NBestEntry readText() throws IOException {
+    String line;
+    while ((line = text.readLine()) != null) {
+      if (line.contains("|||"))
+        return NBestEntry.parse(line);
+    }
+    return null;
+  }
+
+  private NBestEntry readBinary() throws IOException {
+    while (true) {
+      int tag = binary.read();
+      switch (tag) {
+      case -1:
+        return null;
+      case NBestWriter.WORD:
+        words.add(binary.readUTF());
+        break;
+      case NBestWriter.FEATURE:
+        features.add(binary.readUTF());
+        break;
+      case NBestWriter.ENTRY:
+        int sentenceId = readVarInt(binary);
+        String[] hypothesis = new String[readVarInt(binary)];
+        for (int i = 0; i < hypothesis.length; i++)
+          hypothesis[i] = words.get(readVarInt(binary));
+        String[] names = new String[readVarInt(binary)];
+        float[] values = new float[names.length];
+        for (int i = 0; i < names.length; i++) {
+          names[i] = features.get(readVarInt(binary));
+          values[i] = binary.readFloat();
+        }
+        return new NBestEntry(sentenceId, hypothesis, names, values, binary.readFloat());
+      default:
+        throw new IOException("Corrupt binary n-best list: unknown record type " + tag);
+      }
+    }
+  }
+
+  static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IOException("Corrupt binary n-best list: malformed integer");
+  }
+
+  @Override
+  public boolean ready() throws IOException {
+    return buffer != null || (binary != null ? binary.available() > 0 : text.ready());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (binary != null)
+      binary.close();
+    if (text != null)
+      text.close();
+  }
+
+  @Override
+  public Iterator<NBestEntry> iterator() {
+    return this;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (buffer == null) {
+      try {
+        buffer = readLine();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return buffer != null;
+  }
+
+  @Override
+  public NBestEntry next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    NBestEntry entry = buffer;
+    buffer = null;
+    return entry;
+  }
+}
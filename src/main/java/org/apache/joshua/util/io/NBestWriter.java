@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+/**
+ * Writes n-best lists in a compact binary format, which {@link NBestReader} reads back without
+ * any of the string splitting and number parsing needed for the text format.
+ * 
+ * The format is for storing and moving n-best lists: it is smaller than the text format, and
+ * quicker to read into words and feature values. It does not make tuning faster. The tuners write
+ * their temp files from the candidate and feature strings, which have to be rebuilt from a binary
+ * entry and are slower to get from it than from a text line.
+ * 
+ * The file starts with the four bytes "JNB1", followed by a sequence of records, each introduced
+ * by a one-byte tag:
+ * 
+ * <ul>
+ * <li>WORD (1): a word (modified UTF-8, as written by {@link DataOutputStream#writeUTF(String)}),
+ * which is assigned the next word id, counting from 0</li>
+ * <li>FEATURE (2): a feature name, which is assigned the next feature id, counting from 0</li>
+ * <li>ENTRY (3): an n-best entry: the sentence number, the number of words and their ids, the
+ * number of features and their (id, float value) pairs, and the float score</li>
+ * </ul>
+ * 
+ * Integers are written as unsigned variable-length quantities (7 bits per byte, low bits first);
+ * floats as four big-endian bytes. Each word and feature name is defined just before the first
+ * entry that uses it, so the format can be written and read as a stream.
+ */
+public class NBestWriter implements Flushable, Closeable {
+
+  static final int MAGIC = ('J' << 24) | ('N' << 16) | ('B' << 8) | '1';
+
+  static final int WORD = 1;
+  static final int FEATURE = 2;
+  static final int ENTRY = 3;
+
+  private final DataOutputStream out;
+
+  private final HashMap<String, Integer> wordIds = new HashMap<>();
+  private final HashMap<String, Integer> featureIds = new HashMap<>();
+
+  public NBestWriter(String filename) throws IOException {
+    this(new FileOutputStream(filename));
+  }
+
+  public NBestWriter(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+    this.out.writeInt(MAGIC);
+  }
+
+  /**
+   * Appends an entry to the list.
+   * 
+   * @param entry the entry
+   * @throws IOException if there is an error writing
+   */
+  public void write(NBestEntry entry) throws IOException {
+    String[] words = entry.getWords();
+    int[] wordList = new int[words.length];
+    for (int i = 0; i < words.length; i++)
+      wordList[i] = id(words[i], wordIds, WORD);
+
+    String[] names = entry.getFeatureNames();
+    int[] featureList = new int[names.length];
+    for (int i = 0; i < names.length; i++)
+      featureList[i] = id(names[i], featureIds, FEATURE);
+
+    float[] values = entry.getFeatureValues();
+    out.writeByte(ENTRY);
+    writeVarInt(out, entry.getSentenceId());
+    writeVarInt(out, wordList.length);
+    for (int word : wordList)
+      writeVarInt(out, word);
+    writeVarInt(out, featureList.length);
+    for (int i = 0; i < featureList.length; i++) {
+      writeVarInt(out, featureList[i]);
+      out.writeFloat(values[i]);
+    }
+    out.writeFloat(entry.getScore());
+  }
+
+  /* Returns the id of a word or feature name, first defining it in the output if it's new */
+  private int id(String key, HashMap<String, Integer> ids, int tag) throws IOException {
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = ids.size();
+      ids.put(key, id);
+      out.writeByte(tag);
+      out.writeUTF(key);
+    }
+    return id;
+  }
+
+  static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    if (value < 0)
+      throw new IllegalArgumentException("negative value " + value);
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -39,6 +39,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.TreeSet;
@@ -50,11 +51,13 @@ import java.util.concurrent.Semaphore;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import org.apache.joshua.decoder.Decoder;
 import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.TuningDecoder;
 import org.apache.joshua.metrics.EvaluationMetric;
 import org.apache.joshua.util.StreamGobbler;
 import org.apache.joshua.util.io.ExistingUTF8EncodedTextFile;
+import org.apache.joshua.util.io.NBestEntry;
+import org.apache.joshua.util.io.NBestReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -165,7 +168,7 @@ public class MertCore {
   /* *********************************************************** */
   /* *********************************************************** */
 
-  private Decoder myDecoder;
+  private TuningDecoder myDecoder;
   // COMMENT OUT if decoder is not Joshua
 
   private String decoderCommand;
@@ -488,7 +491,8 @@ public class MertCore {
 
     if (decoderCommand == null && fakeFileNameTemplate == null) {
       println("Loading Joshua decoder...", 1);
-      myDecoder = new Decoder(joshuaConfiguration, decoderConfigFileName + ".ZMERT.orig");
+      myDecoder = new TuningDecoder(joshuaConfiguration, decoderConfigFileName + ".ZMERT.orig",
+          sourceFileName, sizeOfNBest);
       println("...finished loading @ " + (new Date()), 1);
       println("");
     } else {
@@ -668,15 +672,22 @@ public class MertCore {
       // 2: fake decoder
       // 3: internal decoder
 
-      if (!decRunResult[1].equals("2")) {
+      if (decRunResult[1].equals("3")) {
+        // the internal decoder decodes as its n-best lists are read
+        println("Producing temp files for iteration " + iteration, 3);
+        produceTempFiles(myDecoder.decode(), iteration);
         println("...finished decoding @ " + (new Date()), 1);
-      }
+      } else {
+        if (!decRunResult[1].equals("2")) {
+          println("...finished decoding @ " + (new Date()), 1);
+        }
 
-      checkFile(decRunResult[0]);
+        checkFile(decRunResult[0]);
 
-      println("Producing temp files for iteration " + iteration, 3);
+        println("Producing temp files for iteration " + iteration, 3);
 
-      produceTempFiles(decRunResult[0], iteration);
+        produceTempFiles(decRunResult[0], iteration);
+      }
 
       if (saveInterFiles == 1 || saveInterFiles == 3) { // make copy of intermediate config file
         if (!copyFile(decoderConfigFileName, decoderConfigFileName + ".ZMERT.it" + iteration)) {
@@ -687,7 +698,7 @@ public class MertCore {
       if (saveInterFiles == 2 || saveInterFiles == 3) { // make copy of intermediate decoder output
                                                         // file...
 
-        if (!decRunResult[1].equals("2")) { // ...but only if no fake decoder
+        if (decRunResult[1].equals("1")) { // ...but only if an external decoder wrote it
           if (!decRunResult[0].endsWith(".gz")) {
             if (!copyFile(decRunResult[0], decRunResult[0] + ".ZMERT.it" + iteration)) {
               println("Warning: attempt to make copy of decoder output file (to create"
@@ -1445,6 +1456,13 @@ public class MertCore {
       retSA[0] = fakeFileName;
       retSA[1] = "2";
 
+    } else if (myDecoder != null) {
+      // the n-best lists are read from myDecoder in produceTempFiles()
+      println("Running internal decoder...", 1);
+      myDecoder.setWeights(currentWeights());
+      retSA[0] = null;
+      retSA[1] = "3";
+
     } else {
       println("Running external decoder...", 1);
 
@@ -1481,7 +1499,27 @@ public class MertCore {
 
   }
 
+  /**
+   * @return the current weights, by feature name, for the internal decoder
+   */
+  private Map<String, Float> currentWeights() {
+    Map<String, Float> weights = new HashMap<>();
+    for (int c = 1; c <= numParams; ++c)
+      weights.put(paramNames[c], (float) lambda[c]);
+    return weights;
+  }
+
   private void produceTempFiles(String nbestFileName, int iteration) {
+    try {
+      NBestReader inFile_nbest = new NBestReader(nbestFileName);
+      produceTempFiles(inFile_nbest, iteration);
+      inFile_nbest.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void produceTempFiles(Iterable<NBestEntry> nbest, int iteration) {
     try {
       String sentsFileName = tmpDirPrefix + "temp.sents.it" + iteration;
       String featsFileName = tmpDirPrefix + "temp.feats.it" + iteration;
@@ -1492,67 +1530,32 @@ public class MertCore {
 
       PrintWriter outFile_feats = new PrintWriter(featsFileName);
 
-
-      InputStream inStream_nbest = null;
-      if (nbestFileName.endsWith(".gz")) {
-        inStream_nbest = new GZIPInputStream(new FileInputStream(nbestFileName));
-      } else {
-        inStream_nbest = new FileInputStream(nbestFileName);
-      }
-      BufferedReader inFile_nbest =
-          new BufferedReader(new InputStreamReader(inStream_nbest, "utf8"));
-
-      String line; // , prevLine;
-      String candidate_str = "";
-      String feats_str = "";
-
       int i = 0;
       int n = 0;
-      line = inFile_nbest.readLine();
-
-      while (line != null) {
-
-        // skip blank lines
-        if (line.equals("")) continue;
 
-        // skip lines that aren't formatted correctly
-        if (!line.contains("|||"))
-          continue;
+      for (NBestEntry entry : nbest) {
 
         /*
-         * line format:
+         * entry format (the reader takes plain, GZIP'd, or binary n-best lists):
          *
          * i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numParams_val
          * .*
          *
-         * Updated September 2012: features can now be named (for sparse feature compatibility).
-         * You must name all features or none of them.
+         * Features can be named (for sparse feature compatibility). You must name all features or
+         * none of them.
          */
 
         // in a well formed file, we'd find the nth candidate for the ith sentence
 
-        int read_i = Integer.parseInt((line.substring(0, line.indexOf("|||"))).trim());
-
-        if (read_i != i) {
+        if (entry.getSentenceId() != i) {
           writeLine("||||||", outFile_sents);
           outFile_feats.println("||||||");
           n = 0;
           ++i;
         }
 
-        line = (line.substring(line.indexOf("|||") + 3)).trim(); // get rid of initial text
-
-        candidate_str = (line.substring(0, line.indexOf("|||"))).trim();
-        feats_str = (line.substring(line.indexOf("|||") + 3)).trim();
-        // get rid of candidate string
-
-        int junk_i = feats_str.indexOf("|||");
-        if (junk_i >= 0) {
-          feats_str = (feats_str.substring(0, junk_i)).trim();
-        }
-
-        writeLine(normalize(candidate_str, textNormMethod), outFile_sents);
-        outFile_feats.println(feats_str);
+        writeLine(normalize(entry.getHypothesis(), textNormMethod), outFile_sents);
+        outFile_feats.println(entry.getFeatures());
 
         ++n;
         if (n == sizeOfNBest) {
@@ -1561,8 +1564,6 @@ public class MertCore {
           n = 0;
           ++i;
         }
-
-        line = inFile_nbest.readLine();
       }
 
       if (i != numSentences) { // last sentence had too few candidates
@@ -1570,7 +1571,6 @@ public class MertCore {
         outFile_feats.println("||||||");
       }
 
-      inFile_nbest.close();
       outFile_sents.close();
       outFile_feats.close();
 
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program measures the cost of producing k-best output (1000-best by default) under a few
+ * output formats. Each sentence is decoded once with top-n 0 to time the search alone, and then
+ * with k-best output for each format; the difference is the time spent extracting and formatting
+ * the k-best lists. Formats without %f or %d don't need the features to be replayed, so for those
+ * the time is mostly formatting.
+ *
+ * Usage: java OutputFormatBenchmark CONFIG INPUT [TOP-N] [REPEATS]
+ */
+public class OutputFormatBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OutputFormatBenchmark.class);
+
+  private static final String[] FORMATS = {
+      "%i ||| %s ||| %f ||| %c",
+      "%i ||| %s ||| %c",
+      "%s",
+  };
+
+  private final JoshuaConfiguration config;
+  private final Decoder decoder;
+
+  public OutputFormatBenchmark(String configFile) throws IOException {
+    config = new JoshuaConfiguration();
+    config.readConfigFile(configFile);
+    decoder = new Decoder(config, configFile);
+  }
+
+  /**
+   * Decodes the input on this thread and returns the time taken.
+   * 
+   * @param input the input sentences
+   * @param repeats how many times to decode the input
+   * @param topN the size of the k-best list (0 for Viterbi output only)
+   * @param format the output format
+   * @return the time taken, in milliseconds, and the number of output bytes
+   */
+  public long[] decode(List<String> input, int repeats, int topN, String format) {
+    config.topN = topN;
+    config.outputFormat = format;
+    long bytes = 0;
+    long start = System.currentTimeMillis();
+    for (int r = 0; r < repeats; r++)
+      for (int i = 0; i < input.size(); i++)
+        bytes += decoder.decode(new Sentence(input.get(i), i, config)).toString().length();
+    return new long[] { System.currentTimeMillis() - start, bytes };
+  }
+
+  public static void main(String args[]) throws IOException {
+    List<String> input = Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8);
+    int topN = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    int repeats = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+    OutputFormatBenchmark benchmark = new OutputFormatBenchmark(args[0]);
+    benchmark.decode(input, 1, topN, FORMATS[0]); // warm-up
+
+    long search = benchmark.decode(input, repeats, 0, "%s")[0];
+    LOG.info("search only: {} ms", search);
+    for (String format : FORMATS) {
+      long[] result = benchmark.decode(input, repeats, topN, format);
+      LOG.info("{}-best '{}': {} ms total, {} ms beyond search, {} KB output", topN, format,
+          result[0], result[0] - search, result[1] / 1024 / repeats);
+    }
+
+    benchmark.decoder.cleanUp();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program decodes a test set repeatedly on a single thread, with and without reusable search
+ * arenas (see {@link org.apache.joshua.decoder.chart_parser.SearchArena}), and reports for each
+ * setting the bytes allocated per sentence by the decoding thread, the number of garbage
+ * collections and the decoding time. It works with both chart and phrase-based configurations.
+ *
+ * Usage: java SearchArenaBenchmark CONFIG INPUT [REPEATS]
+ */
+public class SearchArenaBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SearchArenaBenchmark.class);
+
+  private final JoshuaConfiguration config;
+  private final Decoder decoder;
+
+  public SearchArenaBenchmark(String configFile) throws IOException {
+    config = new JoshuaConfiguration();
+    config.readConfigFile(configFile);
+    decoder = new Decoder(config, configFile);
+  }
+
+  /**
+   * Decodes the input on this thread.
+   * 
+   * @param input the input sentences
+   * @param repeats how many times to decode the input
+   * @param reuse whether to reuse search arenas
+   */
+  public void decode(List<String> input, int repeats, boolean reuse) {
+    config.reuse_search_arenas = reuse;
+    for (int r = 0; r < repeats; r++)
+      for (int i = 0; i < input.size(); i++)
+        decoder.decode(new Sentence(input.get(i), i, config)).toString();
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static long collections() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      count += Math.max(0, gc.getCollectionCount());
+    return count;
+  }
+
+  public static void main(String args[]) throws IOException {
+    List<String> input = Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8);
+    int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+    SearchArenaBenchmark benchmark = new SearchArenaBenchmark(args[0]);
+    benchmark.decode(input, 1, true); // warm-up
+    benchmark.decode(input, 1, false);
+
+    for (boolean reuse : new boolean[] { false, true }) {
+      System.gc();
+      long bytes = allocatedBytes();
+      long gcs = collections();
+      long start = System.currentTimeMillis();
+      benchmark.decode(input, repeats, reuse);
+      long time = System.currentTimeMillis() - start;
+      bytes = allocatedBytes() - bytes;
+      gcs = collections() - gcs;
+
+      int sentences = repeats * input.size();
+      LOG.info("reuse-search-arenas {}: {} KB allocated per sentence, {} collections, {} ms",
+          reuse, bytes / 1024 / sentences, gcs, time);
+    }
+
+    benchmark.decoder.cleanUp();
+  }
+}
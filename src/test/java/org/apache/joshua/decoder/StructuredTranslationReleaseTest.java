@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the lazy fields of a StructuredTranslation are computed at most once, and that
+ * releasing it computes only the fields its request asked for.
+ */
+public class StructuredTranslationReleaseTest {
+
+  private AtomicInteger alignmentCalls;
+  private AtomicInteger featureCalls;
+
+  @BeforeMethod
+  public void setUp() {
+    alignmentCalls = new AtomicInteger();
+    featureCalls = new AtomicInteger();
+  }
+
+  private StructuredTranslation translation(Sentence sentence) {
+    return new StructuredTranslation(sentence, "a b", 1.0f,
+        () -> {
+          alignmentCalls.incrementAndGet();
+          List<List<Integer>> alignment = singletonList(singletonList(0));
+          return alignment;
+        },
+        () -> {
+          featureCalls.incrementAndGet();
+          Map<String, Float> features = singletonMap("f", 2.0f);
+          return features;
+        },
+        0.0f);
+  }
+
+  @Test
+  public void givenADefaultRequest_whenReleasing_thenFieldsAreComputedOnceAndKept() {
+    // GIVEN
+    StructuredTranslation translation =
+        translation(new Sentence("x y", 0, new JoshuaConfiguration()));
+    translation.getTranslationFeatures();
+
+    // WHEN
+    translation.release();
+
+    // THEN
+    assertEquals(translation.getTranslationWordAlignments(), singletonList(singletonList(0)));
+    assertEquals(translation.getTranslationFeatures(), singletonMap("f", 2.0f));
+    assertEquals(alignmentCalls.get(), 1);
+    assertEquals(featureCalls.get(), 1);
+  }
+
+  @Test
+  public void givenFieldsTurnedOff_whenReleasing_thenTheyAreNeverComputed() {
+    // GIVEN
+    Sentence sentence = new Sentence("x y", 0, new JoshuaConfiguration());
+    sentence.withFeatures = false;
+    sentence.withAlignments = false;
+    StructuredTranslation translation = translation(sentence);
+
+    // WHEN
+    translation.release();
+
+    // THEN
+    assertTrue(translation.getTranslationWordAlignments().isEmpty());
+    assertTrue(translation.getTranslationFeatures().isEmpty());
+    assertEquals(alignmentCalls.get(), 0);
+    assertEquals(featureCalls.get(), 0);
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.joshua.util.io.NBestEntry;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TuningDecoderTest {
+
+  private Path dir;
+  private String source;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("tuning-decoder");
+    Files.write(dir.resolve("grammar"), Arrays.asList(
+        "[X] ||| a ||| x ||| 1 2",
+        "[X] ||| a ||| y ||| 2 1",
+        "[X] ||| b ||| z ||| 0 0"), StandardCharsets.UTF_8);
+    Files.write(dir.resolve("source"), Arrays.asList("a b", "b a"), StandardCharsets.UTF_8);
+    source = dir.resolve("source").toString();
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    for (File file : dir.toFile().listFiles())
+      file.delete();
+    Files.delete(dir);
+  }
+
+  /* The grammar's path is relative, so it must be resolved against the config file's directory */
+  private String writeConfig(float tm0, float tm1, String... options) throws IOException {
+    Path config = dir.resolve("joshua.config");
+    List<String> lines = new ArrayList<>(Arrays.asList(options));
+    lines.addAll(Arrays.asList(
+        "tm = thrax -owner pt -maxspan 20 -path grammar",
+        "tm = thrax -owner glue -maxspan -1 -path "
+            + new File("src/test/resources/grammar.glue").getAbsolutePath(),
+        "goal-symbol = [GOAL]",
+        "default-non-terminal = [X]",
+        "mark-oovs = false",
+        "feature-function = OOVPenalty",
+        "use-unique-nbest = true",
+        "tm_pt_0 " + tm0,
+        "tm_pt_1 " + tm1,
+        "tm_glue_0 1",
+        "OOVPenalty 1"));
+    Files.write(config, lines, StandardCharsets.UTF_8);
+    return config.toString();
+  }
+
+  private static List<String> decode(TuningDecoder decoder) {
+    List<String> nbest = new ArrayList<>();
+    for (NBestEntry entry : decoder.decode())
+      nbest.add(entry.toString());
+    return nbest;
+  }
+
+  @Test
+  public void givenTuningSet_whenDecoding_thenNBestListsAreInSentenceOrder() throws IOException {
+    TuningDecoder decoder =
+        new TuningDecoder(new JoshuaConfiguration(), writeConfig(1, 0), source, 2);
+    try {
+      List<String> nbest = decode(decoder);
+      assertEquals(nbest.size(), 4);
+      assertEquals(nbest.get(0).split(" \\|\\|\\| ")[0], "0");
+      assertEquals(nbest.get(0).split(" \\|\\|\\| ")[1], "x z");
+      assertEquals(nbest.get(1).split(" \\|\\|\\| ")[1], "y z");
+      assertEquals(nbest.get(2).split(" \\|\\|\\| ")[0], "1");
+      assertEquals(nbest.get(2).split(" \\|\\|\\| ")[1], "z x");
+    } finally {
+      decoder.cleanUp();
+    }
+  }
+
+  @Test
+  public void givenNewWeights_whenDecodingAgain_thenOutputMatchesReloadedDecoder()
+      throws IOException {
+    TuningDecoder decoder =
+        new TuningDecoder(new JoshuaConfiguration(), writeConfig(1, 0), source, 2);
+    List<String> swapped;
+    try {
+      decode(decoder);
+      Map<String, Float> weights = new HashMap<>();
+      weights.put("tm_pt_0", 0.5f);
+      weights.put("tm_pt_1", 2f);
+      decoder.setWeights(weights);
+      swapped = decode(decoder);
+    } finally {
+      decoder.cleanUp();
+    }
+
+    assertEquals(swapped.get(0).split(" \\|\\|\\| ")[1], "y z");
+
+    TuningDecoder reloaded =
+        new TuningDecoder(new JoshuaConfiguration(), writeConfig(0.5f, 2), source, 2);
+    try {
+      assertEquals(swapped, decode(reloaded));
+    } finally {
+      reloaded.cleanUp();
+    }
+  }
+
+  /* With one translation option, only the rule that sorts first for "a" is ever tried */
+  private void assertTunedOutputMatchesReloadedDecoder(String... options) throws IOException {
+    // GIVEN: a decoder that has decoded with weights preferring "x"
+    TuningDecoder decoder =
+        new TuningDecoder(new JoshuaConfiguration(), writeConfig(1, 0, options), source, 2);
+    List<String> tuned;
+    try {
+      decode(decoder);
+
+      // WHEN: the weights change to prefer "y"
+      Map<String, Float> weights = new HashMap<>();
+      weights.put("tm_pt_0", 0.5f);
+      weights.put("tm_pt_1", 2f);
+      decoder.setWeights(weights);
+      tuned = decode(decoder);
+    } finally {
+      decoder.cleanUp();
+    }
+
+    // THEN
+    TuningDecoder reloaded =
+        new TuningDecoder(new JoshuaConfiguration(), writeConfig(0.5f, 2, options), source, 2);
+    try {
+      List<String> fresh = decode(reloaded);
+      assertEquals(fresh.get(0).split(" \\|\\|\\| ")[1], "y z");
+      assertEquals(tuned, fresh);
+    } finally {
+      reloaded.cleanUp();
+    }
+  }
+
+  @Test
+  public void givenPrunedSearch_whenWeightsChange_thenRulesAreSortedByTheNewWeights()
+      throws IOException {
+    assertTunedOutputMatchesReloadedDecoder("num-translation-options = 1");
+  }
+
+  @Test
+  public void givenEagerSorting_whenWeightsChange_thenRulesAreSortedByTheNewWeights()
+      throws IOException {
+    assertTunedOutputMatchesReloadedDecoder("num-translation-options = 1", "amortize = false");
+  }
+}
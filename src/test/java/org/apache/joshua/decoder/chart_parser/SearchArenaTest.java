@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.chart_parser;
+
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.util.ChartSpan;
+import org.testng.annotations.Test;
+
+public class SearchArenaTest {
+
+  @Test
+  public void givenReleasedArena_whenAcquiringAgain_thenStructuresAreReusedEmpty() {
+    // GIVEN
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.reuse_search_arenas = true;
+    SearchArena arena = SearchArena.acquire(config);
+    ChartSpan<String> span = arena.span(5);
+    span.set(1, 3, "used");
+    PriorityQueue<Integer> queue = arena.queue();
+    queue.add(1);
+    HashSet<Integer> set = arena.set();
+    set.add(1);
+    arena.recycle(queue);
+    arena.recycle(set);
+    arena.release();
+
+    // WHEN
+    SearchArena reused = SearchArena.acquire(config);
+    ChartSpan<String> smaller = reused.span(3);
+
+    // THEN
+    assertSame(reused, arena);
+    assertSame(smaller, span);
+    assertNull(smaller.get(1, 3));
+    assertSame(reused.queue(), queue);
+    assertTrue(queue.isEmpty());
+    assertSame(reused.set(), set);
+    assertTrue(set.isEmpty());
+    reused.release();
+  }
+
+  @Test
+  public void givenOversizedStructures_whenRecycling_thenTheyAreNotKept() {
+    // GIVEN
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.reuse_search_arenas = true;
+    SearchArena arena = SearchArena.acquire(config);
+    ChartSpan<String> wide = arena.span(SearchArena.MAX_POOLED_WIDTH + 1);
+    HashSet<Integer> set = arena.set();
+    for (int i = 0; i <= SearchArena.MAX_POOLED_ELEMENTS; i++)
+      set.add(i);
+
+    // WHEN
+    arena.recycle(set);
+    arena.release();
+
+    // THEN
+    SearchArena reused = SearchArena.acquire(config);
+    assertSame(reused, arena);
+    assertNotSame(reused.span(SearchArena.MAX_POOLED_WIDTH + 1), wide);
+    assertNotSame(reused.set(), set);
+    reused.release();
+  }
+
+  @Test
+  public void givenMoreArenasThanDecoders_whenReleasing_thenOnlyOneIsKeptPerDecoder() {
+    // GIVEN
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.reuse_search_arenas = true;
+    config.num_parallel_decoders = 1;
+    SearchArena first = SearchArena.acquire(config);
+    SearchArena second = SearchArena.acquire(config);
+
+    // WHEN
+    first.release();
+    second.release();
+
+    // THEN
+    SearchArena reused = SearchArena.acquire(config);
+    SearchArena other = SearchArena.acquire(config);
+    assertSame(reused, first);
+    assertNotSame(other, second);
+    reused.release();
+    other.release();
+  }
+
+  @Test
+  public void givenReuseDisabled_whenAcquiring_thenStructuresAreNew() {
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.reuse_search_arenas = false;
+
+    SearchArena arena = SearchArena.acquire(config);
+    PriorityQueue<Integer> queue = arena.queue();
+    arena.recycle(queue);
+    arena.release();
+
+    SearchArena other = SearchArena.acquire(config);
+    assertNotSame(other, arena);
+    assertNotSame(other.queue(), queue);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class FeatureDeltaTest {
+
+  private static final String CONFIG = "src/test/resources/phrase_decoder/config";
+  private static final String INPUT = "una estrategia republicana para obstaculizar la reelección de Obama";
+
+  private Decoder decoder = null;
+
+  @AfterMethod
+  public void tearDown() {
+    if (decoder != null)
+      decoder.cleanUp();
+    decoder = null;
+  }
+
+  @Test
+  public void givenRepeatedFeatures_whenBuilding_thenValuesAreSummed() {
+    // GIVEN
+    FeatureDelta.Builder builder = new FeatureDelta.Builder();
+    builder.add(2, 1.5f);
+    builder.add("Sparse", 1.0f);
+    builder.add(2, 0.25f);
+    builder.add("Sparse", -3.0f);
+
+    // WHEN
+    FeatureVector features = builder.build().toFeatureVector();
+
+    // THEN
+    assertEquals(features.getDense(2), 1.75f);
+    assertEquals(features.getSparse("Sparse"), -2.0f);
+  }
+
+  private String decode(boolean record) throws IOException {
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.readConfigFile(CONFIG);
+    // The state-minimizing KenLM needs libken
+    config.features.removeIf(feature -> feature.startsWith("StateMinimizingLanguageModel"));
+    config.record_edge_features = record;
+    config.topN = 10;
+    decoder = new Decoder(config, CONFIG);
+
+    String output = decoder.decode(new Sentence(INPUT, 0, config)).toString();
+    decoder.cleanUp();
+    decoder = null;
+    return output;
+  }
+
+  @Test
+  public void givenRecordedEdgeFeatures_whenExtractingKBest_thenFeaturesAreTheSame()
+      throws IOException {
+    String replayed = decode(false);
+    assertTrue(replayed.contains("Distortion="));
+    assertEquals(decode(true), replayed);
+  }
+}
@@ -23,11 +23,18 @@ import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.testng.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.Decoder;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.ff.state_maintenance.DPState;
 import org.apache.joshua.decoder.ff.state_maintenance.NgramDPState;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
+import org.apache.joshua.decoder.hypergraph.HGNode;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -93,4 +100,26 @@ public class LanguageModelFFTest {
     float cost = ff.estimateFutureCost(null, currentState, null);
     assertEquals(cost, score * WEIGHT, 0.0f);
   }
+
+  @Test
+  public void givenTailStates_whenComputingTheStateAlone_thenItMatchesTheScoredState() {
+    // GIVEN: a glue rule joining two nodes, one of them still shorter than the n-gram state
+    int a = Vocabulary.id("a"), b = Vocabulary.id("b"), c = Vocabulary.id("c");
+    Rule rule = new HieroFormatReader().parseLine("[X] ||| [X,1] [X,2] ||| [X,1] c [X,2] ||| 0");
+    List<HGNode> tails = Arrays.asList(
+        new HGNode(0, 1, rule.getLHS(), Arrays.<DPState> asList(
+            new NgramDPState(new int[] { a }, new int[] { b })), null, 0.0f),
+        new HGNode(1, 2, rule.getLHS(), Arrays.<DPState> asList(
+            new NgramDPState(new int[] { a }, new int[] { a })), null, 0.0f));
+
+    ff.reportDenseFeatures(0);
+
+    // WHEN
+    DPState scored = ff.compute(rule, tails, 0, 2, null, null, ff.new ScoreAccumulator());
+    DPState state = ff.computeState(rule, tails, 0, 2, null);
+
+    // THEN
+    assertEquals(state, scored);
+    assertEquals(((NgramDPState) state).getRightLMStateWords(), new int[] { a });
+  }
 }
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
+import org.apache.joshua.decoder.ff.tm.hash_based.MemoryBasedBatchGrammar;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class GrammarUpdateLogTest {
+
+  private File grammarFile;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    Decoder.resetGlobalState();
+    grammarFile = File.createTempFile("custom", ".grammar");
+    Files.write(grammarFile.toPath(), Arrays.asList(
+        "[X] ||| el gato ||| the cat ||| 0.1 0.2"), StandardCharsets.UTF_8);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    for (String suffix : new String[] { "", ".log", ".log.compacting", ".tmp" })
+      new File(grammarFile.getPath() + suffix).delete();
+    Decoder.resetGlobalState();
+  }
+
+  private MemoryBasedBatchGrammar load() throws IOException {
+    return new MemoryBasedBatchGrammar("thrax", grammarFile.getAbsolutePath(), "custom", "[X]", 20,
+        new JoshuaConfiguration());
+  }
+
+  private static Rule parse(String rule) {
+    return new HieroFormatReader().parseLine(rule);
+  }
+
+  private static List<String> targets(Trie root, String... source) {
+    Trie trie = root;
+    for (String word : source) {
+      trie = trie.match(Vocabulary.id(word));
+      if (trie == null)
+        return new ArrayList<>();
+    }
+    List<String> targets = new ArrayList<>();
+    if (trie.hasRules())
+      for (Rule rule : trie.getRuleCollection().getRules())
+        targets.add(rule.getEnglishWords());
+    return targets;
+  }
+
+  @Test
+  public void givenLoadedGrammar_whenAddingRule_thenNewRootHasRuleAndOldRootIsUnchanged()
+      throws IOException {
+    // GIVEN
+    MemoryBasedBatchGrammar grammar = load();
+    Trie before = grammar.getTrieRoot();
+
+    // WHEN
+    try (GrammarUpdateLog log = new GrammarUpdateLog(grammar, grammarFile.getPath(), 100)) {
+      log.addRule(parse("[X] ||| el gato ||| the kitty ||| 0.3 0.4"));
+      log.addRule(parse("[X] ||| la casa ||| the house ||| 0.3 0.4"));
+    }
+
+    // THEN
+    assertEquals(targets(grammar.getTrieRoot(), "el", "gato"), Arrays.asList("the cat", "the kitty"));
+    assertEquals(targets(grammar.getTrieRoot(), "la", "casa"), Arrays.asList("the house"));
+    assertEquals(targets(before, "el", "gato"), Arrays.asList("the cat"));
+    assertNull(before.match(Vocabulary.id("la")));
+  }
+
+  @Test
+  public void givenLoggedUpdates_whenReloading_thenUpdatesAreReplayed() throws IOException {
+    // GIVEN
+    MemoryBasedBatchGrammar grammar = load();
+    try (GrammarUpdateLog log = new GrammarUpdateLog(grammar, grammarFile.getPath(), 100)) {
+      log.addRule(parse("[X] ||| la casa ||| the house ||| 0.3 0.4"));
+      log.addRule(parse("[X] ||| la casa ||| the home ||| 0.3 0.4"));
+      log.removeRule(parse("[X] ||| el gato ||| the cat ||| 0"));
+    }
+
+    // WHEN
+    MemoryBasedBatchGrammar reloaded = load();
+    int numUpdates;
+    try (GrammarUpdateLog log = new GrammarUpdateLog(reloaded, grammarFile.getPath(), 100)) {
+      numUpdates = log.replay();
+    }
+
+    // THEN
+    assertEquals(numUpdates, 3);
+    assertEquals(targets(reloaded.getTrieRoot(), "la", "casa"),
+        Arrays.asList("the house", "the home"));
+    assertTrue(targets(reloaded.getTrieRoot(), "el", "gato").isEmpty());
+  }
+
+  @Test
+  public void givenLoggedUpdates_whenCompacting_thenGrammarFileHasThemAndLogIsEmpty()
+      throws IOException {
+    // GIVEN
+    MemoryBasedBatchGrammar grammar = load();
+    try (GrammarUpdateLog log = new GrammarUpdateLog(grammar, grammarFile.getPath(), 100)) {
+      log.addRule(parse("[X] ||| la casa ||| the house ||| 0.3 0.4"));
+
+      // WHEN
+      log.compact();
+    }
+
+    // THEN
+    assertFalse(new File(grammarFile.getPath() + ".log").exists());
+    assertFalse(new File(grammarFile.getPath() + ".log.compacting").exists());
+    MemoryBasedBatchGrammar reloaded = load();
+    assertEquals(reloaded.getNumRules(), 2);
+    assertEquals(targets(reloaded.getTrieRoot(), "la", "casa"), Arrays.asList("the house"));
+  }
+
+  @Test
+  public void givenInterruptedCompaction_whenReplaying_thenRulesAreNotDuplicated()
+      throws IOException {
+    // GIVEN: the grammar file already contains the rule in the set-aside log
+    Files.write(new File(grammarFile.getPath() + ".log.compacting").toPath(),
+        Arrays.asList("+ [X] ||| el gato ||| the cat ||| 0.1 0.2"), StandardCharsets.UTF_8);
+    MemoryBasedBatchGrammar grammar = load();
+
+    // WHEN
+    try (GrammarUpdateLog log = new GrammarUpdateLog(grammar, grammarFile.getPath(), 100)) {
+      log.replay();
+    }
+
+    // THEN
+    assertEquals(targets(grammar.getTrieRoot(), "el", "gato"), Arrays.asList("the cat"));
+  }
+
+  @Test
+  public void givenFailedCompaction_whenCompactingAgain_thenNoLoggedUpdateIsLost()
+      throws IOException {
+    // GIVEN: compactions fail, since the temporary grammar file can't be written
+    File tmpFile = new File(grammarFile.getPath() + ".tmp");
+    assertTrue(tmpFile.mkdir());
+    MemoryBasedBatchGrammar grammar = load();
+    try (GrammarUpdateLog log = new GrammarUpdateLog(grammar, grammarFile.getPath(), 100)) {
+      log.addRule(parse("[X] ||| la casa ||| the house ||| 0.3 0.4"));
+      try {
+        log.compact();
+        fail("the compaction succeeded");
+      } catch (IOException e) {
+        // the update is in the set-aside log
+      }
+
+      // WHEN
+      log.addRule(parse("[X] ||| la casa ||| the home ||| 0.3 0.4"));
+      try {
+        log.compact();
+        fail("the compaction succeeded");
+      } catch (IOException e) {
+        // both updates are in the set-aside log
+      }
+    }
+
+    // THEN
+    MemoryBasedBatchGrammar reloaded = load();
+    try (GrammarUpdateLog log = new GrammarUpdateLog(reloaded, grammarFile.getPath(), 100)) {
+      assertEquals(log.replay(), 2);
+    }
+    assertEquals(targets(reloaded.getTrieRoot(), "la", "casa"),
+        Arrays.asList("the house", "the home"));
+  }
+}
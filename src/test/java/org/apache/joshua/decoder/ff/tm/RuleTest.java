@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import org.apache.joshua.decoder.ff.FeatureVector;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RuleTest {
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    OwnerMap.clear();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    OwnerMap.clear();
+  }
+
+  @Test
+  public void givenRuleWithFeatureString_whenGettingFeatureVector_thenParsedOnce() {
+    Rule rule = new Rule(-1, new int[] { 1 }, new int[] { 2 }, "label=2", 0, OwnerMap.register("pt"));
+
+    FeatureVector features = rule.getFeatureVector();
+
+    assertEquals(features.getSparse("label"), 2.0f);
+    assertSame(rule.getFeatureVector(), features);
+    assertEquals(rule.getFeatureString(), "label=2");
+  }
+
+  @Test
+  public void givenRuleWithFeatureVector_whenGettingFeatureString_thenDerivedFromVector() {
+    FeatureVector features = new FeatureVector();
+    features.set("label", 2.0f);
+    Rule rule = new Rule(-1, new int[] { 1 }, new int[] { 2 }, features, 0, OwnerMap.UNKNOWN_OWNER_ID);
+
+    assertSame(rule.getFeatureVector(), features);
+    assertEquals(rule.getFeatureString(), features.toString());
+  }
+
+  @Test
+  public void givenAlignmentString_whenGettingAlignment_thenParsedIntoPoints() {
+    Rule rule = new Rule(-1, new int[] { 1, 2 }, new int[] { 3, 4 }, "", 0, "0-1 1-0");
+    Rule unaligned = new Rule(-1, new int[] { 1 }, new int[] { 2 }, "", 0);
+
+    assertEquals(rule.getAlignment(), new byte[] { 0, 1, 1, 0 });
+    assertSame(rule.getAlignment(), rule.getAlignment());
+    assertNull(unaligned.getAlignment());
+  }
+}
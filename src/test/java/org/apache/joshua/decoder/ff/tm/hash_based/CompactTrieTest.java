@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm.hash_based;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.testng.annotations.Test;
+
+public class CompactTrieTest {
+
+  @Test
+  public void givenEmptyTrie_whenMatching_thenNoExtensions() {
+    CompactTrie trie = new CompactTrie();
+    assertFalse(trie.hasExtensions());
+    assertNull(trie.match(1));
+    assertNull(trie.getExtensions());
+    assertFalse(trie.getTerminalExtensionIterator().hasNext());
+  }
+
+  @Test
+  public void givenManyChildren_whenFrozen_thenMatchesAreUnchanged() {
+    // GIVEN
+    CompactTrie trie = new CompactTrie();
+    Map<Integer, CompactTrie> expected = new HashMap<>();
+    Random random = new Random(17);
+    for (int i = 0; i < 1000; i++) {
+      int label = random.nextInt(20000) - 10000;
+      CompactTrie child = trie.extend(label);
+      if (expected.containsKey(label))
+        assertSame(child, expected.get(label));
+      expected.put(label, child);
+    }
+
+    // WHEN
+    for (int pass = 0; pass < 2; pass++) {
+      // THEN
+      for (int label = -10000; label < 10000; label++)
+        assertSame(trie.match(label), expected.get(label));
+      assertEquals(trie.getExtensions().size(), expected.size());
+      assertEquals(trie.getChildren().keySet(), expected.keySet());
+
+      trie.freeze();
+    }
+  }
+
+  @Test
+  public void givenFrozenTrie_whenExtending_thenOnlyExistingChildrenAreReturned() {
+    // GIVEN
+    CompactTrie trie = new CompactTrie();
+    CompactTrie child = trie.extend(5);
+    trie.freeze();
+
+    // WHEN / THEN
+    assertSame(trie.extend(5), child);
+    try {
+      trie.extend(7);
+      fail("a frozen node was extended");
+    } catch (IllegalStateException e) {
+      assertNull(trie.match(7));
+    }
+  }
+
+  @Test
+  public void givenFrozenTrie_whenAddingRules_thenChildrenAreInsertedInOrderInACopy() {
+    // GIVEN
+    CompactTrie trie = new CompactTrie();
+    trie.extend(5);
+    trie.extend(-3);
+    trie.extend(9);
+    trie.freeze();
+    Rule rule = new Rule(-1, new int[] { 7 }, new int[] { 7 }, "", 0);
+
+    // WHEN
+    CompactTrie updated = trie.withRule(new int[] { 7 }, 0, rule);
+    updated = updated.withRule(new int[] { -8 }, 0, rule);
+
+    // THEN
+    assertNull(trie.match(7));
+    assertTrue(updated.match(7).hasRules());
+    Set<Integer> terminals = new HashSet<>();
+    Iterator<Integer> it = updated.getTerminalExtensionIterator();
+    while (it.hasNext())
+      terminals.add(it.next());
+    assertEquals(terminals, new HashSet<>(Arrays.asList(5, 7, 9)));
+    it = updated.getNonterminalExtensionIterator();
+    assertEquals((int) it.next(), -8);
+    assertEquals((int) it.next(), -3);
+    assertFalse(it.hasNext());
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm.hash_based;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.ff.tm.Trie;
+import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
+import org.apache.joshua.tools.TestSetFilter;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MemoryBasedBatchGrammarTest {
+
+  private File grammarFile;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    Decoder.resetGlobalState();
+    grammarFile = File.createTempFile("grammar", null);
+    Files.write(grammarFile.toPath(), Arrays.asList(
+        "[X] ||| el gato ||| the cat ||| 0.1 0.2",
+        "[X] ||| el perro ||| the dog ||| 0.1 0.2",
+        "[X] ||| [X,1] gato ||| [X,1] cat ||| 0.1 0.2",
+        "[X] ||| [X,1] casa [X,2] ||| [X,1] house [X,2] ||| 0.1 0.2",
+        "[GOAL] ||| <s> ||| <s> ||| 0"), StandardCharsets.UTF_8);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    grammarFile.delete();
+    Decoder.resetGlobalState();
+  }
+
+  private MemoryBasedBatchGrammar load(TestSetFilter filter) throws IOException {
+    return load(filter, 1);
+  }
+
+  private MemoryBasedBatchGrammar load(TestSetFilter filter, int threads) throws IOException {
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.grammar_loading_threads = threads;
+    return new MemoryBasedBatchGrammar("thrax", grammarFile.getAbsolutePath(), "pt", "[X]", 20,
+        config, filter);
+  }
+
+  @Test
+  public void givenNoFilter_whenLoading_thenAllRulesAreKept() throws IOException {
+    assertEquals(load(null).getNumRules(), 5);
+  }
+
+  @Test
+  public void givenSeveralThreads_whenLoading_thenRulesAreKeptInFileOrder() throws IOException {
+    // GIVEN
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 25000; i++)
+      lines.add(String.format("[X] ||| word%d ||| target%d ||| 0.1 0.2", i % 100, i));
+    Files.write(grammarFile.toPath(), lines, StandardCharsets.UTF_8);
+
+    // WHEN
+    MemoryBasedBatchGrammar grammar = load(null, 4);
+
+    // THEN
+    assertEquals(grammar.getNumRules(), 25000);
+    List<Rule> rules = grammar.getTrieRoot().match(Vocabulary.id("word7")).getRuleCollection()
+        .getRules();
+    assertEquals(rules.size(), 250);
+    for (int i = 0; i < rules.size(); i++)
+      assertEquals(rules.get(i).getEnglishWords(), "target" + (100 * i + 7));
+  }
+
+  private static List<String> vocabulary() {
+    List<String> words = new ArrayList<>();
+    for (int id = 0; id < Vocabulary.size(); id++)
+      words.add(Vocabulary.word(id));
+    return words;
+  }
+
+  @Test
+  public void givenSeveralThreads_whenLoading_thenWordIdsAreThoseOfASequentialLoad()
+      throws IOException {
+    // GIVEN
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 25000; i++)
+      lines.add(String.format("[X] ||| src%d [X,1] ||| [X,1] tgt%d ||| 0.1", i, i));
+    Files.write(grammarFile.toPath(), lines, StandardCharsets.UTF_8);
+    load(null, 1);
+    List<String> sequential = vocabulary();
+
+    // WHEN
+    Decoder.resetGlobalState();
+    load(null, 4);
+
+    // THEN
+    assertEquals(vocabulary(), sequential);
+  }
+
+  @Test
+  public void givenTestSet_whenLoading_thenOnlyMatchingRulesAreKept() throws IOException {
+    // GIVEN
+    TestSetFilter filter = new TestSetFilter();
+    filter.addSentence("<s> el gato come </s>");
+
+    // WHEN
+    MemoryBasedBatchGrammar grammar = load(filter);
+
+    // THEN
+    assertEquals(grammar.getNumRules(), 3);
+    Trie root = grammar.getTrieRoot();
+    assertNotNull(root.match(Vocabulary.id("el")).match(Vocabulary.id("gato")));
+    assertNull(root.match(Vocabulary.id("el")).match(Vocabulary.id("perro")));
+    assertNotNull(root.match(Vocabulary.id(Vocabulary.START_SYM)));
+  }
+
+  @Test
+  public void givenCustomGrammar_whenUpdating_thenRootIsReplacedAndCountsAreKept() {
+    // GIVEN
+    MemoryBasedBatchGrammar grammar = new MemoryBasedBatchGrammar("custom",
+        new JoshuaConfiguration(), 20);
+    HieroFormatReader reader = new HieroFormatReader();
+    grammar.addRule(reader.parseLine("[X] ||| el gato ||| the cat ||| 0.1"));
+    Trie before = grammar.getTrieRoot();
+
+    // WHEN
+    grammar.addRule(reader.parseLine("[X] ||| el gato ||| the kitty ||| 0.1"));
+    grammar.addRule(reader.parseLine("[X] ||| la casa ||| the house ||| 0.1"));
+    grammar.removeRule(reader.parseLine("[X] ||| el gato ||| the cat ||| 0"));
+
+    // THEN
+    assertEquals(grammar.getNumRules(), 2);
+    assertEquals(grammar.getMaxSourcePhraseLength(), 2);
+    assertEquals(before.match(Vocabulary.id("el")).match(Vocabulary.id("gato"))
+        .getRuleCollection().getRules().size(), 1);
+    assertNull(before.match(Vocabulary.id("la")));
+    List<Rule> rules = grammar.getTrieRoot().match(Vocabulary.id("el"))
+        .match(Vocabulary.id("gato")).getRuleCollection().getRules();
+    assertEquals(rules.size(), 1);
+    assertEquals(rules.get(0).getEnglishWords(), "the kitty");
+  }
+}
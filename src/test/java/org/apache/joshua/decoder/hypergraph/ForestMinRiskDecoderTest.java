@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiString;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.testng.annotations.Test;
+
+public class ForestMinRiskDecoderTest {
+
+  /*
+   * A forest with one derivation per string. The most probable string shares no n-grams with the
+   * others, which share "a b".
+   */
+  private static HyperGraph consensusForest() {
+    int x = Vocabulary.id("[X]");
+    String[] strings = { "p q r", "a b c", "a b d", "a b e" };
+    double[] probs = { 0.28, 0.23, 0.26, 0.23 };
+    HGNode goal = null;
+    for (int i = 0; i < strings.length; i++) {
+      String[] words = strings[i].split(" ");
+      int[] english = new int[words.length];
+      for (int w = 0; w < words.length; w++)
+        english[w] = Vocabulary.id(words[w]);
+      float score = (float) Math.log(probs[i]);
+      Rule rule = new Rule(x, new int[] { Vocabulary.id("f" + i) }, english, "", 0);
+      HyperEdge edge = new HyperEdge(rule, score, score, null, null);
+      HGNode node = new HGNode(0, 1, x, null, edge, score);
+      HyperEdge goalEdge = new HyperEdge(null, score, 0.0f, Collections.singletonList(node), null);
+      if (goal == null)
+        goal = new HGNode(0, 1, Vocabulary.id("[GOAL]"), null, goalEdge, score);
+      else
+        goal.addHyperedgeInNode(goalEdge);
+    }
+    return new HyperGraph(goal, 5, 8, null);
+  }
+
+  @Test
+  public void givenConsensusForest_whenDecoding_thenMostProbableConsensusStringIsChosen() {
+    HyperGraph hg = consensusForest();
+    assertEquals(getViterbiString(hg), "p q r");
+
+    double gain = new ForestMinRiskDecoder(1.0).decode(hg);
+
+    assertEquals(getViterbiString(hg), "a b d");
+    assertEquals(hg.goalNode.getScore(), (float) Math.log(0.26), 1e-6);
+    assertTrue(gain > -3.0);
+  }
+
+  private static double derivationScore(HGNode node) {
+    HyperEdge edge = node.bestHyperedge;
+    double score = edge.getTransitionLogP(false);
+    if (edge.getTailNodes() != null)
+      for (HGNode tail : edge.getTailNodes())
+        score += derivationScore(tail);
+    return score;
+  }
+
+  private static void collectWords(HGNode node, List<String> words) {
+    HyperEdge edge = node.bestHyperedge;
+    if (edge.getRule() == null) {
+      collectWords(edge.getTailNodes().get(0), words);
+      return;
+    }
+    for (int word : edge.getRule().getEnglish())
+      if (word < 0)
+        collectWords(edge.getTailNodes().get(-(word + 1)), words);
+      else
+        words.add(Vocabulary.word(word));
+  }
+
+  @Test
+  public void givenRandomForest_whenDecoding_thenGoalScoreIsThatOfTheNewDerivation() {
+    for (long seed = 0; seed < 5; seed++) {
+      HyperGraph hg = InsideOutsideBenchmark.randomForest(8, 3, 3, seed);
+      new ForestMinRiskDecoder(1.0).decode(hg);
+
+      assertEquals(hg.goalNode.getScore(), derivationScore(hg.goalNode), 1e-3);
+      List<String> words = new ArrayList<>();
+      collectWords(hg.goalNode, words);
+      assertEquals(getViterbiString(hg), String.join(" ", words));
+      assertEquals(words.size(), 8);
+    }
+  }
+}
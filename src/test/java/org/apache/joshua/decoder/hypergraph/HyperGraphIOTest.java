@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiFeatures;
+import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiString;
+import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiWordAlignments;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.FeatureDelta;
+import org.apache.joshua.decoder.ff.FeatureFunction;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.Test;
+
+public class HyperGraphIOTest {
+
+  private final JoshuaConfiguration config = new JoshuaConfiguration();
+
+  private static HyperEdge edge(Rule rule, float score, float transition, String feature,
+      HGNode... tails) {
+    FeatureDelta.Builder features = new FeatureDelta.Builder();
+    features.add(feature, transition);
+    return new HyperEdge(rule, score, transition, tails.length == 0 ? null : Arrays.asList(tails),
+        null, features.build());
+  }
+
+  private static Rule rule(String source, String target, int arity, String alignment) {
+    return new Rule(Vocabulary.id("[X]"), Vocabulary.addAll(source), Vocabulary.addAll(target),
+        "tm_pt_0=-1", arity, alignment);
+  }
+
+  /*
+   * "la casa" translated as "the house" or "house the": two edges for "casa" and two ways of
+   * combining, with a shared rule
+   */
+  private HyperGraph forest(int id) {
+    Rule la = rule("la", "the", 0, "0-0");
+    HGNode laNode = new HGNode(0, 1, Vocabulary.id("[X]"), null, edge(la, -1, -1, "a"), -1);
+    HGNode casaNode = new HGNode(1, 2, Vocabulary.id("[X]"), null,
+        edge(rule("casa", "house", 0, "0-0"), -2, -2, "b"), -2);
+    casaNode.addHyperedgeInNode(edge(rule("casa", "home", 0, null), -3, -3, "b"));
+
+    Rule straight = new Rule(Vocabulary.id("[X]"), new int[] { Vocabulary.id("[X]"),
+        Vocabulary.id("[X]") }, new int[] { -1, -2 }, "", 2);
+    Rule inverted = new Rule(Vocabulary.id("[X]"), new int[] { Vocabulary.id("[X]"),
+        Vocabulary.id("[X]") }, new int[] { -2, -1 }, "", 2);
+    HGNode top = new HGNode(0, 2, Vocabulary.id("[X]"), null,
+        edge(inverted, -5.5f, -2.5f, "c", laNode, casaNode), -5.5f);
+    top.addHyperedgeInNode(edge(straight, -3.5f, -0.5f, "c", laNode, casaNode));
+
+    HGNode goal = new HGNode(0, 3, Vocabulary.id("[GOAL]"), null,
+        edge(null, -3.5f, 0, "d", top), -3.5f);
+    return new HyperGraph(goal, 5, 7, new Sentence("la casa", id, config));
+  }
+
+  private File write(HyperGraph... hgs) throws IOException {
+    File file = File.createTempFile("hypergraphs", ".bin");
+    file.deleteOnExit();
+    List<FeatureFunction> model = Collections.emptyList();
+    try (HyperGraphWriter writer = new HyperGraphWriter(new FileOutputStream(file))) {
+      for (HyperGraph hg : hgs)
+        writer.write(hg == null ? new Sentence("", 9, config) : hg.sentence, hg, model);
+    }
+    return file;
+  }
+
+  private static void assertSameForest(HyperGraph loaded, HyperGraph original) {
+    assertEquals(loaded.sentence.id(), original.sentence.id());
+    assertEquals(loaded.sentence.source(), original.sentence.source());
+    IndexedHyperGraph a = loaded.index();
+    IndexedHyperGraph b = original.index();
+    assertEquals(a.numNodes(), b.numNodes());
+    assertEquals(a.numEdges(), b.numEdges());
+    for (int n = 0; n < a.numNodes(); n++) {
+      assertEquals(a.node(n).i, b.node(n).i);
+      assertEquals(a.node(n).j, b.node(n).j);
+      assertEquals(a.node(n).lhs, b.node(n).lhs);
+      assertEquals(a.node(n).getScore(), b.node(n).getScore());
+      assertEquals(a.bestEdge(n), b.bestEdge(n));
+    }
+    for (int e = 0; e < a.numEdges(); e++) {
+      assertEquals(a.head(e), b.head(e));
+      assertEquals(a.arity(e), b.arity(e));
+      for (int k = 0; k < a.arity(e); k++)
+        assertEquals(a.tail(e, k), b.tail(e, k));
+      assertEquals(a.edge(e).getBestDerivationScore(), b.edge(e).getBestDerivationScore());
+      assertEquals(a.edge(e).getTransitionLogP(false), b.edge(e).getTransitionLogP(false));
+      assertEquals(String.valueOf(a.edge(e).getRule()), String.valueOf(b.edge(e).getRule()));
+    }
+    assertEquals(getViterbiString(loaded), getViterbiString(original));
+    assertEquals(getViterbiWordAlignments(loaded), getViterbiWordAlignments(original));
+    List<FeatureFunction> model = Collections.emptyList();
+    assertEquals(getViterbiFeatures(loaded, model, loaded.sentence).getMap(),
+        getViterbiFeatures(original, model, original.sentence).getMap());
+  }
+
+  @Test
+  public void givenHyperGraphs_whenWrittenAndRead_thenForestsAreTheSame() throws IOException {
+    HyperGraph first = forest(0);
+    HyperGraph second = forest(1);
+    File file = write(first, null, second);
+
+    for (boolean memoryMapped : new boolean[] { true, false }) {
+      List<HyperGraph> loaded = new ArrayList<>();
+      try (HyperGraphReader reader = new HyperGraphReader(file.getPath(), memoryMapped, config)) {
+        for (HyperGraph hg : reader)
+          loaded.add(hg);
+      }
+      assertEquals(loaded.size(), 3);
+      assertSameForest(loaded.get(0), first);
+      assertNull(loaded.get(1).goalNode);
+      assertEquals(loaded.get(1).sentence.id(), 9);
+      assertSameForest(loaded.get(2), second);
+      assertEquals(getViterbiString(loaded.get(2)), "the house");
+    }
+  }
+
+  @Test
+  public void givenHyperGraphs_whenSkipping_thenNextOneIsRead() throws IOException {
+    File file = write(forest(0), forest(1));
+    try (HyperGraphReader reader = new HyperGraphReader(file.getPath(), config)) {
+      assertTrue(reader.skip());
+      assertEquals(reader.readLine().sentence.id(), 1);
+      assertFalse(reader.skip());
+      assertNull(reader.readLine());
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void givenOtherFile_whenOpening_thenThrows() throws IOException {
+    File file = File.createTempFile("hypergraphs", ".txt");
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("0 ||| the house ||| ||| 0\n".getBytes("UTF-8"));
+    }
+    new HyperGraphReader(file.getPath(), config).close();
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program compares the array-based inside-outside and pruning implementations in
+ * {@link DefaultInsideOutside} and {@link HyperGraphPruning} with the HashMap-based ones they
+ * replaced (kept here as {@link MapInsideOutside}), on random CKY-shaped forests: for a sentence
+ * of length LENGTH, each span has NODES nodes with EDGES incoming binary hyperedges each.
+ *
+ * Usage: java InsideOutsideBenchmark [LENGTH [NODES [EDGES [REPEATS]]]]
+ */
+public class InsideOutsideBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InsideOutsideBenchmark.class);
+
+  /**
+   * Builds a random forest. Each node over a span wider than one word has incoming edges that
+   * combine a random node from each side of a random split point, with a rule that keeps or swaps
+   * their order; nodes over single words have edges without tail nodes, with a rule that translates
+   * the word as one of a few target words (so that many derivations have the same string). The goal
+   * node has an edge from each node over the whole sentence, without a rule.
+   * 
+   * @param length the sentence length
+   * @param nodes the number of nodes per span
+   * @param edges the number of incoming edges per node
+   * @param seed the random seed
+   * @return the forest
+   */
+  public static HyperGraph randomForest(int length, int nodes, int edges, long seed) {
+    Random random = new Random(seed);
+    int x = Vocabulary.id("[X]");
+    Rule straight = new Rule(x, new int[] { x, x }, new int[] { -1, -2 }, "", 2);
+    Rule inverted = new Rule(x, new int[] { x, x }, new int[] { -2, -1 }, "", 2);
+    HGNode[][][] chart = new HGNode[length][length + 1][];
+    int numEdges = 0;
+    for (int width = 1; width <= length; width++) {
+      for (int i = 0; i + width <= length; i++) {
+        int j = i + width;
+        chart[i][j] = new HGNode[nodes];
+        for (int n = 0; n < nodes; n++) {
+          HGNode node = null;
+          for (int e = 0; e < edges; e++) {
+            float transition = -5.0f * random.nextFloat();
+            List<HGNode> tails = null;
+            float best = transition;
+            Rule rule;
+            if (width == 1) {
+              rule = new Rule(x, new int[] { Vocabulary.id("f" + i) },
+                  new int[] { Vocabulary.id("e" + random.nextInt(5)) }, "", 0);
+            } else {
+              rule = random.nextBoolean() ? straight : inverted;
+              int split = i + 1 + random.nextInt(width - 1);
+              HGNode left = chart[i][split][random.nextInt(nodes)];
+              HGNode right = chart[split][j][random.nextInt(nodes)];
+              tails = new ArrayList<>();
+              tails.add(left);
+              tails.add(right);
+              best += left.bestHyperedge.getBestDerivationScore()
+                  + right.bestHyperedge.getBestDerivationScore();
+            }
+            HyperEdge edge = new HyperEdge(rule, best, transition, tails, null);
+            if (node == null)
+              node = new HGNode(i, j, x, null, edge, best);
+            else
+              node.addHyperedgeInNode(edge);
+            numEdges++;
+          }
+          chart[i][j][n] = node;
+        }
+      }
+    }
+
+    HGNode goal = null;
+    for (HGNode top : chart[0][length]) {
+      HyperEdge edge = new HyperEdge(null, top.bestHyperedge.getBestDerivationScore(), 0.0f,
+          Collections.singletonList(top), null);
+      if (goal == null)
+        goal = new HGNode(0, length, Vocabulary.id("[GOAL]"), null, edge,
+            edge.getBestDerivationScore());
+      else
+        goal.addHyperedgeInNode(edge);
+      numEdges++;
+    }
+
+    int numNodes = length * (length + 1) / 2 * nodes + 1;
+    return new HyperGraph(goal, numNodes, numEdges, null);
+  }
+
+  /**
+   * The HashMap-based inside-outside computation that DefaultInsideOutside used to do, for
+   * comparison (sum and viterbi-max modes, log semiring, scaling factor 1).
+   */
+  static class MapInsideOutside {
+    final HashMap<HGNode, Double> inside = new HashMap<>();
+    final HashMap<HGNode, Double> outside = new HashMap<>();
+    private final HashMap<HGNode, Integer> numParents = new HashMap<>();
+    private final boolean viterbi;
+
+    MapInsideOutside(HyperGraph hg, boolean viterbi) {
+      this.viterbi = viterbi;
+      inside(hg.goalNode);
+      outside.put(hg.goalNode, 0.0);
+      for (HyperEdge edge : hg.goalNode.hyperedges)
+        outside(edge, hg.goalNode);
+    }
+
+    private double add(double x, double y) {
+      if (viterbi)
+        return Math.max(x, y);
+      if (x == Double.NEGATIVE_INFINITY)
+        return y;
+      if (y == Double.NEGATIVE_INFINITY)
+        return x;
+      return y <= x ? x + Math.log(1 + Math.exp(y - x)) : y + Math.log(1 + Math.exp(x - y));
+    }
+
+    private double inside(HGNode node) {
+      Integer count = numParents.get(node);
+      numParents.put(node, count == null ? 1 : count + 1);
+      if (inside.containsKey(node))
+        return inside.get(node);
+      double prob = Double.NEGATIVE_INFINITY;
+      for (HyperEdge edge : node.hyperedges) {
+        double edgeProb = 0;
+        if (edge.getTailNodes() != null)
+          for (HGNode tail : edge.getTailNodes())
+            edgeProb += inside(tail);
+        prob = add(prob, edgeProb + edge.getTransitionLogP(false));
+      }
+      inside.put(node, prob);
+      return prob;
+    }
+
+    private void outside(HyperEdge edge, HGNode parent) {
+      if (edge.getTailNodes() == null)
+        return;
+      for (HGNode tail : edge.getTailNodes()) {
+        int count = numParents.get(tail);
+        numParents.put(tail, count - 1);
+        double prob = edge.getTransitionLogP(false);
+        for (HGNode sibling : edge.getTailNodes())
+          if (sibling != tail)
+            prob += inside.get(sibling);
+        prob += outside.get(parent);
+        outside.put(tail, add(prob, outside.getOrDefault(tail, Double.NEGATIVE_INFINITY)));
+        if (count - 1 <= 0)
+          for (HyperEdge tailEdge : tail.hyperedges)
+            outside(tailEdge, tail);
+      }
+    }
+
+    double edgePosterior(HyperEdge edge, HGNode parent) {
+      double prob = 0;
+      if (edge.getTailNodes() != null)
+        for (HGNode tail : edge.getTailNodes())
+          prob += inside.get(tail);
+      return prob + outside.get(parent) + edge.getTransitionLogP(false);
+    }
+  }
+
+  public static void main(String[] args) {
+    int length = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+    int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int edges = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    int repeats = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    HyperGraph hg = randomForest(length, nodes, edges, 17);
+    LOG.info("forest: {} nodes, {} edges", hg.numNodes, hg.numEdges);
+
+    for (int r = 0; r <= repeats; r++) {
+      // The first round is a warm-up
+      long start = System.nanoTime();
+      MapInsideOutside map = new MapInsideOutside(hg, false);
+      double mapSum = 0;
+      for (HGNode node : map.inside.keySet())
+        for (HyperEdge edge : node.hyperedges)
+          mapSum += Math.exp(map.edgePosterior(edge, node) - map.inside.get(hg.goalNode));
+      long mapTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      hg.invalidateIndex();
+      TrivialInsideOutside arrays = new TrivialInsideOutside();
+      arrays.runInsideOutside(hg, 0, 1, 1.0);
+      double arraySum = 0;
+      for (int e = 0; e < arrays.getIndex().numEdges(); e++)
+        arraySum += arrays.getEdgePosteriorProb(e);
+      long arrayTime = System.nanoTime() - start;
+
+      if (r > 0)
+        LOG.info("inside-outside + edge posteriors: HashMap {} ms, arrays {} ms (sums {} / {})",
+            mapTime / 1000000, arrayTime / 1000000, mapSum, arraySum);
+    }
+
+    for (int r = 0; r <= repeats; r++) {
+      HyperGraph forest = randomForest(length, nodes, edges, 17 + r);
+      long start = System.nanoTime();
+      HyperGraphPruning pruning = new HyperGraphPruning(true, -5, -5);
+      pruning.pruningHG(forest);
+      long time = System.nanoTime() - start;
+      if (r > 0)
+        LOG.info("pruning (arrays, including index and inside-outside): {} ms", time / 1000000);
+    }
+  }
+}
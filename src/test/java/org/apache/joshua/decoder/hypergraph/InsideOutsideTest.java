@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.joshua.decoder.hypergraph.InsideOutsideBenchmark.MapInsideOutside;
+import org.testng.annotations.Test;
+
+public class InsideOutsideTest {
+
+  private static void assertSameAsMaps(HyperGraph hg, int addMode) {
+    TrivialInsideOutside arrays = new TrivialInsideOutside();
+    arrays.runInsideOutside(hg, addMode, 1, 1.0);
+    MapInsideOutside maps = new MapInsideOutside(hg, addMode == 2);
+
+    IndexedHyperGraph graph = arrays.getIndex();
+    assertEquals(graph.node(graph.goal()), hg.goalNode);
+    assertEquals(arrays.getLogNormalizationConstant(), maps.inside.get(hg.goalNode), 1e-9);
+    for (int n = 0; n < graph.numNodes(); n++) {
+      HGNode node = graph.node(n);
+      for (int e = graph.firstEdge(n); e < graph.endEdge(n); e++) {
+        HyperEdge edge = graph.edge(e);
+        // tail nodes come before their heads
+        for (int k = 0; k < graph.arity(e); k++)
+          assertTrue(graph.tail(e, k) < n);
+        assertEquals(arrays.getEdgeUnnormalizedPosteriorLogProb(e), maps.edgePosterior(edge, node),
+            1e-9);
+        assertEquals(arrays.getEdgeUnormalizedPosteriorLogProb(edge, node),
+            arrays.getEdgeUnnormalizedPosteriorLogProb(e));
+      }
+    }
+  }
+
+  @Test
+  public void givenRandomForest_whenSumming_thenPosteriorsMatchHashMapImplementation() {
+    for (long seed = 0; seed < 5; seed++)
+      assertSameAsMaps(InsideOutsideBenchmark.randomForest(6, 3, 3, seed), 0);
+  }
+
+  @Test
+  public void givenRandomForest_whenMaximizing_thenPosteriorsMatchHashMapImplementation() {
+    for (long seed = 0; seed < 5; seed++) {
+      HyperGraph hg = InsideOutsideBenchmark.randomForest(6, 3, 3, seed);
+      assertSameAsMaps(hg, 2);
+
+      // under viterbi-max, the normalization constant is the score of the best derivation
+      TrivialInsideOutside viterbi = new TrivialInsideOutside();
+      viterbi.runInsideOutside(hg, 2, 1, 1.0);
+      assertEquals(viterbi.getLogNormalizationConstant(),
+          hg.goalNode.bestHyperedge.getBestDerivationScore(), 1e-4);
+    }
+  }
+
+  private static void collectViterbiEdges(HGNode node, List<HyperEdge> edges) {
+    edges.add(node.bestHyperedge);
+    if (node.bestHyperedge.getTailNodes() != null)
+      for (HGNode tail : node.bestHyperedge.getTailNodes())
+        collectViterbiEdges(tail, edges);
+  }
+
+  @Test
+  public void givenRandomForest_whenPruning_thenViterbiDerivationSurvives() {
+    HyperGraph hg = InsideOutsideBenchmark.randomForest(8, 4, 4, 42);
+    List<HyperEdge> viterbi = new ArrayList<>();
+    collectViterbiEdges(hg.goalNode, viterbi);
+    int before = hg.index().numEdges();
+
+    new HyperGraphPruning(true, -5, -5).pruningHG(hg);
+
+    int after = hg.index().numEdges();
+    assertTrue(after < before);
+    for (HyperEdge edge : viterbi) {
+      boolean found = false;
+      for (int e = 0; e < after && !found; e++)
+        found = hg.index().edge(e) == edge;
+      assertTrue(found);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program times k-best extraction, with and without kbest-threads, on random forests (see
+ * {@link InsideOutsideBenchmark#randomForest}), and checks that the outputs are the same.
+ *
+ * Usage: java KBestExtractionBenchmark [K [THREADS [LENGTH [NODES [EDGES [REPEATS]]]]]]
+ */
+public class KBestExtractionBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(KBestExtractionBenchmark.class);
+
+  static String extract(HyperGraph hg, int k, KBestExtractor extractor) throws IOException {
+    StringWriter output = new StringWriter();
+    extractor.lazyKBestExtractOnHG(hg, k, new BufferedWriter(output));
+    return output.toString();
+  }
+
+  private static String extract(HyperGraph hg, int k, JoshuaConfiguration config,
+      ExecutorService pool) throws IOException {
+    return extract(hg, k, new KBestExtractor(hg.sentence, Collections.emptyList(),
+        new FeatureVector(), false, config, pool));
+  }
+
+  public static void main(String[] args) throws IOException {
+    int k = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int length = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+    int nodes = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+    int edges = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+    int repeats = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (boolean unique : new boolean[] { false, true }) {
+      for (int r = 0; r <= repeats; r++) {
+        // The first round is a warm-up
+        JoshuaConfiguration config = new JoshuaConfiguration();
+        config.outputFormat = "%i ||| %s ||| %c ||| %a";
+        config.use_unique_nbest = unique;
+        HyperGraph hg = InsideOutsideBenchmark.randomForest(length, nodes, edges, r);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < length; i++)
+          source.append(i > 0 ? " " : "").append("f").append(i);
+        hg.sentence = new Sentence(source.toString(), r, config);
+
+        long start = System.nanoTime();
+        String original = extract(hg, k, config, null);
+        long originalTime = System.nanoTime() - start;
+
+        config.kbest_threads = 1;
+        start = System.nanoTime();
+        String single = extract(hg, k, config, null);
+        long singleTime = System.nanoTime() - start;
+
+        config.kbest_threads = threads;
+        start = System.nanoTime();
+        String parallel = extract(hg, k, config, pool);
+        long parallelTime = System.nanoTime() - start;
+
+        if (!original.equals(single) || !original.equals(parallel))
+          throw new RuntimeException("k-best lists differ for forest " + r);
+        if (r > 0)
+          LOG.info("{}-best{}: original {} ms, kbest-threads 1 {} ms, kbest-threads {} {} ms", k,
+              unique ? " (unique)" : "", originalTime / 1000000, singleTime / 1000000, threads,
+              parallelTime / 1000000);
+      }
+    }
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.StructuredTranslation;
+import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class KBestExtractorTest {
+
+  private static final int K = 200;
+
+  private ExecutorService pool;
+
+  @BeforeClass
+  public void setUp() {
+    pool = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterClass
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  private static HyperGraph forest(long seed, JoshuaConfiguration config) {
+    HyperGraph hg = InsideOutsideBenchmark.randomForest(8, 3, 4, seed);
+    hg.sentence = new Sentence("f0 f1 f2 f3 f4 f5 f6 f7", (int) seed, config);
+    return hg;
+  }
+
+  private static JoshuaConfiguration config(boolean unique, int threads) {
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.outputFormat = "%i ||| %s ||| %c ||| %a";
+    config.use_unique_nbest = unique;
+    config.kbest_threads = threads;
+    return config;
+  }
+
+  private String extract(boolean unique, int threads, long seed) throws IOException {
+    JoshuaConfiguration config = config(unique, threads);
+    HyperGraph hg = forest(seed, config);
+    KBestExtractor extractor = new KBestExtractor(hg.sentence, Collections.emptyList(),
+        new FeatureVector(), false, config, threads > 1 ? pool : null);
+    return KBestExtractionBenchmark.extract(hg, K, extractor);
+  }
+
+  private void assertSameOutput(boolean unique) throws IOException {
+    for (long seed = 0; seed < 5; seed++) {
+      String original = extract(unique, 0, seed);
+      assertFalse(original.isEmpty());
+      assertEquals(extract(unique, 1, seed), original);
+      assertEquals(extract(unique, 2, seed), original);
+    }
+  }
+
+  @Test
+  public void givenRandomForest_whenExtractingWithKBestThreads_thenOutputIsUnchanged()
+      throws IOException {
+    assertSameOutput(false);
+  }
+
+  @Test
+  public void givenRandomForest_whenExtractingUniqueWithKBestThreads_thenOutputIsUnchanged()
+      throws IOException {
+    assertSameOutput(true);
+  }
+
+  @Test
+  public void givenRandomForest_whenExtractingStructuredTranslations_thenResultsAreUnchanged() {
+    for (boolean unique : new boolean[] { false, true }) {
+      List<StructuredTranslation> expected = null;
+      for (int threads = 0; threads <= 2; threads++) {
+        JoshuaConfiguration config = config(unique, threads);
+        HyperGraph hg = forest(7, config);
+        List<StructuredTranslation> kbest = new KBestExtractor(hg.sentence,
+            Collections.emptyList(), new FeatureVector(), false, config, threads > 1 ? pool : null)
+                .KbestExtractOnHG(hg, K);
+        if (expected == null) {
+          expected = kbest;
+          continue;
+        }
+        assertEquals(kbest.size(), expected.size());
+        for (int i = 0; i < kbest.size(); i++) {
+          assertEquals(kbest.get(i).getTranslationString(),
+              expected.get(i).getTranslationString());
+          assertEquals(kbest.get(i).getTranslationScore(), expected.get(i).getTranslationScore());
+          assertEquals(kbest.get(i).getTranslationWordAlignments(),
+              expected.get(i).getTranslationWordAlignments());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.hypergraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.NbestMinRiskReranker;
+import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program times MBR decoding on random forests (see {@link InsideOutsideBenchmark#randomForest})
+ * with {@link ForestMinRiskDecoder}, against extracting an n-best list of size NBEST and reranking
+ * it with {@link NbestMinRiskReranker}, and against plain Viterbi extraction.
+ *
+ * Usage: java MinRiskBenchmark [NBEST [LENGTH [NODES [EDGES [REPEATS]]]]]
+ */
+public class MinRiskBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MinRiskBenchmark.class);
+
+  public static void main(String[] args) throws IOException {
+    int nbest = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int length = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+    int nodes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int edges = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+    int repeats = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.outputFormat = "%i ||| %s ||| %c ||| %c";
+    config.use_unique_nbest = true;
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < length; i++)
+      source.append(i > 0 ? " " : "").append("f").append(i);
+    NbestMinRiskReranker reranker = new NbestMinRiskReranker(false, 1.0);
+
+    for (int r = 0; r <= repeats; r++) {
+      // The first round is a warm-up
+      HyperGraph hg = InsideOutsideBenchmark.randomForest(length, nodes, edges, r);
+      hg.sentence = new Sentence(source.toString(), r, config);
+
+      long start = System.nanoTime();
+      String viterbi = ViterbiExtractor.getViterbiString(hg);
+      long viterbiTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      KBestExtractor extractor = new KBestExtractor(hg.sentence, Collections.emptyList(),
+          new FeatureVector(), false, config);
+      List<String> list = new ArrayList<>();
+      for (int k = 1; k <= nbest; k++) {
+        String hyp = extractor.getKthHyp(hg.goalNode, k);
+        if (hyp == null)
+          break;
+        list.add(hyp);
+      }
+      String nbestMbr = reranker.processOneSent(list, r);
+      long nbestTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      double gain = new ForestMinRiskDecoder(1.0).decode(hg);
+      String forestMbr = ViterbiExtractor.getViterbiString(hg);
+      long forestTime = System.nanoTime() - start;
+
+      if (r > 0) {
+        LOG.info("Viterbi {} ms, {}-best MBR {} ms, forest MBR {} ms (expected gain {})",
+            viterbiTime / 1000000, nbest, nbestTime / 1000000, forestTime / 1000000, gain);
+        LOG.info("  Viterbi: {}", viterbi);
+        LOG.info("  {}-best MBR: {}", nbest, nbestMbr);
+        LOG.info("  forest MBR: {}", forestMbr);
+      }
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.io;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.Translation;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class JSONMessageTest {
+
+  private Decoder decoder = null;
+  private final List<Translation> translations = new ArrayList<>();
+  private Translation bare = null;
+
+  @BeforeClass
+  public void setUp() throws Exception {
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    config.search_algorithm = "cky";
+    config.mark_oovs = false;
+    config.use_structured_output = true;
+    config.topN = 4;
+    config.tms.add("thrax -owner pt -maxspan 20 -path src/test/resources/wa_grammar");
+    config.tms.add("thrax -owner glue -maxspan -1 -path src/test/resources/grammar.glue");
+    config.goal_symbol = "[GOAL]";
+    config.default_non_terminal = "[X]";
+    config.features.add("OOVPenalty");
+    for (int i = 0; i <= 5; i++)
+      config.weights.add("tm_pt_" + i + " 1");
+    config.weights.add("tm_glue_0 1");
+    config.weights.add("OOVPenalty 1");
+    decoder = new Decoder(config, "");
+
+    String[] inputs = { "A K B1 U Z1 Z2 B2 C", "A <b> & \"K\"" };
+    for (int i = 0; i < inputs.length; i++)
+      translations.add(decoder.decode(new Sentence(inputs[i], i, config)));
+
+    Sentence sentence = new Sentence(inputs[0], 2, config);
+    sentence.withFeatures = false;
+    sentence.withAlignments = false;
+    bare = decoder.decode(sentence);
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception {
+    decoder.cleanUp();
+  }
+
+  private static String write(JSONMessage message, List<Translation> translations)
+      throws IOException {
+    StringWriter out = new StringWriter();
+    message.write(translations, out);
+    return out.toString();
+  }
+
+  @Test
+  public void givenTranslations_whenStreaming_thenOutputIsSameAsBuiltMessage() throws IOException {
+    JSONMessage built = new JSONMessage();
+    built.addMetaData("weights tm_pt_0=1.0");
+    for (Translation translation : translations)
+      built.addTranslation(translation);
+
+    JSONMessage streamed = new JSONMessage();
+    streamed.addMetaData("weights tm_pt_0=1.0");
+
+    String expected = built.toString();
+    assertTrue(expected.contains("\\u003cb\\u003e"));
+    assertTrue(expected.contains("\"features\": {"));
+    assertTrue(expected.contains("\"alignment\": ["));
+    assertEquals(write(streamed, translations), expected);
+  }
+
+  @Test
+  public void givenFeaturesAndAlignmentsTurnedOff_whenStreaming_thenTheyAreLeftOut()
+      throws IOException {
+    JSONMessage built = new JSONMessage();
+    built.addTranslation(bare);
+
+    String expected = built.toString();
+    assertFalse(expected.contains("\"features\""));
+    assertFalse(expected.contains("\"alignment\""));
+    assertEquals(write(new JSONMessage(), Collections.singletonList(bare)), expected);
+    assertTrue(bare.getStructuredTranslations().get(0).getTranslationFeatures().isEmpty());
+  }
+
+  @Test
+  public void givenNoTranslations_whenStreaming_thenOutputIsSameAsBuiltMessage()
+      throws IOException {
+    JSONMessage message = new JSONMessage();
+    message.addRule("[X] ||| a ||| b ||| 0");
+    assertEquals(write(message, Collections.emptyList()), message.toString());
+  }
+
+  @Test
+  public void givenFailureMidStream_whenStreaming_thenObjectIsCompletedWithTheError()
+      throws IOException {
+    // GIVEN: the second sentence fails to decode
+    Iterable<Translation> failing = () -> new Iterator<Translation>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        if (next > 0)
+          throw new RuntimeException("decoding failed");
+        return true;
+      }
+
+      @Override
+      public Translation next() {
+        return translations.get(next++);
+      }
+    };
+    JSONMessage built = new JSONMessage();
+    built.addTranslation(translations.get(0));
+    built.error = "decoding failed";
+
+    // WHEN
+    StringWriter out = new StringWriter();
+    try {
+      new JSONMessage().write(failing, out);
+      fail("the failure should be rethrown");
+    } catch (RuntimeException e) {
+      assertEquals(e.getMessage(), "decoding failed");
+    }
+
+    // THEN
+    assertEquals(out.toString(), built.toString());
+  }
+}
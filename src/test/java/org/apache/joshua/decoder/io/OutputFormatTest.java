@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.io;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class OutputFormatTest {
+
+  private static Map<Character, Integer> calls = new HashMap<>();
+
+  private static CharSequence value(char key) {
+    calls.merge(key, 1, Integer::sum);
+    switch (key) {
+    case 'i': return "7";
+    case 's': return "the small house";
+    case 'c': return "-3.250";
+    case 'f': return "tm_pt_0=-1.000 lm_0=-2.250";
+    default: return null;
+    }
+  }
+
+  @Test
+  public void givenTemplate_whenFormatting_thenPlaceholdersAreReplaced() {
+    OutputFormat format = OutputFormat.compile("%i ||| %s ||| %f ||| %c");
+    assertEquals(format.format(OutputFormatTest::value),
+        "7 ||| the small house ||| tm_pt_0=-1.000 lm_0=-2.250 ||| -3.250");
+    assertTrue(format.uses('f'));
+    assertFalse(format.uses('S'));
+  }
+
+  @Test
+  public void givenUnknownPlaceholders_whenFormatting_thenTheyAreCopied() {
+    OutputFormat format = OutputFormat.compile("%k: %s 100% %%s %");
+    assertEquals(format.format(OutputFormatTest::value), "%k: the small house 100% %the small house %");
+  }
+
+  @Test
+  public void givenTemplate_whenFormatting_thenOnlyPresentPlaceholdersAreComputed() {
+    calls.clear();
+    OutputFormat.compile("%s %s %i").format(OutputFormatTest::value);
+    assertEquals(calls.get('s'), Integer.valueOf(1));
+    assertEquals(calls.get('i'), Integer.valueOf(1));
+    assertFalse(calls.containsKey('f'));
+  }
+
+  @Test
+  public void givenScores_whenFormatting_thenMatchesStringFormat() {
+    float[] scores = { 0.0f, -0.0f, -0.0001f, 0.0005f, 1.0005f, -2.9995f, 123456.7890f, 1e-10f,
+        -1e20f, Float.MAX_VALUE, Float.MIN_VALUE, Float.NaN, Float.NEGATIVE_INFINITY };
+    for (float score : scores)
+      assertEquals(OutputFormat.formatScore(score), String.format("%.3f", score));
+
+    Random random = new Random(17);
+    for (int i = 0; i < 100000; i++) {
+      float score = (random.nextFloat() - 0.5f) * (float) Math.pow(10, random.nextInt(8));
+      assertEquals(OutputFormat.formatScore(score), String.format("%.3f", score));
+
+      score = Float.intBitsToFloat(random.nextInt());
+      assertEquals(OutputFormat.formatScore(score), String.format("%.3f", score));
+
+      // near-ties
+      score = (i - 50000) / 2000.0f;
+      assertEquals(OutputFormat.formatScore(score), String.format("%.3f", score));
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.phrase;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.FeatureFunction;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
+import org.apache.joshua.decoder.hypergraph.HGNode;
+import org.apache.joshua.decoder.hypergraph.HyperEdge;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the target constraint of constrained decoding, which candidates match on word ids.
+ */
+public class CandidateTest {
+
+  private static final List<FeatureFunction> NO_FEATURES = new ArrayList<>();
+
+  private JoshuaConfiguration config;
+
+  @BeforeMethod
+  public void setUp() {
+    Decoder.resetGlobalState();
+    config = new JoshuaConfiguration();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    Decoder.resetGlobalState();
+  }
+
+  /* A candidate that extends the hypothesis with the rule, translating source words i..j-1 */
+  private Candidate candidate(Sentence sentence, Hypothesis hypothesis, int i, int j, Rule rule) {
+    PhraseNodes phrases = new PhraseNodes(i, j, 1);
+    phrases.add(new HGNode(i, j, rule.getLHS(), null,
+        new HyperEdge(rule, 0.0f, 0.0f, null, null), 0.0f));
+    return new Candidate(NO_FEATURES, sentence, Collections.singletonList(hypothesis), phrases,
+        0.0f, new int[] { 0, 0 });
+  }
+
+  private static Rule phrase(String source, String target) {
+    return new HieroFormatReader().parseLine("[X] ||| " + source + " ||| " + target + " ||| 0");
+  }
+
+  @Test
+  public void givenNoConstraint_whenMatching_thenPositionIsUnchanged() {
+    Sentence sentence = new Sentence("el gato", 0, config);
+    Candidate candidate = candidate(sentence, new Hypothesis(null, 0.0f), 1, 2,
+        phrase("el", "anything at all"));
+
+    assertEquals(candidate.getTargetPosition(), 1);
+  }
+
+  @Test
+  public void givenMatchingPhrases_whenExtending_thenPositionAdvancesPastEachPhrase() {
+    // GIVEN: the constraint is "<s> the black cat </s>"
+    Sentence sentence = new Sentence("el gato negro ||| the black cat", 0, config);
+
+    // WHEN
+    Candidate first = candidate(sentence, new Hypothesis(null, 0.0f), 1, 2, phrase("el", "the"));
+    Candidate second = candidate(sentence, new Hypothesis(first), 2, 4,
+        phrase("gato negro", "[X,1] black cat"));
+
+    // THEN
+    assertEquals(first.getTargetPosition(), 2);
+    assertEquals(second.getTargetPosition(), 4);
+  }
+
+  @Test
+  public void givenMismatchingPhrase_whenMatching_thenCandidateIsRejected() {
+    Sentence sentence = new Sentence("el gato negro ||| the black cat", 0, config);
+    Hypothesis start = new Hypothesis(null, 0.0f);
+
+    // a word that isn't the next one, and the constraint's words out of order
+    assertEquals(candidate(sentence, start, 1, 2, phrase("el", "a")).getTargetPosition(), -1);
+    assertEquals(candidate(sentence, start, 1, 2, phrase("el", "black the")).getTargetPosition(),
+        -1);
+  }
+
+  @Test
+  public void givenPhrasePastTheConstraint_whenMatching_thenOnlyAPrefixIsNotEnough() {
+    // GIVEN: the constraint is "<s> the cat </s>"
+    Sentence sentence = new Sentence("el gato ||| the cat", 0, config);
+    Hypothesis start = new Hypothesis(null, 0.0f);
+
+    // WHEN / THEN: "the cat" ends before "</s>", but "the cat sat" runs past it
+    assertEquals(candidate(sentence, start, 1, 3, phrase("el gato", "the cat"))
+        .getTargetPosition(), 3);
+    assertEquals(candidate(sentence, start, 1, 3, phrase("el gato", "the cat sat"))
+        .getTargetPosition(), -1);
+    assertEquals(candidate(sentence, start, 1, 3, phrase("el gato", "the cat </s> ."))
+        .getTargetPosition(), -1);
+  }
+
+  @Test
+  public void givenOOVPassThrough_whenMatching_thenOnlyTheUnmarkedWordMatches() {
+    // GIVEN: "perro" is unknown to the grammar, and passed through as an OOV rule would
+    Sentence sentence = new Sentence("el perro ||| the perro", 0, config);
+    Hypothesis start = new Hypothesis(null, 0.0f);
+    Candidate the = candidate(sentence, start, 1, 2, phrase("el", "the"));
+    int perro = Vocabulary.id("perro");
+    Rule oov = new Rule(Vocabulary.id("[X]"), new int[] { perro }, new int[] { perro }, "", 0,
+        "0-0");
+    Rule markedOOV = new Rule(Vocabulary.id("[X]"), new int[] { perro },
+        new int[] { Vocabulary.id("perro_OOV") }, "", 0, "0-0");
+
+    // WHEN
+    Candidate passedThrough = candidate(sentence, new Hypothesis(the), 2, 3, oov);
+    Candidate marked = candidate(sentence, new Hypothesis(the), 2, 3, markedOOV);
+
+    // THEN
+    assertEquals(passedThrough.getTargetPosition(), 3);
+    assertEquals(marked.getTargetPosition(), -1);
+  }
+
+  @Test
+  public void givenARebuiltVocabulary_whenMatchingTheEndRule_thenItUsesTheNewIds() {
+    // GIVEN: the glue rules were used before the vocabulary was cleared and numbered differently
+    Hypothesis.END_RULE.getEnglish();
+    Decoder.resetGlobalState();
+    Vocabulary.id("shifted");
+    Sentence sentence = new Sentence("el gato ||| the cat", 0, config);
+    Candidate cat = candidate(sentence, new Hypothesis(null, 0.0f), 1, 3,
+        phrase("el gato", "the cat"));
+
+    // WHEN
+    Candidate end = candidate(sentence, new Hypothesis(cat), 3, 4, Hypothesis.END_RULE);
+
+    // THEN
+    assertEquals(end.getTargetPosition(), 4);
+    assertEquals(Hypothesis.END_RULE.getEnglish(), new int[] { Vocabulary.id("</s>") });
+  }
+}
@@ -139,4 +139,25 @@ public class CoverageTest {
     cov.set(44, 49);
     assertEquals(cov.toString(), "40 ....xxxxx.");
   }
+
+  @Test
+  public void testWideWindow() {
+    Coverage cov = new Coverage();
+    cov.set(100, 102);
+    assertFalse(cov.compatible(101, 103));
+    assertTrue(cov.compatible(70, 100));
+    assertEquals(cov.leftOpening(105), 102);
+    assertEquals(cov.rightOpening(5, 120), 120);
+
+    Coverage cov2 = new Coverage();
+    cov2.set(100, 101);
+    cov2.set(101, 102);
+    assertEquals(cov, cov2);
+    assertEquals(cov.hashCode(), cov2.hashCode());
+
+    // covering the gap brings the bits back into the window
+    cov.set(0, 100);
+    assertEquals(cov.firstZero(), 102);
+    assertEquals(cov, new Coverage(102));
+  }
 }
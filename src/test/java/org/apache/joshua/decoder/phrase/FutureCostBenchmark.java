@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.phrase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.StructuredTranslation;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.apache.joshua.metrics.BLEU;
+import org.apache.joshua.metrics.EvaluationMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program decodes a test set with a phrase-based configuration at several pop limits, and
+ * reports the decoding time, the average model score and the BLEU score at each of them. Without
+ * a reference, BLEU is computed against the output of the largest pop limit, which shows how
+ * much of the search quality of a wide beam is kept by a narrow one.
+ *
+ * Usage: java FutureCostBenchmark CONFIG INPUT [REFERENCE] POP_LIMIT...
+ */
+public class FutureCostBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FutureCostBenchmark.class);
+
+  private final JoshuaConfiguration config;
+  private final Decoder decoder;
+
+  public FutureCostBenchmark(String configFile) throws IOException {
+    config = new JoshuaConfiguration();
+    config.readConfigFile(configFile);
+    config.use_structured_output = true;
+    config.topN = 0;
+    decoder = new Decoder(config, configFile);
+  }
+
+  /**
+   * Decodes the input at the given pop limit.
+   * 
+   * @param input the input sentences
+   * @param popLimit the pop limit of the search
+   * @param scores receives the model score of each translation
+   * @return the translations
+   */
+  public String[] decode(List<String> input, int popLimit, float[] scores) {
+    config.pop_limit = popLimit;
+    String[] output = new String[input.size()];
+    for (int i = 0; i < output.length; i++) {
+      Sentence sentence = new Sentence(input.get(i), i, config);
+      StructuredTranslation best = decoder.decode(sentence).getStructuredTranslations().get(0);
+      output[i] = best.getTranslationString();
+      scores[i] = best.getTranslationScore();
+    }
+    return output;
+  }
+
+  private static double bleu(String[] output, String[] references) {
+    String[][] refSentences = new String[references.length][1];
+    for (int i = 0; i < references.length; i++)
+      refSentences[i][0] = references[i];
+    EvaluationMetric.set_numSentences(references.length);
+    EvaluationMetric.set_refsPerSen(1);
+    EvaluationMetric.set_refSentences(refSentences);
+    return new BLEU().score(output);
+  }
+
+  public static void main(String args[]) throws IOException {
+    List<String> input = Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8);
+    String[] references = null;
+    int first = 2;
+    if (!args[2].matches("\\d+")) {
+      references = Files.readAllLines(Paths.get(args[2]), StandardCharsets.UTF_8)
+          .toArray(new String[0]);
+      first = 3;
+    }
+
+    int[] popLimits = new int[args.length - first];
+    for (int i = 0; i < popLimits.length; i++)
+      popLimits[i] = Integer.parseInt(args[first + i]);
+
+    // Decode the widest beam first, so that its output can serve as the reference
+    int widest = 0;
+    for (int i = 1; i < popLimits.length; i++)
+      if (popLimits[i] > popLimits[widest])
+        widest = i;
+
+    FutureCostBenchmark benchmark = new FutureCostBenchmark(args[0]);
+    float[] scores = new float[input.size()];
+    benchmark.decode(input, popLimits[widest], scores); // warm-up
+
+    for (int i = -1; i < popLimits.length; i++) {
+      int popLimit = popLimits[i == -1 ? widest : i];
+      if (i == widest)
+        continue;
+
+      long start = System.currentTimeMillis();
+      String[] output = benchmark.decode(input, popLimit, scores);
+      long time = System.currentTimeMillis() - start;
+
+      if (references == null)
+        references = output;
+
+      double total = 0.0;
+      for (float score : scores)
+        total += score;
+
+      LOG.info("pop-limit {}: {} ms, average model score {}, BLEU {}", popLimit, time,
+          String.format("%.4f", total / scores.length),
+          String.format("%.4f", bleu(output, references)));
+    }
+
+    benchmark.decoder.cleanUp();
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.phrase;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.chart_parser.SearchArena;
+import org.apache.joshua.decoder.chart_parser.SourcePath;
+import org.apache.joshua.decoder.ff.FeatureFunction;
+import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.ff.StatefulFF;
+import org.apache.joshua.decoder.ff.state_maintenance.DPState;
+import org.apache.joshua.decoder.ff.state_maintenance.NgramDPState;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
+import org.apache.joshua.decoder.hypergraph.HGNode;
+import org.apache.joshua.decoder.hypergraph.HyperEdge;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the beam and the coverage histogram pruning of a stack's cube pruning, and the
+ * recombination of candidates before they are scored.
+ */
+public class StackTest {
+
+  private static final List<FeatureFunction> NO_FEATURES = new ArrayList<>();
+
+  private JoshuaConfiguration config;
+  private Sentence sentence;
+
+  @BeforeMethod
+  public void setUp() {
+    Decoder.resetGlobalState();
+    config = new JoshuaConfiguration();
+    sentence = new Sentence("a b c", 0, config);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    Decoder.resetGlobalState();
+  }
+
+  /* A candidate extending the hypothesis over source words i..j-1, with phrases of these scores */
+  private static Candidate candidate(Sentence sentence, Hypothesis hypothesis, int i, int j,
+      float... scores) {
+    Rule rule = new HieroFormatReader().parseLine("[X] ||| a ||| a ||| 0");
+    PhraseNodes phrases = new PhraseNodes(i, j, scores.length);
+    for (float score : scores)
+      phrases.add(new HGNode(i, j, rule.getLHS(), null,
+          new HyperEdge(rule, score, 0.0f, null, null), score));
+    return new Candidate(NO_FEATURES, sentence, Collections.singletonList(hypothesis), phrases,
+        0.0f, new int[] { 0, 0 });
+  }
+
+  /*
+   * A stateful feature with the same state everywhere, so that hypotheses recombine whenever their
+   * coverage and last source word agree. It counts the edges it scores.
+   */
+  private static class ConstantStateFF extends StatefulFF {
+    private static final DPState STATE = new NgramDPState(new int[0], new int[0]);
+
+    private int scored = 0;
+
+    ConstantStateFF(JoshuaConfiguration config) {
+      super(new FeatureVector(), "ConstantState", new String[0], config);
+    }
+
+    @Override
+    public DPState compute(Rule rule, List<HGNode> tailNodes, int i, int j, SourcePath sourcePath,
+        Sentence sentence, Accumulator acc) {
+      scored++;
+      return STATE;
+    }
+
+    @Override
+    public DPState computeState(Rule rule, List<HGNode> tailNodes, int i, int j,
+        Sentence sentence) {
+      return STATE;
+    }
+
+    @Override
+    public DPState computeFinal(HGNode tailNode, int i, int j, SourcePath sourcePath,
+        Sentence sentence, Accumulator acc) {
+      return STATE;
+    }
+
+    @Override
+    public float estimateFutureCost(Rule rule, DPState state, Sentence sentence) {
+      return 0.0f;
+    }
+
+    @Override
+    public float estimateCost(Rule rule) {
+      return 0.0f;
+    }
+  }
+
+  /* Two hypotheses covering "a", both extended over "b" by the feature's candidate cube */
+  private Stack searchRecombiningCube(ConstantStateFF feature) {
+    Hypothesis start = new Hypothesis(null, 0.0f);
+    List<Hypothesis> hypotheses = new ArrayList<>();
+    hypotheses.add(new Hypothesis(candidate(sentence, start, 1, 2, -1)));
+    hypotheses.add(new Hypothesis(candidate(sentence, start, 1, 2, -2)));
+    PhraseNodes phrases = new PhraseNodes(2, 3, 1);
+    phrases.add(candidate(sentence, start, 2, 3, 0).getPhraseNode());
+    List<FeatureFunction> features = Collections.singletonList(feature);
+
+    Stack stack = new Stack(sentence, config, SearchArena.acquire(config));
+    stack.addCandidate(
+        new Candidate(features, sentence, hypotheses, phrases, 0.0f, new int[] { 0, 0 }));
+    stack.search();
+    return stack;
+  }
+
+  @Test
+  public void givenOneBestOutput_whenACandidateWouldRecombine_thenItIsNotScored() {
+    // GIVEN
+    config.topN = 0;
+    ConstantStateFF feature = new ConstantStateFF(config);
+
+    // WHEN
+    Stack stack = searchRecombiningCube(feature);
+
+    // THEN: the second hypothesis of the cube would only add a worse edge to the first
+    assertEquals(stack.size(), 1);
+    assertEquals(stack.get(0).hyperedges.size(), 1);
+    assertEquals(feature.scored, 1);
+  }
+
+  @Test
+  public void givenKBestOutput_whenACandidateWouldRecombine_thenItIsScoredAndAbsorbed() {
+    // GIVEN: the default top-n = 1 extracts the n-best list from the hypergraph
+    ConstantStateFF feature = new ConstantStateFF(config);
+
+    // WHEN
+    Stack stack = searchRecombiningCube(feature);
+
+    // THEN
+    assertEquals(stack.size(), 1);
+    assertEquals(stack.get(0).hyperedges.size(), 2);
+    assertEquals(feature.scored, 2);
+  }
+
+  private int search(Candidate... candidates) {
+    Stack stack = new Stack(sentence, config, SearchArena.acquire(config));
+    for (Candidate candidate : candidates)
+      stack.addCandidate(candidate);
+    return stack.search();
+  }
+
+  @Test
+  public void givenNoBeam_whenSearching_thenEveryCandidateIsPopped() {
+    int pops = search(candidate(sentence, new Hypothesis(null, 0.0f), 1, 2, -1, -3, -7, -20));
+
+    assertEquals(pops, 4);
+  }
+
+  @Test
+  public void givenBeam_whenSearching_thenCandidatesBelowTheBeamAreDropped() {
+    // GIVEN
+    config.beam_threshold = 5.0f;
+
+    // WHEN
+    int pops = search(candidate(sentence, new Hypothesis(null, 0.0f), 1, 2, -1, -3, -7, -20));
+
+    // THEN: -7 and -20 fall below the best score, -1, less the beam
+    assertEquals(pops, 2);
+  }
+
+  @Test
+  public void givenHistogramLimit_whenSearching_thenEachCoverageIsCapped() {
+    // GIVEN: hypotheses covering "a" and "b", each extended to cover "a b" or "a c" / "b c"
+    Hypothesis start = new Hypothesis(null, 0.0f);
+    Hypothesis a = new Hypothesis(candidate(sentence, start, 1, 2, 0));
+    Hypothesis b = new Hypothesis(candidate(sentence, start, 2, 3, 0));
+    config.coverage_histogram_limit = 1;
+    Stack stack = new Stack(sentence, config, SearchArena.acquire(config));
+    stack.addCandidate(candidate(sentence, a, 2, 3, -1));
+    stack.addCandidate(candidate(sentence, b, 1, 2, -2));
+    stack.addCandidate(candidate(sentence, a, 3, 4, -3));
+    stack.addCandidate(candidate(sentence, b, 3, 4, -4));
+
+    // WHEN
+    int pops = stack.search();
+
+    // THEN: "b" then "a" ends differently from "a" then "b", but shares its coverage
+    assertEquals(pops, 3);
+    assertEquals(stack.size(), 3);
+    assertEquals(stack.getCoverages().size(), 3);
+    for (Coverage coverage : stack.getCoverages())
+      assertEquals(stack.get(coverage).size(), 1);
+  }
+
+  @Test
+  public void givenNoHistogramLimit_whenSearching_thenHypothesesShareACoverage() {
+    Hypothesis start = new Hypothesis(null, 0.0f);
+    Hypothesis a = new Hypothesis(candidate(sentence, start, 1, 2, 0));
+    Hypothesis b = new Hypothesis(candidate(sentence, start, 2, 3, 0));
+    Stack stack = new Stack(sentence, config, SearchArena.acquire(config));
+    stack.addCandidate(candidate(sentence, a, 2, 3, -1));
+    stack.addCandidate(candidate(sentence, b, 1, 2, -2));
+
+    assertEquals(stack.search(), 2);
+    assertEquals(stack.size(), 2);
+    assertEquals(stack.getCoverages().size(), 1);
+  }
+}
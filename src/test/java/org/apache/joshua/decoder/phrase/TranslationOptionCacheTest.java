@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.phrase;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.phrase.TranslationOptionCache.TranslationOptions;
+import org.testng.annotations.Test;
+
+public class TranslationOptionCacheTest {
+
+  private static final TranslationOptions OPTIONS = new TranslationOptions(new Rule[0],
+      new float[0][]);
+
+  @Test
+  public void givenCachedPhrase_whenLookingUpEqualWords_thenOptionsAreFound() {
+    // GIVEN
+    TranslationOptionCache cache = new TranslationOptionCache(10);
+    cache.put(new int[] { 3, 4 }, OPTIONS);
+
+    // WHEN
+    TranslationOptions hit = cache.get(new int[] { 3, 4 });
+    TranslationOptions miss = cache.get(new int[] { 4, 3 });
+
+    // THEN
+    assertSame(hit, OPTIONS);
+    assertNull(miss);
+    assertEquals(cache.stats().hitCount(), 1);
+    assertEquals(cache.stats().missCount(), 1);
+  }
+
+  @Test
+  public void givenFullCache_whenAddingPhrases_thenSizeIsBounded() {
+    TranslationOptionCache cache = new TranslationOptionCache(10);
+    for (int i = 0; i < 100; i++)
+      cache.put(new int[] { i }, OPTIONS);
+
+    assertTrue(cache.size() <= 10);
+    assertTrue(cache.stats().evictionCount() >= 90);
+  }
+
+  @Test
+  public void givenCachedPhrases_whenInvalidating_thenCacheIsEmpty() {
+    TranslationOptionCache cache = new TranslationOptionCache(10);
+    cache.put(new int[] { 1 }, OPTIONS);
+
+    cache.invalidateAll();
+
+    assertNull(cache.get(new int[] { 1 }));
+    assertEquals(cache.size(), 0);
+  }
+}
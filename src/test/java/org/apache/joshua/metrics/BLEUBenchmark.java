@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.metrics;
+
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program times computing the sufficient statistics of random candidates (see
+ * {@link PackedBLEUTest#randomSentence}) with {@link BLEU} and with {@link PackedBLEU}, in batches
+ * like the tuners' (one n-best list of BATCH candidates at a time).
+ *
+ * Usage: java BLEUBenchmark [CANDIDATES [SENTENCES [REFS [BATCH [REPEATS]]]]]
+ */
+public class BLEUBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BLEUBenchmark.class);
+
+  public static void main(String[] args) {
+    int candidates = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+    int sentences = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int refsPerSen = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    int batch = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+    int repeats = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+    Random random = new Random(0);
+    EvaluationMetric.set_numSentences(sentences);
+    EvaluationMetric.set_refsPerSen(refsPerSen);
+    EvaluationMetric.set_refSentences(
+        PackedBLEUTest.randomReferences(random, sentences, refsPerSen, 500));
+
+    String[] cands = new String[candidates];
+    int[] indices = new int[candidates];
+    for (int d = 0; d < candidates; d++) {
+      cands[d] = PackedBLEUTest.randomSentence(random, 600, 35);
+      indices[d] = d / batch % sentences;
+    }
+
+    long start = System.nanoTime();
+    BLEU bleu = new BLEU(4, "closest");
+    long bleuInit = System.nanoTime() - start;
+    start = System.nanoTime();
+    BLEU packed = new PackedBLEU(4, "closest");
+    long packedInit = System.nanoTime() - start;
+    LOG.info("reference tables: BLEU {} ms, PackedBLEU {} ms", bleuInit / 1000000,
+        packedInit / 1000000);
+
+    for (int r = 0; r <= repeats; r++) {
+      // The first round is a warm-up
+      long bleuTime = time(bleu, cands, indices, batch);
+      long packedTime = time(packed, cands, indices, batch);
+      if (r > 0)
+        LOG.info("{} candidates: BLEU {} ms, PackedBLEU {} ms", candidates, bleuTime / 1000000,
+            packedTime / 1000000);
+    }
+  }
+
+  private static long time(BLEU metric, String[] cands, int[] indices, int batch) {
+    long start = System.nanoTime();
+    long checksum = 0;
+    for (int from = 0; from < cands.length; from += batch) {
+      int to = Math.min(from + batch, cands.length);
+      String[] batchCands = new String[to - from];
+      int[] batchIndices = new int[to - from];
+      System.arraycopy(cands, from, batchCands, 0, to - from);
+      System.arraycopy(indices, from, batchIndices, 0, to - from);
+      for (int[] stats : metric.suffStats(batchCands, batchIndices))
+        checksum += stats[0] + stats[6];
+    }
+    long time = System.nanoTime() - start;
+    LOG.debug("checksum {}", checksum);
+    return time;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.metrics;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class PackedBLEUTest {
+
+  /*
+   * Random sentences over a small vocabulary, so that n-grams repeat, with the odd empty sentence
+   * and leading or doubled spaces, which give empty words.
+   */
+  static String randomSentence(Random random, int vocabulary, int maxLength) {
+    StringBuilder sb = new StringBuilder();
+    if (random.nextInt(10) == 0)
+      sb.append(' ');
+    int length = random.nextInt(maxLength + 1);
+    for (int j = 0; j < length; j++) {
+      if (j > 0)
+        sb.append(random.nextInt(20) == 0 ? "  " : " ");
+      sb.append('w').append(random.nextInt(vocabulary));
+    }
+    return sb.toString();
+  }
+
+  static String[][] randomReferences(Random random, int sentences, int refsPerSen,
+      int vocabulary) {
+    String[][] refs = new String[sentences][refsPerSen];
+    for (int i = 0; i < sentences; i++)
+      for (int r = 0; r < refsPerSen; r++)
+        refs[i][r] = randomSentence(random, vocabulary, 30);
+    return refs;
+  }
+
+  private static void assertSameStats(int maxGramLength, String method, int vocabulary) {
+    Random random = new Random(maxGramLength * 31 + vocabulary);
+    int sentences = 50;
+    EvaluationMetric.set_numSentences(sentences);
+    EvaluationMetric.set_refsPerSen(3);
+    EvaluationMetric.set_refSentences(randomReferences(random, sentences, 3, vocabulary));
+
+    BLEU bleu = new BLEU(maxGramLength, method);
+    PackedBLEU packed = new PackedBLEU(maxGramLength, method);
+
+    String[] cands = new String[2000];
+    int[] indices = new int[cands.length];
+    for (int d = 0; d < cands.length; d++) {
+      cands[d] = randomSentence(random, vocabulary + 5, 35);
+      indices[d] = random.nextInt(sentences);
+    }
+
+    int[][] expected = bleu.suffStats(cands, indices);
+    int[][] actual = packed.suffStats(cands, indices);
+    for (int d = 0; d < cands.length; d++)
+      assertEquals(actual[d], expected[d], cands[d]);
+    assertEquals(packed.score(actual), bleu.score(expected));
+  }
+
+  @Test
+  public void givenCandidates_whenComputingStats_thenTheyMatchBLEU() {
+    assertSameStats(4, "closest", 12);
+    assertSameStats(4, "shortest", 12);
+    assertSameStats(2, "closest", 3);
+  }
+
+  @Test
+  public void givenTooManyReferenceWordsToPack_whenComputingStats_thenTheyMatchBLEU() {
+    // 12-grams of 5-bit ids fit in a long, but those of 6-bit ids don't: the sentences with more
+    // than 31 distinct reference words keep string counts
+    assertSameStats(12, "closest", 40);
+  }
+}
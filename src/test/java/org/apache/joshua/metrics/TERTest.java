@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+public class TERTest {
+
+  private static int[] ids(String str) {
+    String[] words = str.split(" ");
+    int[] ids = new int[words.length];
+    for (int w = 0; w < words.length; w++)
+      ids[w] = words[w].charAt(0) - 'a';
+    return ids;
+  }
+
+  private static String[] words(String str) {
+    str = str.trim();
+    return str.isEmpty() ? new String[0] : str.split("\\s+");
+  }
+
+  private static int levenshtein(String[] hyp, String[] ref) {
+    int[][] d = new int[ref.length + 1][hyp.length + 1];
+    for (int i = 0; i <= ref.length; i++)
+      for (int j = 0; j <= hyp.length; j++)
+        d[i][j] = i == 0 || j == 0 ? i + j
+            : Math.min(d[i - 1][j - 1] + (ref[i - 1].equals(hyp[j - 1]) ? 0 : 1),
+                Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+    return d[ref.length][hyp.length];
+  }
+
+  /*
+   * Scores one candidate against its references with the given options and no tercom jar file,
+   * so that TER runs in-process.
+   */
+  private static int[] stats(String caseOption, String puncOption, int beamWidth,
+      int maxShiftDist, String cand, String... refs) {
+    EvaluationMetric.set_numSentences(1);
+    EvaluationMetric.set_refsPerSen(refs.length);
+    EvaluationMetric.set_refSentences(new String[][] { refs });
+    TER ter = new TER(new String[] { caseOption, puncOption, String.valueOf(beamWidth),
+        String.valueOf(maxShiftDist), "", "1" });
+    return ter.suffStats(cand, 0);
+  }
+
+  /*
+   * The expected statistics in the tests below were worked out by hand by following tercom
+   * 0.7.25's TERcalc search: its beam-limited edit distance, its pruning of candidate shifts by -d,
+   * and its greedy choice of the shift that reduces the edits the most. They have not been
+   * produced by tercom itself; see givenTercom_whenScoringFixtures_thenInProcessStatsMatchTercom.
+   */
+
+  @Test
+  public void givenMovedBlocks_whenComputingStats_thenTheyMatchTercom() {
+    // WHEN
+    int[] oneShift = stats("nocase", "punc", 20, 50, "on the mat the cat sat",
+        "the cat sat on the mat");
+    // "four five" moves to the front, then "three" is substituted
+    int[] shiftAndSubstitution = stats("nocase", "punc", 20, 50, "one two three four five",
+        "four five one two six");
+
+    // THEN
+    assertEquals(oneShift, new int[] { 1, 6 });
+    assertEquals(shiftAndSubstitution, new int[] { 2, 5 });
+  }
+
+  @Test
+  public void givenAWordShiftedSevenPlaces_whenComputingStats_thenMaxShiftDistDecidesAsInTercom() {
+    // GIVEN
+    String cand = "one two three four five six seven eight";
+    String ref = "two three four five six seven eight one";
+
+    // WHEN
+    int[] shiftAllowed = stats("nocase", "punc", 20, 7, cand, ref);
+    int[] shiftTooFar = stats("nocase", "punc", 20, 6, cand, ref);
+
+    // THEN
+    // tercom -d 6 can't move "one", so it is deleted and inserted
+    assertEquals(shiftAllowed, new int[] { 1, 8 });
+    assertEquals(shiftTooFar, new int[] { 2, 8 });
+  }
+
+  @Test
+  public void givenACandidateOffsetFromItsReference_whenComputingStats_thenTheBeamPrunesAsInTercom() {
+    // GIVEN
+    String cand = "the cat sat";
+    String ref = "we saw that the cat sat";
+
+    // WHEN
+    int[] wideBeam = stats("nocase", "punc", 20, 50, cand, ref);
+    int[] narrowBeam = stats("nocase", "punc", 1, 50, cand, ref);
+
+    // THEN
+    // with -b 1, the three deletions needed before the matches fall outside the beam
+    assertEquals(wideBeam, new int[] { 3, 6 });
+    assertEquals(narrowBeam, new int[] { 6, 6 });
+  }
+
+  @Test
+  public void givenTwoReferences_whenComputingStats_thenCaseAndPunctuationAreNormalizedAsInTercom() {
+    // GIVEN
+    String cand = "the cat sat on the mat";
+    String[] refs = { "The cat sat on the mat.", "On the mat, the cat sat ." };
+
+    // WHEN
+    int[] nocaseNopunc = stats("nocase", "nopunc", 20, 50, cand, refs);
+    int[] nocasePunc = stats("nocase", "punc", 20, 50, cand, refs);
+    int[] caseNopunc = stats("case", "nopunc", 20, 50, cand, refs);
+    int[] casePunc = stats("case", "punc", 20, 50, cand, refs);
+
+    // THEN
+    // the edits are those to the closest reference; the length is the average of both (truncated)
+    assertEquals(nocaseNopunc, new int[] { 0, 6 });
+    assertEquals(nocasePunc, new int[] { 1, 6 });
+    assertEquals(caseNopunc, new int[] { 1, 6 });
+    assertEquals(casePunc, new int[] { 2, 6 });
+  }
+
+  @Test
+  public void givenAMissingTercomJarFile_whenComputingStats_thenTERIsComputedInProcess() {
+    // GIVEN
+    EvaluationMetric.set_numSentences(1);
+    EvaluationMetric.set_refsPerSen(1);
+    EvaluationMetric.set_refSentences(new String[][] { { "the cat sat on the mat" } });
+
+    // WHEN
+    TER ter = new TER(new String[] { "nocase", "punc", "20", "50", "no-such-tercom.jar", "1" });
+
+    // THEN
+    assertEquals(ter.suffStats("on the mat the cat sat", 0), new int[] { 1, 6 });
+  }
+
+  @Test
+  public void givenShiftedBlocks_whenCountingEdits_thenEachShiftCostsOne() {
+    TERCalculator calculator = new TERCalculator(20, 50);
+    assertEquals(calculator.numEdits(ids("a b c d"), ids("a b c d")), 0);
+    assertEquals(calculator.numEdits(ids("a b c d"), ids("c d a b")), 1);
+    assertEquals(calculator.numEdits(ids("a b c d e"), ids("d e a b x")), 2);
+    assertEquals(calculator.numEdits(new int[0], ids("a b c")), 3);
+    assertEquals(calculator.numEdits(ids("a b c"), new int[0]), 3);
+  }
+
+  @Test
+  public void givenTheExampleOfTheTERPaper_whenComputingStats_thenThereAreFourEdits() {
+    // Snover et al. (2006): one shift, two substitutions and one deletion
+    EvaluationMetric.set_numSentences(1);
+    EvaluationMetric.set_refsPerSen(2);
+    EvaluationMetric.set_refSentences(new String[][] { {
+        "SAUDI ARABIA denied this week information published in the AMERICAN new york times .",
+        "saudi arabia denied reports" } });
+
+    TER ter = new TER(new String[] { "nocase", "nopunc", "20", "50", "", "2" });
+    int[] stats =
+        ter.suffStats("this week the saudis denied information published in the new york times",
+            0);
+    // the length is the average of 13 and 4 words
+    assertEquals(stats, new int[] { 4, 8 });
+
+    TER caseSensitive = new TER(new String[] { "case", "punc", "20", "50", "", "2" });
+    stats = caseSensitive.suffStats(
+        "this week the saudis denied information published in the new york times", 0);
+    assertEquals(stats, new int[] { 5, 9 });
+  }
+
+  @Test
+  public void givenRandomCandidates_whenComputingStats_thenShiftsOnlyRemoveEdits() {
+    Random random = new Random(7);
+    int sentences = 40;
+    EvaluationMetric.set_numSentences(sentences);
+    EvaluationMetric.set_refsPerSen(1);
+    String[][] refs = PackedBLEUTest.randomReferences(random, sentences, 1, 8);
+    EvaluationMetric.set_refSentences(refs);
+    TER ter = new TER(new String[] { "case", "punc", "20", "50", "", "2" });
+
+    String[] cands = new String[500];
+    int[] indices = new int[cands.length];
+    for (int d = 0; d < cands.length; d++) {
+      cands[d] = PackedBLEUTest.randomSentence(random, 10, 30);
+      indices[d] = random.nextInt(sentences);
+    }
+
+    int[][] stats = ter.suffStats(cands, indices);
+    for (int d = 0; d < cands.length; d++) {
+      assertEquals(stats[d], ter.suffStats(cands[d], indices[d]));
+
+      String[] hyp = words(cands[d]);
+      String[] ref = words(refs[indices[d]][0]);
+      assertTrue(stats[d][0] <= levenshtein(hyp, ref), cands[d]);
+      assertTrue(stats[d][0] >= Math.abs(hyp.length - ref.length), cands[d]);
+      assertEquals(stats[d][1], ref.length);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void givenMoreIndicesThanCandidates_whenComputingStats_thenThrows() {
+    // GIVEN
+    EvaluationMetric.set_numSentences(1);
+    EvaluationMetric.set_refsPerSen(1);
+    EvaluationMetric.set_refSentences(new String[][] { { "a b c" } });
+    TER ter = new TER(new String[] { "case", "punc", "20", "50", "", "1" });
+
+    // WHEN
+    ter.suffStats(new String[] { "a b c" }, new int[] { 0, 0 });
+  }
+
+  /* Candidates and their two references, covering shifts, -b, -d, case and punctuation */
+  private static final String[][] FIXTURES = {
+      { "on the mat the cat sat", "the cat sat on the mat", "a cat sat on a mat" },
+      { "one two three four five", "four five one two six", "one two six four five" },
+      { "one two three four five six seven eight", "two three four five six seven eight one",
+          "one two three four five six seven" },
+      { "the cat sat", "we saw that the cat sat", "the cat sat there" },
+      { "the cat sat on the mat", "The cat sat on the mat.", "On the mat, the cat sat ." },
+      { "this week the saudis denied information published in the new york times",
+          "SAUDI ARABIA denied this week information published in the AMERICAN new york times .",
+          "saudi arabia denied reports" } };
+
+  /*
+   * Compares the in-process statistics with tercom's own on the fixtures and on random sentences,
+   * for several settings of the options. It needs the tercom 0.7.25 jar, as in
+   * mvn test -Dtest=TERTest -Dtercom.jar=/path/to/tercom.7.25.jar, and is skipped without it.
+   */
+  @Test
+  public void givenTercom_whenScoringFixtures_thenInProcessStatsMatchTercom() {
+    String jar = System.getProperty("tercom.jar");
+    if (jar == null || !new File(jar).exists())
+      throw new SkipException("Skipping the comparison with tercom because -Dtercom.jar is not set");
+
+    // GIVEN
+    Random random = new Random(11);
+    int sentences = FIXTURES.length + 30;
+    String[][] refs = new String[sentences][];
+    String[] cands = new String[sentences];
+    int[] indices = new int[sentences];
+    String[][] randomRefs = PackedBLEUTest.randomReferences(random, sentences, 2, 8);
+    for (int i = 0; i < sentences; i++) {
+      indices[i] = i;
+      if (i < FIXTURES.length) {
+        cands[i] = FIXTURES[i][0];
+        refs[i] = new String[] { FIXTURES[i][1], FIXTURES[i][2] };
+      } else {
+        cands[i] = PackedBLEUTest.randomSentence(random, 10, 30);
+        refs[i] = randomRefs[i];
+      }
+    }
+    EvaluationMetric.set_numSentences(sentences);
+    EvaluationMetric.set_refsPerSen(2);
+    EvaluationMetric.set_refSentences(refs);
+
+    String[][] settings = { { "20", "50" }, { "1", "50" }, { "20", "6" }, { "20", "7" } };
+    for (String caseOption : new String[] { "case", "nocase" }) {
+      for (String puncOption : new String[] { "punc", "nopunc" }) {
+        for (String[] setting : settings) {
+          // WHEN
+          int[][] expected = new TER(new String[] { caseOption, puncOption, setting[0],
+              setting[1], jar, "1" }).suffStats(cands, indices);
+          int[][] actual = new TER(new String[] { caseOption, puncOption, setting[0],
+              setting[1], "", "1" }).suffStats(cands, indices);
+
+          // THEN
+          for (int i = 0; i < sentences; i++)
+            assertEquals(actual[i], expected[i], String.format("%s %s -b %s -d %s: %s",
+                caseOption, puncOption, setting[0], setting[1], cands[i]));
+        }
+      }
+    }
+  }
+}
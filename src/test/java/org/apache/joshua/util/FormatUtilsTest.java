@@ -23,11 +23,13 @@ import org.testng.annotations.Test;
 import static org.apache.joshua.util.FormatUtils.cleanNonTerminal;
 import static org.apache.joshua.util.FormatUtils.escapeSpecialSymbols;
 import static org.apache.joshua.util.FormatUtils.isNonterminal;
+import static org.apache.joshua.util.FormatUtils.splitFields;
+import static org.apache.joshua.util.FormatUtils.splitSpaces;
 import static org.apache.joshua.util.FormatUtils.ensureNonTerminalBrackets;
 import static org.apache.joshua.util.FormatUtils.stripNonTerminalIndex;
 import static org.apache.joshua.util.FormatUtils.unescapeSpecialSymbols;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
-import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 
 public class FormatUtilsTest {
@@ -73,4 +75,18 @@ public class FormatUtilsTest {
     assertEquals(unescapeSpecialSymbols("-lsb- -rsb- -pipe- -lsb-"), "[ ] | [");
   }
 
+  @Test
+  public void givenGrammarLines_whenSplitFields_thenSameAsRegexSplit() {
+    String[] lines = { "[X] ||| a b ||| c d ||| 0.1 0.2", "a ||| b ||| ", " ||| a", "a |||| b",
+        "a ||| ||| b", "no delimiter", "", "a\t|||\tb" };
+    for (String line : lines)
+      assertEquals(splitFields(line), line.split(Constants.fieldDelimiter));
+  }
+
+  @Test
+  public void givenStrings_whenSplitSpaces_thenSameAsRegexSplit() {
+    String[] strings = { "a b  c", " a b", "a b ", " ", "", "a\tb\nc", "single" };
+    for (String s : strings)
+      assertEquals(splitSpaces(s), s.split("\\s+"));
+  }
 }
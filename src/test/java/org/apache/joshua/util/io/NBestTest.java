@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util.io;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.annotations.Test;
+
+public class NBestTest {
+
+  private static final String TEXT =
+      "0 ||| the small house ||| tm_pt_0=-1.500 lm_0=-12.250 WordPenalty=-1.303 ||| -3.125\n"
+      + "0 ||| a small house ||| tm_pt_0=-2.000 lm_0=-13.000 WordPenalty=-1.303 ||| -3.600\n"
+      + "\n"
+      + "1 |||  ||| tm_pt_0=0.000 lm_0=0.000 WordPenalty=0.000 ||| 0.000\n"
+      + "2 ||| unnamed features |||  -1.000 2.500 |||\n";
+
+  private static List<NBestEntry> read(byte[] bytes) throws IOException {
+    List<NBestEntry> entries = new ArrayList<>();
+    try (NBestReader reader = new NBestReader(new ByteArrayInputStream(bytes))) {
+      for (NBestEntry entry : reader)
+        entries.add(entry);
+    }
+    return entries;
+  }
+
+  private static byte[] toBinary(List<NBestEntry> entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    NBestWriter writer = new NBestWriter(bytes);
+    for (NBestEntry entry : entries)
+      writer.write(entry);
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void givenTextLine_whenParsed_thenFieldsAreSplitLikeTheTuners() {
+    NBestEntry entry = NBestEntry.parse("3 |||  a b  c ||| x=1 y=2 ||| -4.5 ||| extra");
+    assertEquals(entry.getSentenceId(), 3);
+    assertEquals(entry.getHypothesis(), "a b  c");
+    assertEquals(entry.getWords(), new String[] { "a", "b", "c" });
+    assertEquals(entry.getFeatures(), "x=1 y=2");
+    assertEquals(entry.getFeatureNames(), new String[] { "x", "y" });
+    assertEquals(entry.getFeatureValues(), new float[] { 1.0f, 2.0f });
+    assertEquals(entry.getScore(), -4.5f);
+
+    entry = NBestEntry.parse("0 ||| a ||| Distortion= -1.000 b=0.5");
+    assertEquals(entry.getFeatureNames(), new String[] { "Distortion", "b" });
+    assertEquals(entry.getFeatureValues(), new float[] { -1.0f, 0.5f });
+    assertTrue(Float.isNaN(entry.getScore()));
+  }
+
+  @Test
+  public void givenTextList_whenConvertedToBinaryAndBack_thenTextIsUnchanged() throws IOException {
+    List<NBestEntry> text = read(TEXT.getBytes(StandardCharsets.UTF_8));
+    assertEquals(text.size(), 4);
+
+    byte[] binary = toBinary(text);
+    try (NBestReader reader = new NBestReader(new ByteArrayInputStream(binary))) {
+      assertTrue(reader.isBinary());
+    }
+
+    List<NBestEntry> entries = read(binary);
+    assertEquals(entries.size(), text.size());
+    for (int i = 0; i < entries.size(); i++)
+      assertEquals(entries.get(i).toString(), text.get(i).toString());
+    assertEquals(entries.get(2).getWords().length, 0);
+    assertEquals(entries.get(3).getFeatures(), "-1.000 2.500");
+  }
+
+  @Test
+  public void givenGzippedLists_whenRead_thenFormatIsDetected() throws IOException {
+    List<NBestEntry> text = read(TEXT.getBytes(StandardCharsets.UTF_8));
+    for (byte[] list : new byte[][] { TEXT.getBytes(StandardCharsets.UTF_8), toBinary(text) }) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+        gzip.write(list);
+      }
+      List<NBestEntry> entries = read(bytes.toByteArray());
+      assertEquals(entries.size(), text.size());
+      assertEquals(entries.get(1).toString(), text.get(1).toString());
+    }
+  }
+
+  @Test
+  public void givenEmptyInput_whenRead_thenThereAreNoEntries() throws IOException {
+    NBestReader reader = new NBestReader(new ByteArrayInputStream(new byte[0]));
+    assertFalse(reader.hasNext());
+    reader.close();
+  }
+}